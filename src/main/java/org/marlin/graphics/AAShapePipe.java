@@ -26,17 +26,22 @@ package org.marlin.graphics;
 
 import java.awt.BasicStroke;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import sun.awt.SunHints;
 import sun.java2d.ReentrantContext;
 import sun.java2d.ReentrantContextProvider;
+import sun.java2d.ReentrantContextProviderCLQ;
 import sun.java2d.ReentrantContextProviderTL;
 import sun.java2d.marlin.DMarlinRenderingEngine;
 import sun.java2d.SunGraphics2D;
 import sun.java2d.pipe.AATileGenerator;
 import sun.java2d.pipe.CompositePipe;
 import sun.java2d.pipe.ParallelogramPipe;
+import sun.java2d.pipe.Region;
 import sun.java2d.pipe.RenderingEngine;
 import sun.java2d.pipe.ShapeDrawPipe;
 
@@ -54,8 +59,121 @@ public final class AAShapePipe
     // Force using Marlin Rendering Engine:
     static final RenderingEngine RDR_ENGINE = new DMarlinRenderingEngine();
 
+    // Rendering engines per KEY_RENDERING value (quality tiers):
+    // each engine class has its own settings (subpixels) and renderer contexts
+    private static final RenderingEngine[] ENGINES = new RenderingEngine[3];
+
+    static {
+        ENGINES[SunHints.INTVAL_RENDER_DEFAULT]
+            = loadEngine("MarlinGraphics.engine.default", null);
+        // float variant (Marlin jar, JDK 9 to 15) is faster but less accurate:
+        ENGINES[SunHints.INTVAL_RENDER_SPEED]
+            = loadEngine("MarlinGraphics.engine.speed", "sun.java2d.marlin.MarlinRenderingEngine");
+        ENGINES[SunHints.INTVAL_RENDER_QUALITY]
+            = loadEngine("MarlinGraphics.engine.quality", null);
+    }
+
+    /**
+     * Load the rendering engine given by the system property (class name)
+     * or the default class name; use RDR_ENGINE if undefined or missing
+     */
+    private static RenderingEngine loadEngine(final String key, final String defClassName) {
+        String className = MarlinGraphics2D.getProperty(key);
+        if (className == null) {
+            className = defClassName;
+        }
+        if (className != null && !className.equals(RDR_ENGINE.getClass().getName())) {
+            try {
+                return (RenderingEngine) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (Throwable th) {
+                // missing class (JDK 16+ has only the double variant) or invalid engine:
+                if (MarlinGraphics2D.getProperty(key) != null) {
+                    MarlinGraphics2D.log("Unable to load the rendering engine [" + className + "]: " + th);
+                }
+            }
+        }
+        return RDR_ENGINE;
+    }
+
+    /**
+     * Returns the rendering engine for the given KEY_RENDERING value
+     * @param renderHint SunHints.INTVAL_RENDER_* value
+     * @return rendering engine
+     */
+    static RenderingEngine getEngine(final int renderHint) {
+        return ENGINES[renderHint];
+    }
+
+    /**
+     * Returns the SunHints.INTVAL_RENDER_* value of the given KEY_RENDERING value
+     * @param value RenderingHints.VALUE_RENDER_[DEFAULT|SPEED|QUALITY]
+     * @return SunHints.INTVAL_RENDER_* value
+     */
+    static int getRenderHint(final Object value) {
+        if (!RenderingHints.KEY_RENDERING.isCompatibleValue(value)) {
+            throw new IllegalArgumentException("Invalid KEY_RENDERING value: " + value);
+        }
+        return ((SunHints.Value) value).getIndex();
+    }
+
+    /**
+     * Returns true if the given stroke is thin (antialiased) under the given
+     * transform: device line width &lt;= minimum pen size of the engine, as
+     * computed by SunGraphics2D (STROKE_THIN or STROKE_THINDASHED)
+     * @param engine rendering engine
+     * @param bs stroke
+     * @param at transform
+     * @return true if the stroke is thin
+     */
+    static boolean isThinStroke(final RenderingEngine engine,
+                                final BasicStroke bs, final AffineTransform at) {
+        double widthSquared;
+        if ((at.getType() & (AffineTransform.TYPE_GENERAL_TRANSFORM
+                             | AffineTransform.TYPE_GENERAL_SCALE)) == 0) {
+            widthSquared = Math.abs(at.getDeterminant());
+        } else {
+            // maximum scale of the transform (squared):
+            final double a = at.getScaleX();
+            final double c = at.getShearX();
+            final double b = at.getShearY();
+            final double d = at.getScaleY();
+            final double ea = a * a + b * b;
+            final double eb = 2.0 * (a * c + b * d);
+            final double ec = c * c + d * d;
+            final double hypot = Math.sqrt(eb * eb + (ea - ec) * (ea - ec));
+            widthSquared = (ea + ec + hypot) / 2.0;
+        }
+        final double lw = bs.getLineWidth();
+        widthSquared *= lw * lw;
+
+        final double minPen = engine.getMinimumAAPenSize();
+        return (widthSquared <= minPen * minPen);
+    }
+
+    // aliased rendering: minimum alpha of painted pixels (50% coverage)
+    private static final int ALIASED_THRESHOLD = 0x80;
+    // aliased rendering: device offset of normalized shapes so pixels are
+    // painted if (x + 0.25, y + 0.25) is inside (like java2d normalization):
+    // no 50% coverage ties on half-integer edges and their corners
+    private static final double ALIASED_NORM_OFFSET = 0.25;
+    // aliased rendering: device offset of pure shapes sampled at pixel centers,
+    // breaking 50% coverage ties to the top-left (like java2d): larger than
+    // half a subpixel row (Marlin samples 8 subpixel rows per pixel)
+    private static final double ALIASED_PURE_OFFSET = -0.0634765625;
+    // aliased rendering: device offset of pure thin strokes (1 pixel wide pen)
+    // so pixels containing the path are painted
+    private static final double ALIASED_THIN_OFFSET = 0.5 + ALIASED_PURE_OFFSET;
+    // tile states returned by threshold():
+    private static final int TILE_EMPTY = 0x00;
+    private static final int TILE_MIXED = 0x80;
+    private static final int TILE_FULL = 0xff;
+
+    // default rectangle tile size (fast path):
+    static final int RECT_TILE_WIDTH = 128;
+    static final int RECT_TILE_HEIGHT = 32;
+
     // Per-thread TileState (~1K very small so do not use any Weak Reference)
-    private static final ReentrantContextProvider<TileState> TILE_STATE_PROVIDER =
+    private static final ReentrantContextProvider<TileState> TILE_STATE_PROVIDER_TL =
             new ReentrantContextProviderTL<TileState>(
                     ReentrantContextProvider.REF_HARD)
             {
@@ -65,18 +183,53 @@ public final class AAShapePipe
                 }
             };
 
+    // Shared TileState queue (virtual threads: as many contexts as concurrent renderings)
+    private static final ReentrantContextProvider<TileState> TILE_STATE_PROVIDER_CLQ =
+            new ReentrantContextProviderCLQ<TileState>(
+                    ReentrantContextProvider.REF_HARD)
+            {
+                @Override
+                protected TileState newContext() {
+                    return new TileState();
+                }
+            };
+
     final CompositePipe outpipe;
+    // rectangle tile size (fast path):
+    private final int rectTileWidth;
+    private final int rectTileHeight;
+
+    // context providers (ThreadLocal or ConcurrentLinkedQueue):
+    private final ReentrantContextProvider<TileState> tileStateProvider;
+    private final ReentrantContextProvider<HairlineRenderer.HairlineState> hairlineStateProvider;
 
     public AAShapePipe(CompositePipe pipe) {
+        this(pipe, RECT_TILE_WIDTH, true);
+    }
+
+    public AAShapePipe(CompositePipe pipe, int rectTileWidth, boolean useThreadLocal) {
         outpipe = pipe;
+        this.rectTileWidth = rectTileWidth;
+        this.rectTileHeight = Math.min(RECT_TILE_HEIGHT, rectTileWidth);
+        this.tileStateProvider = (useThreadLocal) ? TILE_STATE_PROVIDER_TL : TILE_STATE_PROVIDER_CLQ;
+        this.hairlineStateProvider = HairlineRenderer.getStateProvider(useThreadLocal);
     }
 
     @Override
     public void draw(SunGraphics2D sg, Shape s) {
-        final BasicStroke bs;
+        BasicStroke bs;
 
         if (sg.stroke instanceof BasicStroke) {
             bs = (BasicStroke) sg.stroke;
+
+            if (ClipDasher.ENABLED && (bs.getDashArray() != null)) {
+                // dash only the visible part of paths much larger than the clip:
+                final Shape dashed = ClipDasher.dash(s, bs, sg.transform, sg.getCompClip());
+                if (dashed != null) {
+                    s = dashed;
+                    bs = ClipDasher.undashed(bs);
+                }
+            }
         } else {
             s = sg.stroke.createStrokedShape(s);
             bs = null;
@@ -98,19 +251,19 @@ public final class AAShapePipe
                                   double dx1, double dy1,
                                   double dx2, double dy2)
     {
-        final TileState ts = TILE_STATE_PROVIDER.acquire();
+        final TileState ts = tileStateProvider.acquire();
         try {
             final int[] abox = ts.abox;
 
             final AATileGenerator aatg =
-                RDR_ENGINE.getAATileGenerator(x, y, dx1, dy1, dx2, dy2, 0, 0,
+                ENGINES[sg.renderHint].getAATileGenerator(x, y, dx1, dy1, dx2, dy2, 0, 0,
                                                 sg.getCompClip(), abox);
             if (aatg != null) {
                 renderTiles(sg, ts.computeBBox(ux1, uy1, ux2, uy2),
                             aatg, abox, ts);
             }
         } finally {
-            TILE_STATE_PROVIDER.release(ts);
+            tileStateProvider.release(ts);
         }
     }
 
@@ -123,12 +276,12 @@ public final class AAShapePipe
                                   double dx2, double dy2,
                                   double lw1, double lw2)
     {
-        final TileState ts = TILE_STATE_PROVIDER.acquire();
+        final TileState ts = tileStateProvider.acquire();
         try {
             final int[] abox = ts.abox;
 
             final AATileGenerator aatg =
-                RDR_ENGINE.getAATileGenerator(x, y, dx1, dy1, dx2, dy2, lw1,
+                ENGINES[sg.renderHint].getAATileGenerator(x, y, dx1, dy1, dx2, dy2, lw1,
                                                 lw2, sg.getCompClip(), abox);
             if (aatg != null) {
                 // Note that bbox is of the original shape, not the wide path.
@@ -137,27 +290,73 @@ public final class AAShapePipe
                             aatg, abox, ts);
             }
         } finally {
-            TILE_STATE_PROVIDER.release(ts);
+            tileStateProvider.release(ts);
         }
     }
 
+    /**
+     * Draws the given shape with a thin line (device line width &lt;= 1.5)
+     * using the HairlineRenderer instead of the rendering engine
+     */
+    public void drawHairline(SunGraphics2D sg, Shape s, double lw, int cap) {
+        HairlineRenderer.draw(hairlineStateProvider, outpipe, sg, s, lw, cap);
+    }
+
+    /**
+     * Fills the given shape using the given transform instead of the
+     * graphics transform (stroked outlines already in device space)
+     */
+    public void fill(SunGraphics2D sg, Shape s, AffineTransform at) {
+        renderPath(sg, s, at, null);
+    }
+
     public void renderPath(SunGraphics2D sg, Shape s, BasicStroke bs) {
-        final boolean adjust = (bs != null &&
-                          sg.strokeHint != SunHints.INTVAL_STROKE_PURE);
-        final boolean thin = (sg.strokeState <= SunGraphics2D.STROKE_THINDASHED);
+        renderPath(sg, s, sg.transform, bs);
+    }
 
-        final TileState ts = TILE_STATE_PROVIDER.acquire();
+    /**
+     * Returns the device offset of the given shape in aliased mode
+     * @param sg graphics
+     * @param thinStroke true if a thin stroke is drawn with a 1 pixel wide pen
+     * @return device offset
+     */
+    private static double getAliasedOffset(final SunGraphics2D sg, final boolean thinStroke) {
+        if (sg.strokeHint != SunHints.INTVAL_STROKE_PURE) {
+            return ALIASED_NORM_OFFSET;
+        }
+        return (thinStroke) ? ALIASED_THIN_OFFSET : ALIASED_PURE_OFFSET;
+    }
+
+    private void renderPath(SunGraphics2D sg, Shape s, AffineTransform at, BasicStroke bs) {
+        boolean adjust = (bs != null &&
+                    sg.strokeHint != SunHints.INTVAL_STROKE_PURE);
+        boolean thin = (sg.strokeState <= SunGraphics2D.STROKE_THINDASHED);
+
+        final TileState ts = tileStateProvider.acquire();
         try {
             final int[] abox = ts.abox;
 
+            if (sg.antialiasHint == SunHints.INTVAL_ANTIALIAS_OFF) {
+                // aliased mode (java2d non-antialiased rules): the offset
+                // replaces the normalization (snapped to pixel centers)
+                adjust = false;
+                final boolean thinStroke = (bs != null) && thin;
+                if (thinStroke) {
+                    // thin strokes use a 1 pixel wide pen (not the minimum AA pen):
+                    bs = ts.getAliasedStroke(bs, at);
+                    thin = false;
+                }
+                at = ts.getAliasedTransform(at, getAliasedOffset(sg, thinStroke));
+            }
+
             final AATileGenerator aatg =
-                RDR_ENGINE.getAATileGenerator(s, sg.transform, sg.getCompClip(),
+                ENGINES[sg.renderHint].getAATileGenerator(s, at, sg.getCompClip(),
                                                 bs, thin, adjust, abox);
             if (aatg != null) {
                 renderTiles(sg, s, aatg, abox, ts);
             }
         } finally {
-            TILE_STATE_PROVIDER.release(ts);
+            tileStateProvider.release(ts);
         }
     }
 
@@ -165,6 +364,9 @@ public final class AAShapePipe
                             final AATileGenerator aatg,
                             final int[] abox, final TileState ts)
     {
+        // non-antialiased rendering (aliased mode) uses thresholded coverage:
+        final boolean aliased = (sg.antialiasHint == SunHints.INTVAL_ANTIALIAS_OFF);
+        final Object event = RenderEvents.beginTiles();
         Object context = null;
         try {
             // reentrance: outpipe may also use AAShapePipe:
@@ -184,6 +386,10 @@ public final class AAShapePipe
             // get tile from thread local storage:
             final byte[] alpha = ts.getAlphaTile(tw * th);
             byte[] atile;
+            // tile statistics (events):
+            int tiles = 0;
+            int emptyTiles = 0;
+            int fullTiles = 0;
 
             for (int y = y0; y < y1; y += th) {
                 final int h = Math.min(th, y1 - y);
@@ -192,25 +398,45 @@ public final class AAShapePipe
                     final int w = Math.min(tw, x1 - x);
 
                     final int a = aatg.getTypicalAlpha();
+                    tiles++;
 
                     if (a == 0x00 || !outpipe.needTile(context, x, y, w, h)) {
                         aatg.nextTile();
                         outpipe.skipTile(context, x, y);
+                        emptyTiles++;
                         continue;
                     }
                     if (a == 0xff) {
                         atile = null;
                         aatg.nextTile();
+                        fullTiles++;
                     } else {
                         atile = alpha;
                         // could use w instead of tw (useless padding):
                         aatg.getAlpha(alpha, 0, tw);
+
+                        if (aliased) {
+                            final int t = threshold(alpha, tw, w, h);
+                            if (t == TILE_EMPTY) {
+                                outpipe.skipTile(context, x, y);
+                                emptyTiles++;
+                                continue;
+                            }
+                            if (t == TILE_FULL) {
+                                atile = null;
+                                fullTiles++;
+                            }
+                        }
                     }
 
                     // could use w instead of tw (useless padding):
                     outpipe.renderPathTile(context, atile, 0, tw, x, y, w, h);
                 }
             }
+            if (event != null) {
+                RenderEvents.commitTiles(event, x1 - x0, y1 - y0,
+                                         tiles, emptyTiles, fullTiles, aliased);
+            }
         } finally {
             aatg.dispose();
             if (context != null) {
@@ -219,6 +445,196 @@ public final class AAShapePipe
         }
     }
 
+    /**
+     * Fills the axis-aligned device-space rectangle [ox0, ox1] x [oy0, oy1]
+     * minus the optional inner rectangle [ix0, ix1] x [iy0, iy1] (hole)
+     * without using the rendering engine: tiles are directly given to the
+     * CompositePipe and the coverage is only computed for pixels on
+     * fractional edges (no coverage for integer rectangles).
+     * Note: the clip must be rectangular (no shape clip)
+     */
+    public void fillRect(final SunGraphics2D sg, final Shape s,
+                         final double ox0, final double oy0,
+                         final double ox1, final double oy1,
+                         final boolean hole,
+                         final double ix0, final double iy0,
+                         final double ix1, final double iy1)
+    {
+        if (sg.antialiasHint == SunHints.INTVAL_ANTIALIAS_OFF) {
+            // aliased mode: same offset as the rendering engine
+            final double o = getAliasedOffset(sg, false);
+            fillRect(sg, s, ox0 + o, oy0 + o, ox1 + o, oy1 + o,
+                     hole, ix0 + o, iy0 + o, ix1 + o, iy1 + o, true);
+        } else {
+            fillRect(sg, s, ox0, oy0, ox1, oy1, hole, ix0, iy0, ix1, iy1, false);
+        }
+    }
+
+    private void fillRect(final SunGraphics2D sg, final Shape s,
+                          final double ox0, final double oy0,
+                          final double ox1, final double oy1,
+                          final boolean hole,
+                          final double ix0, final double iy0,
+                          final double ix1, final double iy1,
+                          final boolean aliased)
+    {
+        final Region clip = sg.getCompClip();
+
+        // pixel bounds (clipped):
+        final int px0 = Math.max(clip.getLoX(), (int) Math.floor(ox0));
+        final int py0 = Math.max(clip.getLoY(), (int) Math.floor(oy0));
+        final int px1 = Math.min(clip.getHiX(), (int) Math.ceil(ox1));
+        final int py1 = Math.min(clip.getHiY(), (int) Math.ceil(oy1));
+
+        if ((px0 >= px1) || (py0 >= py1)) {
+            return;
+        }
+
+        // fully covered pixels (outer rectangle):
+        final int fx0 = (int) Math.ceil(ox0);
+        final int fy0 = (int) Math.ceil(oy0);
+        final int fx1 = (int) Math.floor(ox1);
+        final int fy1 = (int) Math.floor(oy1);
+
+        // pixels touched by the hole / fully inside the hole:
+        final int hx0, hy0, hx1, hy1, hfx0, hfy0, hfx1, hfy1;
+        if (hole) {
+            hx0 = (int) Math.floor(ix0);
+            hy0 = (int) Math.floor(iy0);
+            hx1 = (int) Math.ceil(ix1);
+            hy1 = (int) Math.ceil(iy1);
+            hfx0 = (int) Math.ceil(ix0);
+            hfy0 = (int) Math.ceil(iy0);
+            hfx1 = (int) Math.floor(ix1);
+            hfy1 = (int) Math.floor(iy1);
+        } else {
+            hx0 = hy0 = hx1 = hy1 = hfx0 = hfy0 = hfx1 = hfy1 = 0;
+        }
+
+        final TileState ts = tileStateProvider.acquire();
+        Object context = null;
+        try {
+            final int[] abox = ts.abox;
+            abox[0] = px0;
+            abox[1] = py0;
+            abox[2] = px1;
+            abox[3] = py1;
+
+            // split rows / columns at coverage changes
+            // to isolate fractional edges:
+            final int[] xs = ts.rectXs;
+            final int nx = ts.breakPoints(xs, px0, px1, fx0, fx1,
+                                          hole, hx0, hx1, hfx0, hfx1);
+            final int[] ys = ts.rectYs;
+            final int ny = ts.breakPoints(ys, py0, py1, fy0, fy1,
+                                          hole, hy0, hy1, hfy0, hfy1);
+
+            context = outpipe.startSequence(sg, s, ts.computeDevBox(abox), abox);
+
+            final int tileWidth = rectTileWidth;
+            final int tileHeight = rectTileHeight;
+            final byte[] alpha = ts.getAlphaTile(tileWidth * tileHeight);
+
+            for (int j = 0; j < ny; j++) {
+                final int cy1 = ys[j + 1];
+
+                for (int y = ys[j]; y < cy1; y += tileHeight) {
+                    final int h = Math.min(tileHeight, cy1 - y);
+                    final int y1 = y + h;
+
+                    for (int i = 0; i < nx; i++) {
+                        final int cx1 = xs[i + 1];
+
+                        for (int x = xs[i]; x < cx1; x += tileWidth) {
+                            final int w = Math.min(tileWidth, cx1 - x);
+                            final int x1 = x + w;
+
+                            if (hole && (x >= hfx0) && (x1 <= hfx1)
+                                    && (y >= hfy0) && (y1 <= hfy1)) {
+                                // tile inside the hole:
+                                outpipe.skipTile(context, x, y);
+                                continue;
+                            }
+                            if (!outpipe.needTile(context, x, y, w, h)) {
+                                outpipe.skipTile(context, x, y);
+                                continue;
+                            }
+                            byte[] atile;
+
+                            if ((x >= fx0) && (x1 <= fx1) && (y >= fy0) && (y1 <= fy1)
+                                    && (!hole || (x1 <= hx0) || (x >= hx1)
+                                        || (y1 <= hy0) || (y >= hy1)))
+                            {
+                                // full coverage:
+                                atile = null;
+                            } else {
+                                atile = alpha;
+                                int off = 0;
+                                for (int py = y; py < y1; py++) {
+                                    final double cy = coverage(oy0, oy1, py);
+                                    final double chy = (hole) ? coverage(iy0, iy1, py) : 0.0;
+
+                                    for (int px = x; px < x1; px++) {
+                                        double c = coverage(ox0, ox1, px) * cy;
+                                        if (hole) {
+                                            c -= coverage(ix0, ix1, px) * chy;
+                                        }
+                                        alpha[off++] = (byte) (255.0 * c + 0.5);
+                                    }
+                                }
+                                if (aliased) {
+                                    final int t = threshold(alpha, w, w, h);
+                                    if (t == TILE_EMPTY) {
+                                        outpipe.skipTile(context, x, y);
+                                        continue;
+                                    }
+                                    if (t == TILE_FULL) {
+                                        atile = null;
+                                    }
+                                }
+                            }
+                            outpipe.renderPathTile(context, atile, 0, w, x, y, w, h);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (context != null) {
+                outpipe.endSequence(context);
+            }
+            tileStateProvider.release(ts);
+        }
+    }
+
+    /**
+     * Converts the given alpha tile into solid coverage (0x00 or 0xff)
+     * with the 50% threshold (aliased rendering)
+     * @return TILE_EMPTY, TILE_FULL or TILE_MIXED
+     */
+    static int threshold(final byte[] tile, final int scan,
+                         final int w, final int h)
+    {
+        int or = 0x00;
+        int and = 0xff;
+        for (int j = 0, off = 0; j < h; j++, off += scan) {
+            for (int i = off, end = off + w; i < end; i++) {
+                final int a = ((tile[i] & 0xff) >= ALIASED_THRESHOLD) ? 0xff : 0x00;
+                tile[i] = (byte) a;
+                or |= a;
+                and &= a;
+            }
+        }
+        return (or == 0x00) ? TILE_EMPTY : ((and == 0xff) ? TILE_FULL : TILE_MIXED);
+    }
+
+    /**
+     * Returns the coverage of the pixel [p; p + 1] by the range [a; b]
+     */
+    private static double coverage(final double a, final double b, final int p) {
+        final double c = Math.min(b, p + 1) - Math.max(a, p);
+        return (c > 0.0) ? c : 0.0;
+    }
+
     // Tile state used by AAShapePipe
     static final class TileState extends ReentrantContext {
         // cached tile (32 x 32 tile by default)
@@ -229,6 +645,40 @@ public final class AAShapePipe
         private final Rectangle dev = new Rectangle();
         // dirty bbox rectangle2D.Double
         private final Rectangle2D.Double bbox2D = new Rectangle2D.Double();
+        // rectangle break points (fast path)
+        final int[] rectXs = new int[10];
+        final int[] rectYs = new int[10];
+        // aliased mode: device transform with offset
+        private final AffineTransform aliasedAt = new AffineTransform();
+        // aliased mode: last thin stroke and its 1 pixel wide variant
+        private BasicStroke thinStroke = null;
+        private double thinScale = 0.0;
+        private BasicStroke aliasedStroke = null;
+
+        /**
+         * Returns the given transform translated by the given device offset
+         */
+        AffineTransform getAliasedTransform(final AffineTransform at, final double offset) {
+            final AffineTransform aat = aliasedAt;
+            aat.setTransform(at.getScaleX(), at.getShearY(), at.getShearX(), at.getScaleY(),
+                             at.getTranslateX() + offset, at.getTranslateY() + offset);
+            return aat;
+        }
+
+        /**
+         * Returns the given thin stroke with a 1 pixel wide pen (device space)
+         */
+        BasicStroke getAliasedStroke(final BasicStroke bs, final AffineTransform at) {
+            final double scale = Math.sqrt(Math.abs(at.getDeterminant()));
+            if ((bs != thinStroke) || (scale != thinScale)) {
+                aliasedStroke = new BasicStroke((scale > 0.0) ? (float) (1.0 / scale) : 1f,
+                        bs.getEndCap(), bs.getLineJoin(), bs.getMiterLimit(),
+                        bs.getDashArray(), bs.getDashPhase());
+                thinStroke = bs;
+                thinScale = scale;
+            }
+            return aliasedStroke;
+        }
 
         byte[] getAlphaTile(int len) {
             byte[] t = theTile;
@@ -248,6 +698,45 @@ public final class AAShapePipe
             return box;
         }
 
+        /**
+         * Stores the sorted distinct break points in [lo; hi] into the given array
+         * @return number of intervals
+         */
+        int breakPoints(final int[] pts, final int lo, final int hi,
+                        final int f0, final int f1,
+                        final boolean hole,
+                        final int h0, final int h1,
+                        final int hf0, final int hf1)
+        {
+            int n = 0;
+            pts[n++] = lo;
+            pts[n++] = hi;
+            n = addPoint(pts, n, lo, hi, f0);
+            n = addPoint(pts, n, lo, hi, f1);
+            if (hole) {
+                n = addPoint(pts, n, lo, hi, h0);
+                n = addPoint(pts, n, lo, hi, h1);
+                n = addPoint(pts, n, lo, hi, hf0);
+                n = addPoint(pts, n, lo, hi, hf1);
+            }
+            Arrays.sort(pts, 0, n);
+            return n - 1;
+        }
+
+        private static int addPoint(final int[] pts, int n,
+                                    final int lo, final int hi, final int p)
+        {
+            if (p > lo && p < hi) {
+                for (int i = 0; i < n; i++) {
+                    if (pts[i] == p) {
+                        return n;
+                    }
+                }
+                pts[n++] = p;
+            }
+            return n;
+        }
+
         Rectangle2D computeBBox(double ux1, double uy1,
                                 double ux2, double uy2)
         {
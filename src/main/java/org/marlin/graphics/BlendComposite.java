@@ -28,6 +28,8 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import sun.java2d.loops.SurfaceType;
 
 public final class BlendComposite {
@@ -44,6 +46,13 @@ public final class BlendComposite {
     public final static int NORM_ALPHA = (NORM_BYTE * NORM_BYTE7); // 32385 = 255 x 127
     public final static int NORM_GAMMA = (1 << 15) - 1; // 32767
 
+    /* memo cache of blended pixels for solid colors */
+    final static boolean USE_MEMO = MarlinGraphics2D.getBoolean("MarlinGraphics.blendMemo", "true");
+    /* memo cache statistics (default config instrumentation ie MarlinGraphics.debug) */
+    final static boolean DO_MEMO_STATS = MarlinGraphicsConfig.getDefault().isInstrumentation();
+    private final static AtomicLong MEMO_LOOKUPS = new AtomicLong();
+    private final static AtomicLong MEMO_HITS = new AtomicLong();
+
     private final static BlendComposite BLEND_SRC_OVER_NO_EXTRA_ALPHA
                                         = new BlendComposite(BlendComposite.BlendingMode.SRC_OVER, 1f);
 
@@ -51,6 +60,32 @@ public final class BlendComposite {
         return "_gam_" + GAMMA;
     }
 
+    /**
+     * @return number of blend memo cache lookups (instrumentation only)
+     */
+    public static long getMemoLookups() {
+        return MEMO_LOOKUPS.get();
+    }
+
+    /**
+     * @return number of blend memo cache hits (instrumentation only)
+     */
+    public static long getMemoHits() {
+        return MEMO_HITS.get();
+    }
+
+    public static void resetMemoStatistics() {
+        MEMO_LOOKUPS.set(0L);
+        MEMO_HITS.set(0L);
+    }
+
+    static String getMemoStatistics() {
+        final long lookups = MEMO_LOOKUPS.get();
+        final long hits = MEMO_HITS.get();
+        return "blend memo: " + hits + " hits / " + lookups + " lookups ("
+                + ((lookups != 0L) ? (100L * hits) / lookups : 0L) + " %)";
+    }
+
     static class GammaLUT {
 
         final int[] dir = new int[NORM_BYTE + 1];
@@ -119,28 +154,22 @@ public final class BlendComposite {
         return this.extraAlpha != 1f;
     }
 
-    public BlendingContext createContext(final SurfaceType sdt) {
-        // use ThreadLocal (to reduce memory footprint):
-        return blendContextThreadLocal.get().init(this, sdt);
-    }
-
     /**
-     * Per-thread BlendingContext (very small so do not use any Soft or Weak Reference)
+     * Returns the blending context for the given surface type
+     * using the given cache (owned by the caller's rendering context)
      */
-    private static final ThreadLocal<BlendingContextCache> blendContextThreadLocal = new ThreadLocal<BlendingContextCache>() {
-        @Override
-        protected BlendingContextCache initialValue() {
-            return new BlendingContextCache();
-        }
-    };
+    BlendingContext createContext(final SurfaceType sdt, final BlendingContextCache cache) {
+        return cache.init(this, sdt);
+    }
 
     static final class BlendingContextCache {
 
         private BlendingContextIntARGB bcInt = null;
         private BlendingContextByteABGR bcByte = null;
+        private BlendingContextOpaque bcOpaque = null;
 
         BlendingContextCache() {
-            // ThreadLocal constructor
+            // rendering context constructor
         }
 
         BlendingContext init(final BlendComposite composite, final SurfaceType sdt) {
@@ -154,11 +183,124 @@ public final class BlendComposite {
                     bcByte = new BlendingContextByteABGR();
                 }
                 return bcByte.init(composite);
+            } else if (BlendingContextOpaque.isSupported(sdt)) {
+                if (bcOpaque == null) {
+                    bcOpaque = new BlendingContextOpaque();
+                }
+                return bcOpaque.init(composite, sdt);
             }
             return null;
         }
     }
 
+    /**
+     * Small direct-mapped cache of blended pixels for a solid color:
+     * key = (destination pixel, coverage) so repeated triples (flat
+     * backgrounds, same edge coverage) skip the LUT lookups and divisions.
+     * The owner must clear it when the source color changes.
+     */
+    static final class MemoCache {
+
+        private final static int BITS = 8;
+        private final static int SIZE = 1 << BITS;
+        private final static int SHIFT = 32 - BITS;
+
+        /* members */
+        private final int[] keys = new int[SIZE];
+        // coverage in [1; 255] (0 means empty slot):
+        private final int[] coverages = new int[SIZE];
+        private final int[] results = new int[SIZE];
+        // last blended pixel (source + destination + coverage):
+        private int lastSrc;
+        private int lastDst;
+        // coverage in [1; 255] (0 means empty slot):
+        private int lastAm = 0;
+        private int lastResult;
+        // statistics (DO_MEMO_STATS):
+        private int lookups = 0;
+        private int hits = 0;
+
+        MemoCache() {
+            // rendering context constructor
+        }
+
+        /**
+         * @return slot index for the given key and coverage (Fibonacci hashing)
+         */
+        static int index(final int key, final int am) {
+            return ((key ^ (am << 24) ^ am) * 0x9E3779B1) >>> SHIFT;
+        }
+
+        boolean matches(final int i, final int key, final int am) {
+            if (DO_MEMO_STATS) {
+                lookups++;
+            }
+            if ((coverages[i] == am) && (keys[i] == key)) {
+                if (DO_MEMO_STATS) {
+                    hits++;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        int get(final int i) {
+            return results[i];
+        }
+
+        int put(final int i, final int key, final int am, final int result) {
+            keys[i] = key;
+            coverages[i] = am;
+            results[i] = result;
+            return result;
+        }
+
+        /**
+         * Check the last blended pixel (any source)
+         */
+        boolean matchesLast(final int src, final int dst, final int am) {
+            if (DO_MEMO_STATS) {
+                lookups++;
+            }
+            if ((lastAm == am) && (lastSrc == src) && (lastDst == dst)) {
+                if (DO_MEMO_STATS) {
+                    hits++;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        int getLast() {
+            return lastResult;
+        }
+
+        int putLast(final int src, final int dst, final int am, final int result) {
+            lastSrc = src;
+            lastDst = dst;
+            lastAm = am;
+            lastResult = result;
+            return result;
+        }
+
+        void clear() {
+            Arrays.fill(coverages, 0);
+            lastAm = 0;
+        }
+
+        /**
+         * Report local statistics to the global counters
+         */
+        void flushStats() {
+            if (DO_MEMO_STATS && (lookups != 0)) {
+                MEMO_LOOKUPS.addAndGet(lookups);
+                MEMO_HITS.addAndGet(hits);
+                lookups = 0;
+                hits = 0;
+            }
+        }
+    }
+
     static abstract class BlendingContext {
 
         BlendingContext() {
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import static org.marlin.graphics.BlendComposite.NORM_ALPHA;
+
+/**
+ * Division-free fixed-point arithmetic used by the blending kernels:
+ * x / d is computed as (x * M) >> S where M = ceil(2^S / d) is exact
+ * (floor division) when x * (M * d - 2^S) < 2^S, ie for the given ranges
+ * of non-negative values (see BlendMathTest).
+ */
+final class BlendMath {
+
+    private final static int DIV255_SHIFT = 31;
+    private final static long DIV255_MAGIC = magic(255, DIV255_SHIFT);
+
+    private final static int DIV127_SHIFT = 22;
+    private final static int DIV127_MAGIC = (int) magic(127, DIV127_SHIFT);
+
+    private final static int DIV_ALPHA_SHIFT = 46;
+    private final static long DIV_ALPHA_MAGIC = magic(NORM_ALPHA, DIV_ALPHA_SHIFT);
+
+    /** reciprocal shift */
+    final static int RECIP_SHIFT = 46;
+    /** reciprocal table: ceil(2^46 / alpha) for alpha in [1; 32385] */
+    final static long[] RECIP_ALPHA = new long[NORM_ALPHA + 1];
+
+    static {
+        for (int d = 1; d <= NORM_ALPHA; d++) {
+            RECIP_ALPHA[d] = magic(d, RECIP_SHIFT);
+        }
+    }
+
+    private BlendMath() {
+        // forbidden
+    }
+
+    static long magic(final int d, final int shift) {
+        return ((1L << shift) + d - 1L) / d;
+    }
+
+    /**
+     * @param x value in [0; 2^23[ (covers 255 x 32385)
+     * @return x / 255
+     */
+    static int div255(final int x) {
+        return (int) ((x * DIV255_MAGIC) >>> DIV255_SHIFT);
+    }
+
+    /**
+     * @param x value in [0; 32385]
+     * @return x / 127
+     */
+    static int div127(final int x) {
+        return (x * DIV127_MAGIC) >>> DIV127_SHIFT;
+    }
+
+    /**
+     * @param x value in [0; 2^30[ (covers 32767 x 32385)
+     * @return x / 32385
+     */
+    static int divNormAlpha(final int x) {
+        return (int) ((x * DIV_ALPHA_MAGIC) >>> DIV_ALPHA_SHIFT);
+    }
+
+    /**
+     * @param x value in [0; 32768 x alpha[
+     * @param recip reciprocal of alpha ie RECIP_ALPHA[alpha]
+     * @return x / alpha
+     */
+    static int divAlpha(final int x, final long recip) {
+        return (int) ((x * recip) >>> RECIP_SHIFT);
+    }
+}
@@ -25,6 +25,7 @@
 package org.marlin.graphics;
 
 import java.awt.image.Raster;
+import java.nio.ByteBuffer;
 import java.awt.image.WritableRaster;
 import static org.marlin.graphics.BlendComposite.GAMMA_LUT;
 import static org.marlin.graphics.BlendComposite.NORM_ALPHA;
@@ -32,6 +33,12 @@ import static org.marlin.graphics.BlendComposite.NORM_BYTE;
 import static org.marlin.graphics.BlendComposite.NORM_BYTE7;
 import static org.marlin.graphics.BlendComposite.NORM_GAMMA;
 import static org.marlin.graphics.BlendComposite.TILE_WIDTH;
+import static org.marlin.graphics.BlendComposite.USE_MEMO;
+import static org.marlin.graphics.BlendMath.RECIP_ALPHA;
+import static org.marlin.graphics.BlendMath.div127;
+import static org.marlin.graphics.BlendMath.div255;
+import static org.marlin.graphics.BlendMath.divAlpha;
+import static org.marlin.graphics.BlendMath.divNormAlpha;
 
 final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
 
@@ -50,6 +57,16 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
     // horiz arrays:
     private byte[] _srcPixels = new byte[TILE_WIDTH << 2];
     private byte[] _dstPixels = new byte[TILE_WIDTH << 2];
+    // solid color tables indexed by coverage (fill):
+    private final int[] _fs = new int[NORM_BYTE + 1];
+    private final int[] _fsR = new int[NORM_BYTE + 1];
+    private final int[] _fsG = new int[NORM_BYTE + 1];
+    private final int[] _fsB = new int[NORM_BYTE + 1];
+    private boolean _solidValid = false;
+    private int _solidRGBA;
+    private int _solidExtraAlpha;
+    // blended pixels for the solid color (fill):
+    private final BlendComposite.MemoCache _memo = new BlendComposite.MemoCache();
 
     BlendingContextByteABGR() {
         // ThreadLocal constructor
@@ -82,6 +99,293 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
         return t;
     }
 
+    /**
+     * Prepares the solid color tables (source factor per coverage value)
+     */
+    private void prepareSolid(final int srcRGBA) {
+        final int extraAlpha = this._extraAlpha; // 7 bits
+
+        if (_solidValid && (srcRGBA == _solidRGBA) && (extraAlpha == _solidExtraAlpha)) {
+            return;
+        }
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int[] fsT = _fs;
+        final int[] fsR = _fsR;
+        final int[] fsG = _fsG;
+        final int[] fsB = _fsB;
+
+        // Gamma-correction on Linear RGBA:
+        // color components in range [0; 32767]
+        final int sr = gamma_dir[(srcRGBA >> 16) & NORM_BYTE];
+        final int sg = gamma_dir[(srcRGBA >> 8) & NORM_BYTE];
+        final int sb = gamma_dir[(srcRGBA) & NORM_BYTE];
+        final int sa = (srcRGBA >> 24) & NORM_BYTE;
+
+        int fs;
+        for (int am = 0; am <= NORM_BYTE; am++) {
+            // fade operator:
+            // alpha in range [0; 32385] (15bits)
+            fs = div255(sa * am * extraAlpha);
+            fsT[am] = fs;
+            // no overflow: 15b + 15b < 31b
+            fsR[am] = sr * fs;
+            fsG[am] = sg * fs;
+            fsB[am] = sb * fs;
+        }
+        _solidRGBA = srcRGBA;
+        _solidExtraAlpha = extraAlpha;
+        _solidValid = true;
+        _memo.clear();
+    }
+
+    /**
+     * Solid color compositing directly into the destination byte array
+     * (MaskFill equivalent): same results as compose(srcRGBA, null, ...)
+     * but without any raster access nor row copies.
+     * @param bandOffsets byte offsets of the R, G, B, A bands in a pixel (4 bytes)
+     */
+    void fill(final int srcRGBA,
+              final byte[] atile, final int offset, final int tilesize,
+              final byte[] dst, final int dstOffset, final int dstScan,
+              final int[] bandOffsets,
+              final int w, final int h) {
+
+        if ((bandOffsets[0] == 3) && (bandOffsets[1] == 2)
+                && (bandOffsets[2] == 1) && (bandOffsets[3] == 0)) {
+            // 4BYTE_ABGR: use word access
+            fillABGR(srcRGBA, atile, offset, tilesize, dst, dstOffset, dstScan, w, h);
+            return;
+        }
+        prepareSolid(srcRGBA);
+
+        final int oR = bandOffsets[0];
+        final int oG = bandOffsets[1];
+        final int oB = bandOffsets[2];
+        final int oA = bandOffsets[3];
+
+        final byte sR = (byte) ((srcRGBA >> 16) & NORM_BYTE);
+        final byte sG = (byte) ((srcRGBA >> 8) & NORM_BYTE);
+        final byte sB = (byte) ((srcRGBA) & NORM_BYTE);
+        final byte sA = (byte) ((srcRGBA >> 24) & NORM_BYTE);
+
+        // full coverage and opaque source means output = source:
+        final boolean opaque = (_extraAlpha == NORM_BYTE7) && (sA == (byte) NORM_BYTE);
+
+        int am, pixel, offTile, off;
+
+        for (int y = 0; y < h; y++) {
+            off = dstOffset + y * dstScan;
+            offTile = (atile != null) ? y * tilesize + offset : -1;
+
+            for (int x = 0; x < w; x++, off += 4) {
+                // coverage is stored directly as byte in maskPixel:
+                am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+                if (am != 0) {
+                    if (opaque && (am == NORM_BYTE)) {
+                        // mask with full opacity and opaque source
+                        dst[off + oR] = sR;
+                        dst[off + oG] = sG;
+                        dst[off + oB] = sB;
+                        dst[off + oA] = sA;
+                        continue;
+                    }
+                    pixel = blendSolidMemo(am,
+                            dst[off + oA] & NORM_BYTE, dst[off + oR] & NORM_BYTE,
+                            dst[off + oG] & NORM_BYTE, dst[off + oB] & NORM_BYTE);
+
+                    dst[off + oR] = (byte) (pixel >> 16);
+                    dst[off + oG] = (byte) (pixel >> 8);
+                    dst[off + oB] = (byte) (pixel);
+                    dst[off + oA] = (byte) (pixel >> 24);
+                }
+            }
+        }
+        _memo.flushStats();
+    }
+
+    /**
+     * Solid color compositing into 4BYTE_ABGR pixels (bytes A, B, G, R)
+     * read and written as one big-endian int per pixel
+     */
+    private void fillABGR(final int srcRGBA,
+                          final byte[] atile, final int offset, final int tilesize,
+                          final byte[] dst, final int dstOffset, final int dstScan,
+                          final int w, final int h) {
+
+        prepareSolid(srcRGBA);
+
+        // source pixel as ABGR word:
+        final int sABGR = toABGR(srcRGBA);
+
+        // full coverage and opaque source means output = source:
+        final boolean opaque = (_extraAlpha == NORM_BYTE7) && ((srcRGBA >>> 24) == NORM_BYTE);
+
+        int am, pixel, offTile, off, word;
+
+        for (int y = 0; y < h; y++) {
+            off = dstOffset + y * dstScan;
+            offTile = (atile != null) ? y * tilesize + offset : -1;
+
+            for (int x = 0; x < w; x++, off += 4) {
+                // coverage is stored directly as byte in maskPixel:
+                am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+                if (am != 0) {
+                    if (opaque && (am == NORM_BYTE)) {
+                        // mask with full opacity and opaque source
+                        PixelAccess.putIntBE(dst, off, sABGR);
+                        continue;
+                    }
+                    word = PixelAccess.getIntBE(dst, off);
+
+                    pixel = blendSolidMemo(am,
+                            word >>> 24, word & NORM_BYTE,
+                            (word >> 8) & NORM_BYTE, (word >> 16) & NORM_BYTE);
+
+                    PixelAccess.putIntBE(dst, off, toABGR(pixel));
+                }
+            }
+        }
+        _memo.flushStats();
+    }
+
+    /**
+     * Swap the red and blue components: ARGB to ABGR (or ABGR to ARGB)
+     */
+    private static int toABGR(final int argb) {
+        return (argb & 0xFF00FF00) | ((argb >> 16) & NORM_BYTE) | ((argb & NORM_BYTE) << 16);
+    }
+
+    /**
+     * Solid color compositing directly into the destination byte buffer
+     * (off-heap or memory-mapped surface): same results as fill(byte[])
+     * @param bandOffsets byte offsets of the R, G, B, A bands in a pixel (4 bytes)
+     */
+    void fill(final int srcRGBA,
+              final byte[] atile, final int offset, final int tilesize,
+              final ByteBuffer dst, final int dstOffset, final int dstScan,
+              final int[] bandOffsets,
+              final int w, final int h) {
+
+        prepareSolid(srcRGBA);
+
+        final int oR = bandOffsets[0];
+        final int oG = bandOffsets[1];
+        final int oB = bandOffsets[2];
+        final int oA = bandOffsets[3];
+
+        final byte sR = (byte) ((srcRGBA >> 16) & NORM_BYTE);
+        final byte sG = (byte) ((srcRGBA >> 8) & NORM_BYTE);
+        final byte sB = (byte) ((srcRGBA) & NORM_BYTE);
+        final byte sA = (byte) ((srcRGBA >> 24) & NORM_BYTE);
+
+        // full coverage and opaque source means output = source:
+        final boolean opaque = (_extraAlpha == NORM_BYTE7) && (sA == (byte) NORM_BYTE);
+
+        int am, pixel, offTile, off;
+
+        for (int y = 0; y < h; y++) {
+            off = dstOffset + y * dstScan;
+            offTile = (atile != null) ? y * tilesize + offset : -1;
+
+            for (int x = 0; x < w; x++, off += 4) {
+                // coverage is stored directly as byte in maskPixel:
+                am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+                if (am != 0) {
+                    if (opaque && (am == NORM_BYTE)) {
+                        // mask with full opacity and opaque source
+                        dst.put(off + oR, sR);
+                        dst.put(off + oG, sG);
+                        dst.put(off + oB, sB);
+                        dst.put(off + oA, sA);
+                        continue;
+                    }
+                    pixel = blendSolidMemo(am,
+                            dst.get(off + oA) & NORM_BYTE, dst.get(off + oR) & NORM_BYTE,
+                            dst.get(off + oG) & NORM_BYTE, dst.get(off + oB) & NORM_BYTE);
+
+                    dst.put(off + oR, (byte) (pixel >> 16));
+                    dst.put(off + oG, (byte) (pixel >> 8));
+                    dst.put(off + oB, (byte) (pixel));
+                    dst.put(off + oA, (byte) (pixel >> 24));
+                }
+            }
+        }
+        _memo.flushStats();
+    }
+
+    /**
+     * Blend the prepared solid color using the memo cache
+     */
+    private int blendSolidMemo(final int am, final int da,
+                               final int dr, final int dg, final int db) {
+        if (!USE_MEMO) {
+            return blendSolid(am, da, dr, dg, db);
+        }
+        final BlendComposite.MemoCache memo = _memo;
+        final int key = (da << 24) | (dr << 16) | (dg << 8) | db;
+        final int i = BlendComposite.MemoCache.index(key, am);
+
+        if (memo.matches(i, key, am)) {
+            return memo.get(i);
+        }
+        return memo.put(i, key, am, blendSolid(am, da, dr, dg, db));
+    }
+
+    /**
+     * Blend the prepared solid color (SrcOver) with the given coverage
+     * @param am coverage in [1; 255]
+     * @param da destination alpha in [0; 255]
+     * @param dr destination red in [0; 255]
+     * @param dg destination green in [0; 255]
+     * @param db destination blue in [0; 255]
+     * @return blended pixel (ARGB)
+     */
+    private int blendSolid(final int am, final int da,
+                           final int dr, final int dg, final int db) {
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int[] gamma_inv = GAMMA_LUT.inv;
+
+        // Factors in range [0; 32385] (15bits)
+        final int fs = _fs[am];
+
+        // Src Over Dst rule:
+        // fd = Da x (1 - Sa)
+        final int fd = divNormAlpha((da * NORM_BYTE7) * (NORM_ALPHA - fs));
+
+        // ALPHA in range [0; 32385] (15bits):
+        final int alpha = fs + fd;
+
+        if (alpha == 0) {
+            // output = none
+            return 0;
+        }
+
+        // color components in range [0; 32767]
+        final long recip = RECIP_ALPHA[alpha];
+        int r = divAlpha(_fsR[am] + gamma_dir[dr] * fd, recip);
+        int g = divAlpha(_fsG[am] + gamma_dir[dg] * fd, recip);
+        int b = divAlpha(_fsB[am] + gamma_dir[db] * fd, recip);
+        // alpha in range [0; 255]
+        int a = div127(alpha);
+
+        if (r > NORM_GAMMA || g > NORM_GAMMA || b > NORM_GAMMA || a > NORM_BYTE) {
+            r = g = b = NORM_GAMMA;
+            a = NORM_BYTE;
+        }
+        if (r < 0 || g < 0 || b < 0 || a < 0) {
+            r = g = b = a = 0;
+        }
+
+        // Inverse Gamma-correction on Linear RGBA:
+        return (a << 24)
+                | (gamma_inv[r]) << 16
+                | (gamma_inv[g]) << 8
+                | (gamma_inv[b]);
+    }
+
     void compose(final int srcRGBA, final Raster srcIn,
                  final byte[] atile, final int offset, final int tilesize,
                  final WritableRaster dstOut,
@@ -131,6 +435,7 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
         }
 
         int am, alpha, fs, fd;
+        long recip;
         int offTile;
         int offB;
 
@@ -163,8 +468,9 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
 
                     offB = x << 2; // x 4
 
-                    if (am == NORM_ALPHA) {
-                        // mask with full opacity
+                    if ((am == NORM_ALPHA)
+                            && (((srcIn != null) ? srcPixels[offB + 3] : r_srcPixel[3]) == (byte) NORM_BYTE)) {
+                        // mask with full opacity and opaque source
                         // output = source OVER (totally)
                         // Source pixel Linear RGBA:
                         if (srcIn != null) {
@@ -205,7 +511,7 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
                     // fade operator:
                     // Rs = As x Coverage
                     // alpha in range [0; 32385] (15bits)
-                    srcPixel[3] = (srcPixel[3] * am) / NORM_BYTE;
+                    srcPixel[3] = div255(srcPixel[3] * am);
                     /*                        
                         if (srcPixel[3] > NORM_ALPHA || srcPixel[3] < 0) {
                             System.out.println("srcPixel[3] overflow");
@@ -237,7 +543,7 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
                     // fd = Da x (1 - Sa)
                     // Factors in range [0; 32385] (15bits)
                     fs = (srcPixel[3]);
-                    fd = (dstPixel[3] * (NORM_ALPHA - fs)) / NORM_ALPHA;
+                    fd = divNormAlpha(dstPixel[3] * (NORM_ALPHA - fs));
                     /*
                         if (fs > NORM_ALPHA || fs < 0) {
                             System.out.println("fs overflow");
@@ -269,11 +575,12 @@ final class BlendingContextByteABGR extends BlendComposite.BlendingContext {
 
                     // color components in range [0; 32767]
                     // no overflow: 15b + 15b < 31b
-                    result[0] = (srcPixel[0] * fs + dstPixel[0] * fd) / alpha;
-                    result[1] = (srcPixel[1] * fs + dstPixel[1] * fd) / alpha;
-                    result[2] = (srcPixel[2] * fs + dstPixel[2] * fd) / alpha;
+                    recip = RECIP_ALPHA[alpha];
+                    result[0] = divAlpha(srcPixel[0] * fs + dstPixel[0] * fd, recip);
+                    result[1] = divAlpha(srcPixel[1] * fs + dstPixel[1] * fd, recip);
+                    result[2] = divAlpha(srcPixel[2] * fs + dstPixel[2] * fd, recip);
                     // alpha in range [0; 255]
-                    result[3] = alpha / NORM_BYTE7;
+                    result[3] = div127(alpha);
 
                     // System.out.println("result: " + Arrays.toString(result));
                     // Faster with explicit bound checks !
@@ -28,12 +28,20 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import static org.marlin.graphics.BlendComposite.GAMMA_LUT;
 import static org.marlin.graphics.BlendComposite.NORM_ALPHA;
 import static org.marlin.graphics.BlendComposite.NORM_BYTE;
 import static org.marlin.graphics.BlendComposite.NORM_BYTE7;
 import static org.marlin.graphics.BlendComposite.NORM_GAMMA;
 import static org.marlin.graphics.BlendComposite.TILE_WIDTH;
+import static org.marlin.graphics.BlendComposite.USE_MEMO;
+import static org.marlin.graphics.BlendMath.RECIP_ALPHA;
+import static org.marlin.graphics.BlendMath.div127;
+import static org.marlin.graphics.BlendMath.div255;
+import static org.marlin.graphics.BlendMath.divAlpha;
+import static org.marlin.graphics.BlendMath.divNormAlpha;
 
 final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
 
@@ -51,6 +59,16 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
     // horiz arrays:
     private int[] _srcPixels = new int[TILE_WIDTH];
     private int[] _dstPixels = new int[TILE_WIDTH];
+    // solid color tables indexed by coverage (fill):
+    private final int[] _fs = new int[NORM_BYTE + 1];
+    private final int[] _fsR = new int[NORM_BYTE + 1];
+    private final int[] _fsG = new int[NORM_BYTE + 1];
+    private final int[] _fsB = new int[NORM_BYTE + 1];
+    private boolean _solidValid = false;
+    private int _solidRGBA;
+    private int _solidExtraAlpha;
+    // blended pixels for the solid color (fill):
+    private final BlendComposite.MemoCache _memo = new BlendComposite.MemoCache();
 
     BlendingContextIntARGB() {
         // ThreadLocal constructor
@@ -82,6 +100,193 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
         return t;
     }
 
+    /**
+     * Prepares the solid color tables (source factor per coverage value)
+     */
+    private void prepareSolid(final int srcRGBA) {
+        final int extraAlpha = this._extraAlpha; // 7 bits
+
+        if (_solidValid && (srcRGBA == _solidRGBA) && (extraAlpha == _solidExtraAlpha)) {
+            return;
+        }
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int[] fsT = _fs;
+        final int[] fsR = _fsR;
+        final int[] fsG = _fsG;
+        final int[] fsB = _fsB;
+
+        // Gamma-correction on Linear RGBA:
+        // color components in range [0; 32767]
+        final int sr = gamma_dir[(srcRGBA >> 16) & NORM_BYTE];
+        final int sg = gamma_dir[(srcRGBA >> 8) & NORM_BYTE];
+        final int sb = gamma_dir[(srcRGBA) & NORM_BYTE];
+        final int sa = (srcRGBA >> 24) & NORM_BYTE;
+
+        int fs;
+        for (int am = 0; am <= NORM_BYTE; am++) {
+            // fade operator:
+            // alpha in range [0; 32385] (15bits)
+            fs = div255(sa * am * extraAlpha);
+            fsT[am] = fs;
+            // no overflow: 15b + 15b < 31b
+            fsR[am] = sr * fs;
+            fsG[am] = sg * fs;
+            fsB[am] = sb * fs;
+        }
+        _solidRGBA = srcRGBA;
+        _solidExtraAlpha = extraAlpha;
+        _solidValid = true;
+        _memo.clear();
+    }
+
+    /**
+     * Solid color compositing directly into the destination pixel array
+     * (MaskFill equivalent): same results as compose(srcRGBA, null, ...)
+     * but without any raster access nor row copies.
+     */
+    void fill(final int srcRGBA,
+              final byte[] atile, final int offset, final int tilesize,
+              final int[] dst, final int dstOffset, final int dstScan,
+              final int w, final int h) {
+
+        prepareSolid(srcRGBA);
+
+        // full coverage and opaque source means output = source:
+        final boolean opaque = (_extraAlpha == NORM_BYTE7) && ((srcRGBA >>> 24) == NORM_BYTE);
+
+        int am, offTile, off;
+
+        for (int y = 0; y < h; y++) {
+            off = dstOffset + y * dstScan;
+
+            if (atile == null) {
+                if (opaque) {
+                    Arrays.fill(dst, off, off + w, srcRGBA);
+                    continue;
+                }
+                offTile = -1;
+            } else {
+                offTile = y * tilesize + offset;
+            }
+
+            for (int x = 0; x < w; x++, off++) {
+                // coverage is stored directly as byte in maskPixel:
+                am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+                if (am != 0) {
+                    if (opaque && (am == NORM_BYTE)) {
+                        // mask with full opacity and opaque source
+                        dst[off] = srcRGBA;
+                    } else {
+                        dst[off] = blendSolidMemo(am, dst[off]);
+                    }
+                }
+            }
+        }
+        _memo.flushStats();
+    }
+
+    /**
+     * Solid color compositing directly into the destination pixel buffer
+     * (off-heap or memory-mapped surface): same results as fill(int[])
+     */
+    void fill(final int srcRGBA,
+              final byte[] atile, final int offset, final int tilesize,
+              final IntBuffer dst, final int dstOffset, final int dstScan,
+              final int w, final int h) {
+
+        prepareSolid(srcRGBA);
+
+        // full coverage and opaque source means output = source:
+        final boolean opaque = (_extraAlpha == NORM_BYTE7) && ((srcRGBA >>> 24) == NORM_BYTE);
+
+        int am, offTile, off;
+
+        for (int y = 0; y < h; y++) {
+            off = dstOffset + y * dstScan;
+            offTile = (atile != null) ? y * tilesize + offset : -1;
+
+            for (int x = 0; x < w; x++, off++) {
+                // coverage is stored directly as byte in maskPixel:
+                am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+                if (am != 0) {
+                    if (opaque && (am == NORM_BYTE)) {
+                        // mask with full opacity and opaque source
+                        dst.put(off, srcRGBA);
+                    } else {
+                        dst.put(off, blendSolidMemo(am, dst.get(off)));
+                    }
+                }
+            }
+        }
+        _memo.flushStats();
+    }
+
+    /**
+     * Blend the prepared solid color using the memo cache
+     */
+    private int blendSolidMemo(final int am, final int pixel) {
+        if (!USE_MEMO) {
+            return blendSolid(am, pixel);
+        }
+        final BlendComposite.MemoCache memo = _memo;
+        final int i = BlendComposite.MemoCache.index(pixel, am);
+
+        if (memo.matches(i, pixel, am)) {
+            return memo.get(i);
+        }
+        return memo.put(i, pixel, am, blendSolid(am, pixel));
+    }
+
+    /**
+     * Blend the prepared solid color (SrcOver) with the given coverage
+     * @param am coverage in [1; 255]
+     * @param pixel destination pixel (ARGB)
+     * @return blended pixel (ARGB)
+     */
+    private int blendSolid(final int am, final int pixel) {
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int[] gamma_inv = GAMMA_LUT.inv;
+
+        // Factors in range [0; 32385] (15bits)
+        final int fs = _fs[am];
+
+        // Src Over Dst rule:
+        // fd = Da x (1 - Sa)
+        final int fd = divNormAlpha((((pixel >> 24) & NORM_BYTE) * NORM_BYTE7) * (NORM_ALPHA - fs));
+
+        // ALPHA in range [0; 32385] (15bits):
+        final int alpha = fs + fd;
+
+        if (alpha == 0) {
+            // output = none
+            return 0;
+        }
+
+        // color components in range [0; 32767]
+        final long recip = RECIP_ALPHA[alpha];
+        int r = divAlpha(_fsR[am] + gamma_dir[(pixel >> 16) & NORM_BYTE] * fd, recip);
+        int g = divAlpha(_fsG[am] + gamma_dir[(pixel >> 8) & NORM_BYTE] * fd, recip);
+        int b = divAlpha(_fsB[am] + gamma_dir[(pixel) & NORM_BYTE] * fd, recip);
+        // alpha in range [0; 255]
+        int a = div127(alpha);
+
+        if (r > NORM_GAMMA || g > NORM_GAMMA || b > NORM_GAMMA || a > NORM_BYTE) {
+            r = g = b = NORM_GAMMA;
+            a = NORM_BYTE;
+        }
+        if (r < 0 || g < 0 || b < 0 || a < 0) {
+            r = g = b = a = 0;
+        }
+
+        // Inverse Gamma-correction on Linear RGBA:
+        return (a << 24)
+                | (gamma_inv[r]) << 16
+                | (gamma_inv[g]) << 8
+                | (gamma_inv[b]);
+    }
+
     void compose(final int srcRGBA, final Raster srcIn,
                  final byte[] atile, final int offset, final int tilesize,
                  final WritableRaster dstOut,
@@ -125,8 +330,13 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
             // c_srcPixel is Gamma-corrected Linear RGBA.
         }
 
+        // last computation (source + destination + coverage => same result):
+        final BlendComposite.MemoCache memo = _memo;
+
         int am, alpha, fs, fd;
+        long recip;
         int offTile;
+        int src, dst;
 
         for (int y = 0; y < h; y++) {
             // TODO: use directly DataBufferInt (offsets + stride)
@@ -154,14 +364,22 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
                     // alpha in range [0; 32385] (15bits)
                     am *= extraAlpha; // TODO: out of loop if no tile !
 
-                    if (am == NORM_ALPHA) {
-                        // mask with full opacity
+                    if ((am == NORM_ALPHA)
+                            && ((((srcIn != null) ? srcPixels[x] : srcRGBA) >>> 24) == NORM_BYTE)) {
+                        // mask with full opacity and opaque source
                         // output = source OVER (totally)
                         // Source pixel Linear RGBA:
                         dstPixels[x] = (srcIn != null) ? srcPixels[x] : srcRGBA;
                         continue;
                     }
 
+                    src = (srcIn != null) ? srcPixels[x] : srcRGBA;
+                    dst = dstPixels[x];
+                    if (USE_MEMO && memo.matchesLast(src, dst, am)) {
+                        dstPixels[x] = memo.getLast();
+                        continue;
+                    }
+
                     if (srcIn == null) {
                         // Copy prepared source pixel:
                         srcPixel[0] = c_srcPixel[0];
@@ -186,7 +404,7 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
                     // fade operator:
                     // Rs = As x Coverage
                     // alpha in range [0; 32385] (15bits)
-                    srcPixel[3] = (srcPixel[3] * am) / NORM_BYTE;
+                    srcPixel[3] = div255(srcPixel[3] * am);
                     /*                        
                         if (srcPixel[3] > NORM_ALPHA || srcPixel[3] < 0) {
                             System.out.println("srcPixel[3] overflow");
@@ -218,7 +436,7 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
                     // fd = Da x (1 - Sa)
                     // Factors in range [0; 32385] (15bits)
                     fs = (srcPixel[3]);
-                    fd = (dstPixel[3] * (NORM_ALPHA - fs)) / NORM_ALPHA;
+                    fd = divNormAlpha(dstPixel[3] * (NORM_ALPHA - fs));
                     /*
                         if (fs > NORM_ALPHA || fs < 0) {
                             System.out.println("fs overflow");
@@ -241,17 +459,18 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
                     if (alpha == 0) {
                         // output = none
                         // Source pixel Linear RGBA:
-                        dstPixels[x] = 0;
+                        dstPixels[x] = memo.putLast(src, dst, am, 0);
                         continue;
                     }
 
                     // color components in range [0; 32767]
                     // no overflow: 15b + 15b < 31b
-                    result[0] = (srcPixel[0] * fs + dstPixel[0] * fd) / alpha;
-                    result[1] = (srcPixel[1] * fs + dstPixel[1] * fd) / alpha;
-                    result[2] = (srcPixel[2] * fs + dstPixel[2] * fd) / alpha;
+                    recip = RECIP_ALPHA[alpha];
+                    result[0] = divAlpha(srcPixel[0] * fs + dstPixel[0] * fd, recip);
+                    result[1] = divAlpha(srcPixel[1] * fs + dstPixel[1] * fd, recip);
+                    result[2] = divAlpha(srcPixel[2] * fs + dstPixel[2] * fd, recip);
                     // alpha in range [0; 255]
-                    result[3] = alpha / NORM_BYTE7;
+                    result[3] = div127(alpha);
 
                     // System.out.println("result: " + Arrays.toString(result));
                     // Faster with explicit bound checks !
@@ -281,11 +500,12 @@ final class BlendingContextIntARGB extends BlendComposite.BlendingContext {
 
                     // Linear RGBA components are not pre-multiplied by alpha:
                     // NOP
-                    dstPixels[x] = pixel;
+                    dstPixels[x] = memo.putLast(src, dst, am, pixel);
                 }
             }
             dstOut.setDataElements(0, y, w, 1, dstPixels);
         }
+        memo.flushStats();
     }
 
     public void composeKO(final int srcRGBA, final Raster srcIn,
@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.image.ColorModel;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import sun.java2d.loops.SurfaceType;
+import static org.marlin.graphics.BlendComposite.GAMMA_LUT;
+import static org.marlin.graphics.BlendComposite.NORM_ALPHA;
+import static org.marlin.graphics.BlendComposite.NORM_BYTE;
+import static org.marlin.graphics.BlendComposite.NORM_BYTE7;
+import static org.marlin.graphics.BlendComposite.TILE_WIDTH;
+import static org.marlin.graphics.BlendComposite.USE_MEMO;
+import static org.marlin.graphics.BlendMath.div255;
+import static org.marlin.graphics.BlendMath.divNormAlpha;
+
+/**
+ * Blending context for opaque destinations (IntRgb, IntBgr, ThreeByteBgr,
+ * ByteGray, Ushort565Rgb): destination alpha is always 1 so the SrcOver
+ * kernel has no destination alpha math. Rows are converted to / from RGB
+ * integers by a RowConverter per pixel format.
+ */
+final class BlendingContextOpaque extends BlendComposite.BlendingContext {
+
+    /**
+     * Return true if the given surface type is supported (opaque formats)
+     * @param sdt surface type
+     * @return true if supported
+     */
+    static boolean isSupported(final SurfaceType sdt) {
+        return getConverter(sdt, false) != null;
+    }
+
+    /**
+     * Return the row converter for the given surface type
+     * @param sdt surface type
+     * @param elements true to convert raster data elements (band order);
+     * false to convert the data array (memory order)
+     * @return row converter or null if unsupported
+     */
+    static RowConverter getConverter(final SurfaceType sdt, final boolean elements) {
+        if (sdt == SurfaceType.IntRgb) {
+            return INT_RGB;
+        }
+        if (sdt == SurfaceType.IntBgr) {
+            return INT_BGR;
+        }
+        if (sdt == SurfaceType.ThreeByteBgr) {
+            return (elements) ? THREE_BYTE_RGB : THREE_BYTE_BGR;
+        }
+        if (sdt == SurfaceType.ByteGray) {
+            return BYTE_GRAY;
+        }
+        if (sdt == SurfaceType.Ushort565Rgb) {
+            return USHORT_565_RGB;
+        }
+        return null;
+    }
+
+    /* members */
+    private int _extraAlpha;
+    private RowConverter _converter;
+    private RowConverter _elementConverter;
+    private boolean _opaqueSource;
+    private boolean _bgrSource;
+
+    // horiz arrays:
+    private int[] _row = new int[TILE_WIDTH];
+    private int[] _srcPixels = new int[TILE_WIDTH];
+    private Object _elements = null;
+    private int _elementsWidth = 0;
+    // solid color tables indexed by coverage (fill):
+    private final int[] _fd = new int[NORM_BYTE + 1];
+    private final int[] _fsR = new int[NORM_BYTE + 1];
+    private final int[] _fsG = new int[NORM_BYTE + 1];
+    private final int[] _fsB = new int[NORM_BYTE + 1];
+    private boolean _solidValid = false;
+    private int _solidRGBA;
+    private int _solidExtraAlpha;
+    // blended pixels for the solid color:
+    private final BlendComposite.MemoCache _memo = new BlendComposite.MemoCache();
+
+    BlendingContextOpaque() {
+        // rendering context constructor
+    }
+
+    @Override
+    BlendComposite.BlendingContext init(final BlendComposite composite) {
+        this._extraAlpha = Math.round(127f * composite.extraAlpha); // [0; 127] ie 7 bits
+        this._opaqueSource = false;
+        this._bgrSource = false;
+        return this; // fluent API
+    }
+
+    BlendComposite.BlendingContext init(final BlendComposite composite, final SurfaceType sdt) {
+        if (_converter != getConverter(sdt, false)) {
+            // other format: drop the raster elements array:
+            _elements = null;
+            _elementsWidth = 0;
+        }
+        this._converter = getConverter(sdt, false);
+        this._elementConverter = getConverter(sdt, true);
+        return init(composite);
+    }
+
+    /**
+     * Set the color model of the paint rasters (compose): paint contexts
+     * use xrgb or xbgr models (undefined alpha bits) for opaque paints
+     * @param cm paint context color model
+     */
+    void setSourceColorModel(final ColorModel cm) {
+        this._opaqueSource = !cm.hasAlpha();
+        this._bgrSource = (cm instanceof DirectColorModel)
+                && (((DirectColorModel) cm).getRedMask() == NORM_BYTE);
+    }
+
+    private int[] getRow(final int len) {
+        int[] t = _row;
+        if (t.length < len) {
+            _row = t = new int[len];
+        }
+        return t;
+    }
+
+    private int[] getSrcPixels(final int len) {
+        int[] t = _srcPixels;
+        if (t.length < len) {
+            _srcPixels = t = new int[len];
+        }
+        return t;
+    }
+
+    /**
+     * Prepares the solid color tables (source and destination factors per coverage value)
+     */
+    private void prepareSolid(final int srcRGBA) {
+        final int extraAlpha = this._extraAlpha; // 7 bits
+
+        if (_solidValid && (srcRGBA == _solidRGBA) && (extraAlpha == _solidExtraAlpha)) {
+            return;
+        }
+        final int[] gamma_dir = GAMMA_LUT.dir;
+
+        // Gamma-correction on Linear RGBA:
+        // color components in range [0; 32767]
+        final int sr = gamma_dir[(srcRGBA >> 16) & NORM_BYTE];
+        final int sg = gamma_dir[(srcRGBA >> 8) & NORM_BYTE];
+        final int sb = gamma_dir[(srcRGBA) & NORM_BYTE];
+        final int sa = (srcRGBA >> 24) & NORM_BYTE;
+
+        int fs;
+        for (int am = 0; am <= NORM_BYTE; am++) {
+            // fade operator:
+            // alpha in range [0; 32385] (15bits)
+            fs = div255(sa * am * extraAlpha);
+            // opaque destination: fd = (1 - Sa)
+            _fd[am] = NORM_ALPHA - fs;
+            // no overflow: 15b + 15b < 31b
+            _fsR[am] = sr * fs;
+            _fsG[am] = sg * fs;
+            _fsB[am] = sb * fs;
+        }
+        _solidRGBA = srcRGBA;
+        _solidExtraAlpha = extraAlpha;
+        _solidValid = true;
+        _memo.clear();
+    }
+
+    /**
+     * Solid color compositing directly into the destination data array
+     * (int[], byte[] or short[] depending on the pixel format)
+     * @param dst destination data array
+     * @param dstOffset offset of the first pixel (array elements)
+     * @param dstScan scanline stride (array elements)
+     */
+    void fill(final int srcRGBA,
+              final byte[] atile, final int offset, final int tilesize,
+              final Object dst, final int dstOffset, final int dstScan,
+              final int w, final int h) {
+
+        prepareSolid(srcRGBA);
+
+        final RowConverter conv = _converter;
+        final int[] row = getRow(w);
+
+        // full coverage and opaque source means output = source:
+        final boolean opaque = (_extraAlpha == NORM_BYTE7) && ((srcRGBA >>> 24) == NORM_BYTE);
+        final int srcRGB = srcRGBA & 0xFFFFFF;
+
+        int off;
+
+        for (int y = 0; y < h; y++) {
+            off = dstOffset + y * dstScan;
+
+            if ((atile == null) && opaque) {
+                Arrays.fill(row, 0, w, srcRGB);
+            } else {
+                conv.read(dst, off, row, w);
+                blendSolid(row, atile, (atile != null) ? y * tilesize + offset : -1, w, opaque, srcRGB);
+            }
+            conv.write(row, dst, off, w);
+        }
+        _memo.flushStats();
+    }
+
+    /**
+     * Blend the prepared solid color (SrcOver) into the given RGB row
+     */
+    private void blendSolid(final int[] row, final byte[] atile, final int offTile,
+                            final int w, final boolean opaque, final int srcRGB) {
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int[] gamma_inv = GAMMA_LUT.inv;
+
+        final int[] fdT = _fd;
+        final int[] fsR = _fsR;
+        final int[] fsG = _fsG;
+        final int[] fsB = _fsB;
+        final BlendComposite.MemoCache memo = _memo;
+
+        int am, pixel, fd, i;
+
+        for (int x = 0; x < w; x++) {
+            // coverage is stored directly as byte in maskPixel:
+            am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+            if (am != 0) {
+                if (opaque && (am == NORM_BYTE)) {
+                    // mask with full opacity and opaque source
+                    row[x] = srcRGB;
+                    continue;
+                }
+                pixel = row[x];
+                i = BlendComposite.MemoCache.index(pixel, am);
+
+                if (USE_MEMO && memo.matches(i, pixel, am)) {
+                    row[x] = memo.get(i);
+                    continue;
+                }
+                fd = fdT[am];
+
+                // color components in range [0; 32767]
+                // Inverse Gamma-correction on Linear RGB:
+                row[x] = memo.put(i, pixel, am,
+                        (gamma_inv[divNormAlpha(fsR[am] + gamma_dir[(pixel >> 16) & NORM_BYTE] * fd)] << 16)
+                        | (gamma_inv[divNormAlpha(fsG[am] + gamma_dir[(pixel >> 8) & NORM_BYTE] * fd)] << 8)
+                        | (gamma_inv[divNormAlpha(fsB[am] + gamma_dir[(pixel) & NORM_BYTE] * fd)]));
+            }
+        }
+    }
+
+    @Override
+    void compose(final int srcRGBA, final Raster srcIn,
+                 final byte[] atile, final int offset, final int tilesize,
+                 final WritableRaster dstOut,
+                 final int w, final int h) {
+
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int[] gamma_inv = GAMMA_LUT.inv;
+
+        final int extraAlpha = this._extraAlpha; // 7 bits
+        final RowConverter conv = _elementConverter;
+        final int[] row = getRow(w);
+        final int[] srcPixels = (srcIn != null) ? getSrcPixels(w) : null;
+
+        final boolean opaque;
+        if (srcIn == null) {
+            prepareSolid(srcRGBA);
+            opaque = (extraAlpha == NORM_BYTE7) && ((srcRGBA >>> 24) == NORM_BYTE);
+        } else {
+            opaque = false;
+        }
+        final int srcRGB = srcRGBA & 0xFFFFFF;
+        final int srcAlphaMask = (_opaqueSource) ? 0xFF000000 : 0;
+
+        // use the data elements array (transfer type) when large enough:
+        Object elements = (_elementsWidth >= w) ? _elements : null;
+
+        int am, offTile, pixel, fs, fd, dst;
+
+        for (int y = 0; y < h; y++) {
+            elements = dstOut.getDataElements(0, y, w, 1, elements);
+            conv.read(elements, 0, row, w);
+
+            offTile = (atile != null) ? y * tilesize + offset : -1;
+
+            if (srcIn == null) {
+                blendSolid(row, atile, offTile, w, opaque, srcRGB);
+            } else {
+                srcIn.getDataElements(0, y, w, 1, srcPixels);
+                if (_bgrSource) {
+                    // swap red and blue components:
+                    for (int x = 0; x < w; x++) {
+                        pixel = srcPixels[x];
+                        srcPixels[x] = (pixel & 0xFF00FF00) | ((pixel & NORM_BYTE) << 16) | ((pixel >> 16) & NORM_BYTE);
+                    }
+                }
+
+                for (int x = 0; x < w; x++) {
+                    // coverage is stored directly as byte in maskPixel:
+                    am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+
+                    if (am != 0) {
+                        pixel = srcPixels[x] | srcAlphaMask;
+
+                        // fade operator:
+                        // alpha in range [0; 32385] (15bits)
+                        fs = div255(((pixel >> 24) & NORM_BYTE) * am * extraAlpha);
+
+                        if (fs != 0) {
+                            // opaque destination: fd = (1 - Sa)
+                            fd = NORM_ALPHA - fs;
+                            dst = row[x];
+
+                            row[x] = (gamma_inv[divNormAlpha(gamma_dir[(pixel >> 16) & NORM_BYTE] * fs
+                                                             + gamma_dir[(dst >> 16) & NORM_BYTE] * fd)] << 16)
+                                    | (gamma_inv[divNormAlpha(gamma_dir[(pixel >> 8) & NORM_BYTE] * fs
+                                                              + gamma_dir[(dst >> 8) & NORM_BYTE] * fd)] << 8)
+                                    | (gamma_inv[divNormAlpha(gamma_dir[(pixel) & NORM_BYTE] * fs
+                                                              + gamma_dir[(dst) & NORM_BYTE] * fd)]);
+                        }
+                    }
+                }
+            }
+            conv.write(row, elements, 0, w);
+            dstOut.setDataElements(0, y, w, 1, elements);
+        }
+        _memo.flushStats();
+        if (_elementsWidth < w) {
+            _elements = elements;
+            _elementsWidth = w;
+        }
+    }
+
+    /**
+     * Converts rows of pixels from / to RGB integers (0x00RRGGBB)
+     */
+    static abstract class RowConverter {
+
+        abstract void read(Object data, int off, int[] rgb, int w);
+
+        abstract void write(int[] rgb, Object data, int off, int w);
+    }
+
+    /** IntRgb: 0x00RRGGBB integers */
+    static final RowConverter INT_RGB = new RowConverter() {
+        @Override
+        void read(final Object data, final int off, final int[] rgb, final int w) {
+            final int[] pixels = (int[]) data;
+            for (int x = 0; x < w; x++) {
+                rgb[x] = pixels[off + x] & 0xFFFFFF;
+            }
+        }
+
+        @Override
+        void write(final int[] rgb, final Object data, final int off, final int w) {
+            System.arraycopy(rgb, 0, (int[]) data, off, w);
+        }
+    };
+
+    /** IntBgr: 0x00BBGGRR integers */
+    static final RowConverter INT_BGR = new RowConverter() {
+        @Override
+        void read(final Object data, final int off, final int[] rgb, final int w) {
+            final int[] pixels = (int[]) data;
+            int p;
+            for (int x = 0; x < w; x++) {
+                p = pixels[off + x];
+                rgb[x] = ((p & NORM_BYTE) << 16) | (p & 0xFF00) | ((p >> 16) & NORM_BYTE);
+            }
+        }
+
+        @Override
+        void write(final int[] rgb, final Object data, final int off, final int w) {
+            final int[] pixels = (int[]) data;
+            int p;
+            for (int x = 0; x < w; x++) {
+                p = rgb[x];
+                pixels[off + x] = ((p & NORM_BYTE) << 16) | (p & 0xFF00) | ((p >> 16) & NORM_BYTE);
+            }
+        }
+    };
+
+    /** ThreeByteBgr in memory order: B, G, R bytes */
+    static final RowConverter THREE_BYTE_BGR = new ThreeByteConverter(2, 1, 0);
+
+    /** ThreeByteBgr raster data elements (band order): R, G, B bytes */
+    static final RowConverter THREE_BYTE_RGB = new ThreeByteConverter(0, 1, 2);
+
+    static final class ThreeByteConverter extends RowConverter {
+
+        private final int oR;
+        private final int oG;
+        private final int oB;
+
+        ThreeByteConverter(final int oR, final int oG, final int oB) {
+            this.oR = oR;
+            this.oG = oG;
+            this.oB = oB;
+        }
+
+        @Override
+        void read(final Object data, final int off, final int[] rgb, final int w) {
+            final byte[] pixels = (byte[]) data;
+            for (int x = 0, o = off; x < w; x++, o += 3) {
+                rgb[x] = ((pixels[o + oR] & NORM_BYTE) << 16)
+                        | ((pixels[o + oG] & NORM_BYTE) << 8)
+                        | (pixels[o + oB] & NORM_BYTE);
+            }
+        }
+
+        @Override
+        void write(final int[] rgb, final Object data, final int off, final int w) {
+            final byte[] pixels = (byte[]) data;
+            int p;
+            for (int x = 0, o = off; x < w; x++, o += 3) {
+                p = rgb[x];
+                pixels[o + oR] = (byte) (p >> 16);
+                pixels[o + oG] = (byte) (p >> 8);
+                pixels[o + oB] = (byte) p;
+            }
+        }
+    }
+
+    /** ByteGray: gray = (77 R + 150 G + 29 B + 128) / 256 like java2d */
+    static final RowConverter BYTE_GRAY = new RowConverter() {
+        @Override
+        void read(final Object data, final int off, final int[] rgb, final int w) {
+            final byte[] pixels = (byte[]) data;
+            for (int x = 0; x < w; x++) {
+                rgb[x] = (pixels[off + x] & NORM_BYTE) * 0x010101;
+            }
+        }
+
+        @Override
+        void write(final int[] rgb, final Object data, final int off, final int w) {
+            final byte[] pixels = (byte[]) data;
+            int p;
+            for (int x = 0; x < w; x++) {
+                p = rgb[x];
+                pixels[off + x] = (byte) ((77 * ((p >> 16) & NORM_BYTE)
+                                           + 150 * ((p >> 8) & NORM_BYTE)
+                                           + 29 * (p & NORM_BYTE) + 128) >> 8);
+            }
+        }
+    };
+
+    /** Ushort565Rgb: RRRRRGGG GGGBBBBB shorts */
+    static final RowConverter USHORT_565_RGB = new RowConverter() {
+        @Override
+        void read(final Object data, final int off, final int[] rgb, final int w) {
+            final short[] pixels = (short[]) data;
+            int p, r, g, b;
+            for (int x = 0; x < w; x++) {
+                p = pixels[off + x];
+                r = (p >> 11) & 0x1F;
+                g = (p >> 5) & 0x3F;
+                b = p & 0x1F;
+                rgb[x] = (((r << 3) | (r >> 2)) << 16)
+                        | (((g << 2) | (g >> 4)) << 8)
+                        | ((b << 3) | (b >> 2));
+            }
+        }
+
+        @Override
+        void write(final int[] rgb, final Object data, final int off, final int w) {
+            final short[] pixels = (short[]) data;
+            int p;
+            for (int x = 0; x < w; x++) {
+                p = rgb[x];
+                pixels[off + x] = (short) (((p >> 8) & 0xF800)
+                                           | ((p >> 5) & 0x07E0)
+                                           | ((p >> 3) & 0x001F));
+            }
+        }
+    };
+}
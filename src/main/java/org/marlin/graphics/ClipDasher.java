@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import sun.java2d.marlin.MarlinProperties;
+import sun.java2d.pipe.Region;
+
+/**
+ * This class dashes paths much larger than the clip (long dashed lines at
+ * high zoom levels) before stroking: the dash phase is advanced analytically
+ * over the invisible parts of each segment and only the dashes crossing the
+ * clip (expanded by the stroke width) are emitted, so the stroker processes
+ * a few dashes instead of millions of clipped ones.
+ *
+ * Dashes are computed in user space (like BasicStroke) and the result is
+ * stroked without dashes: dashes are cut only outside the visible area,
+ * keeping joins (including the closing join of closed subpaths) and caps
+ * inside it. Only polylines (map geometries) are handled: the rendering
+ * engine approximates curve lengths, so dashing curves here would shift the
+ * dash positions when switching between both paths.
+ *
+ * Marlin 0.9.2+ already skips invisible dashes when its clipping is enabled
+ * (sun.java2d.renderer.clip=true, default) so this stage is only enabled by
+ * default if the rendering engine does not clip (MarlinGraphics.clipDash).
+ */
+final class ClipDasher {
+
+    /* enable the clip-aware dashing stage (default if the rendering engine does not clip) */
+    final static boolean ENABLED = MarlinGraphics2D.getBoolean("MarlinGraphics.clipDash",
+            (MarlinProperties.isDoClip()) ? "false" : "true");
+
+    /* minimum ratio between the path and clip extents to dash here */
+    private final static double MIN_RATIO = 2.0;
+    private final static double SQRT_2 = Math.sqrt(2.0);
+
+    /* dash pattern */
+    private final double[] dash;
+    private final int startIdx;
+    private final double startRem;
+    private final double total;
+    /* expanded clip in user space */
+    private final double cx0, cy0, cx1, cy1;
+    /* output */
+    private final Path2D.Double out = new Path2D.Double();
+    /* dash state */
+    private int idx;
+    private double rem;
+    private boolean penDown;
+    /* first dash of the current subpath (buffered until closePath) */
+    private double[] first = new double[32];
+    private int nFirst;
+    private boolean inFirst;
+    /* visible interval of the current segment */
+    private double t0, t1;
+
+    private ClipDasher(final float[] dashArray, final float phase,
+                       final double cx0, final double cy0, final double cx1, final double cy1) {
+        final int n = dashArray.length;
+        // odd lengths repeat the pattern twice (on / off swapped):
+        final double[] d = new double[(n & 1) == 0 ? n : n << 1];
+        double sum = 0.0;
+        for (int i = 0; i < d.length; i++) {
+            d[i] = dashArray[i % n];
+            sum += d[i];
+        }
+        this.dash = d;
+        this.total = sum;
+
+        // initial state from the phase:
+        double p = phase % sum;
+        if (p < 0.0) {
+            p += sum;
+        }
+        int i = 0;
+        while (p >= d[i]) {
+            p -= d[i];
+            i = (i + 1) % d.length;
+        }
+        this.startIdx = i;
+        this.startRem = d[i] - p;
+
+        this.cx0 = cx0;
+        this.cy0 = cy0;
+        this.cx1 = cx1;
+        this.cy1 = cy1;
+    }
+
+    /**
+     * Dash the given shape against the clip if the path is much larger than
+     * the clip
+     * @param s shape to draw
+     * @param bs dashed stroke
+     * @param at transform
+     * @param clip device clip
+     * @return dashed path (user space) to stroke with undashed(bs) or null to
+     * use the regular pipeline
+     */
+    static Shape dash(final Shape s, final BasicStroke bs, final AffineTransform at, final Region clip) {
+        final float[] dashArray = bs.getDashArray();
+        if ((dashArray == null) || clip.isEmpty()) {
+            return null;
+        }
+        final AffineTransform inv;
+        try {
+            inv = at.createInverse();
+        } catch (NoninvertibleTransformException nte) {
+            return null;
+        }
+        // device clip expanded by 1 pixel (antialiasing) in user space:
+        final double[] pts = new double[]{
+            clip.getLoX() - 1, clip.getLoY() - 1, clip.getHiX() + 1, clip.getLoY() - 1,
+            clip.getHiX() + 1, clip.getHiY() + 1, clip.getLoX() - 1, clip.getHiY() + 1
+        };
+        inv.transform(pts, 0, pts, 0, 4);
+        // expand by the stroke (half width x join / cap factor):
+        final double f = (bs.getLineJoin() == BasicStroke.JOIN_MITER)
+                         ? Math.max(bs.getMiterLimit(), SQRT_2) : SQRT_2;
+        final double pad = 0.5 * bs.getLineWidth() * f
+                           + Math.max(Math.hypot(inv.getScaleX(), inv.getShearY()),
+                                      Math.hypot(inv.getShearX(), inv.getScaleY()));
+
+        final double cx0 = Math.min(Math.min(pts[0], pts[2]), Math.min(pts[4], pts[6])) - pad;
+        final double cy0 = Math.min(Math.min(pts[1], pts[3]), Math.min(pts[5], pts[7])) - pad;
+        final double cx1 = Math.max(Math.max(pts[0], pts[2]), Math.max(pts[4], pts[6])) + pad;
+        final double cy1 = Math.max(Math.max(pts[1], pts[3]), Math.max(pts[5], pts[7])) + pad;
+
+        // only for paths much larger than the clip:
+        final Rectangle2D b = s.getBounds2D();
+        if ((b.getWidth() < MIN_RATIO * (cx1 - cx0)) && (b.getHeight() < MIN_RATIO * (cy1 - cy0))) {
+            return null;
+        }
+        final ClipDasher dasher = new ClipDasher(dashArray, bs.getDashPhase(), cx0, cy0, cx1, cy1);
+        return dasher.process(s.getPathIterator(null)) ? dasher.out : null;
+    }
+
+    /**
+     * @return the same stroke without dashes
+     */
+    static BasicStroke undashed(final BasicStroke bs) {
+        return new BasicStroke(bs.getLineWidth(), bs.getEndCap(), bs.getLineJoin(), bs.getMiterLimit());
+    }
+
+    /**
+     * @return false if the path contains curves (unsupported)
+     */
+    private boolean process(final PathIterator pi) {
+        final double[] c = new double[6];
+        double sx = 0.0, sy = 0.0, x = 0.0, y = 0.0;
+        boolean open = false;
+
+        for (; !pi.isDone(); pi.next()) {
+            switch (pi.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO:
+                    endSubpath(false);
+                    sx = x = c[0];
+                    sy = y = c[1];
+                    startSubpath();
+                    open = true;
+                    break;
+                case PathIterator.SEG_LINETO:
+                    if (!open) {
+                        sx = x;
+                        sy = y;
+                        startSubpath();
+                        open = true;
+                    }
+                    segment(x, y, c[0], c[1]);
+                    x = c[0];
+                    y = c[1];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    if (open) {
+                        segment(x, y, sx, sy);
+                        x = sx;
+                        y = sy;
+                        endSubpath(true);
+                        open = false;
+                    }
+                    break;
+                default:
+                    // curves:
+                    return false;
+            }
+        }
+        endSubpath(false);
+        return true;
+    }
+
+    private void startSubpath() {
+        idx = startIdx;
+        rem = startRem;
+        penDown = false;
+        nFirst = 0;
+        // the first dash starts at the subpath start if 'on':
+        inFirst = ((startIdx & 1) == 0);
+    }
+
+    private void endSubpath(final boolean closed) {
+        if (nFirst != 0) {
+            if (closed && penDown) {
+                // last dash continues into the first one (join):
+                for (int i = 2; i < nFirst; i += 2) {
+                    out.lineTo(first[i], first[i + 1]);
+                }
+            } else {
+                out.moveTo(first[0], first[1]);
+                for (int i = 2; i < nFirst; i += 2) {
+                    out.lineTo(first[i], first[i + 1]);
+                }
+            }
+            nFirst = 0;
+        }
+        inFirst = false;
+        penDown = false;
+    }
+
+    /**
+     * Dash the segment [(x0, y0), (x1, y1)]: skip the parts outside the
+     * expanded clip analytically
+     */
+    private void segment(final double x0, final double y0, final double x1, final double y1) {
+        final double dx = x1 - x0;
+        final double dy = y1 - y0;
+        final double len = Math.sqrt(dx * dx + dy * dy);
+        if (len == 0.0) {
+            return;
+        }
+        // both ends on the same outer side: invisible
+        if (((x0 < cx0) && (x1 < cx0)) || ((x0 > cx1) && (x1 > cx1))
+                || ((y0 < cy0) && (y1 < cy0)) || ((y0 > cy1) && (y1 > cy1))) {
+            skip(len);
+            return;
+        }
+        // Liang-Barsky clipping:
+        t0 = 0.0;
+        t1 = 1.0;
+        clipT(-dx, x0 - cx0);
+        clipT(dx, cx1 - x0);
+        clipT(-dy, y0 - cy0);
+        clipT(dy, cy1 - y0);
+
+        if (t0 >= t1) {
+            // invisible:
+            skip(len);
+            return;
+        }
+        if (t0 > 0.0) {
+            skip(t0 * len);
+        }
+        walk(x0, y0, dx / len, dy / len, t0 * len, t1 * len);
+        if (t1 < 1.0) {
+            skip((1.0 - t1) * len);
+        }
+    }
+
+    /**
+     * Liang-Barsky clipping step: updates [t0, t1]
+     */
+    private void clipT(final double p, final double q) {
+        if (p == 0.0) {
+            if (q < 0.0) {
+                // parallel and outside:
+                t1 = -1.0;
+            }
+        } else {
+            final double r = q / p;
+            if (p < 0.0) {
+                if (r > t0) {
+                    t0 = r;
+                }
+            } else if (r < t1) {
+                t1 = r;
+            }
+        }
+    }
+
+    /**
+     * Advance the dash state by the given length without emitting dashes
+     */
+    private void skip(double d) {
+        penDown = false;
+        inFirst = false;
+
+        if (d < rem) {
+            rem -= d;
+            return;
+        }
+        d -= rem;
+        idx = (idx + 1) % dash.length;
+        rem = dash[idx];
+        // whole pattern cycles from the start of an element:
+        d %= total;
+        while (d >= rem) {
+            d -= rem;
+            idx = (idx + 1) % dash.length;
+            rem = dash[idx];
+        }
+        rem -= d;
+    }
+
+    /**
+     * Emit the dashes along the segment between the distances [from, to]
+     */
+    private void walk(final double x0, final double y0, final double ux, final double uy,
+                      double from, final double to) {
+        while (true) {
+            final boolean on = ((idx & 1) == 0);
+            final double step = Math.min(rem, to - from);
+
+            if (on) {
+                if (!penDown) {
+                    emit(true, x0 + from * ux, y0 + from * uy);
+                    penDown = true;
+                }
+                emit(false, x0 + (from + step) * ux, y0 + (from + step) * uy);
+            }
+            from += step;
+            rem -= step;
+
+            if (rem > 0.0) {
+                // segment end reached in the middle of a dash element:
+                return;
+            }
+            idx = (idx + 1) % dash.length;
+            rem = dash[idx];
+            if (on) {
+                penDown = false;
+                inFirst = false;
+            }
+            if (from >= to && !((idx & 1) == 0 && rem == 0.0)) {
+                return;
+            }
+        }
+    }
+
+    private void emit(final boolean move, final double x, final double y) {
+        if (inFirst) {
+            if (nFirst + 2 > first.length) {
+                first = Arrays.copyOf(first, nFirst << 1);
+            }
+            first[nFirst++] = x;
+            first[nFirst++] = y;
+        } else if (move) {
+            out.moveTo(x, y);
+        } else {
+            out.lineTo(x, y);
+        }
+    }
+}
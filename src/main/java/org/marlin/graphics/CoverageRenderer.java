@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ColorModel;
+import java.util.Arrays;
+import sun.awt.SunHints;
+import sun.java2d.pipe.AATileGenerator;
+import sun.java2d.pipe.Region;
+import sun.java2d.pipe.RenderingEngine;
+
+/**
+ * This class renders the antialiased coverage of shapes into a caller-supplied
+ * byte[] mask (hit-testing masks, collision bitmaps, distance fields) using
+ * the Marlin renderer tile generator only: no color, no composite nor any
+ * SunGraphics2D / surface data involved.
+ *
+ * Instances are not thread-safe (like Graphics2D).
+ */
+public final class CoverageRenderer {
+
+    /** accumulation modes of the coverage into the mask */
+    public enum Mode {
+        /** mask = coverage (inside the shape bounds) */
+        REPLACE,
+        /** mask = min(255, mask + coverage) */
+        ADD,
+        /** mask = max(mask, coverage) */
+        MAX
+    }
+
+    private final static BasicStroke DEFAULT_STROKE = new BasicStroke();
+
+    static {
+        // load the AWT native library (Region initialization) as no image may exist:
+        ColorModel.getRGBdefault();
+    }
+
+    /* members */
+    private final byte[] mask;
+    private final int offset;
+    private final int width;
+    private final int height;
+    private final int scanline;
+    private final int[] abox = new int[4];
+    private byte[] alphaTile = new byte[32 * 32];
+    /* rendering state */
+    private Mode mode = Mode.MAX;
+    private AffineTransform transform = new AffineTransform();
+    private BasicStroke stroke = DEFAULT_STROKE;
+    private boolean normalize = false;
+    private int renderHint = SunHints.INTVAL_RENDER_DEFAULT;
+    private Region clip;
+
+    /**
+     * Create a renderer into a packed mask (scanline = width)
+     * @param mask coverage mask (0 = none, 255 = full)
+     * @param width width in pixels
+     * @param height height in pixels
+     */
+    public CoverageRenderer(final byte[] mask, final int width, final int height) {
+        this(mask, 0, width, height, width);
+    }
+
+    /**
+     * Create a renderer into the given mask region
+     * @param mask coverage mask (0 = none, 255 = full)
+     * @param offset offset of the pixel (0, 0)
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param scanline scanline stride
+     */
+    public CoverageRenderer(final byte[] mask, final int offset,
+                            final int width, final int height, final int scanline) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + " x " + height);
+        }
+        if (scanline < width) {
+            throw new IllegalArgumentException("Invalid scanline stride: " + scanline);
+        }
+        if ((offset < 0) || ((long) offset + (long) scanline * (height - 1) + width > mask.length)) {
+            throw new IllegalArgumentException("Invalid offset: " + offset + " (mask too small)");
+        }
+        this.mask = mask;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.scanline = scanline;
+        this.clip = Region.getInstanceXYWH(0, 0, width, height);
+    }
+
+    public byte[] getMask() {
+        return mask;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Set the accumulation mode (MAX by default)
+     * @param mode accumulation mode
+     */
+    public void setMode(final Mode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        this.mode = mode;
+    }
+
+    public void setTransform(final AffineTransform transform) {
+        this.transform = new AffineTransform(transform);
+    }
+
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    public void setStroke(final BasicStroke stroke) {
+        this.stroke = stroke;
+    }
+
+    /**
+     * Set the stroke control (like KEY_STROKE_CONTROL)
+     * @param normalize true to normalize strokes; false for pure strokes (default)
+     */
+    public void setStrokeNormalization(final boolean normalize) {
+        this.normalize = normalize;
+    }
+
+    /**
+     * Set the rendering engine tier (like KEY_RENDERING)
+     * @param value RenderingHints.VALUE_RENDER_[DEFAULT|SPEED|QUALITY] (default)
+     */
+    public void setRenderQuality(final Object value) {
+        this.renderHint = AAShapePipe.getRenderHint(value);
+    }
+
+    /**
+     * Set the clip rectangle (device space) intersected with the mask bounds
+     * @param clip clip rectangle or null to reset
+     */
+    public void setClip(final Rectangle clip) {
+        Region r = Region.getInstanceXYWH(0, 0, width, height);
+        if (clip != null) {
+            r = r.getIntersectionXYWH(clip.x, clip.y, clip.width, clip.height);
+        }
+        this.clip = r;
+    }
+
+    /**
+     * Clear the mask (0 = no coverage)
+     */
+    public void clear() {
+        for (int y = 0; y < height; y++) {
+            final int off = offset + y * scanline;
+            Arrays.fill(mask, off, off + width, (byte) 0);
+        }
+    }
+
+    public void fill(final Shape s) {
+        render(s, null);
+    }
+
+    public void draw(final Shape s) {
+        render(s, stroke);
+    }
+
+    private void render(final Shape s, final BasicStroke bs) {
+        if (clip.isEmpty()) {
+            return;
+        }
+        final int[] box = abox;
+
+        final RenderingEngine engine = AAShapePipe.getEngine(renderHint);
+        // thin strokes use the minimum pen size (like AAShapePipe):
+        final boolean thin = (bs != null) && AAShapePipe.isThinStroke(engine, bs, transform);
+
+        final AATileGenerator aatg = engine.getAATileGenerator(s, transform, clip,
+                bs, thin, (bs != null) && normalize, box);
+        if (aatg == null) {
+            return;
+        }
+        try {
+            // copy of int[] abox as local variables for performance:
+            final int x0 = box[0];
+            final int y0 = box[1];
+            final int x1 = box[2];
+            final int y1 = box[3];
+
+            final int tw = aatg.getTileWidth();
+            final int th = aatg.getTileHeight();
+
+            final byte[] alpha = getAlphaTile(tw * th);
+            final Mode m = mode;
+
+            for (int y = y0; y < y1; y += th) {
+                final int h = Math.min(th, y1 - y);
+
+                for (int x = x0; x < x1; x += tw) {
+                    final int w = Math.min(tw, x1 - x);
+
+                    final int a = aatg.getTypicalAlpha();
+
+                    if (a == 0x00 || a == 0xff) {
+                        aatg.nextTile();
+                        if ((a == 0xff) || (m == Mode.REPLACE)) {
+                            fillTile((byte) a, x, y, w, h);
+                        }
+                    } else {
+                        aatg.getAlpha(alpha, 0, tw);
+                        renderTile(m, alpha, tw, x, y, w, h);
+                    }
+                }
+            }
+        } finally {
+            aatg.dispose();
+        }
+    }
+
+    /**
+     * Constant coverage: full tile (any mode saturates) or empty tile (REPLACE)
+     */
+    private void fillTile(final byte a, final int x, final int y, final int w, final int h) {
+        final byte[] dst = mask;
+
+        for (int j = 0; j < h; j++) {
+            final int off = offset + (y + j) * scanline + x;
+            Arrays.fill(dst, off, off + w, a);
+        }
+    }
+
+    private void renderTile(final Mode m, final byte[] atile, final int tilesize,
+                            final int x, final int y, final int w, final int h) {
+        final byte[] dst = mask;
+        int off, offTile, v;
+
+        for (int j = 0; j < h; j++) {
+            off = offset + (y + j) * scanline + x;
+            offTile = j * tilesize;
+
+            switch (m) {
+                case REPLACE:
+                    System.arraycopy(atile, offTile, dst, off, w);
+                    break;
+                case ADD:
+                    for (int i = 0; i < w; i++) {
+                        v = (dst[off + i] & 0xFF) + (atile[offTile + i] & 0xFF);
+                        dst[off + i] = (byte) ((v > 0xFF) ? 0xFF : v);
+                    }
+                    break;
+                default:
+                case MAX:
+                    for (int i = 0; i < w; i++) {
+                        v = atile[offTile + i] & 0xFF;
+                        if (v > (dst[off + i] & 0xFF)) {
+                            dst[off + i] = (byte) v;
+                        }
+                    }
+            }
+        }
+    }
+
+    private byte[] getAlphaTile(final int len) {
+        byte[] t = alphaTile;
+        if (t.length < len) {
+            alphaTile = t = new byte[len];
+        }
+        return t;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class accumulates the device areas touched by rendering operations
+ * into a coarse grid of cells (bitmap) and their union bounds: callers can
+ * then redraw or re-encode only the changed cells (incremental redraw,
+ * delta encoding of frames).
+ *
+ * Attach it to a MarlinGraphics2D with setDirtyRegion() (opt-in). Bounds are
+ * conservative (shape bounds expanded by the stroke and antialiasing).
+ * Instances are not thread-safe.
+ */
+public final class DirtyRegion {
+
+    /** default cell size in pixels */
+    public final static int DEFAULT_CELL_SIZE = 32;
+
+    /* members */
+    private final int width;
+    private final int height;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final boolean[] cells;
+    /* union bounds [x0, y0, x1, y1[ (empty if x0 >= x1) */
+    private int bx0, by0, bx1, by1;
+
+    public DirtyRegion(final int width, final int height) {
+        this(width, height, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Create an empty region
+     * @param width surface width in pixels
+     * @param height surface height in pixels
+     * @param cellSize cell size in pixels
+     */
+    public DirtyRegion(final int width, final int height, final int cellSize) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + " x " + height);
+        }
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        this.columns = (width + cellSize - 1) / cellSize;
+        this.rows = (height + cellSize - 1) / cellSize;
+        this.cells = new boolean[columns * rows];
+        clear();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Reset this region (no dirty cell)
+     */
+    public void clear() {
+        Arrays.fill(cells, false);
+        bx0 = by0 = Integer.MAX_VALUE;
+        bx1 = by1 = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Add the given device rectangle (clipped to the surface bounds)
+     * @param x x
+     * @param y y
+     * @param w width
+     * @param h height
+     */
+    public void add(final int x, final int y, final int w, final int h) {
+        final int x0 = Math.max(0, x);
+        final int y0 = Math.max(0, y);
+        final int x1 = (int) Math.min(width, (long) x + w);
+        final int y1 = (int) Math.min(height, (long) y + h);
+
+        if ((x0 >= x1) || (y0 >= y1)) {
+            return;
+        }
+        if (x0 < bx0) {
+            bx0 = x0;
+        }
+        if (y0 < by0) {
+            by0 = y0;
+        }
+        if (x1 > bx1) {
+            bx1 = x1;
+        }
+        if (y1 > by1) {
+            by1 = y1;
+        }
+        final int cs = cellSize;
+        final int c0 = x0 / cs;
+        final int c1 = (x1 - 1) / cs + 1;
+
+        for (int r = y0 / cs, r1 = (y1 - 1) / cs; r <= r1; r++) {
+            Arrays.fill(cells, r * columns + c0, r * columns + c1, true);
+        }
+    }
+
+    /**
+     * Mark the whole surface as dirty
+     */
+    public void addAll() {
+        add(0, 0, width, height);
+    }
+
+    public boolean isEmpty() {
+        return bx0 >= bx1;
+    }
+
+    /**
+     * @return union bounds of the added rectangles (empty rectangle if none)
+     */
+    public Rectangle getBounds() {
+        if (isEmpty()) {
+            return new Rectangle();
+        }
+        return new Rectangle(bx0, by0, bx1 - bx0, by1 - by0);
+    }
+
+    /**
+     * @param column cell column
+     * @param row cell row
+     * @return true if the given cell is dirty
+     */
+    public boolean isDirty(final int column, final int row) {
+        return cells[row * columns + column];
+    }
+
+    /**
+     * @param r device rectangle
+     * @return true if any cell intersecting the given rectangle is dirty
+     */
+    public boolean isDirty(final Rectangle r) {
+        final int x0 = Math.max(0, r.x);
+        final int y0 = Math.max(0, r.y);
+        final int x1 = (int) Math.min(width, (long) r.x + r.width);
+        final int y1 = (int) Math.min(height, (long) r.y + r.height);
+
+        if ((x0 >= x1) || (y0 >= y1) || isEmpty()) {
+            return false;
+        }
+        final int cs = cellSize;
+        for (int row = y0 / cs, r1 = (y1 - 1) / cs; row <= r1; row++) {
+            for (int col = x0 / cs, c1 = (x1 - 1) / cs; col <= c1; col++) {
+                if (cells[row * columns + col]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the dirty cells as device rectangles: horizontal runs of cells
+     * merged with the runs of the next rows having the same extent
+     * @return list of disjoint rectangles (clipped to the surface bounds)
+     */
+    public List<Rectangle> getRectangles() {
+        final List<Rectangle> rects = new ArrayList<Rectangle>();
+        if (isEmpty()) {
+            return rects;
+        }
+        final int cs = cellSize;
+        // open rectangles of the previous row (by start column):
+        Rectangle[] open = new Rectangle[columns];
+        Rectangle[] next = new Rectangle[columns];
+
+        for (int row = 0; row < rows; row++) {
+            final int y = row * cs;
+            final int h = Math.min(cs, height - y);
+            final int off = row * columns;
+
+            for (int col = 0; col < columns;) {
+                if (!cells[off + col]) {
+                    col++;
+                    continue;
+                }
+                final int c0 = col;
+                while ((col < columns) && cells[off + col]) {
+                    col++;
+                }
+                final int x = c0 * cs;
+                final int w = Math.min(col * cs, width) - x;
+
+                Rectangle r = open[c0];
+                if ((r != null) && (r.width == w)) {
+                    // extend the rectangle of the previous row:
+                    r.height += h;
+                } else {
+                    r = new Rectangle(x, y, w, h);
+                    rects.add(r);
+                }
+                next[c0] = r;
+            }
+            final Rectangle[] t = open;
+            open = next;
+            next = t;
+            Arrays.fill(next, null);
+        }
+        return rects;
+    }
+
+    @Override
+    public String toString() {
+        return "DirtyRegion[" + width + " x " + height + " cell=" + cellSize
+                + " bounds=" + (isEmpty() ? "empty" : getBounds().toString()) + "]";
+    }
+}
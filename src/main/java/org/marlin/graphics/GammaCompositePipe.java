@@ -30,8 +30,20 @@ import java.awt.Composite;
 import java.awt.PaintContext;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import sun.awt.image.SunWritableRaster;
+import sun.java2d.ReentrantContext;
+import sun.java2d.ReentrantContextProvider;
+import sun.java2d.ReentrantContextProviderCLQ;
+import sun.java2d.ReentrantContextProviderTL;
 import sun.java2d.SunGraphics2D;
 import sun.java2d.SurfaceData;
 import sun.java2d.loops.SurfaceType;
@@ -42,23 +54,50 @@ public final class GammaCompositePipe implements CompositePipe {
     /**
      * Per-thread TileContext (very small so do not use any Soft or Weak Reference)
      */
-    private static final ThreadLocal<TileContext> tileContextThreadLocal = new ThreadLocal<TileContext>() {
-        @Override
-        protected TileContext initialValue() {
-            return new TileContext();
-        }
-    };
+    private static final ReentrantContextProvider<TileContext> TILE_CONTEXT_PROVIDER_TL =
+            new ReentrantContextProviderTL<TileContext>(
+                    ReentrantContextProvider.REF_HARD)
+            {
+                @Override
+                protected TileContext newContext() {
+                    return new TileContext();
+                }
+            };
+
+    /**
+     * Shared TileContext queue (virtual threads: as many contexts as concurrent renderings)
+     */
+    private static final ReentrantContextProvider<TileContext> TILE_CONTEXT_PROVIDER_CLQ =
+            new ReentrantContextProviderCLQ<TileContext>(
+                    ReentrantContextProvider.REF_HARD)
+            {
+                @Override
+                protected TileContext newContext() {
+                    return new TileContext();
+                }
+            };
+
+    final static class TileContext extends ReentrantContext {
 
-    final static class TileContext {
+        // blending contexts (reused):
+        final BlendComposite.BlendingContextCache blendContexts = new BlendComposite.BlendingContextCache();
 
         int colorRGBA;
         PaintContext paintCtxt;
         BlendComposite.BlendingContext compCtxt;
         BlendComposite blendComposite = null;
         SurfaceData sd = null;
+        // direct access to the destination pixels (solid color only):
+        int[] dstInts = null;
+        byte[] dstBytes = null;
+        Object dstData = null; // opaque formats (int[], byte[] or short[])
+        int dstPixelStride;
+        int dstOffset; // offset of the pixel (0,0)
+        int dstScan;
+        final int[] dstBandOffsets = new int[4];
 
         TileContext() {
-            // ThreadLocal constructor
+            // ReentrantContextProvider constructor
         }
 
         void init(final SurfaceData sd,
@@ -82,9 +121,138 @@ public final class GammaCompositePipe implements CompositePipe {
             compCtxt = null;
             blendComposite = null;
             sd = null;
+            dstInts = null;
+            dstBytes = null;
+            dstData = null;
+        }
+
+        /**
+         * Prepare direct access to the destination array
+         * if its layout is the standard one (no row copies needed)
+         */
+        void initDirect(final Raster dstRaster) {
+            final SampleModel sm = dstRaster.getSampleModel();
+            final DataBuffer db = dstRaster.getDataBuffer();
+
+            if (db.getNumBanks() != 1) {
+                return;
+            }
+            final int tx = dstRaster.getSampleModelTranslateX();
+            final int ty = dstRaster.getSampleModelTranslateY();
+
+            if (compCtxt instanceof BlendingContextOpaque) {
+                initDirectOpaque(sm, db, tx, ty);
+
+            } else if ((db instanceof DataBufferInt) && (sm instanceof SinglePixelPackedSampleModel)) {
+                final SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+                if (sppsm.getNumBands() != 4) {
+                    return;
+                }
+                dstScan = sppsm.getScanlineStride();
+                dstOffset = db.getOffset() - ty * dstScan - tx;
+                // do not mark the image untrackable (ie keep acceleration):
+                dstInts = SunWritableRaster.stealData((DataBufferInt) db, 0);
+
+            } else if ((db instanceof DataBufferByte) && (sm instanceof PixelInterleavedSampleModel)) {
+                final PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+                if ((pism.getNumBands() != 4) || (pism.getPixelStride() != 4)) {
+                    return;
+                }
+                final int[] bandOffsets = pism.getBandOffsets();
+                for (int i = 0; i < 4; i++) {
+                    dstBandOffsets[i] = bandOffsets[i];
+                }
+                dstScan = pism.getScanlineStride();
+                dstOffset = db.getOffset() - ty * dstScan - (tx << 2);
+                // do not mark the image untrackable (ie keep acceleration):
+                dstBytes = SunWritableRaster.stealData((DataBufferByte) db, 0);
+            }
+        }
+
+        /**
+         * Opaque formats: IntRgb / IntBgr / Ushort565Rgb (packed) and
+         * ThreeByteBgr / ByteGray (interleaved with the standard band offsets)
+         */
+        private void initDirectOpaque(final SampleModel sm, final DataBuffer db,
+                                      final int tx, final int ty) {
+            final Object data;
+            final int scan, pixelStride;
+
+            if (sm instanceof SinglePixelPackedSampleModel) {
+                final SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+                scan = sppsm.getScanlineStride();
+                pixelStride = 1;
+                // do not mark the image untrackable (ie keep acceleration):
+                if (db instanceof DataBufferInt) {
+                    data = SunWritableRaster.stealData((DataBufferInt) db, 0);
+                } else if (db instanceof DataBufferUShort) {
+                    data = SunWritableRaster.stealData((DataBufferUShort) db, 0);
+                } else {
+                    return;
+                }
+            } else if ((sm instanceof PixelInterleavedSampleModel) && (db instanceof DataBufferByte)) {
+                final PixelInterleavedSampleModel pism = (PixelInterleavedSampleModel) sm;
+                final int[] bandOffsets = pism.getBandOffsets();
+                pixelStride = pism.getPixelStride();
+
+                if (pixelStride == 3) {
+                    // ThreeByteBgr: B, G, R bytes
+                    if ((bandOffsets.length != 3) || (bandOffsets[0] != 2)
+                            || (bandOffsets[1] != 1) || (bandOffsets[2] != 0)) {
+                        return;
+                    }
+                } else if ((pixelStride != 1) || (bandOffsets.length != 1) || (bandOffsets[0] != 0)) {
+                    return;
+                }
+                scan = pism.getScanlineStride();
+                // do not mark the image untrackable (ie keep acceleration):
+                data = SunWritableRaster.stealData((DataBufferByte) db, 0);
+            } else {
+                return;
+            }
+            dstScan = scan;
+            dstPixelStride = pixelStride;
+            dstOffset = db.getOffset() - ty * scan - tx * pixelStride;
+            dstData = data;
         }
     }
 
+    /**
+     * Return true if the given surface type is supported by this pipe
+     * @param sdt surface type
+     * @return true if supported
+     */
+    static boolean isSupported(final SurfaceType sdt) {
+        return (sdt == SurfaceType.IntArgb) || (sdt == SurfaceType.IntArgbPre)
+                || (sdt == SurfaceType.FourByteAbgr) || (sdt == SurfaceType.FourByteAbgrPre)
+                || BlendingContextOpaque.isSupported(sdt);
+    }
+
+    /**
+     * Return true if the given composite is supported by this pipe
+     * @param comp composite
+     * @return true if supported
+     */
+    static boolean isSupported(final Composite comp) {
+        return (comp instanceof AlphaComposite)
+                && (((AlphaComposite) comp).getRule() == AlphaComposite.SRC_OVER);
+    }
+
+    /* members */
+    private final ReentrantContextProvider<TileContext> tileContextProvider;
+
+    public GammaCompositePipe() {
+        this(true);
+    }
+
+    /**
+     * @param useThreadLocal true to use per-thread contexts; false to use a
+     * shared queue of contexts (many threads like virtual threads)
+     */
+    public GammaCompositePipe(final boolean useThreadLocal) {
+        this.tileContextProvider = (useThreadLocal) ? TILE_CONTEXT_PROVIDER_TL : TILE_CONTEXT_PROVIDER_CLQ;
+    }
+
     @Override
     public Object startSequence(final SunGraphics2D sg, final Shape s, final Rectangle devR,
                                 final int[] abox) {
@@ -123,16 +291,23 @@ public final class GammaCompositePipe implements CompositePipe {
         final SurfaceData sd = sg.getSurfaceData();
         final SurfaceType sdt = sd.getSurfaceType();
 
-        if ((sdt != SurfaceType.IntArgb) && (sdt != SurfaceType.IntArgbPre)
-                && (sdt != SurfaceType.FourByteAbgr) && (sdt != SurfaceType.FourByteAbgrPre)) {
+        if (!isSupported(sdt)) {
             throw new IllegalArgumentException("Unsupported surface type: " + sdt);
         }
 
-        final BlendComposite.BlendingContext compositeContext = blendComposite.createContext(sdt);
-
-        // use ThreadLocal (to reduce memory footprint):
-        final TileContext tc = tileContextThreadLocal.get();
+        // use the context provider (to reduce memory footprint):
+        final TileContext tc = tileContextProvider.acquire();
+        final BlendComposite.BlendingContext compositeContext
+                                             = blendComposite.createContext(sdt, tc.blendContexts);
         tc.init(sd, colorRGBA, paintContext, compositeContext, blendComposite);
+
+        if (paintContext == null) {
+            // solid color: MaskFill-like loops on the destination array:
+            tc.initDirect(sd.getRaster(devR.x, devR.y, devR.width, devR.height));
+        } else if (compositeContext instanceof BlendingContextOpaque) {
+            // xrgb / xbgr paint rasters (opaque gradients on rgb / bgr surfaces):
+            ((BlendingContextOpaque) compositeContext).setSourceColorModel(paintContext.getColorModel());
+        }
         return tc;
     }
 
@@ -153,6 +328,24 @@ public final class GammaCompositePipe implements CompositePipe {
         final TileContext context = (TileContext) ctx;
         final BlendComposite.BlendingContext compCtxt = context.compCtxt;
 
+        if (context.dstInts != null) {
+            ((BlendingContextIntARGB) compCtxt).fill(context.colorRGBA, atile, offset, tilesize,
+                    context.dstInts, context.dstOffset + y * context.dstScan + x, context.dstScan, w, h);
+            return;
+        }
+        if (context.dstBytes != null) {
+            ((BlendingContextByteABGR) compCtxt).fill(context.colorRGBA, atile, offset, tilesize,
+                    context.dstBytes, context.dstOffset + y * context.dstScan + (x << 2), context.dstScan,
+                    context.dstBandOffsets, w, h);
+            return;
+        }
+        if (context.dstData != null) {
+            ((BlendingContextOpaque) compCtxt).fill(context.colorRGBA, atile, offset, tilesize,
+                    context.dstData, context.dstOffset + y * context.dstScan + x * context.dstPixelStride,
+                    context.dstScan, w, h);
+            return;
+        }
+
         int rgba = 0;
         final PaintContext paintCtxt = context.paintCtxt;
         final Raster srcRaster;
@@ -190,6 +383,8 @@ public final class GammaCompositePipe implements CompositePipe {
 
     @Override
     public void endSequence(Object ctx) {
-        ((TileContext) ctx).dispose();
+        final TileContext tc = (TileContext) ctx;
+        tc.dispose();
+        tileContextProvider.release(tc);
     }
 }
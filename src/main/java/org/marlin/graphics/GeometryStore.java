@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * This class retains static geometry (shapes with their paint and stroke)
+ * and indexes their precomputed bounds into a uniform grid packed into
+ * primitive arrays: render() only submits the shapes intersecting the
+ * visible area (clip) of the graphics, so panning over a large scene costs
+ * work proportional to what is visible instead of rejecting every shape in
+ * the rasterizer. Shapes spanning many cells (backgrounds, long polylines)
+ * are kept in a separate list tested by every query so the index stays small.
+ *
+ * Shapes are rendered in insertion order. The index is (re)built lazily on
+ * the first query after shapes were added. Instances are not thread-safe.
+ */
+public final class GeometryStore {
+
+    /* maximum number of grid cells per axis */
+    private final static int MAX_CELLS = 1024;
+    /* maximum number of grid cells per shape (larger shapes are always tested) */
+    private final static int MAX_SHAPE_CELLS = 64;
+    /* minimum shape extent (user units) used by the automatic cell size */
+    private final static double MIN_CELL_SIZE = 1e-6;
+    private final static double SQRT_2 = Math.sqrt(2.0);
+
+    /* members */
+    private final double cellSizeHint;
+    private int size = 0;
+    private Shape[] shapes = new Shape[256];
+    private Paint[] paints = new Paint[256];
+    private Stroke[] strokes = new Stroke[256];
+    /* shape bounds (user space) as [x0, y0, x1, y1] per shape */
+    private double[] bounds = new double[256 * 4];
+    /* grid index (CSR: items of cell i in cellItems[cellStart[i], cellStart[i + 1][) */
+    private boolean indexValid = false;
+    private double gx0, gy0, cellSize;
+    private int cols, rows;
+    private int[] cellStart = null;
+    private int[] cellItems = null;
+    /* oversized shapes (spanning more than MAX_SHAPE_CELLS cells) in insertion order */
+    private int[] oversized = null;
+    private int oversizedCount = 0;
+    /* query state */
+    private int[] marks = new int[256];
+    private int stamp = 0;
+    private int[] result = new int[256];
+
+    /**
+     * Create an empty store using an automatic cell size (average shape extent)
+     */
+    public GeometryStore() {
+        this(0.0);
+    }
+
+    /**
+     * Create an empty store
+     * @param cellSize grid cell size in user units or 0 for automatic
+     */
+    public GeometryStore(final double cellSize) {
+        if (!(cellSize >= 0.0) || Double.isInfinite(cellSize)) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        this.cellSizeHint = cellSize;
+    }
+
+    /**
+     * Add a shape to fill with the given paint
+     * @param shape shape (user space, must not be modified after)
+     * @param paint paint or null to use the current paint
+     * @return shape index
+     */
+    public int fill(final Shape shape, final Paint paint) {
+        return add(shape, paint, null);
+    }
+
+    /**
+     * Add a shape to draw (stroke) with the given paint
+     * @param shape shape (user space, must not be modified after)
+     * @param paint paint or null to use the current paint
+     * @param stroke stroke (required as the shape bounds include its width)
+     * @return shape index
+     */
+    public int draw(final Shape shape, final Paint paint, final Stroke stroke) {
+        if (stroke == null) {
+            throw new NullPointerException("stroke");
+        }
+        return add(shape, paint, stroke);
+    }
+
+    private int add(final Shape shape, final Paint paint, final Stroke stroke) {
+        if (shape == null) {
+            throw new NullPointerException("shape");
+        }
+        final Rectangle2D b = getBounds(shape, stroke);
+
+        final int i = size;
+        if (i == shapes.length) {
+            final int len = i << 1;
+            shapes = Arrays.copyOf(shapes, len);
+            paints = Arrays.copyOf(paints, len);
+            strokes = Arrays.copyOf(strokes, len);
+            bounds = Arrays.copyOf(bounds, len << 2);
+        }
+        shapes[i] = shape;
+        paints[i] = paint;
+        strokes[i] = stroke;
+        final int off = i << 2;
+        bounds[off] = b.getMinX();
+        bounds[off + 1] = b.getMinY();
+        bounds[off + 2] = b.getMaxX();
+        bounds[off + 3] = b.getMaxY();
+
+        size = i + 1;
+        indexValid = false;
+        return i;
+    }
+
+    private static Rectangle2D getBounds(final Shape shape, final Stroke stroke) {
+        if (stroke == null) {
+            return shape.getBounds2D();
+        }
+        if (stroke instanceof BasicStroke) {
+            final BasicStroke bs = (BasicStroke) stroke;
+            final double f = (bs.getLineJoin() == BasicStroke.JOIN_MITER)
+                             ? Math.max(bs.getMiterLimit(), SQRT_2) : SQRT_2;
+            final double pad = 0.5 * bs.getLineWidth() * f;
+            final Rectangle2D b = shape.getBounds2D();
+            b.setFrame(b.getX() - pad, b.getY() - pad,
+                       b.getWidth() + 2.0 * pad, b.getHeight() + 2.0 * pad);
+            return b;
+        }
+        return stroke.createStrokedShape(shape).getBounds2D();
+    }
+
+    /**
+     * Remove all shapes
+     */
+    public void clear() {
+        Arrays.fill(shapes, 0, size, null);
+        Arrays.fill(paints, 0, size, null);
+        Arrays.fill(strokes, 0, size, null);
+        size = 0;
+        indexValid = false;
+        cellStart = null;
+        cellItems = null;
+        oversized = null;
+        oversizedCount = 0;
+    }
+
+    /**
+     * @return number of shapes
+     */
+    public int size() {
+        return size;
+    }
+
+    public Shape getShape(final int index) {
+        checkIndex(index);
+        return shapes[index];
+    }
+
+    /**
+     * @param index shape index
+     * @return shape bounds in user space (including the stroke)
+     */
+    public Rectangle2D getBounds(final int index) {
+        checkIndex(index);
+        final int off = index << 2;
+        return new Rectangle2D.Double(bounds[off], bounds[off + 1],
+                bounds[off + 2] - bounds[off], bounds[off + 3] - bounds[off + 1]);
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Invalid index: " + index);
+        }
+    }
+
+    /**
+     * Find the shapes whose bounds intersect the given area (user space)
+     * @param area area in user space
+     * @return shape indices in insertion order
+     */
+    public int[] query(final Rectangle2D area) {
+        final int n = query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Render the shapes intersecting the visible area of the given graphics
+     * (clip bounds or device bounds) in insertion order. The graphics paint
+     * and stroke are restored after.
+     * @param g2d graphics
+     * @return number of rendered shapes
+     */
+    public int render(final Graphics2D g2d) {
+        final Rectangle2D area = getVisibleArea(g2d);
+        if (area == null) {
+            return 0;
+        }
+        final int n = query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY());
+        if (n == 0) {
+            return 0;
+        }
+        final int[] ids = result;
+        final Paint paint = g2d.getPaint();
+        final Stroke stroke = g2d.getStroke();
+        try {
+            Paint lastPaint = paint;
+            Stroke lastStroke = stroke;
+
+            for (int i = 0; i < n; i++) {
+                final int id = ids[i];
+                final Paint p = (paints[id] != null) ? paints[id] : paint;
+                if (p != lastPaint) {
+                    g2d.setPaint(p);
+                    lastPaint = p;
+                }
+                final Stroke s = strokes[id];
+                if (s == null) {
+                    g2d.fill(shapes[id]);
+                } else {
+                    if (s != lastStroke) {
+                        g2d.setStroke(s);
+                        lastStroke = s;
+                    }
+                    g2d.draw(shapes[id]);
+                }
+            }
+        } finally {
+            g2d.setPaint(paint);
+            g2d.setStroke(stroke);
+        }
+        return n;
+    }
+
+    /**
+     * Returns the visible area in user space: device clip (MarlinGraphics2D)
+     * or clip bounds (or device bounds) expanded by 1 pixel (antialiasing,
+     * thin lines)
+     */
+    private static Rectangle2D getVisibleArea(final Graphics2D g2d) {
+        final AffineTransform at = g2d.getTransform();
+        final AffineTransform inv;
+        try {
+            inv = at.createInverse();
+        } catch (NoninvertibleTransformException nte) {
+            return null;
+        }
+        if (g2d instanceof MarlinGraphics2D) {
+            // device clip (user clip and surface bounds):
+            final Rectangle clip = ((MarlinGraphics2D) g2d).getDeviceClipBounds();
+            if (clip.isEmpty()) {
+                return null;
+            }
+            clip.grow(1, 1);
+            return inv.createTransformedShape(clip).getBounds2D();
+        }
+        final Rectangle clip = g2d.getClipBounds();
+        final Rectangle2D area;
+        if (clip != null) {
+            area = new Rectangle2D.Double(clip.x, clip.y, clip.width, clip.height);
+        } else {
+            final Rectangle device = g2d.getDeviceConfiguration().getBounds();
+            area = inv.createTransformedShape(device).getBounds2D();
+        }
+        // 1 pixel in user space:
+        final double pad = Math.max(Math.hypot(inv.getScaleX(), inv.getShearY()),
+                                    Math.hypot(inv.getShearX(), inv.getScaleY()));
+        area.setFrame(area.getX() - pad, area.getY() - pad,
+                      area.getWidth() + 2.0 * pad, area.getHeight() + 2.0 * pad);
+        return area;
+    }
+
+    /**
+     * Collect the shapes intersecting [x0, x1] x [y0, y1] into result
+     * @return number of shapes
+     */
+    private int query(final double x0, final double y0, final double x1, final double y1) {
+        if (size == 0 || !(x0 <= x1) || !(y0 <= y1)) {
+            return 0;
+        }
+        if (!indexValid) {
+            buildIndex();
+        }
+        final double inv = 1.0 / cellSize;
+        final int cx0 = clamp((int) Math.floor((x0 - gx0) * inv), cols);
+        final int cx1 = clamp((int) Math.floor((x1 - gx0) * inv), cols);
+        final int cy0 = clamp((int) Math.floor((y0 - gy0) * inv), rows);
+        final int cy1 = clamp((int) Math.floor((y1 - gy0) * inv), rows);
+
+        final int[] start = cellStart;
+        final int[] items = cellItems;
+        final double[] bds = bounds;
+        final int[] mk = marks;
+        int[] res = result;
+        int n = 0;
+
+        if (++stamp == 0) {
+            // stamp overflow:
+            Arrays.fill(mk, 0);
+            stamp = 1;
+        }
+        final int st = stamp;
+
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                final int cell = cy * cols + cx;
+
+                for (int k = start[cell], end = start[cell + 1]; k < end; k++) {
+                    final int id = items[k];
+                    if (mk[id] == st) {
+                        continue;
+                    }
+                    mk[id] = st;
+                    final int off = id << 2;
+                    if ((bds[off] <= x1) && (bds[off + 2] >= x0)
+                            && (bds[off + 1] <= y1) && (bds[off + 3] >= y0)) {
+                        if (n == res.length) {
+                            result = res = Arrays.copyOf(res, n << 1);
+                        }
+                        res[n++] = id;
+                    }
+                }
+            }
+        }
+        final int nCells = n;
+
+        // oversized shapes (not in cells):
+        final int[] big = oversized;
+        for (int k = 0, end = oversizedCount; k < end; k++) {
+            final int id = big[k];
+            final int off = id << 2;
+            if ((bds[off] <= x1) && (bds[off + 2] >= x0)
+                    && (bds[off + 1] <= y1) && (bds[off + 3] >= y0)) {
+                if (n == res.length) {
+                    result = res = Arrays.copyOf(res, n << 1);
+                }
+                res[n++] = id;
+            }
+        }
+        if ((cx0 != cx1) || (cy0 != cy1) || ((nCells != 0) && (n != nCells))) {
+            // shapes spanning several cells or oversized: restore the insertion order
+            Arrays.sort(res, 0, n);
+        }
+        return n;
+    }
+
+    private static int clamp(final int c, final int max) {
+        return (c < 0) ? 0 : ((c >= max) ? max - 1 : c);
+    }
+
+    /**
+     * Build the grid index over the union bounds of all shapes
+     */
+    private void buildIndex() {
+        final int n = size;
+        final double[] bds = bounds;
+
+        double ux0 = Double.POSITIVE_INFINITY, uy0 = Double.POSITIVE_INFINITY;
+        double ux1 = Double.NEGATIVE_INFINITY, uy1 = Double.NEGATIVE_INFINITY;
+        double extent = 0.0;
+
+        for (int i = 0, off = 0; i < n; i++, off += 4) {
+            ux0 = Math.min(ux0, bds[off]);
+            uy0 = Math.min(uy0, bds[off + 1]);
+            ux1 = Math.max(ux1, bds[off + 2]);
+            uy1 = Math.max(uy1, bds[off + 3]);
+            extent += Math.max(bds[off + 2] - bds[off], bds[off + 3] - bds[off + 1]);
+        }
+        double cs = (cellSizeHint > 0.0) ? cellSizeHint : Math.max(MIN_CELL_SIZE, extent / n);
+        // limit the grid size:
+        cs = Math.max(cs, Math.max(ux1 - ux0, uy1 - uy0) / MAX_CELLS);
+
+        gx0 = ux0;
+        gy0 = uy0;
+        cellSize = cs;
+        cols = clampCells((ux1 - ux0) / cs);
+        rows = clampCells((uy1 - uy0) / cs);
+
+        final double inv = 1.0 / cs;
+        final int nc = cols * rows;
+        final int[] start = new int[nc + 1];
+        final boolean[] big = new boolean[n];
+        int[] bigItems = new int[16];
+        int nBig = 0;
+
+        // pass 1: count items per cell
+        for (int i = 0, off = 0; i < n; i++, off += 4) {
+            final int cx0 = clamp((int) ((bds[off] - ux0) * inv), cols);
+            final int cx1 = clamp((int) ((bds[off + 2] - ux0) * inv), cols);
+            final int cy0 = clamp((int) ((bds[off + 1] - uy0) * inv), rows);
+            final int cy1 = clamp((int) ((bds[off + 3] - uy0) * inv), rows);
+
+            if ((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > MAX_SHAPE_CELLS) {
+                // oversized: tested by every query instead of filling many cells
+                big[i] = true;
+                if (nBig == bigItems.length) {
+                    bigItems = Arrays.copyOf(bigItems, nBig << 1);
+                }
+                bigItems[nBig++] = i;
+                continue;
+            }
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    start[cy * cols + cx + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < nc; c++) {
+            start[c + 1] += start[c];
+        }
+        // pass 2: fill items (insertion order within each cell)
+        final int[] items = new int[start[nc]];
+        final int[] pos = Arrays.copyOf(start, nc);
+
+        for (int i = 0, off = 0; i < n; i++, off += 4) {
+            if (big[i]) {
+                continue;
+            }
+            final int cx0 = clamp((int) ((bds[off] - ux0) * inv), cols);
+            final int cx1 = clamp((int) ((bds[off + 2] - ux0) * inv), cols);
+            final int cy0 = clamp((int) ((bds[off + 1] - uy0) * inv), rows);
+            final int cy1 = clamp((int) ((bds[off + 3] - uy0) * inv), rows);
+
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    items[pos[cy * cols + cx]++] = i;
+                }
+            }
+        }
+        cellStart = start;
+        cellItems = items;
+        oversized = bigItems;
+        oversizedCount = nBig;
+
+        if (marks.length < n) {
+            marks = new int[shapes.length];
+            stamp = 0;
+        }
+        indexValid = true;
+    }
+
+    private static int clampCells(final double len) {
+        return Math.max(1, Math.min(MAX_CELLS, (int) Math.ceil(len)));
+    }
+
+    @Override
+    public String toString() {
+        return "GeometryStore[" + size + " shapes"
+                + ((indexValid) ? ", grid: " + cols + " x " + rows + " cells of " + cellSize
+                        + ", oversized: " + oversizedCount : "")
+                + "]";
+    }
+}
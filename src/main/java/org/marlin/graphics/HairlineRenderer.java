@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 1997, 2016, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+import sun.java2d.ReentrantContext;
+import sun.java2d.ReentrantContextProvider;
+import sun.java2d.ReentrantContextProviderCLQ;
+import sun.java2d.ReentrantContextProviderTL;
+import sun.java2d.SunGraphics2D;
+import sun.java2d.pipe.CompositePipe;
+import sun.java2d.pipe.Region;
+
+/**
+ * This class renders thin lines (hairlines up to 1.5 device pixels wide)
+ * without using the rendering engine (no stroker nor edge list):
+ * the path is flattened in device space and each segment coverage is
+ * computed analytically (Wu-style: per major-axis pixel, the coverage is
+ * the overlap of the line thickness with the minor-axis pixels) into
+ * 32 rows high bands using a max() accumulation (joins are not blended twice)
+ * then band tiles are passed to the CompositePipe.
+ */
+final class HairlineRenderer {
+
+    // flattening tolerance in device pixels
+    private static final double FLATNESS = 0.1;
+    // band height (rows)
+    static final int BAND_HEIGHT = 32;
+    // column chunk width (tile width)
+    private static final int CHUNK_LG = 5;
+    static final int CHUNK_WIDTH = 1 << CHUNK_LG;
+
+    // segment flags
+    private static final byte CAP_START = 1;
+    private static final byte CAP_END = 2;
+
+    // Per-thread HairlineState (may become large so use Soft Reference)
+    private static final ReentrantContextProvider<HairlineState> HAIRLINE_STATE_PROVIDER_TL =
+            new ReentrantContextProviderTL<HairlineState>(
+                    ReentrantContextProvider.REF_SOFT)
+            {
+                @Override
+                protected HairlineState newContext() {
+                    return new HairlineState();
+                }
+            };
+
+    // Shared HairlineState queue (virtual threads: as many contexts as concurrent renderings)
+    private static final ReentrantContextProvider<HairlineState> HAIRLINE_STATE_PROVIDER_CLQ =
+            new ReentrantContextProviderCLQ<HairlineState>(
+                    ReentrantContextProvider.REF_SOFT)
+            {
+                @Override
+                protected HairlineState newContext() {
+                    return new HairlineState();
+                }
+            };
+
+    static ReentrantContextProvider<HairlineState> getStateProvider(final boolean useThreadLocal) {
+        return (useThreadLocal) ? HAIRLINE_STATE_PROVIDER_TL : HAIRLINE_STATE_PROVIDER_CLQ;
+    }
+
+    private HairlineRenderer() {
+        // forbidden
+    }
+
+    /**
+     * Draws the given shape with the given device line width (&lt;= 1.5)
+     * @param outpipe composite pipe
+     * @param sg SunGraphics2D
+     * @param s shape (user space)
+     * @param lw line width in device space
+     * @param cap BasicStroke cap style
+     */
+    static void draw(final ReentrantContextProvider<HairlineState> provider,
+                     final CompositePipe outpipe, final SunGraphics2D sg,
+                     final Shape s, final double lw, final int cap)
+    {
+        final HairlineState st = provider.acquire();
+        try {
+            st.draw(outpipe, sg, s, lw, cap);
+        } finally {
+            st.nSegs = 0;
+            provider.release(st);
+        }
+    }
+
+    static final class HairlineState extends ReentrantContext {
+        // flattened segments (x0, y0, x1, y1) in device space:
+        float[] segs = new float[4 * 256];
+        byte[] flags = new byte[256];
+        int nSegs = 0;
+        // segment bounding box:
+        private float minX, minY, maxX, maxY;
+        // band buckets (CSR):
+        private int[] bandStart = new int[64];
+        private int[] bandSegs = new int[512];
+        // band coverage:
+        private byte[] band = new byte[BAND_HEIGHT * 256];
+        private boolean[] chunks = new boolean[256 >> CHUNK_LG];
+        // path iterator coordinates
+        private final float[] coords = new float[6];
+        // dirty aabox array
+        final int[] abox = new int[4];
+        // dirty bbox rectangle
+        private final Rectangle dev = new Rectangle();
+        // stroke parameters:
+        private double hw, capExt;
+        // band area:
+        private int rx0, rx1, bandY0, bandY1, bandW;
+
+        HairlineState() {
+            // ThreadLocal constructor
+        }
+
+        void draw(final CompositePipe outpipe, final SunGraphics2D sg,
+                  final Shape s, final double lw, final int cap)
+        {
+            this.hw = 0.5 * lw;
+            this.capExt = (cap == BasicStroke.CAP_BUTT) ? 0.0 : hw;
+
+            flatten(s.getPathIterator(sg.transform, FLATNESS));
+
+            final int n = nSegs;
+            if (n == 0) {
+                return;
+            }
+            final Region clip = sg.getCompClip();
+            final double ext = hw + 1.0;
+
+            final int px0 = Math.max(clip.getLoX(), (int) Math.floor(minX - ext));
+            final int py0 = Math.max(clip.getLoY(), (int) Math.floor(minY - ext));
+            final int px1 = Math.min(clip.getHiX(), (int) Math.ceil(maxX + ext));
+            final int py1 = Math.min(clip.getHiY(), (int) Math.ceil(maxY + ext));
+
+            if ((px0 >= px1) || (py0 >= py1)) {
+                return;
+            }
+            this.rx0 = px0;
+            this.rx1 = px1;
+            final int bw = px1 - px0;
+            this.bandW = bw;
+            final int nBands = (py1 - py0 + BAND_HEIGHT - 1) / BAND_HEIGHT;
+
+            // bucket segments per band:
+            final int[] starts = bucketSegments(px0, py0, px1, py1, nBands, ext);
+            final int[] bsegs = bandSegs;
+
+            final byte[] cov = getBand(bw * BAND_HEIGHT);
+            final boolean[] dirty = getChunks((bw + CHUNK_WIDTH - 1) >> CHUNK_LG);
+            final float[] _segs = segs;
+            final byte[] _flags = flags;
+
+            final int[] _abox = abox;
+            _abox[0] = px0;
+            _abox[1] = py0;
+            _abox[2] = px1;
+            _abox[3] = py1;
+
+            final Rectangle box = dev;
+            box.x = px0;
+            box.y = py0;
+            box.width = bw;
+            box.height = py1 - py0;
+
+            Object context = null;
+            try {
+                context = outpipe.startSequence(sg, s, box, _abox);
+
+                for (int b = 0; b < nBands; b++) {
+                    final int end = starts[b + 1];
+                    if (starts[b] == end) {
+                        continue;
+                    }
+                    final int y = py0 + b * BAND_HEIGHT;
+                    final int h = Math.min(BAND_HEIGHT, py1 - y);
+                    this.bandY0 = y;
+                    this.bandY1 = y + h;
+
+                    for (int k = starts[b]; k < end; k++) {
+                        final int i = bsegs[k];
+                        final int off = i << 2;
+                        rasterize(_segs[off], _segs[off + 1],
+                                  _segs[off + 2], _segs[off + 3],
+                                  _flags[i], cov, dirty);
+                    }
+
+                    // emit dirty tiles:
+                    for (int x = px0, c = 0; x < px1; x += CHUNK_WIDTH, c++) {
+                        if (!dirty[c]) {
+                            continue;
+                        }
+                        dirty[c] = false;
+                        final int w = Math.min(CHUNK_WIDTH, px1 - x);
+
+                        if (outpipe.needTile(context, x, y, w, h)) {
+                            outpipe.renderPathTile(context, cov, x - px0, bw, x, y, w, h);
+                        } else {
+                            outpipe.skipTile(context, x, y);
+                        }
+                        // clear coverage:
+                        for (int j = 0, off = x - px0; j < h; j++, off += bw) {
+                            Arrays.fill(cov, off, off + w, (byte) 0);
+                        }
+                    }
+                }
+            } finally {
+                if (context != null) {
+                    outpipe.endSequence(context);
+                }
+            }
+        }
+
+        private void flatten(final PathIterator pi) {
+            final float[] coords = this.coords;
+            float sx = 0f, sy = 0f, cx = 0f, cy = 0f;
+            int subStart = 0;
+            boolean open = false;
+
+            minX = minY = Float.POSITIVE_INFINITY;
+            maxX = maxY = Float.NEGATIVE_INFINITY;
+
+            for (; !pi.isDone(); pi.next()) {
+                switch (pi.currentSegment(coords)) {
+                    case PathIterator.SEG_MOVETO:
+                        if (open) {
+                            endSubpath(subStart);
+                        }
+                        sx = cx = coords[0];
+                        sy = cy = coords[1];
+                        subStart = nSegs;
+                        open = true;
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        if (!open) {
+                            // implicit moveTo after closePath:
+                            subStart = nSegs;
+                            open = true;
+                        }
+                        addSegment(cx, cy, coords[0], coords[1]);
+                        cx = coords[0];
+                        cy = coords[1];
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        if (open) {
+                            if ((cx != sx) || (cy != sy) || (nSegs == subStart)) {
+                                addSegment(cx, cy, sx, sy);
+                            }
+                            // closed subpath: no cap
+                            open = false;
+                        }
+                        cx = sx;
+                        cy = sy;
+                        break;
+                    default:
+                        // flattened path: no curve
+                }
+            }
+            if (open) {
+                endSubpath(subStart);
+            }
+        }
+
+        private void endSubpath(final int subStart) {
+            if (nSegs > subStart) {
+                flags[subStart] |= CAP_START;
+                flags[nSegs - 1] |= CAP_END;
+            }
+        }
+
+        private void addSegment(final float x0, final float y0,
+                                final float x1, final float y1)
+        {
+            final int n = nSegs;
+            if (flags.length <= n) {
+                flags = Arrays.copyOf(flags, n << 1);
+                segs = Arrays.copyOf(segs, n << 3);
+            }
+            final int off = n << 2;
+            final float[] _segs = segs;
+            _segs[off] = x0;
+            _segs[off + 1] = y0;
+            _segs[off + 2] = x1;
+            _segs[off + 3] = y1;
+            flags[n] = 0;
+            nSegs = n + 1;
+
+            if (x0 < minX) { minX = x0; }
+            if (x0 > maxX) { maxX = x0; }
+            if (x1 < minX) { minX = x1; }
+            if (x1 > maxX) { maxX = x1; }
+            if (y0 < minY) { minY = y0; }
+            if (y0 > maxY) { maxY = y0; }
+            if (y1 < minY) { minY = y1; }
+            if (y1 > maxY) { maxY = y1; }
+        }
+
+        /**
+         * Buckets visible segments per band (CSR layout)
+         * @return band start indices (nBands + 1)
+         */
+        private int[] bucketSegments(final int px0, final int py0,
+                                     final int px1, final int py1,
+                                     final int nBands, final double ext)
+        {
+            int[] starts = bandStart;
+            if (starts.length < nBands + 1) {
+                bandStart = starts = new int[nBands + 1];
+            }
+            Arrays.fill(starts, 0, nBands + 1, 0);
+
+            final float[] _segs = segs;
+            final int n = nSegs;
+
+            // count segments per band:
+            int total = 0;
+            for (int i = 0, off = 0; i < n; i++, off += 4) {
+                final int b0 = firstBand(_segs, off, px0, py0, px1, py1, ext);
+                if (b0 != -1) {
+                    final int b1 = lastBand(_segs, off, py0, nBands, ext);
+                    for (int b = b0; b <= b1; b++) {
+                        starts[b + 1]++;
+                    }
+                    total += b1 - b0 + 1;
+                }
+            }
+            for (int b = 0; b < nBands; b++) {
+                starts[b + 1] += starts[b];
+            }
+            int[] bsegs = bandSegs;
+            if (bsegs.length < total) {
+                bandSegs = bsegs = new int[total + (total >> 1)];
+            }
+            // fill buckets (preserve segment order):
+            for (int i = 0, off = 0; i < n; i++, off += 4) {
+                final int b0 = firstBand(_segs, off, px0, py0, px1, py1, ext);
+                if (b0 != -1) {
+                    final int b1 = lastBand(_segs, off, py0, nBands, ext);
+                    for (int b = b0; b <= b1; b++) {
+                        bsegs[starts[b]++] = i;
+                    }
+                }
+            }
+            // restore band starts:
+            for (int b = nBands; b > 0; b--) {
+                starts[b] = starts[b - 1];
+            }
+            starts[0] = 0;
+            return starts;
+        }
+
+        private static int firstBand(final float[] segs, final int off,
+                                     final int px0, final int py0,
+                                     final int px1, final int py1,
+                                     final double ext)
+        {
+            final float x0 = segs[off];
+            final float x1 = segs[off + 2];
+            if ((Math.max(x0, x1) + ext < px0) || (Math.min(x0, x1) - ext >= px1)) {
+                return -1;
+            }
+            final float y0 = segs[off + 1];
+            final float y1 = segs[off + 3];
+            final double ymax = Math.max(y0, y1) + ext;
+            if ((ymax < py0) || (Math.min(y0, y1) - ext >= py1)) {
+                return -1;
+            }
+            final int b = (int) Math.floor((Math.min(y0, y1) - ext - py0) / BAND_HEIGHT);
+            return (b < 0) ? 0 : b;
+        }
+
+        private static int lastBand(final float[] segs, final int off,
+                                    final int py0, final int nBands,
+                                    final double ext)
+        {
+            final int b = (int) Math.floor((Math.max(segs[off + 1], segs[off + 3]) + ext - py0) / BAND_HEIGHT);
+            return (b >= nBands) ? nBands - 1 : b;
+        }
+
+        private byte[] getBand(final int len) {
+            byte[] t = band;
+            if (t.length < len) {
+                band = t = new byte[len];
+            }
+            return t;
+        }
+
+        private boolean[] getChunks(final int len) {
+            boolean[] t = chunks;
+            if (t.length < len) {
+                chunks = t = new boolean[len];
+            }
+            return t;
+        }
+
+        /**
+         * Rasterizes the given segment into the current band
+         */
+        private void rasterize(double x0, double y0, double x1, double y1,
+                               final int flag, final byte[] cov,
+                               final boolean[] dirty)
+        {
+            // interior vertices are extended by the half width (join):
+            final double e0 = ((flag & CAP_START) != 0) ? capExt : hw;
+            final double e1 = ((flag & CAP_END) != 0) ? capExt : hw;
+
+            final double dx = x1 - x0;
+            final double dy = y1 - y0;
+            final double len = Math.sqrt(dx * dx + dy * dy);
+
+            if (len == 0.0) {
+                // zero-length segment: square dot if capped
+                if (e0 > 0.0) {
+                    box(x0 - e0, y0 - hw, x0 + e0, y0 + hw, cov, dirty);
+                }
+                return;
+            }
+            final double ux = dx / len;
+            final double uy = dy / len;
+
+            // extended end points:
+            x0 -= ux * e0;
+            y0 -= uy * e0;
+            x1 += ux * e1;
+            y1 += uy * e1;
+
+            if (Math.abs(dx) >= Math.abs(dy)) {
+                if (x0 > x1) {
+                    double t = x0; x0 = x1; x1 = t;
+                    t = y0; y0 = y1; y1 = t;
+                }
+                // half thickness along y:
+                xMajor(x0, y0, x1, y1, hw / Math.abs(ux), cov, dirty);
+            } else {
+                if (y0 > y1) {
+                    double t = x0; x0 = x1; x1 = t;
+                    t = y0; y0 = y1; y1 = t;
+                }
+                // half thickness along x:
+                yMajor(x0, y0, x1, y1, hw / Math.abs(uy), cov, dirty);
+            }
+        }
+
+        private void xMajor(final double x0, final double y0,
+                            final double x1, final double y1,
+                            final double th,
+                            final byte[] cov, final boolean[] dirty)
+        {
+            final int by0 = bandY0;
+            final int by1 = bandY1;
+            final int ox = rx0;
+            final int bw = bandW;
+            final double slope = (y1 - y0) / (x1 - x0);
+
+            // column range intersecting the band:
+            double xa = x0, xb = x1;
+            if (slope != 0.0) {
+                double t0 = x0 + ((by0 - th) - y0) / slope;
+                double t1 = x0 + ((by1 + th) - y0) / slope;
+                if (t0 > t1) {
+                    final double t = t0; t0 = t1; t1 = t;
+                }
+                xa = Math.max(xa, t0 - 1.0);
+                xb = Math.min(xb, t1 + 1.0);
+            }
+            final int c0 = Math.max(ox, (int) Math.floor(xa));
+            final int c1 = Math.min(rx1, (int) Math.ceil(xb));
+
+            for (int c = c0; c < c1; c++) {
+                final double ca = Math.max(x0, c);
+                final double cb = Math.min(x1, c + 1);
+                final double fx = cb - ca;
+                if (fx <= 0.0) {
+                    continue;
+                }
+                final double yc = y0 + (0.5 * (ca + cb) - x0) * slope;
+                final double ya = yc - th;
+                final double yb = yc + th;
+
+                final int r0 = Math.max(by0, (int) Math.floor(ya));
+                final int r1 = Math.min(by1, (int) Math.ceil(yb));
+
+                for (int r = r0; r < r1; r++) {
+                    final double fy = Math.min(yb, r + 1) - Math.max(ya, r);
+                    plot(cov, (r - by0) * bw + (c - ox), fx * fy);
+                }
+                if (r0 < r1) {
+                    dirty[(c - ox) >> CHUNK_LG] = true;
+                }
+            }
+        }
+
+        private void yMajor(final double x0, final double y0,
+                            final double x1, final double y1,
+                            final double th,
+                            final byte[] cov, final boolean[] dirty)
+        {
+            final int ox = rx0;
+            final int bw = bandW;
+            final double slope = (x1 - x0) / (y1 - y0);
+
+            final int r0 = Math.max(bandY0, (int) Math.floor(y0));
+            final int r1 = Math.min(bandY1, (int) Math.ceil(y1));
+
+            for (int r = r0; r < r1; r++) {
+                final double ra = Math.max(y0, r);
+                final double rb = Math.min(y1, r + 1);
+                final double fy = rb - ra;
+                if (fy <= 0.0) {
+                    continue;
+                }
+                final double xc = x0 + (0.5 * (ra + rb) - y0) * slope;
+                final double xa = xc - th;
+                final double xb = xc + th;
+
+                final int c0 = Math.max(ox, (int) Math.floor(xa));
+                final int c1 = Math.min(rx1, (int) Math.ceil(xb));
+                final int row = (r - bandY0) * bw - ox;
+
+                for (int c = c0; c < c1; c++) {
+                    final double fx = Math.min(xb, c + 1) - Math.max(xa, c);
+                    plot(cov, row + c, fx * fy);
+                    dirty[(c - ox) >> CHUNK_LG] = true;
+                }
+            }
+        }
+
+        private void box(final double x0, final double y0,
+                         final double x1, final double y1,
+                         final byte[] cov, final boolean[] dirty)
+        {
+            final int ox = rx0;
+            final int bw = bandW;
+            final int r0 = Math.max(bandY0, (int) Math.floor(y0));
+            final int r1 = Math.min(bandY1, (int) Math.ceil(y1));
+            final int c0 = Math.max(ox, (int) Math.floor(x0));
+            final int c1 = Math.min(rx1, (int) Math.ceil(x1));
+
+            for (int r = r0; r < r1; r++) {
+                final double fy = Math.min(y1, r + 1) - Math.max(y0, r);
+                final int row = (r - bandY0) * bw - ox;
+
+                for (int c = c0; c < c1; c++) {
+                    final double fx = Math.min(x1, c + 1) - Math.max(x0, c);
+                    plot(cov, row + c, fx * fy);
+                    dirty[(c - ox) >> CHUNK_LG] = true;
+                }
+            }
+        }
+
+        private static void plot(final byte[] cov, final int idx, final double c) {
+            // max() accumulation:
+            final int v = (int) (255.0 * c + 0.5);
+            if (v > (cov[idx] & 0xFF)) {
+                cov[idx] = (byte) ((v > 255) ? 255 : v);
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import static org.marlin.graphics.BlendComposite.GAMMA_LUT;
+import static org.marlin.graphics.BlendComposite.NORM_BYTE;
+import static org.marlin.graphics.BlendComposite.NORM_GAMMA;
+
+/**
+ * This class is an accumulation surface storing premultiplied linear-light
+ * RGBA components (15-bit shorts or floats per channel): layers are
+ * composited (SrcOver) without any gamma conversion nor 8-bit quantization
+ * per operation, so many translucent layers (heatmaps, overdraw) do not band
+ * nor drift. The final image is produced by a single pass
+ * (un-premultiply + gamma encoding) with toImage().
+ *
+ * With 15-bit storage, each layer step is rounded with a dithered
+ * (unbiased) offset instead of 0.5: low alpha layers (alpha 1/255) still
+ * converge to the layer color (up to +/- 1 unit of noise) whereas a fixed
+ * rounding stalls up to 1 / (2 x alpha) units away from it.
+ *
+ * Use MarlinSurfaceRenderer(LinearSurface) to render shapes into it.
+ * Instances are not thread-safe.
+ */
+public final class LinearSurface {
+
+    /** storage precision per channel */
+    public enum Precision {
+        /** 15-bit linear values [0; 32767] (8 bytes per pixel) */
+        SHORT,
+        /** float linear values [0; 1] (16 bytes per pixel) */
+        FLOAT
+    }
+
+    private final static float INV_GAMMA = 1f / NORM_GAMMA;
+    private final static float INV_ALPHA = 1f / (NORM_BYTE * NORM_BYTE);
+    // 1.0 as fixed point (15 bits):
+    private final static int ONE_15 = 1 << 15;
+
+    /* members */
+    private final int width;
+    private final int height;
+    private final Precision precision;
+    /* R, G, B, A components per pixel (row-major) */
+    private final short[] shorts;
+    private final float[] floats;
+    // solid color factors indexed by coverage (fill):
+    private final int[] _coverage15 = new int[NORM_BYTE + 1];
+    private final float[] _coverage = new float[NORM_BYTE + 1];
+    private boolean _solidValid = false;
+    // xorshift state of the dithered rounding (SHORT):
+    private int _seed = 0x2545F491;
+    private int _solidAlpha;
+    private float _solidExtraAlpha;
+
+    /**
+     * Create a new transparent surface
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param precision storage precision
+     */
+    public LinearSurface(final int width, final int height, final Precision precision) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + " x " + height);
+        }
+        final long len = 4L * width * height;
+        if (len > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too large surface: " + width + " x " + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.precision = precision;
+
+        if (precision == Precision.SHORT) {
+            this.shorts = new short[(int) len];
+            this.floats = null;
+        } else {
+            this.shorts = null;
+            this.floats = new float[(int) len];
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Clear the surface (transparent)
+     */
+    public void clear() {
+        if (shorts != null) {
+            Arrays.fill(shorts, (short) 0);
+        } else {
+            Arrays.fill(floats, 0f);
+        }
+    }
+
+    /**
+     * Fill the surface with the given color
+     * @param color color
+     */
+    public void clear(final Color color) {
+        final int rgba = color.getRGB();
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int a = (rgba >>> 24);
+        // premultiplied linear components:
+        final int r = (gamma_dir[(rgba >> 16) & NORM_BYTE] * a + 127) / NORM_BYTE;
+        final int g = (gamma_dir[(rgba >> 8) & NORM_BYTE] * a + 127) / NORM_BYTE;
+        final int b = (gamma_dir[(rgba) & NORM_BYTE] * a + 127) / NORM_BYTE;
+        final int al = (NORM_GAMMA * a + 127) / NORM_BYTE;
+
+        if (shorts != null) {
+            final short[] d = shorts;
+            for (int i = 0, len = d.length; i < len; i += 4) {
+                d[i] = (short) r;
+                d[i + 1] = (short) g;
+                d[i + 2] = (short) b;
+                d[i + 3] = (short) al;
+            }
+        } else {
+            final float[] d = floats;
+            final float fr = r * INV_GAMMA;
+            final float fg = g * INV_GAMMA;
+            final float fb = b * INV_GAMMA;
+            final float fa = al * INV_GAMMA;
+            for (int i = 0, len = d.length; i < len; i += 4) {
+                d[i] = fr;
+                d[i + 1] = fg;
+                d[i + 2] = fb;
+                d[i + 3] = fa;
+            }
+        }
+    }
+
+    /**
+     * Return a new TYPE_INT_ARGB image (tonemap / gamma pass)
+     * @return new image
+     */
+    public BufferedImage toImage() {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        toImage(image);
+        return image;
+    }
+
+    /**
+     * Convert this surface into the given 8-bit image (un-premultiply and
+     * inverse gamma-correction)
+     * @param image destination image (same size or larger)
+     */
+    public void toImage(final BufferedImage image) {
+        if (image.getWidth() < width || image.getHeight() < height) {
+            throw new IllegalArgumentException("Too small image: "
+                    + image.getWidth() + " x " + image.getHeight());
+        }
+        // TYPE_INT_ARGB rows are copied as is (arraycopy):
+        final boolean direct = (image.getType() == BufferedImage.TYPE_INT_ARGB);
+        final WritableRaster raster = image.getRaster();
+        final int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            if (shorts != null) {
+                resolveShorts(y, row);
+            } else {
+                resolveFloats(y, row);
+            }
+            if (direct) {
+                raster.setDataElements(0, y, width, 1, row);
+            } else {
+                image.setRGB(0, y, width, 1, row, 0, width);
+            }
+        }
+    }
+
+    private void resolveShorts(final int y, final int[] row) {
+        final int[] gamma_inv = GAMMA_LUT.inv;
+        final short[] s = shorts;
+        int a, r, g, b, half;
+
+        for (int x = 0, i = 4 * y * width; x < width; x++, i += 4) {
+            a = s[i + 3];
+            if (a <= 0) {
+                row[x] = 0;
+                continue;
+            }
+            // un-premultiply (rounded):
+            half = a >> 1;
+            r = Math.min(NORM_GAMMA, (s[i] * NORM_GAMMA + half) / a);
+            g = Math.min(NORM_GAMMA, (s[i + 1] * NORM_GAMMA + half) / a);
+            b = Math.min(NORM_GAMMA, (s[i + 2] * NORM_GAMMA + half) / a);
+
+            row[x] = (((a * NORM_BYTE + (NORM_GAMMA >> 1)) / NORM_GAMMA) << 24)
+                    | (gamma_inv[r] << 16)
+                    | (gamma_inv[g] << 8)
+                    | (gamma_inv[b]);
+        }
+    }
+
+    private void resolveFloats(final int y, final int[] row) {
+        final int[] gamma_inv = GAMMA_LUT.inv;
+        final float[] s = floats;
+        float a, n;
+
+        for (int x = 0, i = 4 * y * width; x < width; x++, i += 4) {
+            a = Math.min(1f, s[i + 3]);
+            if (a <= 0f) {
+                row[x] = 0;
+                continue;
+            }
+            // un-premultiply:
+            n = NORM_GAMMA / a;
+
+            row[x] = (((int) (a * NORM_BYTE + 0.5f)) << 24)
+                    | (gamma_inv[clamp(s[i] * n)] << 16)
+                    | (gamma_inv[clamp(s[i + 1] * n)] << 8)
+                    | (gamma_inv[clamp(s[i + 2] * n)]);
+        }
+    }
+
+    private static int clamp(final float v) {
+        final int i = (int) (v + 0.5f);
+        return (i < 0) ? 0 : ((i > NORM_GAMMA) ? NORM_GAMMA : i);
+    }
+
+    /**
+     * Prepares the coverage factors (source alpha x coverage x extra alpha)
+     */
+    private void prepareSolid(final int sa, final float extraAlpha) {
+        if (_solidValid && (sa == _solidAlpha) && (extraAlpha == _solidExtraAlpha)) {
+            return;
+        }
+        final float f = sa * extraAlpha * INV_ALPHA;
+        float c;
+        for (int am = 0; am <= NORM_BYTE; am++) {
+            c = am * f;
+            _coverage[am] = c;
+            _coverage15[am] = (int) (c * ONE_15 + 0.5f);
+        }
+        _solidAlpha = sa;
+        _solidExtraAlpha = extraAlpha;
+        _solidValid = true;
+    }
+
+    /**
+     * Solid color compositing (SrcOver) with the given coverage tile
+     * @param srcRGBA non-premultiplied sRGB color
+     * @param extraAlpha extra alpha in [0; 1]
+     * @param atile coverage tile or null (full coverage)
+     * @param x device x
+     * @param y device y
+     */
+    void fill(final int srcRGBA, final float extraAlpha,
+              final byte[] atile, final int offset, final int tilesize,
+              final int x, final int y, final int w, final int h) {
+
+        prepareSolid(srcRGBA >>> 24, extraAlpha);
+
+        final int[] gamma_dir = GAMMA_LUT.dir;
+        final int sr = gamma_dir[(srcRGBA >> 16) & NORM_BYTE];
+        final int sg = gamma_dir[(srcRGBA >> 8) & NORM_BYTE];
+        final int sb = gamma_dir[(srcRGBA) & NORM_BYTE];
+
+        for (int j = 0; j < h; j++) {
+            final int offTile = (atile != null) ? j * tilesize + offset : -1;
+            final int i = 4 * ((y + j) * width + x);
+
+            if (shorts != null) {
+                fillShorts(sr, sg, sb, atile, offTile, i, w);
+            } else {
+                fillFloats(sr * INV_GAMMA, sg * INV_GAMMA, sb * INV_GAMMA, atile, offTile, i, w);
+            }
+        }
+    }
+
+    private void fillShorts(final int sr, final int sg, final int sb,
+                            final byte[] atile, final int offTile, final int off, final int w) {
+        final short[] d = shorts;
+        final int[] cov = _coverage15;
+        int seed = _seed;
+        int am, f, r, g, b, a, rnd;
+
+        for (int x = 0, i = off; x < w; x++, i += 4) {
+            // coverage is stored directly as byte in maskPixel:
+            am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+            f = cov[am];
+
+            if (f != 0) {
+                // dithered rounding offset in [0; 1[ (xorshift):
+                seed ^= seed << 13;
+                seed ^= seed >>> 17;
+                seed ^= seed << 5;
+                rnd = seed & (ONE_15 - 1);
+
+                // d += (s - d) x f (dithered rounding, never overshoots as f <= 1):
+                r = d[i];
+                g = d[i + 1];
+                b = d[i + 2];
+                a = d[i + 3];
+                d[i] = (short) (r + (((sr - r) * f + rnd) >> 15));
+                d[i + 1] = (short) (g + (((sg - g) * f + rnd) >> 15));
+                d[i + 2] = (short) (b + (((sb - b) * f + rnd) >> 15));
+                d[i + 3] = (short) (a + (((NORM_GAMMA - a) * f + rnd) >> 15));
+            }
+        }
+        _seed = seed;
+    }
+
+    private void fillFloats(final float sr, final float sg, final float sb,
+                            final byte[] atile, final int offTile, final int off, final int w) {
+        final float[] d = floats;
+        final float[] cov = _coverage;
+        int am;
+        float f;
+
+        for (int x = 0, i = off; x < w; x++, i += 4) {
+            // coverage is stored directly as byte in maskPixel:
+            am = (offTile != -1) ? atile[offTile + x] & NORM_BYTE : NORM_BYTE;
+            f = cov[am];
+
+            if (f != 0f) {
+                // d += (s - d) x f:
+                d[i] += (sr - d[i]) * f;
+                d[i + 1] += (sg - d[i + 1]) * f;
+                d[i + 2] += (sb - d[i + 2]) * f;
+                d[i + 3] += (1f - d[i + 3]) * f;
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@
 package org.marlin.graphics;
 
 import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Font;
@@ -48,7 +49,9 @@ import java.awt.geom.Arc2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
+import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ImageObserver;
@@ -57,19 +60,15 @@ import java.awt.image.renderable.RenderableImage;
 import java.security.AccessController;
 import java.text.AttributedCharacterIterator;
 import java.util.Map;
+import sun.awt.SunHints;
 import sun.java2d.InvalidPipeException;
 import sun.java2d.SunGraphics2D;
 import sun.java2d.loops.CompositeType;
 import sun.java2d.loops.MaskFill;
 import sun.java2d.loops.SurfaceType;
-import sun.java2d.pipe.AlphaColorPipe;
-import sun.java2d.pipe.AlphaPaintPipe;
-import sun.java2d.pipe.CompositePipe;
-import sun.java2d.pipe.GeneralCompositePipe;
-import sun.java2d.pipe.ParallelogramPipe;
 import sun.java2d.pipe.PixelToParallelogramConverter;
+import sun.java2d.pipe.Region;
 import sun.java2d.pipe.ShapeDrawPipe;
-import sun.java2d.pipe.SpanClipRenderer;
 import sun.security.action.GetPropertyAction;
 
 /*
@@ -77,19 +76,71 @@ import sun.security.action.GetPropertyAction;
  */
 public final class MarlinGraphics2D extends Graphics2D {
 
-    private final static boolean DEBUG = getBoolean("MarlinGraphics.debug", "false");
-    /** force using blend composite (gamma correction) */
-    private final static boolean FORCE_BLEND_COMPOSITE = getBoolean("MarlinGraphics.blendComposite", "false");
+    /* initial graphics state */
+    private final static BasicStroke DEFAULT_STROKE = new BasicStroke();
+    private final static AffineTransform IDENTITY = new AffineTransform();
 
-    /** redirect rectangle flag: true means to use Marlin instead of default rendering engine */
-    private final static boolean REDIRECT_RECT = getBoolean("MarlinGraphics.redirectRect", "false");
+    /* maximum device line width handled by the hairline renderer */
+    private final static double HAIRLINE_MAX_WIDTH = 1.5;
+
+    /* minimum miter limit to get square corners on stroked rectangles (sqrt(2)) */
+    private final static float MITER_LIMIT_RECT = 1.4143f;
+    private final static double SQRT_2 = Math.sqrt(2.0);
+
+    /** default rendering hints (quality settings) */
+    private final static RenderingHints DEFAULT_HINTS;
+
+    static {
+        final RenderingHints hints = new RenderingHints(null);
+        hints.put(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+        hints.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DEFAULT);
+        hints.put(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        hints.put(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        DEFAULT_HINTS = hints;
+    }
 
     /* members */
-    final SunGraphics2D delegate;
+    /* configuration */
+    private final MarlinGraphicsConfig config;
+    /* pipelines (shared per configuration) */
+    private final MarlinPipes pipes;
+    /* instrumentation flag (logs) */
+    private final boolean debug;
+    /** redirect rectangle flag: true means to use Marlin instead of default rendering engine */
+    private final boolean redirectRect;
+    /** mipmap flag: true means to draw downscaled images from mip chains (gamma correction) */
+    private final boolean mipmap;
+    /** hairline flag: true means to draw thin antialiased lines with the hairline renderer */
+    private final boolean hairline;
+    SunGraphics2D delegate;
+    /* bound image (null if wrapping another Graphics2D) */
+    private BufferedImage image = null;
+    /* initial font of the bound image's graphics */
+    private Font defaultFont = null;
+    /* flag indicating that the delegate was disposed */
+    private boolean disposed = false;
+    /* true if the device origin was moved by constrain() */
+    private boolean constrained = false;
     /** redirect flag: true means to use Marlin instead of default rendering engine */
     private boolean redirect = true;
+    /** gamma correction flag: true means to use gamma-corrected blending (SrcOver only) */
+    private boolean gammaCorrection;
     /* flag to validate pipeline */
     private boolean validatePipe = true;
+    /* graphics state of the validated pipeline (kept by reset if unchanged) */
+    private Composite pipeComposite = null;
+    private int pipePaintState;
+    private int pipeClipState;
+    private int pipeAntialiasHint;
+    private boolean pipeGammaCorrection;
+    /* optional dirty region (device bounds of rendering operations) */
+    private DirtyRegion dirtyRegion = null;
+    private final double[] dirtyPoints = new double[8];
+    /* optional stroked outline cache */
+    private StrokeCache strokeCache = null;
     /* shared shape instances */
     private Rectangle rect = null;
     private RoundRectangle2D.Float roundRect = null;
@@ -99,22 +150,30 @@ public final class MarlinGraphics2D extends Graphics2D {
     private Path2D.Float path = null;
 
     public MarlinGraphics2D(final BufferedImage image) {
-        // TODO: handle incompatiblity with BlendComposite (gamma correction) 
-        final Graphics2D g2d = image.createGraphics();
-        if (!(g2d instanceof SunGraphics2D)) {
-            g2d.dispose();
-            throw new IllegalStateException("BufferedImage.createGraphics() is not SunGraphics2D !");
-        }
-        this.delegate = (SunGraphics2D) g2d;
-        // Set rendering hints:
-        setDefaultRenderingHints();
+        this(image, MarlinGraphicsConfig.getDefault());
     }
-    
+
+    public MarlinGraphics2D(final BufferedImage image, final MarlinGraphicsConfig config) {
+        this(config);
+        bind(image);
+    }
+
     public MarlinGraphics2D(final Graphics2D g2d) {
-        // TODO: handle incompatiblity with BlendComposite (gamma correction) 
+        this(g2d, (g2d instanceof MarlinGraphics2D)
+                ? ((MarlinGraphics2D) g2d).config : MarlinGraphicsConfig.getDefault());
+    }
+
+    public MarlinGraphics2D(final Graphics2D g2d, final MarlinGraphicsConfig config) {
+        this(config);
         if (g2d instanceof MarlinGraphics2D) {
             final MarlinGraphics2D mg2d = (MarlinGraphics2D) g2d;
             this.delegate = (SunGraphics2D)mg2d.delegate.create(); // clone delegate
+            if (config.equals(mg2d.config)) {
+                this.gammaCorrection = mg2d.gammaCorrection;
+            }
+            // child graphics share the dirty region:
+            this.dirtyRegion = mg2d.dirtyRegion;
+            this.strokeCache = mg2d.strokeCache;
         } else if (g2d instanceof SunGraphics2D) {
             this.delegate = (SunGraphics2D) g2d.create(); // clone delegate
         } else {
@@ -126,19 +185,150 @@ public final class MarlinGraphics2D extends Graphics2D {
         updateRedirect();
     }
     
+    private MarlinGraphics2D(final MarlinGraphicsConfig config) {
+        if (config == null) {
+            throw new NullPointerException("config");
+        }
+        this.config = config;
+        this.pipes = MarlinPipes.get(config);
+        this.debug = config.isInstrumentation();
+        this.redirectRect = config.isRedirectRect();
+        this.mipmap = config.isMipmap();
+        this.hairline = config.isHairline();
+        this.gammaCorrection = config.isGammaCorrection();
+    }
+
+    /**
+     * Return the configuration of this instance
+     * @return configuration
+     */
+    public MarlinGraphicsConfig getConfig() {
+        return config;
+    }
+
     public void setDefaultRenderingHints() {
-        setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DEFAULT);
-        setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-        setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        // set all hints at once (single redirect update):
+        delegate.addRenderingHints(DEFAULT_HINTS);
+        updateRedirect();
+    }
+
+    /**
+     * Return true if gamma-corrected blending is enabled
+     * @return true if gamma-corrected blending is enabled
+     */
+    public boolean isGammaCorrection() {
+        return gammaCorrection;
+    }
+
+    /**
+     * Enable or disable gamma-corrected blending for this instance
+     * (default is given by the configuration).
+     * Only applies to the SrcOver composite on IntArgb(Pre) or FourByteAbgr(Pre)
+     * surfaces; other cases use the default blending.
+     * @param gammaCorrection true to enable gamma-corrected blending
+     */
+    public void setGammaCorrection(final boolean gammaCorrection) {
+        if (this.gammaCorrection != gammaCorrection) {
+            this.gammaCorrection = gammaCorrection;
+            validatePipe = true;
+        }
+    }
+
+    /**
+     * Rebinds this MarlinGraphics2D instance to the given image in order to
+     * reuse it (and its shared shape instances) across many images.
+     * If the given image is the image already bound (and not disposed), its
+     * graphics state is restored to its initial state (no new delegate);
+     * otherwise the previous delegate is disposed and a new one is created.
+     * Rendering hints are restored to the default rendering hints,
+     * gamma correction to the configured value; dirty region tracking and
+     * the stroke cache are disabled.
+     *
+     * @param image image to render into
+     */
+    public void reset(final BufferedImage image) {
+        if (!disposed && (image == this.image) && !constrained) {
+            // same surface: restore the initial graphics state:
+            final SunGraphics2D sg = delegate;
+            sg.setComposite(AlphaComposite.SrcOver);
+            sg.setColor(Color.white);
+            sg.setBackground(Color.black);
+            sg.setStroke(DEFAULT_STROKE);
+            sg.setFont(defaultFont);
+            sg.setTransform(IDENTITY);
+            sg.setClip(null);
+            // reset all hints then set default hints:
+            sg.setRenderingHints(DEFAULT_HINTS);
+            gammaCorrection = config.isGammaCorrection();
+            // keep the validated pipe if its graphics state is unchanged:
+            final boolean keepPipe = isPipeState(sg);
+            updateRedirect();
+            validatePipe = !keepPipe;
+        } else {
+            final SunGraphics2D prev = this.delegate;
+            bind(image);
+            if (prev != null && !disposed) {
+                prev.dispose();
+            }
+            gammaCorrection = config.isGammaCorrection();
+            validatePipe = true;
+        }
+        dirtyRegion = null;
+        strokeCache = null;
+        disposed = false;
+        constrained = false;
+    }
+
+    /**
+     * Move the device origin to (x, y) and restrict rendering to the device
+     * area [x, x + w[ x [y, y + h[ (SunGraphics2D.constrain): transforms
+     * and clips given later (setTransform, setClip) are relative to this
+     * origin. The next reset() creates a new graphics (unconstrained).
+     */
+    void constrain(final int x, final int y, final int w, final int h) {
+        delegate.constrain(x, y, w, h);
+        constrained = true;
+        validatePipe = true;
+    }
+
+    /**
+     * @return image bound to this instance (pool)
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return true if this instance was disposed (pool)
+     */
+    boolean isDisposed() {
+        return disposed;
+    }
+
+    private void bind(final BufferedImage image) {
+        final Graphics2D g2d = image.createGraphics();
+        if (!(g2d instanceof SunGraphics2D)) {
+            g2d.dispose();
+            throw new IllegalStateException("BufferedImage.createGraphics() is not SunGraphics2D !");
+        }
+        this.delegate = (SunGraphics2D) g2d;
+        this.image = image;
+        this.defaultFont = g2d.getFont();
+        this.validatePipe = true;
+        // Set rendering hints:
+        setDefaultRenderingHints();
     }
 
     @Override
     public void dispose() {
-        delegate.dispose();
+        if (!disposed) {
+            disposed = true;
+            delegate.dispose();
+            // memo counters are only collected with the default config instrumentation:
+            if (debug && BlendComposite.DO_MEMO_STATS) {
+                log(BlendComposite.getMemoStatistics());
+            }
+        }
     }
 
     @Override
@@ -154,7 +344,7 @@ public final class MarlinGraphics2D extends Graphics2D {
     // --- other operations ---
     @Override
     public Graphics create() {
-        return new MarlinGraphics2D(this);
+        return new MarlinGraphics2D(this, config);
     }
 
     @Override
@@ -163,31 +353,114 @@ public final class MarlinGraphics2D extends Graphics2D {
     }
 
     // --- shape operations (handled by Marlin) ---
+    /** event fallback reason: java2d rendered the shape (pipe invalidated) */
+    private static final String FALLBACK_INVALID_PIPE = "invalid pipe";
+
     @Override
     public void draw(final Shape s) {
-        if (DEBUG) {
+        if (debug) {
             log("draw: " + s);
         }
+        markDirty(s, true);
+        final Object event = RenderEvents.beginShape();
+        String pipe = null;
         if (redirect) {
             if (validatePipe) {
                 validatePipe(delegate);
             }
             try {
-                shapepipe.draw(delegate, s);
+                final double lw = getHairlineWidth(delegate);
+                if (lw > 0.0) {
+                    pipe = "hairline";
+                    rectpipe.drawHairline(delegate, s, lw,
+                            ((BasicStroke) delegate.stroke).getEndCap());
+                } else if ((strokeCache != null) && (rectpipe != null)
+                        && !(s instanceof Line2D) && !(s instanceof Rectangle2D)
+                        && !isAliasedThin(delegate) && !isClipDashed(delegate)) {
+                    // lines and rectangles use the parallelogram pipe
+                    pipe = "strokeCache";
+                    drawCached(delegate, s);
+                } else {
+                    shapepipe.draw(delegate, s);
+                }
                 delegate.surfaceData.markDirty();
             } catch (InvalidPipeException e) {
+                pipe = FALLBACK_INVALID_PIPE;
                 delegate.draw(s);
             }
         } else {
             delegate.draw(s);
         }
+        if (event != null) {
+            commitShapeEvent(event, "draw", s, pipe);
+        }
+    }
+
+    /**
+     * Returns the device line width if the current stroke can be drawn by
+     * the hairline renderer (enabled by the configuration, BasicStroke without
+     * dashes, pure stroke control, antialiasing on, device line width &lt;= 1.5
+     * and no shear nor non-uniform scaling)
+     * or -1 otherwise
+     */
+    private double getHairlineWidth(final SunGraphics2D sg) {
+        if (!hairline || (rectpipe == null)
+                || !(sg.stroke instanceof BasicStroke)
+                || (sg.strokeHint != SunHints.INTVAL_STROKE_PURE)
+                || (sg.antialiasHint == SunHints.INTVAL_ANTIALIAS_OFF)) {
+            return -1.0;
+        }
+        final BasicStroke bs = (BasicStroke) sg.stroke;
+        final float lw = bs.getLineWidth();
+        if ((lw <= 0f) || (bs.getDashArray() != null)) {
+            return -1.0;
+        }
+        double scale = 1.0;
+        if (sg.transformState > SunGraphics2D.TRANSFORM_ANY_TRANSLATE) {
+            final AffineTransform at = sg.transform;
+            final double m00 = at.getScaleX();
+            final double m01 = at.getShearX();
+            final double m10 = at.getShearY();
+            final double m11 = at.getScaleY();
+            final double det = Math.abs(m00 * m11 - m01 * m10);
+            final double eps = 1e-6 * Math.sqrt(det);
+            // conformal transform (uniform scale + rotation, optional flip):
+            if (!((Math.abs(m00 - m11) <= eps && Math.abs(m01 + m10) <= eps)
+                    || (Math.abs(m00 + m11) <= eps && Math.abs(m01 - m10) <= eps))) {
+                return -1.0;
+            }
+            scale = Math.sqrt(det);
+        }
+        final double dlw = lw * scale;
+        return (dlw <= HAIRLINE_MAX_WIDTH) ? dlw : -1.0;
+    }
+
+    /**
+     * Returns true if the current stroke is thin (line width &lt;= 1) in
+     * aliased mode: AAShapePipe then draws with a 1 pixel wide pen
+     */
+    private static boolean isAliasedThin(final SunGraphics2D sg) {
+        return (sg.antialiasHint == SunHints.INTVAL_ANTIALIAS_OFF)
+                && (sg.strokeState <= SunGraphics2D.STROKE_THINDASHED);
+    }
+
+    /**
+     * Returns true if the current stroke is dashed and clipped by ClipDasher
+     * (AAShapePipe): not cached as dashes outside the clip are skipped
+     */
+    private static boolean isClipDashed(final SunGraphics2D sg) {
+        return ClipDasher.ENABLED && (sg.stroke instanceof BasicStroke)
+                && (((BasicStroke) sg.stroke).getDashArray() != null);
     }
 
     @Override
     public void fill(final Shape s) {
-        if (DEBUG) {
+        if (debug) {
             log("fill: " + s);
         }
+        markDirty(s, false);
+        final Object event = RenderEvents.beginShape();
+        String pipe = null;
         if (redirect) {
             if (validatePipe) {
                 validatePipe(delegate);
@@ -196,11 +469,69 @@ public final class MarlinGraphics2D extends Graphics2D {
                 shapepipe.fill(delegate, s);
                 delegate.surfaceData.markDirty();
             } catch (InvalidPipeException e) {
+                pipe = FALLBACK_INVALID_PIPE;
                 delegate.fill(s);
             }
         } else {
             delegate.fill(s);
         }
+        if (event != null) {
+            commitShapeEvent(event, "fill", s, pipe);
+        }
+    }
+
+    /**
+     * Commit the given shape event (only called if events are enabled):
+     * its details are only computed by RenderEvents if the event is recorded
+     * @param pipe name of the special pipe used (hairline, strokeCache) or
+     * FALLBACK_INVALID_PIPE or null for the current shape pipe
+     */
+    private void commitShapeEvent(final Object event, final String operation,
+                                  final Shape s, final String pipe) {
+        RenderEvents.commitShape(event, operation, s, this, pipe);
+    }
+
+    /**
+     * @param pipe pipe given to commitShapeEvent()
+     * @return name of the pipe that rendered the shape (shape event)
+     */
+    String getEventPipe(final String pipe) {
+        if (!redirect || (pipe == FALLBACK_INVALID_PIPE)) {
+            return "java2d";
+        }
+        return (pipe != null) ? pipe : pipes.getName(shapepipe);
+    }
+
+    /**
+     * @param pipe pipe given to commitShapeEvent()
+     * @return reason why java2d or the non-gamma pipe rendered the shape
+     * (shape event) or null
+     */
+    String getEventFallback(final String pipe) {
+        if (!redirect) {
+            return "antialiasing off";
+        }
+        if (pipe == FALLBACK_INVALID_PIPE) {
+            return FALLBACK_INVALID_PIPE;
+        }
+        if (gammaCorrection) {
+            final SunGraphics2D sg = delegate;
+            if (!GammaCompositePipe.isSupported(sg.composite)) {
+                return "gamma: unsupported composite";
+            }
+            if (!GammaCompositePipe.isSupported(sg.getSurfaceData().getSurfaceType())) {
+                return "gamma: unsupported surface";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fallback fallback given by getEventFallback()
+     * @return true if the gamma-corrected pipe rendered the shape (shape event)
+     */
+    boolean isEventGamma(final String fallback) {
+        return redirect && gammaCorrection && (fallback == null);
     }
 
     @Override
@@ -212,9 +543,10 @@ public final class MarlinGraphics2D extends Graphics2D {
             line.setLine(x1, y1, x2, y2);
             draw(line);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawLine: (" + x1 + "," + y1 + ") to (" + x2 + "," + y2 + ")");
             }
+            markDirty(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1), true);
             delegate.drawLine(x1, y1, x2, y2);
         }
     }
@@ -228,9 +560,10 @@ public final class MarlinGraphics2D extends Graphics2D {
             ellipse.setFrame(x, y, width, height);
             draw(ellipse);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawOval: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, true);
             delegate.drawOval(x, y, width, height);
         }
     }
@@ -244,9 +577,10 @@ public final class MarlinGraphics2D extends Graphics2D {
             ellipse.setFrame(x, y, width, height);
             fill(ellipse);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("fillOval: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, false);
             delegate.fillOval(x, y, width, height);
         }
     }
@@ -260,9 +594,10 @@ public final class MarlinGraphics2D extends Graphics2D {
             arc.setArc(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN);
             draw(arc);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawArc: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, true);
             delegate.drawArc(x, y, width, height, startAngle, arcAngle);
         }
     }
@@ -276,9 +611,10 @@ public final class MarlinGraphics2D extends Graphics2D {
             arc.setArc(x, y, width, height, startAngle, arcAngle, Arc2D.PIE);
             fill(arc);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("fillArc: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, false);
             delegate.fillArc(x, y, width, height, startAngle, arcAngle);
         }
     }
@@ -288,9 +624,10 @@ public final class MarlinGraphics2D extends Graphics2D {
         if (redirect) {
             draw(createPath(xPoints, yPoints, nPoints, false));
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawPolyline: (" + nPoints + " points)");
             }
+            markDirty(xPoints, yPoints, nPoints, true);
             delegate.drawPolyline(xPoints, yPoints, nPoints);
         }
     }
@@ -300,9 +637,10 @@ public final class MarlinGraphics2D extends Graphics2D {
         if (redirect) {
             draw(createPath(xPoints, yPoints, nPoints, true));
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawPolygon: (" + nPoints + " points)");
             }
+            markDirty(xPoints, yPoints, nPoints, true);
             delegate.drawPolygon(xPoints, yPoints, nPoints);
         }
     }
@@ -312,9 +650,10 @@ public final class MarlinGraphics2D extends Graphics2D {
         if (redirect) {
             fill(createPath(xPoints, yPoints, nPoints, true));
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("fillPolygon: (" + nPoints + " points)");
             }
+            markDirty(xPoints, yPoints, nPoints, false);
             delegate.fillPolygon(xPoints, yPoints, nPoints);
         }
     }
@@ -351,7 +690,7 @@ public final class MarlinGraphics2D extends Graphics2D {
     // --- rectangle operations ---
     @Override
     public void clearRect(int x, int y, int width, int height) {
-        if (REDIRECT_RECT && redirect) {
+        if (redirectRect && redirect) {
             final Composite c = delegate.getComposite();
             final Paint p = delegate.getPaint();
             setComposite(AlphaComposite.Src);
@@ -360,97 +699,203 @@ public final class MarlinGraphics2D extends Graphics2D {
             setPaint(p);
             setComposite(c);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("clearRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, false);
             delegate.clearRect(x, y, width, height);
         }
     }
 
     @Override
     public void drawRect(int x, int y, int width, int height) {
-        if (REDIRECT_RECT && redirect) {
-            if (rect == null) {
-                rect = new Rectangle();
+        if (redirectRect && redirect) {
+            if (!renderRect(x, y, width, height, true)) {
+                if (rect == null) {
+                    rect = new Rectangle();
+                }
+                rect.setBounds(x, y, width, height);
+                draw(rect);
             }
-            rect.setBounds(x, y, width, height);
-            draw(rect);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, true);
             delegate.drawRect(x, y, width, height);
         }
     }
 
     @Override
     public void fillRect(int x, int y, int width, int height) {
-        if (REDIRECT_RECT && redirect) {
-            if (rect == null) {
-                rect = new Rectangle();
+        if (redirectRect && redirect) {
+            if (!renderRect(x, y, width, height, false)) {
+                if (rect == null) {
+                    rect = new Rectangle();
+                }
+                rect.setBounds(x, y, width, height);
+                fill(rect);
             }
-            rect.setBounds(x, y, width, height);
-            fill(rect);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("fillRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, false);
             delegate.fillRect(x, y, width, height);
         }
     }
 
+    /**
+     * Fast path for axis-aligned rectangles (identity, translate or scale
+     * transform and no shape clip): rectangles are directly filled on the
+     * composite pipe (no rendering engine); stroked rectangles (BasicStroke
+     * with miter joins and no dashes) are filled as a rectangle with a hole.
+     * @return true if the rectangle was rendered, false otherwise
+     */
+    private boolean renderRect(final int x, final int y,
+                               final int width, final int height,
+                               final boolean stroke) {
+        if ((width <= 0) || (height <= 0)) {
+            return false;
+        }
+        final SunGraphics2D sg = delegate;
+        if (validatePipe) {
+            validatePipe(sg);
+        }
+        if ((rectpipe == null)
+                || (sg.clipState == SunGraphics2D.CLIP_SHAPE)
+                || (sg.transformState > SunGraphics2D.TRANSFORM_TRANSLATESCALE)) {
+            return false;
+        }
+        double hw = 0.0;
+        if (stroke) {
+            if (!(sg.stroke instanceof BasicStroke)
+                    || (sg.strokeHint != SunHints.INTVAL_STROKE_PURE)) {
+                return false;
+            }
+            if (isAliasedThin(sg)) {
+                // 1 pixel wide pen (AAShapePipe):
+                return false;
+            }
+            final BasicStroke bs = (BasicStroke) sg.stroke;
+            if ((bs.getDashArray() != null)
+                    || (bs.getLineJoin() != BasicStroke.JOIN_MITER)
+                    || (bs.getMiterLimit() < MITER_LIMIT_RECT)
+                    || (bs.getLineWidth() <= 0f)) {
+                return false;
+            }
+            hw = 0.5 * bs.getLineWidth();
+        }
+        if (debug) {
+            log("renderRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ") stroke: " + stroke);
+        }
+        if (rect == null) {
+            rect = new Rectangle();
+        }
+        rect.setBounds(x, y, width, height);
+
+        final AffineTransform at = sg.transform;
+        final double sx = at.getScaleX();
+        final double sy = at.getScaleY();
+        final double tx = at.getTranslateX();
+        final double ty = at.getTranslateY();
+
+        // device-space outer rectangle:
+        double ox0 = (x - hw) * sx + tx;
+        double ox1 = (x + width + hw) * sx + tx;
+        double oy0 = (y - hw) * sy + ty;
+        double oy1 = (y + height + hw) * sy + ty;
+        double t;
+        if (ox0 > ox1) {
+            t = ox0; ox0 = ox1; ox1 = t;
+        }
+        if (oy0 > oy1) {
+            t = oy0; oy0 = oy1; oy1 = t;
+        }
+
+        // device-space inner rectangle (hole):
+        final boolean hole = stroke && (2.0 * hw < width) && (2.0 * hw < height);
+        double ix0 = 0.0, iy0 = 0.0, ix1 = 0.0, iy1 = 0.0;
+        if (hole) {
+            ix0 = (x + hw) * sx + tx;
+            ix1 = (x + width - hw) * sx + tx;
+            iy0 = (y + hw) * sy + ty;
+            iy1 = (y + height - hw) * sy + ty;
+            if (ix0 > ix1) {
+                t = ix0; ix0 = ix1; ix1 = t;
+            }
+            if (iy0 > iy1) {
+                t = iy0; iy0 = iy1; iy1 = t;
+            }
+        }
+        try {
+            rectpipe.fillRect(sg, rect, ox0, oy0, ox1, oy1, hole, ix0, iy0, ix1, iy1);
+            sg.surfaceData.markDirty();
+            if (dirtyRegion != null) {
+                markDirtyDevice(ox0, oy0, ox1, oy1);
+            }
+        } catch (InvalidPipeException e) {
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
-        if (REDIRECT_RECT && redirect) {
+        if (redirectRect && redirect) {
             if (roundRect == null) {
                 roundRect = new RoundRectangle2D.Float();
             }
             roundRect.setRoundRect(x, y, width, height, arcWidth, arcHeight);
             draw(roundRect);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("drawRoundRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, true);
             delegate.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
         }
     }
 
     @Override
     public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
-        if (REDIRECT_RECT && redirect) {
+        if (redirectRect && redirect) {
             if (roundRect == null) {
                 roundRect = new RoundRectangle2D.Float();
             }
             roundRect.setRoundRect(x, y, width, height, arcWidth, arcHeight);
             fill(roundRect);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("fillRoundRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, false);
             delegate.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
         }
     }
 
     @Override
     public void draw3DRect(int x, int y, int width, int height, boolean raised) {
-        if (REDIRECT_RECT && redirect) {
+        if (redirectRect && redirect) {
             super.draw3DRect(x, y, width, height, raised);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("draw3DRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width + 1, height + 1, false);
             delegate.draw3DRect(x, y, width, height, raised);
         }
     }
 
     @Override
     public void fill3DRect(int x, int y, int width, int height, boolean raised) {
-        if (REDIRECT_RECT && redirect) {
+        if (redirectRect && redirect) {
             super.fill3DRect(x, y, width, height, raised);
         } else {
-            if (DEBUG) {
+            if (debug) {
                 log("fill3DRect: (" + x + "," + y + ") to (" + (x + width) + "," + (y + height) + ")");
             }
+            markDirty(x, y, width, height, false);
             delegate.fill3DRect(x, y, width, height, raised);
         }
     }
@@ -579,7 +1024,11 @@ public final class MarlinGraphics2D extends Graphics2D {
     }
     
     private final void updateRedirect() {
-        this.redirect = (getRenderingHint(RenderingHints.KEY_ANTIALIASING) != RenderingHints.VALUE_ANTIALIAS_OFF);
+        // aliased mode: Marlin also renders non-antialiased shapes (thresholded coverage)
+        this.redirect = config.isAliased()
+                || (getRenderingHint(RenderingHints.KEY_ANTIALIASING) != RenderingHints.VALUE_ANTIALIAS_OFF);
+        // pipeline depends on the antialiasing hint (aliased mode):
+        this.validatePipe = true;
     }
 
     // --- transform ---
@@ -685,182 +1134,419 @@ public final class MarlinGraphics2D extends Graphics2D {
     // --- img operations ---
     @Override
     public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        markDirty(x + dx, y + dy, width, height, false);
         delegate.copyArea(x, y, width, height, dx, dy);
     }
 
     @Override
     public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        markDirtyClip();
         return delegate.drawImage(img, xform, obs);
     }
 
     @Override
     public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        markDirtyClip();
         delegate.drawImage(img, op, x, y);
     }
 
     @Override
     public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        markDirtyClip();
         delegate.drawRenderedImage(img, xform);
     }
 
     @Override
     public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        markDirtyClip();
         delegate.drawRenderableImage(img, xform);
     }
 
     @Override
     public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        markDirtyImage(img, x, y);
         return delegate.drawImage(img, x, y, observer);
     }
 
     @Override
     public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        markDirty(x, y, width, height, false);
+        if (mipmap && redirect && gammaCorrection && drawMipmap(img, x, y, width, height)) {
+            return true;
+        }
         return delegate.drawImage(img, x, y, width, height, observer);
     }
 
+    /**
+     * Draws the given image downscaled by 2 or more (bilinear or bicubic
+     * interpolation) using its mip chain (gamma-correct averaging) through
+     * the gamma pipe
+     * @return false if not applicable (delegate)
+     */
+    private boolean drawMipmap(final Image img, final int x, final int y,
+                               final int width, final int height) {
+        if (!(img instanceof BufferedImage) || (width <= 0) || (height <= 0)) {
+            return false;
+        }
+        final SunGraphics2D sg = delegate;
+        if ((sg.interpolationType == AffineTransformOp.TYPE_NEAREST_NEIGHBOR)
+                || !GammaCompositePipe.isSupported(sg.composite)
+                || !GammaCompositePipe.isSupported(sg.getSurfaceData().getSurfaceType())) {
+            return false;
+        }
+        final BufferedImage bi = (BufferedImage) img;
+        final AffineTransform at = sg.transform;
+        // device scale factors:
+        final double sx = width * Math.hypot(at.getScaleX(), at.getShearY()) / bi.getWidth();
+        final double sy = height * Math.hypot(at.getShearX(), at.getScaleY()) / bi.getHeight();
+
+        final Paint paint = MipmapCache.getPaint(bi, x, y, width, height, Math.max(sx, sy));
+        if (paint == null) {
+            return false;
+        }
+        final Paint prev = sg.paint;
+        setPaint(paint);
+        try {
+            if (validatePipe) {
+                validatePipe(sg);
+            }
+            if (rect == null) {
+                rect = new Rectangle();
+            }
+            rect.setBounds(x, y, width, height);
+
+            if ((sg.transformState <= SunGraphics2D.TRANSFORM_TRANSLATESCALE)
+                    && (sg.clipState != SunGraphics2D.CLIP_SHAPE)) {
+                // axis-aligned rectangle (analytic coverage):
+                final double x0 = at.getScaleX() * x + at.getTranslateX();
+                final double y0 = at.getScaleY() * y + at.getTranslateY();
+                final double x1 = at.getScaleX() * (x + width) + at.getTranslateX();
+                final double y1 = at.getScaleY() * (y + height) + at.getTranslateY();
+                rectpipe.fillRect(sg, rect, Math.min(x0, x1), Math.min(y0, y1),
+                        Math.max(x0, x1), Math.max(y0, y1), false, 0.0, 0.0, 0.0, 0.0);
+            } else {
+                shapepipe.fill(sg, rect);
+            }
+            sg.surfaceData.markDirty();
+            return true;
+        } catch (InvalidPipeException e) {
+            return false;
+        } finally {
+            setPaint(prev);
+        }
+    }
+
     @Override
     public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        markDirtyImage(img, x, y);
         return delegate.drawImage(img, x, y, bgcolor, observer);
     }
 
     @Override
     public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor,
                              ImageObserver observer) {
+        markDirty(x, y, width, height, false);
         return delegate.drawImage(img, x, y, width, height, bgcolor, observer);
     }
 
     @Override
     public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1,
                              int sx2, int sy2, ImageObserver observer) {
+        markDirty(Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1), false);
         return delegate.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
     }
 
     @Override
     public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1,
                              int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        markDirty(Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1), false);
         return delegate.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, observer);
     }
 
     // --- text operations ---
     @Override
     public void drawString(String str, int x, int y) {
+        markDirtyClip();
         delegate.drawString(str, x, y);
     }
 
     @Override
     public void drawString(String str, float x, float y) {
+        markDirtyClip();
         delegate.drawString(str, x, y);
     }
 
     @Override
     public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        markDirtyClip();
         delegate.drawString(iterator, x, y);
     }
 
     @Override
     public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        markDirtyClip();
         delegate.drawString(iterator, x, y);
     }
 
     @Override
     public void drawGlyphVector(GlyphVector g, float x, float y) {
+        markDirtyClip();
         delegate.drawGlyphVector(g, x, y);
     }
 
     @Override
     public void drawChars(char[] data, int offset, int length, int x, int y) {
+        markDirtyClip();
         delegate.drawChars(data, offset, length, x, y);
     }
 
     @Override
     public void drawBytes(byte[] data, int offset, int length, int x, int y) {
+        markDirtyClip();
         delegate.drawBytes(data, offset, length, x, y);
     }
 
-    // --- utility ---
-    private static void log(final String msg) {
-        System.out.println(msg);
+    /**
+     * @return device clip bounds (user clip intersected with the surface bounds)
+     */
+    Rectangle getDeviceClipBounds() {
+        final Region clip = delegate.getCompClip();
+        return new Rectangle(clip.getLoX(), clip.getLoY(), clip.getWidth(), clip.getHeight());
     }
-    
-    static boolean getBoolean(final String key, final String def) {
-        return Boolean.valueOf(AccessController.doPrivileged(
-                  new GetPropertyAction(key, def)));
-    }    
 
-    // --- marlin integration: mimics java2d pipelines ---
+    // --- rendering engines ---
+    /**
+     * Returns the rendering engine used for the given KEY_RENDERING value:
+     * double-precision Marlin by default, float-precision Marlin (if
+     * available) for VALUE_RENDER_SPEED or the engine class given by the
+     * MarlinGraphics.engine.[default|speed|quality] system properties
+     * @param renderingValue RenderingHints.VALUE_RENDER_* value
+     * @return rendering engine class name
+     */
+    public static String getRenderingEngineName(final Object renderingValue) {
+        final int hint;
+        if (RenderingHints.VALUE_RENDER_SPEED.equals(renderingValue)) {
+            hint = SunHints.INTVAL_RENDER_SPEED;
+        } else if (RenderingHints.VALUE_RENDER_QUALITY.equals(renderingValue)) {
+            hint = SunHints.INTVAL_RENDER_QUALITY;
+        } else {
+            hint = SunHints.INTVAL_RENDER_DEFAULT;
+        }
+        return AAShapePipe.getEngine(hint).getClass().getName();
+    }
 
-    // SurfaceData instances:
-    private static final AlphaColorPipe colorPipe;//I
-    private static final CompositePipe clipColorPipe;//I
-    private static final AAShapePipe AAColorShape;//I
-    private static final PixelToParallelogramConverter AAColorViaShape;//U
-    private static final PixelToParallelogramConverter AAColorViaPgram;//U
-    private static final AAShapePipe AAClipColorShape;//I
-    private static final PixelToParallelogramConverter AAClipColorViaShape;//U
-
-    private static final CompositePipe paintPipe;//I
-    private static final CompositePipe clipPaintPipe;//I
-    private static final AAShapePipe AAPaintShape;//I
-    private static final PixelToParallelogramConverter AAPaintViaShape;//U
-    private static final AAShapePipe AAClipPaintShape;//I
-    private static final PixelToParallelogramConverter AAClipPaintViaShape;//U
-
-    private static final CompositePipe compPipe;//I
-    private static final CompositePipe clipCompPipe;//I
-    private static final AAShapePipe AACompShape;//I
-    private static final PixelToParallelogramConverter AACompViaShape;//U
-    private static final AAShapePipe AAClipCompShape;//I
-    private static final PixelToParallelogramConverter AAClipCompViaShape;//U
-
-    private static PixelToParallelogramConverter
-            makeConverter(AAShapePipe renderer,
-                          ParallelogramPipe pgrampipe) {
-        return new PixelToParallelogramConverter(renderer,
-                pgrampipe,
-                1.0 / 8.0, 0.499,
-                false);
-    }
-
-    private static PixelToParallelogramConverter
-            makeConverter(AAShapePipe renderer) {
-        return makeConverter(renderer, renderer);
+    // --- stroke cache ---
+    /**
+     * Set the cache of stroked outlines used by draw(Shape) (may be shared
+     * by several graphics)
+     * @param strokeCache stroke cache or null to disable caching (default)
+     */
+    public void setStrokeCache(final StrokeCache strokeCache) {
+        this.strokeCache = strokeCache;
     }
 
-    static {
-        try {
-            colorPipe = new AlphaColorPipe();//I
-            clipColorPipe = new SpanClipRenderer(colorPipe);//I
-            AAColorShape = new AAShapePipe(colorPipe);//I
-            AAColorViaShape = makeConverter(AAColorShape);//U
-            AAColorViaPgram = makeConverter(AAColorShape, colorPipe);//U
-            AAClipColorShape = new AAShapePipe(clipColorPipe);//I
-            AAClipColorViaShape = makeConverter(AAClipColorShape);//U
+    public StrokeCache getStrokeCache() {
+        return strokeCache;
+    }
+
+    /**
+     * Draw the given shape by filling its cached outline
+     */
+    private void drawCached(final SunGraphics2D sg, final Shape s) {
+        if (sg.stroke instanceof BasicStroke) {
+            final AffineTransform at = sg.transform;
+            final StrokeCache.Outline outline = strokeCache.getOutline(AAShapePipe.getEngine(sg.renderHint),
+                    s, (BasicStroke) sg.stroke, at,
+                    (sg.strokeState <= SunGraphics2D.STROKE_THINDASHED),
+                    (sg.strokeHint != SunHints.INTVAL_STROKE_PURE));
+            final double ix = Math.floor(at.getTranslateX());
+            final double iy = Math.floor(at.getTranslateY());
+            // skip outlines outside the clip (before path iteration):
+            if (outline.intersects(sg.getCompClip(), ix, iy)) {
+                rectpipe.fill(sg, outline, AffineTransform.getTranslateInstance(ix, iy));
+            }
+        } else {
+            rectpipe.fill(sg, strokeCache.getOutline(s, sg.stroke));
+        }
+    }
+
+    // --- dirty region tracking ---
+    /**
+     * Set the dirty region accumulating the device bounds touched by the
+     * rendering operations (shared with graphics created from this one)
+     * @param dirtyRegion dirty region or null to disable tracking (default)
+     */
+    public void setDirtyRegion(final DirtyRegion dirtyRegion) {
+        this.dirtyRegion = dirtyRegion;
+    }
+
+    public DirtyRegion getDirtyRegion() {
+        return dirtyRegion;
+    }
+
+    private void markDirty(final Shape s, final boolean stroke) {
+        if (dirtyRegion != null) {
+            final Rectangle2D b = s.getBounds2D();
+            markDirty(b.getX(), b.getY(), b.getWidth(), b.getHeight(), stroke);
+        }
+    }
+
+    private void markDirty(final int[] xPoints, final int[] yPoints, final int nPoints,
+                           final boolean stroke) {
+        if ((dirtyRegion != null) && (nPoints > 0)) {
+            int x0 = xPoints[0], y0 = yPoints[0], x1 = x0, y1 = y0;
+            for (int i = 1; i < nPoints; i++) {
+                x0 = Math.min(x0, xPoints[i]);
+                x1 = Math.max(x1, xPoints[i]);
+                y0 = Math.min(y0, yPoints[i]);
+                y1 = Math.max(y1, yPoints[i]);
+            }
+            markDirty(x0, y0, x1 - x0, y1 - y0, stroke);
+        }
+    }
 
-            paintPipe = new AlphaPaintPipe();//I
-            clipPaintPipe = new SpanClipRenderer(paintPipe);//I
-            AAPaintShape = new AAShapePipe(paintPipe);//I
-            AAPaintViaShape = makeConverter(AAPaintShape);//U
-            AAClipPaintShape = new AAShapePipe(clipPaintPipe);//I
-            AAClipPaintViaShape = makeConverter(AAClipPaintShape);//U
+    private void markDirtyImage(final Image img, final int x, final int y) {
+        if (dirtyRegion != null) {
+            final int w = img.getWidth(null);
+            final int h = img.getHeight(null);
+            if ((w < 0) || (h < 0)) {
+                // size not yet known:
+                markDirtyClip();
+            } else {
+                markDirty(x, y, w, h, false);
+            }
+        }
+    }
+
+    /**
+     * Mark the given user-space rectangle (expanded by the stroke if needed)
+     */
+    private void markDirty(final double x, final double y, final double w, final double h,
+                           final boolean stroke) {
+        if (dirtyRegion == null) {
+            return;
+        }
+        double pad = 0.0;
+        if (stroke) {
+            pad = getStrokePad(delegate.stroke);
+            if (pad < 0.0) {
+                markDirtyClip();
+                return;
+            }
+        }
+        final double ux0 = x - pad;
+        final double uy0 = y - pad;
+        final double ux1 = x + w + pad;
+        final double uy1 = y + h + pad;
+
+        final AffineTransform at = delegate.transform;
+        if (delegate.transformState <= SunGraphics2D.TRANSFORM_ANY_TRANSLATE) {
+            final double tx = at.getTranslateX();
+            final double ty = at.getTranslateY();
+            markDirtyDevice(ux0 + tx, uy0 + ty, ux1 + tx, uy1 + ty);
+        } else {
+            final double[] pts = dirtyPoints;
+            pts[0] = ux0; pts[1] = uy0;
+            pts[2] = ux1; pts[3] = uy0;
+            pts[4] = ux1; pts[5] = uy1;
+            pts[6] = ux0; pts[7] = uy1;
+            at.transform(pts, 0, pts, 0, 4);
+            markDirtyDevice(Math.min(Math.min(pts[0], pts[2]), Math.min(pts[4], pts[6])),
+                            Math.min(Math.min(pts[1], pts[3]), Math.min(pts[5], pts[7])),
+                            Math.max(Math.max(pts[0], pts[2]), Math.max(pts[4], pts[6])),
+                            Math.max(Math.max(pts[1], pts[3]), Math.max(pts[5], pts[7])));
+        }
+    }
+
+    /**
+     * Mark the given device-space bounds (expanded by 1 pixel for
+     * antialiasing and clipped)
+     */
+    private void markDirtyDevice(final double x0, final double y0, final double x1, final double y1) {
+        final Region clip = delegate.getCompClip();
+        final int ix0 = (int) Math.max(clip.getLoX(), Math.floor(x0) - 1.0);
+        final int iy0 = (int) Math.max(clip.getLoY(), Math.floor(y0) - 1.0);
+        final int ix1 = (int) Math.min(clip.getHiX(), Math.ceil(x1) + 1.0);
+        final int iy1 = (int) Math.min(clip.getHiY(), Math.ceil(y1) + 1.0);
+
+        if ((ix0 < ix1) && (iy0 < iy1)) {
+            dirtyRegion.add(ix0, iy0, ix1 - ix0, iy1 - iy0);
+        }
+    }
 
-            compPipe = (FORCE_BLEND_COMPOSITE) ? new GammaCompositePipe() : new GeneralCompositePipe();//I
-            clipCompPipe = new SpanClipRenderer(compPipe);//I
-            AACompShape = new AAShapePipe(compPipe);//I
-            AACompViaShape = makeConverter(AACompShape);//U
-            AAClipCompShape = new AAShapePipe(clipCompPipe);//I
-            AAClipCompViaShape = makeConverter(AAClipCompShape);//U
+    /**
+     * Mark the whole clip bounds (operations without cheap bounds: text, image ops)
+     */
+    private void markDirtyClip() {
+        if (dirtyRegion != null) {
+            final Region clip = delegate.getCompClip();
+            dirtyRegion.add(clip.getLoX(), clip.getLoY(), clip.getWidth(), clip.getHeight());
+        }
+    }
 
-        } catch (Throwable th) {
-            throw new IllegalStateException("Unable to create MarlinGraphics2D pipeline (MarlinRenderingEngine) !", th);
+    /**
+     * Returns the user-space distance covered by the stroke outside the path
+     * (half line width expanded for miter joins and square caps) or -1 if unknown
+     */
+    private static double getStrokePad(final Stroke stroke) {
+        if (!(stroke instanceof BasicStroke)) {
+            return -1.0;
         }
+        final BasicStroke bs = (BasicStroke) stroke;
+        // thin lines are at least 1 pixel wide (and normalization):
+        final double hw = 0.5 * Math.max(1.0, bs.getLineWidth()) + 0.5;
+        final double f = (bs.getLineJoin() == BasicStroke.JOIN_MITER)
+                         ? Math.max(bs.getMiterLimit(), SQRT_2) : SQRT_2;
+        return hw * f;
     }
 
+    // --- utility ---
+    static void log(final String msg) {
+        System.out.println(msg);
+    }
+    
+    static boolean getBoolean(final String key, final String def) {
+        return Boolean.valueOf(AccessController.doPrivileged(
+                  new GetPropertyAction(key, def)));
+    }
+
+    static String getProperty(final String key) {
+        return AccessController.doPrivileged(new GetPropertyAction(key));
+    }
+
+    // --- marlin integration: mimics java2d pipelines ---
+
     // Custom SunGraphics2D pipeline:
     private ShapeDrawPipe shapepipe;
+    // AAShapePipe used by shapepipe (fast paths):
+    private AAShapePipe rectpipe;
     private MaskFill alphafill;
+    // last MaskFill lookup (reused across images of the same type):
+    private SurfaceType lastMaskSrc = null;
+    private CompositeType lastMaskComp = null;
+    private SurfaceType lastMaskDst = null;
+    private MaskFill lastMaskFill = null;
+
+    /**
+     * Returns true if the pipe was validated with the same graphics state
+     * (composite, paint and clip states, antialiasing hint, gamma correction)
+     */
+    private boolean isPipeState(final SunGraphics2D sg2d) {
+        return !validatePipe
+                && (sg2d.composite == pipeComposite)
+                && (sg2d.paintState == pipePaintState)
+                && (sg2d.clipState == pipeClipState)
+                && (sg2d.antialiasHint == pipeAntialiasHint)
+                && (gammaCorrection == pipeGammaCorrection);
+    }
 
     private void validatePipe(SunGraphics2D sg2d) {
         validatePipe = false;
+        pipeComposite = sg2d.composite;
+        pipePaintState = sg2d.paintState;
+        pipeClipState = sg2d.clipState;
+        pipeAntialiasHint = sg2d.antialiasHint;
+        pipeGammaCorrection = gammaCorrection;
    
         if (sg2d.compositeState == SunGraphics2D.COMP_XOR) {
             throw new IllegalStateException("Unsupported Xor mode !");
@@ -926,18 +1612,30 @@ public final class MarlinGraphics2D extends Graphics2D {
          }
          } else 
          */
-        if (FORCE_BLEND_COMPOSITE
-                || sg2d.compositeState == SunGraphics2D.COMP_CUSTOM) {
+        if (gammaCorrection
+                && GammaCompositePipe.isSupported(sg2d.composite)
+                && GammaCompositePipe.isSupported(sg2d.getSurfaceData().getSurfaceType())) {
+            // gamma-corrected SrcOver (solid color uses direct loops):
+            if (sg2d.clipState == SunGraphics2D.CLIP_SHAPE) {
+                shapepipe = pipes.AAClipGammaViaShape;
+                rectpipe = pipes.AAClipGammaShape;
+            } else {
+                shapepipe = pipes.AAGammaViaShape;
+                rectpipe = pipes.AAGammaShape;
+            }
+        } else if (sg2d.compositeState == SunGraphics2D.COMP_CUSTOM) {
 //            if (sg2d.antialiasHint == SunHints.INTVAL_ANTIALIAS_ON) {
             if (sg2d.clipState == SunGraphics2D.CLIP_SHAPE) {
 //                    drawpipe = AAClipCompViaShape;
 //                    fillpipe = AAClipCompViaShape;
-                shapepipe = AAClipCompViaShape;
+                shapepipe = pipes.AAClipCompViaShape;
+                rectpipe = pipes.AAClipCompShape;
                 //textpipe = clipCompText;
             } else {
 //                    drawpipe = AACompViaShape;
 //                    fillpipe = AACompViaShape;
-                shapepipe = AACompViaShape;
+                shapepipe = pipes.AACompViaShape;
+                rectpipe = pipes.AACompShape;
                 //textpipe = compText;
             }
             /*                
@@ -955,20 +1653,26 @@ public final class MarlinGraphics2D extends Graphics2D {
              */
         } else /*if (sg2d.antialiasHint == SunHints.INTVAL_ANTIALIAS_ON)*/ {
             alphafill = getMaskFill(sg2d);
+            // AlphaColorPipe uses sg2d.alphafill, only set by java2d if antialiasing is on (aliased mode):
+            sg2d.alphafill = alphafill;
             if (alphafill != null) {
                 if (sg2d.clipState == SunGraphics2D.CLIP_SHAPE) {
 //                    drawpipe = AAClipColorViaShape;
 //                    fillpipe = AAClipColorViaShape;
-                    shapepipe = AAClipColorViaShape;
+                    shapepipe = pipes.AAClipColorViaShape;
+                    rectpipe = pipes.AAClipColorShape;
                     //textpipe = clipColorText;
                 } else {
+                    // native parallelogram loops are antialiased (not in aliased mode):
                     PixelToParallelogramConverter converter
                                                   = (alphafill.canDoParallelograms()
-                                    ? AAColorViaPgram
-                                    : AAColorViaShape);
+                                    && (sg2d.antialiasHint != SunHints.INTVAL_ANTIALIAS_OFF)
+                                    ? pipes.AAColorViaPgram
+                                    : pipes.AAColorViaShape);
 //                    drawpipe = converter;
 //                    fillpipe = converter;
                     shapepipe = converter;
+                    rectpipe = pipes.AAColorShape;
                     /*
                      if (sg2d.paintState > SunGraphics2D.PAINT_ALPHACOLOR ||
                      sg2d.compositeState > SunGraphics2D.COMP_ISCOPY)
@@ -983,15 +1687,22 @@ public final class MarlinGraphics2D extends Graphics2D {
                 if (sg2d.clipState == SunGraphics2D.CLIP_SHAPE) {
 //                    drawpipe = AAClipPaintViaShape;
 //                    fillpipe = AAClipPaintViaShape;
-                    shapepipe = AAClipPaintViaShape;
+                    shapepipe = pipes.AAClipPaintViaShape;
+                    rectpipe = pipes.AAClipPaintShape;
                     //textpipe = clipPaintText;
                 } else {
 //                    drawpipe = AAPaintViaShape;
 //                    fillpipe = AAPaintViaShape;
-                    shapepipe = AAPaintViaShape;
+                    shapepipe = pipes.AAPaintViaShape;
+                    rectpipe = pipes.AAPaintShape;
                     //textpipe = paintText;
                 }
             }
+            if (sg2d.antialiasHint == SunHints.INTVAL_ANTIALIAS_OFF) {
+                // aliased mode: AAShapePipe applies the java2d non-antialiased
+                // rules (thin strokes) so bypass the shape converters:
+                shapepipe = rectpipe;
+            }
         }
         /*
          else if (sg2d.paintState > SunGraphics2D.PAINT_ALPHACOLOR ||
@@ -1113,11 +1824,19 @@ public final class MarlinGraphics2D extends Graphics2D {
      * attributes (such as the hardware capabilities of the destination
      * surface) before returning a specific MaskFill object.
      */
-    private static MaskFill getMaskFill(SunGraphics2D sg2d) {
-        SurfaceType src = getPaintSurfaceType(sg2d);
-        CompositeType comp = getFillCompositeType(sg2d);
-        SurfaceType dst = sg2d.surfaceData.getSurfaceType();
-        return MaskFill.getFromCache(src, comp, dst);
+    private MaskFill getMaskFill(SunGraphics2D sg2d) {
+        final SurfaceType src = getPaintSurfaceType(sg2d);
+        final CompositeType comp = getFillCompositeType(sg2d);
+        final SurfaceType dst = sg2d.surfaceData.getSurfaceType();
+
+        // avoid cache lookup if types did not change:
+        if ((src != lastMaskSrc) || (comp != lastMaskComp) || (dst != lastMaskDst)) {
+            lastMaskSrc = src;
+            lastMaskComp = comp;
+            lastMaskDst = dst;
+            lastMaskFill = MaskFill.getFromCache(src, comp, dst);
+        }
+        return lastMaskFill;
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * This class is a bounded thread-confined pool of MarlinGraphics2D instances
+ * to avoid creating (and initializing) a new MarlinGraphics2D instance per
+ * rendered image: acquired instances are rebound to the given image using
+ * MarlinGraphics2D.reset(BufferedImage).
+ *
+ * Released instances keep their graphics bound to their last image so
+ * acquiring an instance for the same image (tile loop, animation frame) only
+ * restores the graphics state and reuses the validated pipe. Idle instances
+ * therefore reference their last image until they are reused: call clear()
+ * to dispose them (thread idle, images no more used).
+ *
+ * Instances must be released by the thread that acquired them
+ * (instead of calling dispose()).
+ */
+public final class MarlinGraphics2DPool {
+
+    /** default maximum number of pooled instances per thread */
+    public final static int DEFAULT_CAPACITY = 4;
+
+    /* members */
+    private final MarlinGraphicsConfig config;
+    private final int capacity;
+
+    /**
+     * Per-thread pooled instances (small so do not use any Soft or Weak Reference)
+     */
+    private final ThreadLocal<PoolEntries> entriesThreadLocal = new ThreadLocal<PoolEntries>() {
+        @Override
+        protected PoolEntries initialValue() {
+            return new PoolEntries(capacity);
+        }
+    };
+
+    public MarlinGraphics2DPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MarlinGraphics2DPool(final int capacity) {
+        this(MarlinGraphicsConfig.getDefault(), capacity);
+    }
+
+    public MarlinGraphics2DPool(final MarlinGraphicsConfig config, final int capacity) {
+        if (config == null) {
+            throw new NullPointerException("config");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.config = config;
+        this.capacity = capacity;
+    }
+
+    public MarlinGraphicsConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns a MarlinGraphics2D instance bound to the given image
+     * (default graphics state and rendering hints)
+     * @param image image to render into
+     * @return MarlinGraphics2D instance
+     */
+    public MarlinGraphics2D acquire(final BufferedImage image) {
+        final MarlinGraphics2D g2d = entriesThreadLocal.get().pop(image);
+        if (g2d == null) {
+            return new MarlinGraphics2D(image, config);
+        }
+        g2d.reset(image);
+        return g2d;
+    }
+
+    /**
+     * Gives the given MarlinGraphics2D instance back to this pool (still
+     * bound to its image) or disposes it if the pool is full
+     * @param g2d MarlinGraphics2D instance acquired from this pool
+     */
+    public void release(final MarlinGraphics2D g2d) {
+        if (g2d.isDisposed() || !config.equals(g2d.getConfig())
+                || !entriesThreadLocal.get().push(g2d)) {
+            // release the delegate (and its surface):
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Disposes the pooled instances of the current thread (and releases
+     * their images)
+     */
+    public void clear() {
+        entriesThreadLocal.get().clear();
+    }
+
+    static final class PoolEntries {
+
+        private final MarlinGraphics2D[] items;
+        private int size = 0;
+
+        PoolEntries(final int capacity) {
+            // ThreadLocal constructor
+            this.items = new MarlinGraphics2D[capacity];
+        }
+
+        /**
+         * @return the instance bound to the given image if any or the last
+         * released instance
+         */
+        MarlinGraphics2D pop(final BufferedImage image) {
+            if (size == 0) {
+                return null;
+            }
+            int i = size - 1;
+            for (int j = i; j >= 0; j--) {
+                if (items[j].getImage() == image) {
+                    i = j;
+                    break;
+                }
+            }
+            final MarlinGraphics2D g2d = items[i];
+            items[i] = items[--size];
+            items[size] = null;
+            return g2d;
+        }
+
+        boolean push(final MarlinGraphics2D g2d) {
+            if (size < items.length) {
+                items[size++] = g2d;
+                return true;
+            }
+            // else: pool is full, discard instance
+            return false;
+        }
+
+        void clear() {
+            while (size != 0) {
+                items[--size].dispose();
+                items[size] = null;
+            }
+        }
+    }
+}
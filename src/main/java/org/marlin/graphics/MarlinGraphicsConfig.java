@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+/**
+ * This class is an immutable configuration of MarlinGraphics2D instances
+ * to use different settings (pipelines) in the same JVM.
+ * Its default values are given by the MarlinGraphics system properties.
+ *
+ * Configurations are derived from getDefault() with the withXxx() methods.
+ * Pipelines are built once per distinct (tile size, useThreadLocal) pair and
+ * shared.
+ */
+public final class MarlinGraphicsConfig {
+
+    /** minimum tile size (pixels) */
+    public final static int MIN_TILE_SIZE = 8;
+    /** maximum tile size (pixels) */
+    public final static int MAX_TILE_SIZE = 1024;
+
+    /** default configuration (system properties) */
+    private final static MarlinGraphicsConfig DEFAULT = new MarlinGraphicsConfig(
+            MarlinGraphics2D.getBoolean("MarlinGraphics.blendComposite", "false"),
+            MarlinGraphics2D.getBoolean("MarlinGraphics.redirectRect", "false"),
+            getInteger("MarlinGraphics.tileSize", 128, MIN_TILE_SIZE, MAX_TILE_SIZE),
+            MarlinGraphics2D.getBoolean("MarlinGraphics.debug", "false"),
+            getInteger("MarlinGraphics.parallelism",
+                    Runtime.getRuntime().availableProcessors(), 1, Integer.MAX_VALUE),
+            MarlinGraphics2D.getBoolean("MarlinGraphics.useThreadLocal", "true"),
+            MarlinGraphics2D.getBoolean("MarlinGraphics.aliased", "false"),
+            MarlinGraphics2D.getBoolean("MarlinGraphics.mipmap", "false"),
+            MarlinGraphics2D.getBoolean("MarlinGraphics.hairline", "false")
+    );
+
+    /* members */
+    /** gamma correction (SrcOver blending) */
+    private final boolean gammaCorrection;
+    /** true means to use Marlin for rectangles instead of default rendering engine */
+    private final boolean redirectRect;
+    /** tile width (pixels) of the analytic renderers (rectangles) */
+    private final int tileSize;
+    /** instrumentation (logs) */
+    private final boolean instrumentation;
+    /** number of rendering threads (parallel renderers) */
+    private final int parallelism;
+    /** true to use per-thread rendering contexts; false to use shared queues of contexts */
+    private final boolean useThreadLocal;
+    /** true to render non-antialiased shapes with Marlin (thresholded coverage) */
+    private final boolean aliased;
+    /** true to draw downscaled images from gamma-correct mip chains */
+    private final boolean mipmap;
+    /** true to draw thin antialiased lines with the hairline renderer */
+    private final boolean hairline;
+
+    /**
+     * Return the default configuration given by the system properties:
+     * MarlinGraphics.blendComposite, MarlinGraphics.redirectRect,
+     * MarlinGraphics.tileSize, MarlinGraphics.debug, MarlinGraphics.parallelism,
+     * MarlinGraphics.useThreadLocal, MarlinGraphics.aliased, MarlinGraphics.mipmap
+     * and MarlinGraphics.hairline
+     * @return default configuration
+     */
+    public static MarlinGraphicsConfig getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Use getDefault().withXxx(...) to derive configurations
+     */
+    private MarlinGraphicsConfig(final boolean gammaCorrection,
+                                 final boolean redirectRect,
+                                 final int tileSize,
+                                 final boolean instrumentation,
+                                 final int parallelism,
+                                 final boolean useThreadLocal,
+                                 final boolean aliased,
+                                 final boolean mipmap,
+                                 final boolean hairline) {
+        if (tileSize < MIN_TILE_SIZE || tileSize > MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("Invalid tileSize: " + tileSize);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        this.gammaCorrection = gammaCorrection;
+        this.redirectRect = redirectRect;
+        this.tileSize = tileSize;
+        this.instrumentation = instrumentation;
+        this.parallelism = parallelism;
+        this.useThreadLocal = useThreadLocal;
+        this.aliased = aliased;
+        this.mipmap = mipmap;
+        this.hairline = hairline;
+    }
+
+    public boolean isGammaCorrection() {
+        return gammaCorrection;
+    }
+
+    public boolean isRedirectRect() {
+        return redirectRect;
+    }
+
+    /**
+     * Note: Marlin tiles are sized by the JVM-wide Marlin settings
+     * (sun.java2d.renderer.tileSize_log2)
+     * @return tile width (pixels) of the analytic renderers (rectangles)
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public boolean isInstrumentation() {
+        return instrumentation;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Per-thread contexts (ThreadLocal) suit few long-lived threads whereas
+     * shared queues of contexts (ConcurrentLinkedQueue) suit many threads
+     * like virtual threads: contexts scale with concurrent renderings
+     * instead of the number of threads.
+     * Note: Marlin renderer contexts follow the JVM-wide
+     * sun.java2d.renderer.useThreadLocal setting.
+     * @return true to use per-thread rendering contexts; false to use shared queues of contexts
+     */
+    public boolean isUseThreadLocal() {
+        return useThreadLocal;
+    }
+
+    /**
+     * Aliased rendering: shapes drawn with KEY_ANTIALIASING = OFF are
+     * rendered by Marlin too (same geometry as antialiased renderings) and
+     * pixels are either fully painted (coverage &gt;= 50%) or left untouched,
+     * instead of using the default (non-antialiased) java2d loops.
+     * @return true to render non-antialiased shapes with Marlin
+     */
+    public boolean isAliased() {
+        return aliased;
+    }
+
+    /**
+     * Mip mapping: with gamma correction, images downscaled by 2 or more
+     * (bilinear or bicubic interpolation) are drawn from mip chains averaged
+     * in linear light (less aliasing but slower than the default
+     * interpolation).
+     * @return true to draw downscaled images from gamma-correct mip chains
+     */
+    public boolean isMipmap() {
+        return mipmap;
+    }
+
+    /**
+     * Hairline renderer: thin antialiased lines (BasicStroke without dashes,
+     * pure stroke control, device line width &lt;= 1.5) are drawn by an
+     * analytic renderer instead of the Marlin stroker (faster but its
+     * coverage differs from Marlin on line joins and ends).
+     * @return true to draw thin antialiased lines with the hairline renderer
+     */
+    public boolean isHairline() {
+        return hairline;
+    }
+
+    public MarlinGraphicsConfig withGammaCorrection(final boolean gammaCorrection) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withRedirectRect(final boolean redirectRect) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withTileSize(final int tileSize) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withInstrumentation(final boolean instrumentation) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withParallelism(final int parallelism) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withUseThreadLocal(final boolean useThreadLocal) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withAliased(final boolean aliased) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withMipmap(final boolean mipmap) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    public MarlinGraphicsConfig withHairline(final boolean hairline) {
+        return new MarlinGraphicsConfig(gammaCorrection, redirectRect, tileSize, instrumentation, parallelism, useThreadLocal, aliased, mipmap,
+                hairline);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MarlinGraphicsConfig)) {
+            return false;
+        }
+        final MarlinGraphicsConfig other = (MarlinGraphicsConfig) obj;
+        return (gammaCorrection == other.gammaCorrection)
+                && (redirectRect == other.redirectRect)
+                && (tileSize == other.tileSize)
+                && (instrumentation == other.instrumentation)
+                && (parallelism == other.parallelism)
+                && (useThreadLocal == other.useThreadLocal)
+                && (aliased == other.aliased)
+                && (mipmap == other.mipmap)
+                && (hairline == other.hairline);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + (gammaCorrection ? 1 : 0);
+        hash = 31 * hash + (redirectRect ? 1 : 0);
+        hash = 31 * hash + tileSize;
+        hash = 31 * hash + (instrumentation ? 1 : 0);
+        hash = 31 * hash + parallelism;
+        hash = 31 * hash + (useThreadLocal ? 1 : 0);
+        hash = 31 * hash + (aliased ? 1 : 0);
+        hash = 31 * hash + (mipmap ? 1 : 0);
+        hash = 31 * hash + (hairline ? 1 : 0);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "MarlinGraphicsConfig[gammaCorrection=" + gammaCorrection
+                + ", redirectRect=" + redirectRect
+                + ", tileSize=" + tileSize
+                + ", instrumentation=" + instrumentation
+                + ", parallelism=" + parallelism
+                + ", useThreadLocal=" + useThreadLocal
+                + ", aliased=" + aliased
+                + ", mipmap=" + mipmap
+                + ", hairline=" + hairline + ']';
+    }
+
+    static int getInteger(final String key, final int def,
+                          final int min, final int max) {
+        final String property = MarlinGraphics2D.getProperty(key);
+
+        int value = def;
+        if (property != null) {
+            try {
+                value = Integer.decode(property);
+            } catch (NumberFormatException e) {
+                MarlinGraphics2D.log("Invalid integer value for " + key + " = " + property);
+            }
+        }
+
+        // check for invalid values
+        if ((value < min) || (value > max)) {
+            MarlinGraphics2D.log("Invalid value for " + key + " = " + value
+                    + "; expected value in range[" + min + ", " + max + "] !");
+            value = def;
+        }
+        return value;
+    }
+}
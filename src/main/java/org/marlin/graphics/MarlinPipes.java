@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import sun.java2d.pipe.AlphaColorPipe;
+import sun.java2d.pipe.AlphaPaintPipe;
+import sun.java2d.pipe.CompositePipe;
+import sun.java2d.pipe.GeneralCompositePipe;
+import sun.java2d.pipe.ParallelogramPipe;
+import sun.java2d.pipe.PixelToParallelogramConverter;
+import sun.java2d.pipe.SpanClipRenderer;
+
+/**
+ * This class gathers the Marlin pipelines (mimics java2d pipelines)
+ * built for the pipeline settings of a MarlinGraphicsConfig (tile size and
+ * useThreadLocal); instances are cached and shared by all MarlinGraphics2D
+ * instances using the same pipeline settings.
+ */
+final class MarlinPipes {
+
+    /** shared pipelines per pipeline settings (bounded: tile sizes x 2) */
+    private static final ConcurrentHashMap<Integer, MarlinPipes> PIPES
+        = new ConcurrentHashMap<Integer, MarlinPipes>();
+
+    static MarlinPipes get(final MarlinGraphicsConfig config) {
+        // only the tile size and useThreadLocal settings affect pipelines:
+        final Integer key = Integer.valueOf((config.getTileSize() << 1)
+                                            | (config.isUseThreadLocal() ? 1 : 0));
+        MarlinPipes pipes = PIPES.get(key);
+        if (pipes == null) {
+            final MarlinPipes newPipes = new MarlinPipes(config);
+            pipes = PIPES.putIfAbsent(key, newPipes);
+            if (pipes == null) {
+                pipes = newPipes;
+            }
+        }
+        return pipes;
+    }
+
+    // SurfaceData instances:
+    final AlphaColorPipe colorPipe;//I
+    final CompositePipe clipColorPipe;//I
+    final AAShapePipe AAColorShape;//I
+    final PixelToParallelogramConverter AAColorViaShape;//U
+    final PixelToParallelogramConverter AAColorViaPgram;//U
+    final AAShapePipe AAClipColorShape;//I
+    final PixelToParallelogramConverter AAClipColorViaShape;//U
+
+    final CompositePipe paintPipe;//I
+    final CompositePipe clipPaintPipe;//I
+    final AAShapePipe AAPaintShape;//I
+    final PixelToParallelogramConverter AAPaintViaShape;//U
+    final AAShapePipe AAClipPaintShape;//I
+    final PixelToParallelogramConverter AAClipPaintViaShape;//U
+
+    final GammaCompositePipe gammaPipe;//I
+    final CompositePipe clipGammaPipe;//I
+    final AAShapePipe AAGammaShape;//I
+    final PixelToParallelogramConverter AAGammaViaShape;//U
+    final AAShapePipe AAClipGammaShape;//I
+    final PixelToParallelogramConverter AAClipGammaViaShape;//U
+
+    final CompositePipe compPipe;//I
+    final CompositePipe clipCompPipe;//I
+    final AAShapePipe AACompShape;//I
+    final PixelToParallelogramConverter AACompViaShape;//U
+    final AAShapePipe AAClipCompShape;//I
+    final PixelToParallelogramConverter AAClipCompViaShape;//U
+
+    /**
+     * @return name of the given shape pipe (events) or its class name if
+     * unknown
+     */
+    String getName(final Object pipe) {
+        if (pipe == AAColorViaShape) {
+            return "AAColorShape";
+        }
+        if (pipe == AAColorViaPgram) {
+            return "AAColorPgram";
+        }
+        if (pipe == AAClipColorViaShape) {
+            return "AAClipColorShape";
+        }
+        if (pipe == AAPaintViaShape) {
+            return "AAPaintShape";
+        }
+        if (pipe == AAClipPaintViaShape) {
+            return "AAClipPaintShape";
+        }
+        if (pipe == AAGammaViaShape) {
+            return "AAGammaShape";
+        }
+        if (pipe == AAClipGammaViaShape) {
+            return "AAClipGammaShape";
+        }
+        if (pipe == AACompViaShape) {
+            return "AACompShape";
+        }
+        if (pipe == AAClipCompViaShape) {
+            return "AAClipCompShape";
+        }
+        return (pipe != null) ? pipe.getClass().getSimpleName() : null;
+    }
+
+    private static PixelToParallelogramConverter
+            makeConverter(AAShapePipe renderer,
+                          ParallelogramPipe pgrampipe) {
+        return new PixelToParallelogramConverter(renderer,
+                pgrampipe,
+                1.0 / 8.0, 0.499,
+                false);
+    }
+
+    private static PixelToParallelogramConverter
+            makeConverter(AAShapePipe renderer) {
+        return makeConverter(renderer, renderer);
+    }
+
+    private MarlinPipes(final MarlinGraphicsConfig config) {
+        final int tileSize = config.getTileSize();
+        final boolean useThreadLocal = config.isUseThreadLocal();
+        try {
+            colorPipe = new AlphaColorPipe();//I
+            clipColorPipe = new SpanClipRenderer(colorPipe);//I
+            AAColorShape = new AAShapePipe(colorPipe, tileSize, useThreadLocal);//I
+            AAColorViaShape = makeConverter(AAColorShape);//U
+            AAColorViaPgram = makeConverter(AAColorShape, colorPipe);//U
+            AAClipColorShape = new AAShapePipe(clipColorPipe, tileSize, useThreadLocal);//I
+            AAClipColorViaShape = makeConverter(AAClipColorShape);//U
+
+            paintPipe = new AlphaPaintPipe();//I
+            clipPaintPipe = new SpanClipRenderer(paintPipe);//I
+            AAPaintShape = new AAShapePipe(paintPipe, tileSize, useThreadLocal);//I
+            AAPaintViaShape = makeConverter(AAPaintShape);//U
+            AAClipPaintShape = new AAShapePipe(clipPaintPipe, tileSize, useThreadLocal);//I
+            AAClipPaintViaShape = makeConverter(AAClipPaintShape);//U
+
+            gammaPipe = new GammaCompositePipe(useThreadLocal);//I
+            clipGammaPipe = new SpanClipRenderer(gammaPipe);//I
+            AAGammaShape = new AAShapePipe(gammaPipe, tileSize, useThreadLocal);//I
+            AAGammaViaShape = makeConverter(AAGammaShape);//U
+            AAClipGammaShape = new AAShapePipe(clipGammaPipe, tileSize, useThreadLocal);//I
+            AAClipGammaViaShape = makeConverter(AAClipGammaShape);//U
+
+            compPipe = new GeneralCompositePipe();//I
+            clipCompPipe = new SpanClipRenderer(compPipe);//I
+            AACompShape = new AAShapePipe(compPipe, tileSize, useThreadLocal);//I
+            AACompViaShape = makeConverter(AACompShape);//U
+            AAClipCompShape = new AAShapePipe(clipCompPipe, tileSize, useThreadLocal);//I
+            AAClipCompViaShape = makeConverter(AAClipCompShape);//U
+
+        } catch (Throwable th) {
+            throw new IllegalStateException("Unable to create MarlinGraphics2D pipeline (MarlinRenderingEngine) !", th);
+        }
+    }
+}
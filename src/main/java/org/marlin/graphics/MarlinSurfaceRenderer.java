@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ColorModel;
+import sun.awt.SunHints;
+import sun.java2d.loops.SurfaceType;
+import sun.java2d.pipe.AATileGenerator;
+import sun.java2d.pipe.Region;
+import sun.java2d.pipe.RenderingEngine;
+
+/**
+ * This class renders shapes (antialiased, gamma-corrected SrcOver) directly
+ * into a PixelSurface (off-heap or memory-mapped buffer) or a LinearSurface
+ * (linear-light accumulation) using the Marlin renderer and the blending
+ * loops, without any BufferedImage nor SunGraphics2D.
+ *
+ * Instances are not thread-safe (like Graphics2D).
+ */
+public final class MarlinSurfaceRenderer {
+
+    private final static BasicStroke DEFAULT_STROKE = new BasicStroke();
+
+    static {
+        // load the AWT native library (Region initialization) as no image may exist:
+        ColorModel.getRGBdefault();
+    }
+
+    /* members */
+    private final PixelSurface surface;
+    private final LinearSurface linearSurface;
+    private final SurfaceType surfaceType;
+    private final BlendComposite.BlendingContextCache blendContexts = new BlendComposite.BlendingContextCache();
+    private final int[] abox = new int[4];
+    private byte[] alphaTile = new byte[32 * 32];
+    /* rendering state */
+    private int colorRGBA = 0xFF000000;
+    private float alpha = 1f;
+    private AffineTransform transform = new AffineTransform();
+    private BasicStroke stroke = DEFAULT_STROKE;
+    private boolean normalize = false;
+    private int renderHint = SunHints.INTVAL_RENDER_DEFAULT;
+    private Region clip;
+
+    public MarlinSurfaceRenderer(final PixelSurface surface) {
+        this.surface = surface;
+        this.linearSurface = null;
+        this.surfaceType = (surface.getFormat() == PixelSurface.Format.INT_ARGB)
+                           ? SurfaceType.IntArgb : SurfaceType.FourByteAbgr;
+        this.clip = getBounds();
+    }
+
+    /**
+     * Create a renderer compositing into the given accumulation surface
+     * (linear-light, no quantization per operation)
+     * @param surface linear surface
+     */
+    public MarlinSurfaceRenderer(final LinearSurface surface) {
+        this.surface = null;
+        this.linearSurface = surface;
+        this.surfaceType = null;
+        this.clip = getBounds();
+    }
+
+    /**
+     * @return pixel surface or null if rendering into a linear surface
+     */
+    public PixelSurface getSurface() {
+        return surface;
+    }
+
+    /**
+     * @return linear surface or null if rendering into a pixel surface
+     */
+    public LinearSurface getLinearSurface() {
+        return linearSurface;
+    }
+
+    private Region getBounds() {
+        return (surface != null)
+               ? Region.getInstanceXYWH(0, 0, surface.getWidth(), surface.getHeight())
+               : Region.getInstanceXYWH(0, 0, linearSurface.getWidth(), linearSurface.getHeight());
+    }
+
+    public void setColor(final Color color) {
+        this.colorRGBA = color.getRGB();
+    }
+
+    /**
+     * Set the extra alpha (like AlphaComposite.SrcOver.derive(alpha))
+     * @param alpha extra alpha in [0; 1]
+     */
+    public void setAlpha(final float alpha) {
+        if (alpha < 0f || alpha > 1f) {
+            throw new IllegalArgumentException("Invalid alpha: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    public void setTransform(final AffineTransform transform) {
+        this.transform = new AffineTransform(transform);
+    }
+
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    public void setStroke(final BasicStroke stroke) {
+        this.stroke = stroke;
+    }
+
+    /**
+     * Set the stroke control (like KEY_STROKE_CONTROL)
+     * @param normalize true to normalize strokes; false for pure strokes (default)
+     */
+    public void setStrokeNormalization(final boolean normalize) {
+        this.normalize = normalize;
+    }
+
+    /**
+     * Set the rendering engine tier (like KEY_RENDERING)
+     * @param value RenderingHints.VALUE_RENDER_[DEFAULT|SPEED|QUALITY] (default)
+     */
+    public void setRenderQuality(final Object value) {
+        this.renderHint = AAShapePipe.getRenderHint(value);
+    }
+
+    /**
+     * Set the clip rectangle (device space) intersected with the surface bounds
+     * @param clip clip rectangle or null to reset
+     */
+    public void setClip(final Rectangle clip) {
+        Region r = getBounds();
+        if (clip != null) {
+            r = r.getIntersectionXYWH(clip.x, clip.y, clip.width, clip.height);
+        }
+        this.clip = r;
+    }
+
+    public void fill(final Shape s) {
+        render(s, null);
+    }
+
+    public void draw(final Shape s) {
+        render(s, stroke);
+    }
+
+    private void render(final Shape s, final BasicStroke bs) {
+        if (clip.isEmpty()) {
+            return;
+        }
+        final int[] box = abox;
+
+        final RenderingEngine engine = AAShapePipe.getEngine(renderHint);
+        // thin strokes use the minimum pen size (like AAShapePipe):
+        final boolean thin = (bs != null) && AAShapePipe.isThinStroke(engine, bs, transform);
+
+        final AATileGenerator aatg = engine.getAATileGenerator(s, transform, clip,
+                bs, thin, (bs != null) && normalize, box);
+        if (aatg == null) {
+            return;
+        }
+        try {
+            final BlendComposite.BlendingContext compCtxt = (surfaceType == null) ? null
+                : BlendComposite.getInstance(BlendComposite.BlendingMode.SRC_OVER, alpha)
+                    .createContext(surfaceType, blendContexts);
+
+            // copy of int[] abox as local variables for performance:
+            final int x0 = box[0];
+            final int y0 = box[1];
+            final int x1 = box[2];
+            final int y1 = box[3];
+
+            final int tw = aatg.getTileWidth();
+            final int th = aatg.getTileHeight();
+
+            final byte[] alpha = getAlphaTile(tw * th);
+            byte[] atile;
+
+            for (int y = y0; y < y1; y += th) {
+                final int h = Math.min(th, y1 - y);
+
+                for (int x = x0; x < x1; x += tw) {
+                    final int w = Math.min(tw, x1 - x);
+
+                    final int a = aatg.getTypicalAlpha();
+
+                    if (a == 0x00) {
+                        aatg.nextTile();
+                        continue;
+                    }
+                    if (a == 0xff) {
+                        atile = null;
+                        aatg.nextTile();
+                    } else {
+                        atile = alpha;
+                        aatg.getAlpha(alpha, 0, tw);
+                    }
+                    renderTile(compCtxt, atile, tw, x, y, w, h);
+                }
+            }
+        } finally {
+            aatg.dispose();
+        }
+    }
+
+    private void renderTile(final BlendComposite.BlendingContext compCtxt,
+                            final byte[] atile, final int tilesize,
+                            final int x, final int y, final int w, final int h) {
+        if (linearSurface != null) {
+            linearSurface.fill(colorRGBA, alpha, atile, 0, tilesize, x, y, w, h);
+            return;
+        }
+        final PixelSurface sf = surface;
+        final int scan = sf.getScanlineStride();
+
+        if (sf.ints != null) {
+            final int scanInts = scan >> 2;
+            ((BlendingContextIntARGB) compCtxt).fill(colorRGBA, atile, 0, tilesize,
+                    sf.ints, y * scanInts + x, scanInts, w, h);
+        } else {
+            ((BlendingContextByteABGR) compCtxt).fill(colorRGBA, atile, 0, tilesize,
+                    sf.bytes, y * scan + (x << 2), scan, PixelSurface.ABGR_BAND_OFFSETS, w, h);
+        }
+    }
+
+    private byte[] getAlphaTile(final int len) {
+        byte[] t = alphaTile;
+        if (t.length < len) {
+            alphaTile = t = new byte[len];
+        }
+        return t;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Paint;
+import java.awt.PaintContext;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Map;
+import java.util.WeakHashMap;
+import sun.awt.image.SunWritableRaster;
+import sun.java2d.StateTrackable;
+import sun.java2d.StateTracker;
+import static org.marlin.graphics.BlendComposite.GAMMA_LUT;
+import static org.marlin.graphics.BlendComposite.NORM_BYTE;
+
+/**
+ * This class caches the mip chains of source images (successive half-size
+ * levels averaged in linear light with the gamma LUT and weighted by alpha)
+ * to draw images downscaled by 2 or more without aliasing: the level just
+ * larger than the destination size is then resampled (bilinear) by a Paint
+ * composited through the gamma pipe.
+ *
+ * Mip chains are weakly keyed by image and rebuilt when the image raster
+ * changed (java2d state tracker); untrackable images (data arrays exposed
+ * by DataBuffer.getData()) are not cached.
+ */
+final class MipmapCache {
+
+    /* paint color model (non-premultiplied INT_ARGB) */
+    private final static ColorModel RGB_DEFAULT = ColorModel.getRGBdefault();
+
+    /* shared mip chains (weak keys) */
+    private final static Map<BufferedImage, Mipmap> CACHE = new WeakHashMap<BufferedImage, Mipmap>();
+
+    private MipmapCache() {
+        // forbidden
+    }
+
+    /**
+     * Return the paint filling the given user rectangle with the mip level
+     * matching the given device scale factor
+     * @param img source image
+     * @param x user x
+     * @param y user y
+     * @param w user width
+     * @param h user height
+     * @param scale device scale factor (destination size / image size)
+     * @return paint or null if the scale is larger than 0.5 or the image is untrackable
+     */
+    static Paint getPaint(final BufferedImage img,
+                          final double x, final double y, final double w, final double h,
+                          final double scale) {
+        if (!(scale > 0.0) || (scale > 0.5)) {
+            return null;
+        }
+        // largest level whose size is larger than the destination size:
+        final int level = (int) Math.floor(-Math.log(scale) / Math.log(2.0));
+
+        final Mipmap mipmap = getMipmap(img);
+        if (mipmap == null) {
+            return null;
+        }
+        return new LevelPaint(mipmap.getLevel(img, level), x, y, w, h);
+    }
+
+    static Mipmap getMipmap(final BufferedImage img) {
+        final StateTrackable trackable = SunWritableRaster.stealTrackable(img.getRaster().getDataBuffer());
+        if (trackable.getState() == StateTrackable.State.UNTRACKABLE) {
+            return null;
+        }
+        synchronized (CACHE) {
+            Mipmap mipmap = CACHE.get(img);
+            if ((mipmap == null) || !mipmap.tracker.isCurrent()) {
+                mipmap = new Mipmap(trackable.getStateTracker());
+                CACHE.put(img, mipmap);
+            }
+            return mipmap;
+        }
+    }
+
+    /**
+     * Mip chain of an image: levels are built on demand (never reference the
+     * image, weak key)
+     */
+    static final class Mipmap {
+
+        /* version stamp of the source raster */
+        final StateTracker tracker;
+        /* levels [1; n] (level 0 is the image) */
+        private Level[] levels = new Level[0];
+
+        Mipmap(final StateTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        synchronized Level getLevel(final BufferedImage img, final int level) {
+            if (level > levels.length) {
+                final Level[] l = new Level[level];
+                System.arraycopy(levels, 0, l, 0, levels.length);
+                for (int i = levels.length; i < level; i++) {
+                    final Level parent = (i == 0) ? new Level(img) : l[i - 1];
+                    if ((parent.width == 1) && (parent.height == 1)) {
+                        // smallest level:
+                        final Level[] s = new Level[i];
+                        System.arraycopy(l, 0, s, 0, i);
+                        levels = s;
+                        return parent;
+                    }
+                    l[i] = parent.halve();
+                }
+                levels = l;
+            }
+            return levels[level - 1];
+        }
+    }
+
+    /**
+     * Mip level: non-premultiplied sRGB pixels (INT_ARGB)
+     */
+    static final class Level {
+
+        final int width;
+        final int height;
+        final int[] pixels;
+
+        Level(final int width, final int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new int[width * height];
+        }
+
+        Level(final BufferedImage img) {
+            this(img.getWidth(), img.getHeight());
+            img.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+
+        /**
+         * Average 2x2 pixels (box filter, edges clamped) in linear light
+         * (premultiplied by alpha)
+         */
+        Level halve() {
+            final int[] gamma_dir = GAMMA_LUT.dir;
+            final int[] gamma_inv = GAMMA_LUT.inv;
+
+            final int sw = width;
+            final int sh = height;
+            final int[] src = pixels;
+
+            final Level dst = new Level((sw + 1) >> 1, (sh + 1) >> 1);
+            final int[] out = dst.pixels;
+
+            for (int y = 0, off = 0; y < dst.height; y++) {
+                final int r0 = (y << 1) * sw;
+                final int r1 = Math.min((y << 1) + 1, sh - 1) * sw;
+
+                for (int x = 0; x < dst.width; x++) {
+                    final int c0 = x << 1;
+                    final int c1 = Math.min(c0 + 1, sw - 1);
+
+                    final int p0 = src[r0 + c0];
+                    final int p1 = src[r0 + c1];
+                    final int p2 = src[r1 + c0];
+                    final int p3 = src[r1 + c1];
+
+                    final int a0 = p0 >>> 24;
+                    final int a1 = p1 >>> 24;
+                    final int a2 = p2 >>> 24;
+                    final int a3 = p3 >>> 24;
+                    final int sa = a0 + a1 + a2 + a3;
+
+                    int r = 0, g = 0, b = 0;
+                    if (sa != 0) {
+                        // linear components weighted by alpha:
+                        final int hsa = sa >> 1;
+                        r = (a0 * gamma_dir[(p0 >> 16) & NORM_BYTE] + a1 * gamma_dir[(p1 >> 16) & NORM_BYTE]
+                           + a2 * gamma_dir[(p2 >> 16) & NORM_BYTE] + a3 * gamma_dir[(p3 >> 16) & NORM_BYTE] + hsa) / sa;
+                        g = (a0 * gamma_dir[(p0 >> 8) & NORM_BYTE] + a1 * gamma_dir[(p1 >> 8) & NORM_BYTE]
+                           + a2 * gamma_dir[(p2 >> 8) & NORM_BYTE] + a3 * gamma_dir[(p3 >> 8) & NORM_BYTE] + hsa) / sa;
+                        b = (a0 * gamma_dir[p0 & NORM_BYTE] + a1 * gamma_dir[p1 & NORM_BYTE]
+                           + a2 * gamma_dir[p2 & NORM_BYTE] + a3 * gamma_dir[p3 & NORM_BYTE] + hsa) / sa;
+                    } else {
+                        // transparent: keep the average color (bilinear resampling):
+                        r = (gamma_dir[(p0 >> 16) & NORM_BYTE] + gamma_dir[(p1 >> 16) & NORM_BYTE]
+                           + gamma_dir[(p2 >> 16) & NORM_BYTE] + gamma_dir[(p3 >> 16) & NORM_BYTE] + 2) >> 2;
+                        g = (gamma_dir[(p0 >> 8) & NORM_BYTE] + gamma_dir[(p1 >> 8) & NORM_BYTE]
+                           + gamma_dir[(p2 >> 8) & NORM_BYTE] + gamma_dir[(p3 >> 8) & NORM_BYTE] + 2) >> 2;
+                        b = (gamma_dir[p0 & NORM_BYTE] + gamma_dir[p1 & NORM_BYTE]
+                           + gamma_dir[p2 & NORM_BYTE] + gamma_dir[p3 & NORM_BYTE] + 2) >> 2;
+                    }
+                    out[off++] = (((sa + 2) >> 2) << 24)
+                                 | (gamma_inv[r] << 16) | (gamma_inv[g] << 8) | gamma_inv[b];
+                }
+            }
+            return dst;
+        }
+    }
+
+    /**
+     * Paint filling the user rectangle [x, y, w, h] with the given level
+     * (bilinear resampling, edges clamped)
+     */
+    static final class LevelPaint implements Paint {
+
+        final Level level;
+        final double x, y, w, h;
+
+        LevelPaint(final Level level, final double x, final double y,
+                   final double w, final double h) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public PaintContext createContext(final ColorModel cm, final Rectangle deviceBounds,
+                                          final Rectangle2D userBounds, final AffineTransform xform,
+                                          final RenderingHints hints) {
+            // level space to device space:
+            final AffineTransform at = new AffineTransform(xform);
+            at.translate(x, y);
+            at.scale(w / level.width, h / level.height);
+            try {
+                return new LevelPaintContext(level, at.createInverse());
+            } catch (NoninvertibleTransformException nte) {
+                // degenerate transform: should not happen (not drawn)
+                return new LevelPaintContext(level, new AffineTransform(0, 0, 0, 0, 0, 0));
+            }
+        }
+
+        @Override
+        public int getTransparency() {
+            return Transparency.TRANSLUCENT;
+        }
+    }
+
+    static final class LevelPaintContext implements PaintContext {
+
+        private final Level level;
+        /* device space to level space */
+        private final AffineTransform inv;
+        private WritableRaster raster = null;
+
+        LevelPaintContext(final Level level, final AffineTransform inv) {
+            this.level = level;
+            this.inv = inv;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return RGB_DEFAULT;
+        }
+
+        @Override
+        public Raster getRaster(final int x, final int y, final int w, final int h) {
+            WritableRaster r = raster;
+            if ((r == null) || (r.getWidth() < w) || (r.getHeight() < h)) {
+                raster = r = RGB_DEFAULT.createCompatibleWritableRaster(w, h);
+            }
+            final int[] out = ((DataBufferInt) r.getDataBuffer()).getData();
+            final int scan = r.getWidth();
+
+            final int lw = level.width;
+            final int lh = level.height;
+            final int[] src = level.pixels;
+
+            final double m00 = inv.getScaleX();
+            final double m01 = inv.getShearX();
+            final double m10 = inv.getShearY();
+            final double m11 = inv.getScaleY();
+
+            // fixed-point steps (16.16):
+            final int du = (int) (m00 * 65536.0);
+            final int dv = (int) (m10 * 65536.0);
+
+            for (int j = 0; j < h; j++) {
+                // pixel center (level space, shifted by the texel center):
+                final double dy = y + j + 0.5;
+                int u = (int) ((m00 * (x + 0.5) + m01 * dy + inv.getTranslateX() - 0.5) * 65536.0);
+                int v = (int) ((m10 * (x + 0.5) + m11 * dy + inv.getTranslateY() - 0.5) * 65536.0);
+
+                for (int i = 0, off = j * scan; i < w; i++, off++, u += du, v += dv) {
+                    final int iu = u >> 16;
+                    final int iv = v >> 16;
+
+                    final int u0 = clamp(iu, lw);
+                    final int u1 = clamp(iu + 1, lw);
+                    final int v0 = clamp(iv, lh) * lw;
+                    final int v1 = clamp(iv + 1, lh) * lw;
+
+                    // weights in [0; 128[:
+                    out[off] = bilinear(src[v0 + u0], src[v0 + u1], src[v1 + u0], src[v1 + u1],
+                                        (u >> 9) & 0x7F, (v >> 9) & 0x7F);
+                }
+            }
+            if ((r.getWidth() != w) || (r.getHeight() != h)) {
+                return r.createWritableChild(0, 0, w, h, 0, 0, null);
+            }
+            return r;
+        }
+
+        private static int clamp(final int i, final int len) {
+            return (i < 0) ? 0 : ((i >= len) ? len - 1 : i);
+        }
+
+        /**
+         * Interpolate premultiplied components (no color fringes near
+         * transparent pixels) and return the non-premultiplied pixel
+         * @param wu horizontal weight in [0; 128[
+         * @param wv vertical weight in [0; 128[
+         */
+        private static int bilinear(final int p00, final int p01, final int p10, final int p11,
+                                    final int wu, final int wv) {
+            // weights sum = 16384:
+            final int w00 = (128 - wu) * (128 - wv);
+            final int w01 = wu * (128 - wv);
+            final int w10 = (128 - wu) * wv;
+            final int w11 = wu * wv;
+
+            if ((p00 & p01 & p10 & p11) >>> 24 == NORM_BYTE) {
+                // opaque pixels:
+                return 0xFF000000
+                       | ((w00 * ((p00 >> 16) & NORM_BYTE) + w01 * ((p01 >> 16) & NORM_BYTE)
+                           + w10 * ((p10 >> 16) & NORM_BYTE) + w11 * ((p11 >> 16) & NORM_BYTE) + 8192) >> 14) << 16
+                       | ((w00 * ((p00 >> 8) & NORM_BYTE) + w01 * ((p01 >> 8) & NORM_BYTE)
+                           + w10 * ((p10 >> 8) & NORM_BYTE) + w11 * ((p11 >> 8) & NORM_BYTE) + 8192) >> 14) << 8
+                       | ((w00 * (p00 & NORM_BYTE) + w01 * (p01 & NORM_BYTE)
+                           + w10 * (p10 & NORM_BYTE) + w11 * (p11 & NORM_BYTE) + 8192) >> 14);
+            }
+            final int a00 = (p00 >>> 24) * w00;
+            final int a01 = (p01 >>> 24) * w01;
+            final int a10 = (p10 >>> 24) * w10;
+            final int a11 = (p11 >>> 24) * w11;
+
+            // alpha x 16384:
+            final int a = a00 + a01 + a10 + a11;
+            if (a == 0) {
+                return 0;
+            }
+            final double ia = 1.0 / a;
+            final int r = (int) ((a00 * ((p00 >> 16) & NORM_BYTE) + a01 * ((p01 >> 16) & NORM_BYTE)
+                                + a10 * ((p10 >> 16) & NORM_BYTE) + a11 * ((p11 >> 16) & NORM_BYTE)) * ia + 0.5);
+            final int g = (int) ((a00 * ((p00 >> 8) & NORM_BYTE) + a01 * ((p01 >> 8) & NORM_BYTE)
+                                + a10 * ((p10 >> 8) & NORM_BYTE) + a11 * ((p11 >> 8) & NORM_BYTE)) * ia + 0.5);
+            final int b = (int) ((a00 * (p00 & NORM_BYTE) + a01 * (p01 & NORM_BYTE)
+                                + a10 * (p10 & NORM_BYTE) + a11 * (p11 & NORM_BYTE)) * ia + 0.5);
+
+            return (((a + 8192) >> 14) << 24) | (r << 16) | (g << 8) | b;
+        }
+
+        @Override
+        public void dispose() {
+            raster = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+/**
+ * Word access to byte arrays (4 bytes as one big-endian int) used by the
+ * byte-interleaved blending loops.
+ *
+ * This implementation (Java 7+) combines single bytes; the multi-release jar
+ * provides a faster implementation for Java 11+ (VarHandle array views) in
+ * META-INF/versions/11.
+ */
+final class PixelAccess {
+
+    private PixelAccess() {
+        // utility class
+    }
+
+    /**
+     * @return implementation name (benchmarks)
+     */
+    static String getImplementation() {
+        return "bytes";
+    }
+
+    /**
+     * Read 4 bytes as a big-endian int
+     * @param a byte array
+     * @param off byte offset
+     * @return int value
+     */
+    static int getIntBE(final byte[] a, final int off) {
+        return ((a[off] & 0xFF) << 24)
+                | ((a[off + 1] & 0xFF) << 16)
+                | ((a[off + 2] & 0xFF) << 8)
+                | (a[off + 3] & 0xFF);
+    }
+
+    /**
+     * Write the given int as 4 bytes (big-endian)
+     * @param a byte array
+     * @param off byte offset
+     * @param v int value
+     */
+    static void putIntBE(final byte[] a, final int off, final int v) {
+        a[off] = (byte) (v >> 24);
+        a[off + 1] = (byte) (v >> 16);
+        a[off + 2] = (byte) (v >> 8);
+        a[off + 3] = (byte) v;
+    }
+}
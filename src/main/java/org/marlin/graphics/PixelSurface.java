@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class describes a destination surface backed by a ByteBuffer
+ * (heap, off-heap or memory-mapped file): offset, size, scanline stride
+ * and pixel format (non-premultiplied ARGB).
+ */
+public final class PixelSurface {
+
+    /** pixel formats */
+    public enum Format {
+        /** 4 bytes per pixel: 32-bit ARGB integer in the buffer's byte order */
+        INT_ARGB,
+        /** 4 bytes per pixel: A, B, G, R bytes (like TYPE_4BYTE_ABGR) */
+        FOUR_BYTE_ABGR
+    }
+
+    /** band offsets (R, G, B, A) of FOUR_BYTE_ABGR pixels */
+    final static int[] ABGR_BAND_OFFSETS = new int[]{3, 2, 1, 0};
+
+    /* members */
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int width;
+    private final int height;
+    private final int scanlineStride;
+    private final Format format;
+    /* pixel views (INT_ARGB: ints; FOUR_BYTE_ABGR: bytes) starting at offset */
+    final IntBuffer ints;
+    final ByteBuffer bytes;
+
+    /**
+     * Create a new surface
+     * @param buffer pixel buffer (byte order matters for INT_ARGB)
+     * @param offset byte offset of the first pixel
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param scanlineStride scanline stride in bytes
+     * @param format pixel format
+     */
+    public PixelSurface(final ByteBuffer buffer, final int offset,
+                        final int width, final int height,
+                        final int scanlineStride, final Format format) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + " x " + height);
+        }
+        if ((scanlineStride < (width << 2)) || ((scanlineStride & 3) != 0)) {
+            throw new IllegalArgumentException("Invalid scanline stride: " + scanlineStride);
+        }
+        if ((offset < 0) || ((offset & 3) != 0)
+                || ((long) offset + (long) scanlineStride * (height - 1) + (width << 2) > buffer.capacity())) {
+            throw new IllegalArgumentException("Invalid offset: " + offset + " (buffer too small)");
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.scanlineStride = scanlineStride;
+        this.format = format;
+
+        final ByteBuffer view = buffer.duplicate();
+        // Buffer methods (JDK 9+ ByteBuffer overrides missing on Java 7/8):
+        ((Buffer) view).clear();
+        ((Buffer) view).position(offset);
+        final ByteBuffer slice = view.slice().order(buffer.order());
+
+        if (format == Format.INT_ARGB) {
+            this.ints = slice.asIntBuffer();
+            this.bytes = null;
+        } else {
+            this.ints = null;
+            this.bytes = slice;
+        }
+    }
+
+    /**
+     * Map the given file region as a surface (packed rows)
+     * @param channel file channel opened for reading and writing
+     * @param position file position of the first pixel
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param format pixel format
+     * @param order byte order (INT_ARGB)
+     * @return new surface
+     * @throws IOException if the mapping fails
+     */
+    public static PixelSurface map(final FileChannel channel, final long position,
+                                   final int width, final int height,
+                                   final Format format, final ByteOrder order) throws IOException {
+        final int stride = width << 2;
+        final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) stride * height);
+        mapped.order(order);
+        return new PixelSurface(mapped, 0, width, height, stride, format);
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getScanlineStride() {
+        return scanlineStride;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+}
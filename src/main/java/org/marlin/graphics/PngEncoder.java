@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import sun.awt.image.SunWritableRaster;
+
+/**
+ * This class writes rendered images (TYPE_INT_ARGB, TYPE_INT_ARGB_PRE or
+ * TYPE_INT_RGB) as PNG files faster than ImageIO: pixels are read directly
+ * from the image array (premultiplied components divided with a lookup
+ * table), rows are not filtered (filter None like ImageIO) and row groups
+ * are deflated in parallel: each group is primed with the last 32K of the
+ * previous group (dictionary) and flushed on a byte boundary so the
+ * compressed groups form a single zlib stream.
+ *
+ * Instances are thread-safe; call dispose() to stop the deflate threads.
+ */
+public final class PngEncoder {
+
+    /** default deflate level (same as ImageIO) */
+    public final static int DEFAULT_COMPRESSION_LEVEL = 4;
+
+    /* minimum number of uncompressed bytes per row group */
+    private final static int GROUP_SIZE = 256 * 1024;
+    /* deflate window (dictionary) size */
+    private final static int DICT_SIZE = 32 * 1024;
+
+    private final static byte[] SIGNATURE = new byte[]{
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    private final static byte[] IHDR = new byte[]{'I', 'H', 'D', 'R'};
+    private final static byte[] IDAT = new byte[]{'I', 'D', 'A', 'T'};
+    private final static byte[] IEND = new byte[]{'I', 'E', 'N', 'D'};
+
+    /*
+     * PNG filter type: rendered images (flat colors, antialiased edges) are
+     * smaller and faster to deflate unfiltered (exact repeats) than with the
+     * Sub / Up / Paeth predictors
+     */
+    private final static byte FILTER_NONE = 0;
+
+    /* un-premultiply table: [alpha << 8 | component] */
+    private final static byte[] UNPREMUL = new byte[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                UNPREMUL[(a << 8) | c] = (byte) Math.min(255, (c * 255 + (a >> 1)) / a);
+            }
+        }
+    }
+
+    private final static AtomicInteger THREAD_ID = new AtomicInteger();
+
+    /* members */
+    private final int compressionLevel;
+    private final ExecutorService executor;
+
+    /**
+     * Create an encoder using the default configuration parallelism
+     * and the default compression level
+     */
+    public PngEncoder() {
+        this(MarlinGraphicsConfig.getDefault().getParallelism(), DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Create an encoder
+     * @param parallelism number of deflate threads (1 means the calling thread)
+     * @param compressionLevel deflate level in [0; 9]
+     */
+    public PngEncoder(final int parallelism, final int compressionLevel) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        this.executor = (parallelism == 1) ? null
+            : Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "MarlinPngEncoder-" + THREAD_ID.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Stop the deflate threads
+     */
+    public void dispose() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Write the given image as PNG into the given channel
+     * @param image TYPE_INT_ARGB, TYPE_INT_ARGB_PRE or TYPE_INT_RGB image
+     * @param channel output channel (not closed)
+     * @throws IOException if an I/O error occurs
+     */
+    public void encode(final BufferedImage image, final WritableByteChannel channel) throws IOException {
+        final OutputStream out = Channels.newOutputStream(channel);
+        encode(image, out);
+        out.flush();
+    }
+
+    /**
+     * Write the given image as PNG into the given stream
+     * @param image TYPE_INT_ARGB, TYPE_INT_ARGB_PRE or TYPE_INT_RGB image
+     * @param out output stream (not closed)
+     * @throws IOException if an I/O error occurs
+     */
+    public void encode(final BufferedImage image, final OutputStream out) throws IOException {
+        final int type = image.getType();
+        if ((type != BufferedImage.TYPE_INT_ARGB) && (type != BufferedImage.TYPE_INT_ARGB_PRE)
+                && (type != BufferedImage.TYPE_INT_RGB)) {
+            throw new IllegalArgumentException("Unsupported image type: " + type);
+        }
+        final WritableRaster raster = image.getRaster();
+        final SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        final DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+        final int scan = sm.getScanlineStride();
+        final int offset = db.getOffset() - raster.getSampleModelTranslateY() * scan
+                           - raster.getSampleModelTranslateX();
+
+        // do not mark the image untrackable (ie keep acceleration):
+        encode(new Source(SunWritableRaster.stealData(db, 0), offset, scan,
+                image.getWidth(), image.getHeight(),
+                (type != BufferedImage.TYPE_INT_RGB), (type == BufferedImage.TYPE_INT_ARGB_PRE)), out);
+    }
+
+    /**
+     * Write the given ARGB pixels (like TileRenderService.PixelSink or
+     * StripRenderer.StripSink pixels) as PNG into the given stream
+     * @param pixels pixel array
+     * @param offset offset of the first pixel
+     * @param scanline scanline stride
+     * @param width image width
+     * @param height image height
+     * @param premultiplied true if components are premultiplied by alpha
+     * @param out output stream (not closed)
+     * @throws IOException if an I/O error occurs
+     */
+    public void encode(final int[] pixels, final int offset, final int scanline,
+                       final int width, final int height, final boolean premultiplied,
+                       final OutputStream out) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + " x " + height);
+        }
+        encode(new Source(pixels, offset, scanline, width, height, true, premultiplied), out);
+    }
+
+    private void encode(final Source src, final OutputStream out) throws IOException {
+        final int rowBytes = src.rowBytes();
+        final int rowsPerGroup = Math.max(1, GROUP_SIZE / rowBytes);
+        final int groups = (src.height + rowsPerGroup - 1) / rowsPerGroup;
+
+        out.write(SIGNATURE);
+
+        final byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, src.width);
+        putInt(ihdr, 4, src.height);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = (byte) ((src.alpha) ? 6 : 2); // RGBA or RGB
+        // compression, filter, interlace methods = 0
+        writeChunk(out, IHDR, ihdr, 0, ihdr.length);
+
+        // zlib header (deflate, 32K window) then row groups:
+        final byte[] zhdr = new byte[]{0x78, (byte) ((compressionLevel <= 1) ? 0x01
+                                                    : ((compressionLevel < 6) ? 0x5E : 0x9C))};
+        writeChunk(out, IDAT, zhdr, 0, zhdr.length);
+
+        long adler = 1L;
+
+        if ((executor == null) || (groups == 1)) {
+            for (int g = 0; g < groups; g++) {
+                final Group group = new Group(src, g * rowsPerGroup,
+                        Math.min(src.height, (g + 1) * rowsPerGroup), (g == groups - 1), compressionLevel);
+                group.call();
+                adler = writeGroup(out, group, adler);
+            }
+        } else {
+            final Future<Group>[] futures = newFutures(groups);
+            for (int g = 0; g < groups; g++) {
+                futures[g] = executor.submit(new Group(src, g * rowsPerGroup,
+                        Math.min(src.height, (g + 1) * rowsPerGroup), (g == groups - 1), compressionLevel));
+            }
+            try {
+                for (int g = 0; g < groups; g++) {
+                    adler = writeGroup(out, getGroup(futures[g]), adler);
+                    futures[g] = null;
+                }
+            } finally {
+                for (int g = 0; g < groups; g++) {
+                    if (futures[g] != null) {
+                        futures[g].cancel(true);
+                    }
+                }
+            }
+        }
+        final byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, IDAT, trailer, 0, trailer.length);
+        writeChunk(out, IEND, trailer, 0, 0);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Future<Group>[] newFutures(final int length) {
+        return new Future[length];
+    }
+
+    private static Group getGroup(final Future<Group> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        } catch (ExecutionException ee) {
+            throw new IOException("PNG encoding failed", ee.getCause());
+        }
+    }
+
+    private static long writeGroup(final OutputStream out, final Group group, final long adler)
+        throws IOException
+    {
+        writeChunk(out, IDAT, group.data, 0, group.size);
+        return adler32Combine(adler, group.adler, group.length);
+    }
+
+    private static void writeChunk(final OutputStream out, final byte[] type,
+                                   final byte[] data, final int off, final int len) throws IOException {
+        final byte[] b = new byte[4];
+        putInt(b, 0, len);
+        out.write(b);
+        out.write(type);
+        out.write(data, off, len);
+
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data, off, len);
+        putInt(b, 0, (int) crc.getValue());
+        out.write(b);
+    }
+
+    private static void putInt(final byte[] b, final int off, final int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /**
+     * Return the Adler-32 checksum of the concatenated sequences (zlib's
+     * adler32_combine)
+     */
+    static long adler32Combine(final long adler1, final long adler2, final long len2) {
+        final long base = 65521L;
+        final long rem = len2 % base;
+        long sum1 = adler1 & 0xFFFFL;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFFL) + base - 1L;
+        sum2 += ((adler1 >>> 16) & 0xFFFFL) + ((adler2 >>> 16) & 0xFFFFL) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Source pixels (INT_ARGB layout)
+     */
+    static final class Source {
+
+        final int[] pixels;
+        final int offset;
+        final int scan;
+        final int width;
+        final int height;
+        final boolean alpha;
+        final boolean premultiplied;
+
+        Source(final int[] pixels, final int offset, final int scan,
+               final int width, final int height,
+               final boolean alpha, final boolean premultiplied) {
+            this.pixels = pixels;
+            this.offset = offset;
+            this.scan = scan;
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+            this.premultiplied = premultiplied;
+        }
+
+        /**
+         * @return number of bytes per filtered row (filter type byte included)
+         */
+        int rowBytes() {
+            return 1 + width * ((alpha) ? 4 : 3);
+        }
+
+        /**
+         * Convert the given row into RGBA or RGB bytes (not premultiplied)
+         */
+        void getRow(final int y, final byte[] row) {
+            final int[] src = pixels;
+            final byte[] lut = UNPREMUL;
+            int i = offset + y * scan;
+            int o = 0;
+
+            if (!alpha) {
+                for (final int end = i + width; i < end; i++) {
+                    final int p = src[i];
+                    row[o++] = (byte) (p >> 16);
+                    row[o++] = (byte) (p >> 8);
+                    row[o++] = (byte) p;
+                }
+            } else if (!premultiplied) {
+                for (final int end = i + width; i < end; i++) {
+                    final int p = src[i];
+                    row[o++] = (byte) (p >> 16);
+                    row[o++] = (byte) (p >> 8);
+                    row[o++] = (byte) p;
+                    row[o++] = (byte) (p >>> 24);
+                }
+            } else {
+                for (final int end = i + width; i < end; i++) {
+                    final int p = src[i];
+                    final int a = p >>> 24;
+                    if (a == 0xFF) {
+                        row[o++] = (byte) (p >> 16);
+                        row[o++] = (byte) (p >> 8);
+                        row[o++] = (byte) p;
+                    } else {
+                        final int la = a << 8;
+                        row[o++] = lut[la | ((p >> 16) & 0xFF)];
+                        row[o++] = lut[la | ((p >> 8) & 0xFF)];
+                        row[o++] = lut[la | (p & 0xFF)];
+                    }
+                    row[o++] = (byte) a;
+                }
+            }
+        }
+
+        /**
+         * Filter the rows [y0; y1[ into the given buffer (filter type byte + row)
+         * @return number of bytes
+         */
+        int filterRows(final int y0, final int y1, final byte[] out) {
+            final int len = rowBytes() - 1;
+            final byte[] row = new byte[len];
+            int o = 0;
+            for (int y = y0; y < y1; y++) {
+                getRow(y, row);
+                out[o++] = FILTER_NONE;
+                System.arraycopy(row, 0, out, o, len);
+                o += len;
+            }
+            return o;
+        }
+    }
+
+    /**
+     * Row group deflated independently (raw deflate, preset dictionary)
+     */
+    static final class Group implements Callable<Group> {
+
+        private final Source src;
+        private final int y0;
+        private final int y1;
+        private final boolean last;
+        private final int level;
+        /* results */
+        byte[] data;
+        int size;
+        long adler;
+        long length;
+
+        Group(final Source src, final int y0, final int y1,
+              final boolean last, final int level) {
+            this.src = src;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.last = last;
+            this.level = level;
+        }
+
+        @Override
+        public Group call() {
+            final int rowBytes = src.rowBytes();
+            final byte[] raw = new byte[(y1 - y0) * rowBytes];
+            final int len = src.filterRows(y0, y1, raw);
+
+            final Deflater deflater = new Deflater(level, true);
+            try {
+                if (y0 > 0) {
+                    // dictionary: last filtered bytes of the previous group:
+                    final int dy0 = Math.max(0, y0 - (DICT_SIZE + rowBytes - 1) / rowBytes);
+                    final byte[] dict = new byte[(y0 - dy0) * rowBytes];
+                    final int dlen = src.filterRows(dy0, y0, dict);
+                    final int doff = Math.max(0, dlen - DICT_SIZE);
+                    deflater.setDictionary(dict, doff, dlen - doff);
+                }
+                deflater.setInput(raw, 0, len);
+                if (last) {
+                    deflater.finish();
+                }
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 4 + 64);
+                final byte[] buf = new byte[64 * 1024];
+                while (true) {
+                    // flush on a byte boundary (empty stored block) except the last group:
+                    final int n = deflater.deflate(buf, 0, buf.length,
+                            (last) ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    bos.write(buf, 0, n);
+                    if (last) {
+                        if (deflater.finished()) {
+                            break;
+                        }
+                    } else if (n < buf.length) {
+                        break;
+                    }
+                }
+                this.data = bos.toByteArray();
+                this.size = data.length;
+            } finally {
+                deflater.end();
+            }
+            final Adler32 checksum = new Adler32();
+            checksum.update(raw, 0, len);
+            this.adler = checksum.getValue();
+            this.length = len;
+            return this;
+        }
+    }
+}
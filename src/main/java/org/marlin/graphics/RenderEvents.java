@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Shape;
+
+/**
+ * Rendering events (shape operations, tile loops) for profiling tools:
+ * callers get an event from begin*() before the operation and give it back
+ * to commit*() with its details only if it is not null.
+ *
+ * This implementation (Java 7+) has no event (always null) so the JIT removes
+ * the event code; the multi-release jar provides Java Flight Recorder events
+ * for Java 11+ in META-INF/versions/11.
+ */
+final class RenderEvents {
+
+    private RenderEvents() {
+        // utility class
+    }
+
+    /**
+     * Start a shape event (draw / fill)
+     * @return event or null if disabled
+     */
+    static Object beginShape() {
+        return null;
+    }
+
+    /**
+     * Commit the given shape event if the operation was slow enough
+     * @param event event given by beginShape()
+     * @param operation draw or fill
+     * @param s shape (user space)
+     * @param g2d graphics giving the transform and the pipe details
+     * @param pipe pipe given to MarlinGraphics2D.commitShapeEvent()
+     */
+    static void commitShape(final Object event, final String operation,
+                            final Shape s, final MarlinGraphics2D g2d,
+                            final String pipe) {
+        // no-op
+    }
+
+    /**
+     * Start a tile event (AAShapePipe.renderTiles)
+     * @return event or null if disabled
+     */
+    static Object beginTiles() {
+        return null;
+    }
+
+    /**
+     * Commit the given tile event if the tile loop was slow enough
+     * @param event event given by beginTiles()
+     * @param width width of the device bounding box
+     * @param height height of the device bounding box
+     * @param tiles number of tiles
+     * @param emptyTiles number of skipped tiles (no coverage or not needed)
+     * @param fullTiles number of tiles rendered with full coverage
+     * @param aliased true if coverage was thresholded (aliased mode)
+     */
+    static void commitTiles(final Object event, final int width, final int height,
+                            final int tiles, final int emptyTiles, final int fullTiles,
+                            final boolean aliased) {
+        // no-op
+    }
+}
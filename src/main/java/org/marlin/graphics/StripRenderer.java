@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import sun.awt.image.SunWritableRaster;
+
+/**
+ * This class renders images larger than the heap as a sequence of horizontal
+ * strips: the scene is replayed for every strip into a reusable strip image
+ * (TYPE_INT_ARGB_PRE) translated and clipped to the strip; each finished strip
+ * is given to a StripSink (row writer, file ...).
+ * Memory is bounded by (width x strip height) pixels.
+ *
+ * Shapes outside the current strip are culled by the clip (Marlin skips them
+ * early); scenes may also test g2d.hitClip() to skip whole objects.
+ */
+public final class StripRenderer {
+
+    /**
+     * Scene painted once per strip (must be repeatable): the graphics works
+     * in image space as for the full image (the strip offset is its device
+     * origin) so scenes may call setTransform(), getTransform() or setClip()
+     */
+    public interface Scene {
+
+        void paint(Graphics2D g2d);
+    }
+
+    /**
+     * Callback receiving the finished strips (top to bottom)
+     */
+    public interface StripSink {
+
+        /**
+         * Rendered strip pixels (premultiplied ARGB) only valid during this call
+         * @param pixels pixel array
+         * @param offset offset of the first pixel
+         * @param scanline scanline stride
+         * @param y image row of the first strip row
+         * @param width strip width
+         * @param height strip height (last strip may be smaller)
+         * @throws IOException if an I/O error occurs
+         */
+        void strip(int[] pixels, int offset, int scanline,
+                   int y, int width, int height) throws IOException;
+    }
+
+    /* members */
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final BufferedImage strip;
+    private final int[] pixels;
+    private final MarlinGraphics2D g2d;
+
+    /**
+     * Create a new strip renderer
+     * @param config configuration
+     * @param width image width
+     * @param height image height
+     * @param stripHeight number of scanlines per strip
+     */
+    public StripRenderer(final MarlinGraphicsConfig config,
+                         final int width, final int height,
+                         final int stripHeight) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + " x " + height);
+        }
+        if (stripHeight <= 0) {
+            throw new IllegalArgumentException("Invalid strip height: " + stripHeight);
+        }
+        this.width = width;
+        this.height = height;
+        this.stripHeight = Math.min(stripHeight, height);
+        this.strip = new BufferedImage(width, this.stripHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        // strip image: direct access to its pixels:
+        // do not mark the image untrackable (ie keep acceleration):
+        this.pixels = SunWritableRaster.stealData((DataBufferInt) strip.getRaster().getDataBuffer(), 0);
+        this.g2d = new MarlinGraphics2D(strip, config);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStripHeight() {
+        return stripHeight;
+    }
+
+    /**
+     * Render the given scene strip by strip
+     * @param scene scene to paint
+     * @param sink strip callback
+     * @throws IOException if the sink fails
+     */
+    public void render(final Scene scene, final StripSink sink) throws IOException {
+        for (int y = 0; y < height; y += stripHeight) {
+            final int h = Math.min(stripHeight, height - y);
+
+            // clear strip and restore the initial graphics state:
+            Arrays.fill(pixels, 0);
+            g2d.reset(strip);
+
+            // image space: strip at (0, y) as the device origin (scene
+            // transforms and clips, even setTransform(), are relative to it):
+            g2d.constrain(0, -y, width, y + h);
+
+            scene.paint(g2d);
+
+            sink.strip(pixels, 0, width, y, width, h);
+        }
+    }
+
+    /**
+     * Release the strip graphics
+     */
+    public void dispose() {
+        g2d.dispose();
+    }
+
+    /**
+     * StripSink writing raw pixels (4 bytes per pixel, premultiplied ARGB in
+     * big endian order, rows top to bottom) into a FileChannel
+     */
+    public static final class FileChannelSink implements StripSink {
+
+        private final FileChannel channel;
+        private ByteBuffer buffer = null;
+
+        public FileChannelSink(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void strip(final int[] pixels, final int offset, final int scanline,
+                          final int y, final int width, final int height) throws IOException {
+
+            final int size = (width * height) << 2;
+            if (buffer == null || buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.BIG_ENDIAN);
+            }
+            // Buffer methods (JDK 9+ ByteBuffer overrides missing on Java 7/8):
+            ((Buffer) buffer).clear();
+
+            final IntBuffer ib = buffer.asIntBuffer();
+            for (int j = 0; j < height; j++) {
+                ib.put(pixels, offset + j * scanline, width);
+            }
+            ((Buffer) buffer).limit(size);
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import sun.awt.geom.PathConsumer2D;
+import sun.java2d.pipe.Region;
+import sun.java2d.pipe.RenderingEngine;
+
+/**
+ * This class caches stroked outlines for repeated draw(shape) calls with
+ * the same shape instance, stroke and transform (redrawn geometries across
+ * frames or tiles of a metatile): cached outlines are stored as compact
+ * float arrays and filled directly, skipping the stroker.
+ *
+ * BasicStroke outlines are produced by the rendering engine in device space
+ * (same stroker settings as draw) and stored relative to the integer part of
+ * the translation, so they are shared by transforms differing only by whole
+ * pixel translations. Other strokes are cached in user space. Outlines are
+ * received as float coordinates, so antialiased coverage may differ slightly
+ * from uncached draws (rounding near subpixel rows).
+ *
+ * Cached shapes must not be modified (keys use the shape identity) or must
+ * be invalidated. Least recently used outlines are evicted above the byte
+ * budget. Instances are thread-safe and can be shared by several
+ * MarlinGraphics2D (setStrokeCache).
+ */
+public final class StrokeCache {
+
+    /** default byte budget (16 MB) */
+    public final static long DEFAULT_BUDGET = 16L * 1024L * 1024L;
+
+    /* estimated memory overhead per entry (key, outline, map entry) */
+    private final static int ENTRY_OVERHEAD = 200;
+
+    /* members */
+    private final long budget;
+    private final LinkedHashMap<Key, Outline> map = new LinkedHashMap<Key, Outline>(256, 0.75f, true);
+    private long bytes = 0L;
+    /* statistics */
+    private long hits = 0L;
+    private long misses = 0L;
+    private long evictions = 0L;
+
+    public StrokeCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Create an empty cache
+     * @param budget maximum size of the cached outlines in bytes
+     */
+    public StrokeCache(final long budget) {
+        if (budget <= 0L) {
+            throw new IllegalArgumentException("Invalid budget: " + budget);
+        }
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return estimated size of the cached outlines in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Remove all outlines and reset statistics
+     */
+    public synchronized void clear() {
+        map.clear();
+        bytes = 0L;
+        hits = misses = evictions = 0L;
+    }
+
+    /**
+     * Remove the outlines of the given shape (modified shape)
+     * @param shape shape instance
+     */
+    public synchronized void invalidate(final Shape shape) {
+        for (Iterator<Map.Entry<Key, Outline>> it = map.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Key, Outline> e = it.next();
+            if (e.getKey().shape == shape) {
+                bytes -= e.getValue().getBytes();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the outline of the given shape stroked with the given
+     * BasicStroke and transform (device space, relative to the integer part
+     * of the translation: floor(tx), floor(ty))
+     * @param engine rendering engine (quality tier)
+     * @param s shape
+     * @param bs stroke
+     * @param at transform
+     * @param thin thin stroke (as given to the rendering engine)
+     * @param normalize stroke normalization
+     * @return device-space outline
+     */
+    Outline getOutline(final RenderingEngine engine,
+                       final Shape s, final BasicStroke bs, final AffineTransform at,
+                       final boolean thin, final boolean normalize) {
+        final double tx = at.getTranslateX();
+        final double ty = at.getTranslateY();
+        final double ix = Math.floor(tx);
+        final double iy = Math.floor(ty);
+
+        final Key key = new Key(engine, s, bs, at.getScaleX(), at.getShearY(), at.getShearX(), at.getScaleY(),
+                tx - ix, ty - iy, thin, normalize);
+
+        Outline outline = get(key);
+        if (outline == null) {
+            final OutlineBuilder ob = new OutlineBuilder(ix, iy);
+            engine.strokeTo(s, at, bs, thin, normalize, true, ob);
+            // Marlin stroker outlines use the non-zero winding rule:
+            outline = put(key, ob.toOutline(PathIterator.WIND_NON_ZERO));
+        }
+        return outline;
+    }
+
+    /**
+     * Returns the user-space outline of the given shape stroked with the
+     * given (custom) stroke
+     * @param s shape
+     * @param stroke stroke
+     * @return user-space outline
+     */
+    Outline getOutline(final Shape s, final Stroke stroke) {
+        final Key key = new Key(null, s, stroke, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, false, false);
+
+        Outline outline = get(key);
+        if (outline == null) {
+            outline = put(key, Outline.copyOf(stroke.createStrokedShape(s)));
+        }
+        return outline;
+    }
+
+    private synchronized Outline get(final Key key) {
+        final Outline outline = map.get(key);
+        if (outline != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return outline;
+    }
+
+    private synchronized Outline put(final Key key, final Outline outline) {
+        final long len = outline.getBytes();
+        if (len > budget) {
+            // too large: do not cache
+            return outline;
+        }
+        final Outline prev = map.put(key, outline);
+        if (prev != null) {
+            // concurrent computation:
+            bytes -= prev.getBytes();
+        }
+        bytes += len;
+
+        // evict least recently used outlines:
+        if (bytes > budget) {
+            for (Iterator<Outline> it = map.values().iterator(); (bytes > budget) && it.hasNext();) {
+                final Outline o = it.next();
+                if (o != outline) {
+                    bytes -= o.getBytes();
+                    it.remove();
+                    evictions++;
+                }
+            }
+        }
+        return outline;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StrokeCache[" + map.size() + " outlines, " + bytes + " / " + budget
+                + " bytes, hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + "]";
+    }
+
+    /**
+     * Cache key: shape identity, stroke, linear part of the transform and
+     * fractional translation (device outlines), rendering engine and stroker flags
+     */
+    private static final class Key {
+
+        final RenderingEngine engine;
+        final Shape shape;
+        final Stroke stroke;
+        final double m00, m10, m01, m11, fx, fy;
+        final boolean thin, normalize;
+        final int hash;
+
+        Key(final RenderingEngine engine, final Shape shape, final Stroke stroke,
+            final double m00, final double m10, final double m01, final double m11,
+            final double fx, final double fy,
+            final boolean thin, final boolean normalize) {
+            this.engine = engine;
+            this.shape = shape;
+            this.stroke = stroke;
+            this.m00 = m00;
+            this.m10 = m10;
+            this.m01 = m01;
+            this.m11 = m11;
+            this.fx = fx;
+            this.fy = fy;
+            this.thin = thin;
+            this.normalize = normalize;
+
+            long bits = Double.doubleToLongBits(m00);
+            bits = bits * 31L + Double.doubleToLongBits(m10);
+            bits = bits * 31L + Double.doubleToLongBits(m01);
+            bits = bits * 31L + Double.doubleToLongBits(m11);
+            bits = bits * 31L + Double.doubleToLongBits(fx);
+            bits = bits * 31L + Double.doubleToLongBits(fy);
+            int h = System.identityHashCode(shape);
+            h = h * 31 + stroke.hashCode();
+            h = h * 31 + (int) (bits ^ (bits >>> 32));
+            h = h * 31 + ((thin) ? 1 : 0) + ((normalize) ? 2 : 0);
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            // note: exact comparisons on purpose (-0.0 != 0.0 is harmless)
+            return (hash == k.hash) && (shape == k.shape) && (engine == k.engine)
+                    && (m00 == k.m00) && (m10 == k.m10) && (m01 == k.m01) && (m11 == k.m11)
+                    && (fx == k.fx) && (fy == k.fy)
+                    && (thin == k.thin) && (normalize == k.normalize)
+                    && stroke.equals(k.stroke);
+        }
+    }
+
+    /**
+     * Immutable outline (with its winding rule) stored as compact arrays
+     */
+    static final class Outline implements Shape {
+
+        private final byte[] types;
+        private final float[] coords;
+        private final Rectangle2D bounds;
+        private final int windingRule;
+
+        Outline(final byte[] types, final float[] coords, final Rectangle2D bounds,
+                final int windingRule) {
+            this.types = types;
+            this.coords = coords;
+            this.bounds = bounds;
+            this.windingRule = windingRule;
+        }
+
+        static Outline copyOf(final Shape s) {
+            final OutlineBuilder ob = new OutlineBuilder(0.0, 0.0);
+            final float[] c = new float[6];
+            final PathIterator pi = s.getPathIterator(null);
+            // custom strokes may return even-odd outlines:
+            final int windingRule = pi.getWindingRule();
+            for (; !pi.isDone(); pi.next()) {
+                switch (pi.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        ob.moveTo(c[0], c[1]);
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        ob.lineTo(c[0], c[1]);
+                        break;
+                    case PathIterator.SEG_QUADTO:
+                        ob.quadTo(c[0], c[1], c[2], c[3]);
+                        break;
+                    case PathIterator.SEG_CUBICTO:
+                        ob.curveTo(c[0], c[1], c[2], c[3], c[4], c[5]);
+                        break;
+                    default:
+                        ob.closePath();
+                }
+            }
+            return ob.toOutline(windingRule);
+        }
+
+        /**
+         * @return true if the outline translated by (ox, oy) may intersect the given clip
+         */
+        boolean intersects(final Region clip, final double ox, final double oy) {
+            final double x0 = bounds.getMinX() + ox;
+            final double y0 = bounds.getMinY() + oy;
+            final double x1 = bounds.getMaxX() + ox;
+            final double y1 = bounds.getMaxY() + oy;
+            return (x1 >= clip.getLoX()) && (x0 <= clip.getHiX())
+                    && (y1 >= clip.getLoY()) && (y0 <= clip.getHiY());
+        }
+
+        long getBytes() {
+            return types.length + 4L * coords.length + ENTRY_OVERHEAD;
+        }
+
+        @Override
+        public PathIterator getPathIterator(final AffineTransform at) {
+            return new OutlineIterator(this, at);
+        }
+
+        @Override
+        public PathIterator getPathIterator(final AffineTransform at, final double flatness) {
+            return toPath().getPathIterator(at, flatness);
+        }
+
+        @Override
+        public Rectangle getBounds() {
+            return bounds.getBounds();
+        }
+
+        @Override
+        public Rectangle2D getBounds2D() {
+            return (Rectangle2D) bounds.clone();
+        }
+
+        @Override
+        public boolean contains(final double x, final double y) {
+            return toPath().contains(x, y);
+        }
+
+        @Override
+        public boolean contains(final Point2D p) {
+            return toPath().contains(p);
+        }
+
+        @Override
+        public boolean intersects(final double x, final double y, final double w, final double h) {
+            return toPath().intersects(x, y, w, h);
+        }
+
+        @Override
+        public boolean intersects(final Rectangle2D r) {
+            return toPath().intersects(r);
+        }
+
+        @Override
+        public boolean contains(final double x, final double y, final double w, final double h) {
+            return toPath().contains(x, y, w, h);
+        }
+
+        @Override
+        public boolean contains(final Rectangle2D r) {
+            return toPath().contains(r);
+        }
+
+        private Path2D toPath() {
+            return new Path2D.Float(this);
+        }
+    }
+
+    private static final class OutlineIterator implements PathIterator {
+
+        private final byte[] types;
+        private final float[] coords;
+        private final AffineTransform at;
+        private final int windingRule;
+        private int typeIdx = 0;
+        private int pointIdx = 0;
+
+        OutlineIterator(final Outline outline, final AffineTransform at) {
+            this.types = outline.types;
+            this.coords = outline.coords;
+            this.at = ((at != null) && !at.isIdentity()) ? at : null;
+            this.windingRule = outline.windingRule;
+        }
+
+        @Override
+        public int getWindingRule() {
+            return windingRule;
+        }
+
+        @Override
+        public boolean isDone() {
+            return typeIdx >= types.length;
+        }
+
+        @Override
+        public void next() {
+            pointIdx += numPoints(types[typeIdx++]) << 1;
+        }
+
+        private static int numPoints(final int type) {
+            switch (type) {
+                case SEG_MOVETO:
+                case SEG_LINETO:
+                    return 1;
+                case SEG_QUADTO:
+                    return 2;
+                case SEG_CUBICTO:
+                    return 3;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public int currentSegment(final float[] c) {
+            final int type = types[typeIdx];
+            final int n = numPoints(type);
+            if (at != null) {
+                at.transform(coords, pointIdx, c, 0, n);
+            } else {
+                System.arraycopy(coords, pointIdx, c, 0, n << 1);
+            }
+            return type;
+        }
+
+        @Override
+        public int currentSegment(final double[] c) {
+            final int type = types[typeIdx];
+            final int n = numPoints(type);
+            if (at != null) {
+                at.transform(coords, pointIdx, c, 0, n);
+            } else {
+                for (int i = 0, len = n << 1; i < len; i++) {
+                    c[i] = coords[pointIdx + i];
+                }
+            }
+            return type;
+        }
+    }
+
+    /**
+     * Path consumer collecting an outline (translated by -ox, -oy)
+     */
+    private static final class OutlineBuilder implements PathConsumer2D {
+
+        private final float ox, oy;
+        private byte[] types = new byte[64];
+        private float[] coords = new float[256];
+        private int nTypes = 0;
+        private int nCoords = 0;
+        private float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY;
+        private float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY;
+
+        OutlineBuilder(final double ox, final double oy) {
+            this.ox = (float) ox;
+            this.oy = (float) oy;
+        }
+
+        private void type(final int type, final int nPoints) {
+            if (nTypes == types.length) {
+                types = Arrays.copyOf(types, nTypes << 1);
+            }
+            types[nTypes++] = (byte) type;
+            if (nCoords + (nPoints << 1) > coords.length) {
+                coords = Arrays.copyOf(coords, Math.max(coords.length << 1, nCoords + 6));
+            }
+        }
+
+        private void point(float x, float y) {
+            x -= ox;
+            y -= oy;
+            coords[nCoords++] = x;
+            coords[nCoords++] = y;
+            if (x < x0) {
+                x0 = x;
+            }
+            if (x > x1) {
+                x1 = x;
+            }
+            if (y < y0) {
+                y0 = y;
+            }
+            if (y > y1) {
+                y1 = y;
+            }
+        }
+
+        @Override
+        public void moveTo(final float x, final float y) {
+            type(PathIterator.SEG_MOVETO, 1);
+            point(x, y);
+        }
+
+        @Override
+        public void lineTo(final float x, final float y) {
+            type(PathIterator.SEG_LINETO, 1);
+            point(x, y);
+        }
+
+        @Override
+        public void quadTo(final float cx, final float cy, final float x, final float y) {
+            type(PathIterator.SEG_QUADTO, 2);
+            point(cx, cy);
+            point(x, y);
+        }
+
+        @Override
+        public void curveTo(final float cx1, final float cy1, final float cx2, final float cy2,
+                            final float x, final float y) {
+            type(PathIterator.SEG_CUBICTO, 3);
+            point(cx1, cy1);
+            point(cx2, cy2);
+            point(x, y);
+        }
+
+        @Override
+        public void closePath() {
+            type(PathIterator.SEG_CLOSE, 0);
+        }
+
+        @Override
+        public void pathDone() {
+            // no-op
+        }
+
+        @Override
+        public long getNativeConsumer() {
+            return 0L;
+        }
+
+        Outline toOutline(final int windingRule) {
+            final Rectangle2D bounds = (nCoords == 0) ? new Rectangle2D.Float()
+                    : new Rectangle2D.Float(x0, y0, x1 - x0, y1 - y0);
+            return new Outline(Arrays.copyOf(types, nTypes), Arrays.copyOf(coords, nCoords), bounds,
+                    windingRule);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import sun.awt.image.SunWritableRaster;
+
+/**
+ * This class is a headless tile rendering service: a fixed number of worker
+ * threads (configuration parallelism) own their pre-allocated image
+ * (TYPE_INT_ARGB_PRE) and MarlinGraphics2D instance, reused for every job
+ * (no image nor graphics created per request).
+ *
+ * Jobs are queued in a bounded queue: submit() blocks when the queue is full
+ * (backpressure) whereas trySubmit() rejects the job.
+ * Rendered pixels are given to the job's PixelSink by the worker thread.
+ * Jobs still queued when the workers stop (shutdown) are not rendered: their
+ * sink is notified by failed(IllegalStateException).
+ */
+public final class TileRenderService {
+
+    /**
+     * Render job: draws the tile using the given graphics
+     * (transparent image, default graphics state and rendering hints)
+     */
+    public interface RenderJob {
+
+        void render(Graphics2D g2d);
+    }
+
+    /**
+     * Callback receiving the rendered pixels (or the failure) in the worker thread
+     */
+    public interface PixelSink {
+
+        /**
+         * Rendered pixels (premultiplied ARGB) only valid during this call
+         * (worker image data)
+         * @param pixels pixel array
+         * @param offset offset of the first pixel
+         * @param scanline scanline stride
+         * @param width tile width
+         * @param height tile height
+         */
+        void pixels(int[] pixels, int offset, int scanline, int width, int height);
+
+        /**
+         * Rendering failure
+         * @param th error thrown by the render job
+         */
+        void failed(Throwable th);
+    }
+
+    /** poison pill to stop workers */
+    private final static Task STOP = new Task(null, null);
+
+    /* members */
+    private final int width;
+    private final int height;
+    private final BlockingQueue<Task> queue;
+    private final Worker[] workers;
+    /* number of running workers (the last one fails the remaining jobs) */
+    private final AtomicInteger running;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create and start a new rendering service
+     * @param config configuration (parallelism = number of workers)
+     * @param width tile width
+     * @param height tile height
+     * @param queueCapacity maximum number of pending jobs
+     */
+    public TileRenderService(final MarlinGraphicsConfig config,
+                             final int width, final int height,
+                             final int queueCapacity) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid tile size: " + width + " x " + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.queue = new ArrayBlockingQueue<Task>(queueCapacity);
+
+        final int n = config.getParallelism();
+        this.workers = new Worker[n];
+        this.running = new AtomicInteger(n);
+        for (int i = 0; i < n; i++) {
+            workers[i] = new Worker(i, config);
+        }
+        for (int i = 0; i < n; i++) {
+            workers[i].start();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Queue the given job, waiting if the queue is full
+     * @param job render job
+     * @param sink pixel callback
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the service is shut down
+     */
+    public void submit(final RenderJob job, final PixelSink sink) throws InterruptedException {
+        checkRunning();
+        final Task task = new Task(job, sink);
+        queue.put(task);
+        checkQueued(task);
+    }
+
+    /**
+     * Queue the given job if the queue is not full
+     * @param job render job
+     * @param sink pixel callback
+     * @return true if queued; false if the queue is full
+     * @throws IllegalStateException if the service is shut down
+     */
+    public boolean trySubmit(final RenderJob job, final PixelSink sink) {
+        checkRunning();
+        final Task task = new Task(job, sink);
+        if (!queue.offer(task)) {
+            return false;
+        }
+        checkQueued(task);
+        return true;
+    }
+
+    /**
+     * Stop accepting new jobs and stop workers once queued jobs are done
+     * @param timeout maximum time to wait
+     * @param unit time unit
+     * @return true if all workers terminated
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+        shutdown = true;
+        for (int i = 0; i < workers.length; i++) {
+            queue.put(STOP);
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0L) {
+                return false;
+            }
+            worker.join(remaining);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkRunning() {
+        if (shutdown) {
+            throw new IllegalStateException("TileRenderService is shut down !");
+        }
+    }
+
+    /**
+     * Withdraw the given task if the service was shut down while queuing it
+     * (queued after the stop markers: never taken by any worker); otherwise
+     * it was (or will be) rendered or failed by the last worker
+     */
+    private void checkQueued(final Task task) {
+        if (shutdown && queue.remove(task)) {
+            throw new IllegalStateException("TileRenderService is shut down !");
+        }
+    }
+
+    /**
+     * Fail the jobs remaining in the queue (called by the last worker)
+     */
+    private void failRemaining() {
+        for (Task task; (task = queue.poll()) != null;) {
+            if (task != STOP) {
+                try {
+                    task.sink.failed(new IllegalStateException("TileRenderService is shut down !"));
+                } catch (Throwable th) {
+                    MarlinGraphics2D.log("TileRenderService: pixel sink failure: " + th);
+                }
+            }
+        }
+    }
+
+    static final class Task {
+
+        final RenderJob job;
+        final PixelSink sink;
+
+        Task(final RenderJob job, final PixelSink sink) {
+            this.job = job;
+            this.sink = sink;
+        }
+    }
+
+    final class Worker extends Thread {
+
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final MarlinGraphics2D g2d;
+
+        Worker(final int index, final MarlinGraphicsConfig config) {
+            super("TileRenderService-worker-" + index);
+            setDaemon(true);
+            this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            // headless image: direct access to its pixels:
+            // do not mark the image untrackable (ie keep acceleration):
+            this.pixels = SunWritableRaster.stealData(
+                    (DataBufferInt) image.getRaster().getDataBuffer(), 0);
+            this.g2d = new MarlinGraphics2D(image, config);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final Task task = queue.take();
+                    if (task == STOP) {
+                        break;
+                    }
+                    render(task);
+                }
+            } catch (InterruptedException ie) {
+                // stop now
+            } finally {
+                g2d.dispose();
+                if (running.decrementAndGet() == 0) {
+                    failRemaining();
+                }
+            }
+        }
+
+        private void render(final Task task) {
+            try {
+                // clear image and restore the initial graphics state:
+                Arrays.fill(pixels, 0);
+                g2d.reset(image);
+
+                task.job.render(g2d);
+            } catch (Throwable th) {
+                try {
+                    task.sink.failed(th);
+                } catch (Throwable th2) {
+                    // keep the worker alive:
+                    MarlinGraphics2D.log("TileRenderService: pixel sink failure: " + th2);
+                }
+                return;
+            }
+            try {
+                task.sink.pixels(pixels, 0, width, width, height);
+            } catch (Throwable th) {
+                // keep the worker alive:
+                MarlinGraphics2D.log("TileRenderService: pixel sink failure: " + th);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.RenderingHints;
+
+/**
+ * Binary trace format shared by TraceGraphics2D (recorder) and TraceReader
+ * (replay): a header (magic, version, width, height) followed by records
+ * made of an opcode byte and its payload (big endian).
+ *
+ * Shapes are written as path segments (type byte + float coordinates) ended
+ * by SEG_END, images and unsupported paints as reference ids.
+ */
+final class TraceFormat {
+
+    final static int MAGIC = 0x4D475452; // 'MGTR'
+    final static int VERSION = 1;
+
+    // graphics instances (create / dispose):
+    /** select the graphics of the following records (int id) */
+    final static int SELECT = 1;
+    /** create a child graphics (int parent, int child) */
+    final static int CREATE = 2;
+    /** create a clipped child graphics (int parent, int child, 4 ints) */
+    final static int CREATE_RECT = 3;
+    /** dispose the current graphics */
+    final static int DISPOSE = 4;
+
+    // state changes:
+    /** int argb */
+    final static int SET_COLOR = 10;
+    /** GradientPaint: 4 floats, 2 int argb, boolean cyclic */
+    final static int SET_GRADIENT = 11;
+    /** unsupported paint (int reference id): replayed with a gray color */
+    final static int SET_PAINT_REF = 12;
+    /** int argb */
+    final static int SET_BACKGROUND = 13;
+    /** AlphaComposite: byte rule, float alpha (rule 0 = unsupported composite) */
+    final static int SET_COMPOSITE = 14;
+    final static int SET_PAINT_MODE = 15;
+    /** int argb */
+    final static int SET_XOR_MODE = 16;
+    /** BasicStroke: 4 floats, 2 bytes, dashes (int count, floats), float phase */
+    final static int SET_STROKE = 17;
+    /** 6 doubles (current transform after any transform change) */
+    final static int SET_TRANSFORM = 18;
+    /** shape (user space) */
+    final static int CLIP = 19;
+    /** 4 ints */
+    final static int CLIP_RECT = 20;
+    /** boolean not null, shape (user space) */
+    final static int SET_CLIP = 21;
+    /** 4 ints */
+    final static int SET_CLIP_RECT = 22;
+    /** byte key, byte value */
+    final static int SET_HINT = 23;
+    /** int count, count x (byte key, byte value): replaces all hints */
+    final static int SET_HINTS = 24;
+    /** string name, int style, float size */
+    final static int SET_FONT = 25;
+    /** image definition (int id, int width, int height, byte transparency) */
+    final static int IMAGE_DEF = 26;
+
+    // rendering:
+    /** shape */
+    final static int DRAW = 40;
+    /** shape */
+    final static int FILL = 41;
+    /** 4 ints */
+    final static int DRAW_LINE = 42;
+    /** 4 ints */
+    final static int DRAW_RECT = 43;
+    /** 4 ints */
+    final static int FILL_RECT = 44;
+    /** 4 ints */
+    final static int CLEAR_RECT = 45;
+    /** 4 ints */
+    final static int DRAW_OVAL = 46;
+    /** 4 ints */
+    final static int FILL_OVAL = 47;
+    /** 6 ints */
+    final static int DRAW_ARC = 48;
+    /** 6 ints */
+    final static int FILL_ARC = 49;
+    /** 6 ints */
+    final static int DRAW_ROUND_RECT = 50;
+    /** 6 ints */
+    final static int FILL_ROUND_RECT = 51;
+    /** 4 ints, boolean raised */
+    final static int DRAW_3D_RECT = 52;
+    /** 4 ints, boolean raised */
+    final static int FILL_3D_RECT = 53;
+    /** int n, n x (int x, int y) */
+    final static int DRAW_POLYLINE = 54;
+    /** int n, n x (int x, int y) */
+    final static int DRAW_POLYGON = 55;
+    /** int n, n x (int x, int y) */
+    final static int FILL_POLYGON = 56;
+    /** 6 ints */
+    final static int COPY_AREA = 57;
+    /** string, 2 floats */
+    final static int DRAW_STRING = 58;
+    /** glyph outlines: shape (filled) */
+    final static int DRAW_GLYPHS = 59;
+    /** int image id, 2 ints, boolean bg (int argb) */
+    final static int DRAW_IMAGE = 60;
+    /** int image id, 4 ints, boolean bg (int argb) */
+    final static int DRAW_IMAGE_SCALED = 61;
+    /** int image id, 8 ints, boolean bg (int argb) */
+    final static int DRAW_IMAGE_SUB = 62;
+    /** int image id, 6 doubles */
+    final static int DRAW_IMAGE_XFORM = 63;
+
+    final static int LAST_OP = DRAW_IMAGE_XFORM;
+
+    // path segments (PathIterator types) + end marker:
+    final static int SEG_END = 0xFF;
+
+    /* rendering hints: key followed by its values (indices in the trace) */
+    final static Object[][] HINTS = new Object[][]{
+        {RenderingHints.KEY_ANTIALIASING,
+            RenderingHints.VALUE_ANTIALIAS_DEFAULT, RenderingHints.VALUE_ANTIALIAS_OFF,
+            RenderingHints.VALUE_ANTIALIAS_ON},
+        {RenderingHints.KEY_RENDERING,
+            RenderingHints.VALUE_RENDER_DEFAULT, RenderingHints.VALUE_RENDER_SPEED,
+            RenderingHints.VALUE_RENDER_QUALITY},
+        {RenderingHints.KEY_STROKE_CONTROL,
+            RenderingHints.VALUE_STROKE_DEFAULT, RenderingHints.VALUE_STROKE_NORMALIZE,
+            RenderingHints.VALUE_STROKE_PURE},
+        {RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR,
+            RenderingHints.VALUE_INTERPOLATION_BICUBIC},
+        {RenderingHints.KEY_ALPHA_INTERPOLATION,
+            RenderingHints.VALUE_ALPHA_INTERPOLATION_DEFAULT,
+            RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED,
+            RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY},
+        {RenderingHints.KEY_COLOR_RENDERING,
+            RenderingHints.VALUE_COLOR_RENDER_DEFAULT, RenderingHints.VALUE_COLOR_RENDER_SPEED,
+            RenderingHints.VALUE_COLOR_RENDER_QUALITY},
+        {RenderingHints.KEY_DITHERING,
+            RenderingHints.VALUE_DITHER_DEFAULT, RenderingHints.VALUE_DITHER_DISABLE,
+            RenderingHints.VALUE_DITHER_ENABLE},
+        {RenderingHints.KEY_TEXT_ANTIALIASING,
+            RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+            RenderingHints.VALUE_TEXT_ANTIALIAS_ON, RenderingHints.VALUE_TEXT_ANTIALIAS_GASP,
+            RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HBGR,
+            RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VRGB, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VBGR},
+        {RenderingHints.KEY_FRACTIONALMETRICS,
+            RenderingHints.VALUE_FRACTIONALMETRICS_DEFAULT, RenderingHints.VALUE_FRACTIONALMETRICS_OFF,
+            RenderingHints.VALUE_FRACTIONALMETRICS_ON}
+    };
+
+    private final static String[] OP_NAMES = new String[LAST_OP + 1];
+
+    static {
+        final String[] names = new String[]{
+            "select", "create", "createRect", "dispose",
+            null, null, null, null, null,
+            "setColor", "setGradient", "setPaint", "setBackground", "setComposite",
+            "setPaintMode", "setXORMode", "setStroke", "setTransform", "clip", "clipRect",
+            "setClip", "setClipRect", "setHint", "setHints", "setFont", "imageDef"
+        };
+        System.arraycopy(names, 0, OP_NAMES, SELECT, names.length);
+
+        final String[] ops = new String[]{
+            "draw", "fill", "drawLine", "drawRect", "fillRect", "clearRect",
+            "drawOval", "fillOval", "drawArc", "fillArc", "drawRoundRect", "fillRoundRect",
+            "draw3DRect", "fill3DRect", "drawPolyline", "drawPolygon", "fillPolygon",
+            "copyArea", "drawString", "drawGlyphVector", "drawImage", "drawImage(scaled)",
+            "drawImage(sub)", "drawImage(xform)"
+        };
+        System.arraycopy(ops, 0, OP_NAMES, DRAW, ops.length);
+    }
+
+    private TraceFormat() {
+        // forbidden
+    }
+
+    static String getOpName(final int op) {
+        final String name = (op >= 0 && op <= LAST_OP) ? OP_NAMES[op] : null;
+        return (name != null) ? name : ("op_" + op);
+    }
+
+    /**
+     * @return hint index as (key << 8 | value) or -1 if unsupported
+     */
+    static int getHintIndex(final Object key, final Object value) {
+        for (int i = 0; i < HINTS.length; i++) {
+            final Object[] hint = HINTS[i];
+            if (hint[0] == key) {
+                for (int j = 1; j < hint.length; j++) {
+                    if (hint[j] == value) {
+                        return (i << 8) | j;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
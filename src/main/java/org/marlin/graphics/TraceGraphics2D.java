@@ -0,0 +1,1050 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.RenderingHints.Key;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.Transparency;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.text.AttributedCharacterIterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * This class is a tracing Graphics2D wrapper (typically around a
+ * MarlinGraphics2D): every call is forwarded to the wrapped graphics and
+ * recorded into a compact binary trace (see TraceFormat) written through a
+ * buffered channel (FileChannel): shapes as path coordinates (floats), state
+ * changes (color, gradient, composite, stroke, transform, clip, hints, font)
+ * and images as references (size only).
+ *
+ * Traces are replayed by TraceReader (see test.TraceReplay reporting the
+ * time per call type) against any build or settings.
+ *
+ * Graphics created by create() share the same trace; instances are not
+ * thread-safe. The trace is flushed when the root graphics is disposed (or
+ * by flush()); the channel is not closed.
+ */
+public final class TraceGraphics2D extends Graphics2D {
+
+    /* default buffer capacity */
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    // members:
+    private final Graphics2D delegate;
+    private final Writer out;
+    private final int id;
+
+    /**
+     * Create a tracing graphics and write the trace header and its initial
+     * state (transform, clip, paint, composite, stroke, hints, font)
+     * @param delegate graphics to forward calls to (MarlinGraphics2D)
+     * @param width device width (replay image)
+     * @param height device height (replay image)
+     * @param channel channel receiving the trace
+     */
+    public TraceGraphics2D(final Graphics2D delegate, final int width, final int height,
+                           final WritableByteChannel channel) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + " x " + height);
+        }
+        this.delegate = delegate;
+        this.out = new Writer(channel);
+        this.id = 0;
+
+        out.writeHeader(width, height);
+        recordState();
+    }
+
+    private TraceGraphics2D(final Graphics2D delegate, final Writer out, final int id) {
+        this.delegate = delegate;
+        this.out = out;
+        this.id = id;
+    }
+
+    /**
+     * @return wrapped graphics
+     */
+    public Graphics2D getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Write the buffered trace records into the channel
+     * @throws IOException if the channel failed (now or before)
+     */
+    public void flush() throws IOException {
+        out.flush();
+        if (out.failure != null) {
+            throw out.failure;
+        }
+    }
+
+    private void recordState() {
+        recordTransform();
+        final Shape clip = delegate.getClip();
+        if (out.begin(this, TraceFormat.SET_CLIP)) {
+            out.writeBoolean(clip != null);
+            if (clip != null) {
+                out.writeShape(clip);
+            }
+        }
+        recordPaint(delegate.getPaint());
+        recordColor(TraceFormat.SET_BACKGROUND, delegate.getBackground());
+        recordComposite(delegate.getComposite());
+        recordStroke(delegate.getStroke());
+        recordHints(delegate.getRenderingHints());
+        recordFont(delegate.getFont());
+    }
+
+    private void recordColor(final int op, final Color c) {
+        if (c != null && out.begin(this, op)) {
+            out.writeInt(c.getRGB());
+        }
+    }
+
+    private void recordPaint(final Paint paint) {
+        if (paint instanceof Color) {
+            recordColor(TraceFormat.SET_COLOR, (Color) paint);
+        } else if (paint instanceof GradientPaint) {
+            if (out.begin(this, TraceFormat.SET_GRADIENT)) {
+                final GradientPaint gp = (GradientPaint) paint;
+                out.writeFloat((float) gp.getPoint1().getX());
+                out.writeFloat((float) gp.getPoint1().getY());
+                out.writeFloat((float) gp.getPoint2().getX());
+                out.writeFloat((float) gp.getPoint2().getY());
+                out.writeInt(gp.getColor1().getRGB());
+                out.writeInt(gp.getColor2().getRGB());
+                out.writeBoolean(gp.isCyclic());
+            }
+        } else if (paint != null && out.begin(this, TraceFormat.SET_PAINT_REF)) {
+            out.writeInt(out.nextRef());
+        }
+    }
+
+    private void recordComposite(final Composite comp) {
+        if (comp != null && out.begin(this, TraceFormat.SET_COMPOSITE)) {
+            if (comp instanceof AlphaComposite) {
+                final AlphaComposite ac = (AlphaComposite) comp;
+                out.writeByte(ac.getRule());
+                out.writeFloat(ac.getAlpha());
+            } else {
+                out.writeByte(0);
+                out.writeFloat(1f);
+            }
+        }
+    }
+
+    private void recordStroke(final Stroke s) {
+        if (s != null && out.begin(this, TraceFormat.SET_STROKE)) {
+            // unsupported strokes are replayed with the default BasicStroke:
+            final BasicStroke bs = (s instanceof BasicStroke) ? (BasicStroke) s : new BasicStroke();
+            out.writeFloat(bs.getLineWidth());
+            out.writeFloat(bs.getMiterLimit());
+            out.writeByte(bs.getEndCap());
+            out.writeByte(bs.getLineJoin());
+            final float[] dashes = bs.getDashArray();
+            if (dashes == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(dashes.length);
+                for (int i = 0; i < dashes.length; i++) {
+                    out.writeFloat(dashes[i]);
+                }
+            }
+            out.writeFloat(bs.getDashPhase());
+        }
+    }
+
+    private void recordTransform() {
+        if (out.begin(this, TraceFormat.SET_TRANSFORM)) {
+            out.writeTransform(delegate.getTransform());
+        }
+    }
+
+    private void recordHints(final Map<?, ?> hints) {
+        if (out.begin(this, TraceFormat.SET_HINTS)) {
+            int n = 0;
+            for (Map.Entry<?, ?> e : hints.entrySet()) {
+                if (TraceFormat.getHintIndex(e.getKey(), e.getValue()) != -1) {
+                    n++;
+                }
+            }
+            out.writeInt(n);
+            for (Map.Entry<?, ?> e : hints.entrySet()) {
+                final int idx = TraceFormat.getHintIndex(e.getKey(), e.getValue());
+                if (idx != -1) {
+                    out.writeByte(idx >> 8);
+                    out.writeByte(idx);
+                }
+            }
+        }
+    }
+
+    private void recordHint(final Object key, final Object value) {
+        final int idx = TraceFormat.getHintIndex(key, value);
+        if (idx != -1 && out.begin(this, TraceFormat.SET_HINT)) {
+            out.writeByte(idx >> 8);
+            out.writeByte(idx);
+        }
+    }
+
+    private void recordFont(final Font font) {
+        if (font != null && out.begin(this, TraceFormat.SET_FONT)) {
+            out.writeString(font.getName());
+            out.writeInt(font.getStyle());
+            out.writeFloat(font.getSize2D());
+        }
+    }
+
+    private void recordShape(final int op, final Shape s) {
+        if (s != null && out.begin(this, op)) {
+            out.writeShape(s);
+        }
+    }
+
+    private void recordInts(final int op, final int a, final int b, final int c, final int d) {
+        if (out.begin(this, op)) {
+            out.writeInt(a);
+            out.writeInt(b);
+            out.writeInt(c);
+            out.writeInt(d);
+        }
+    }
+
+    private void recordInts(final int op, final int a, final int b, final int c, final int d,
+                            final int e, final int f) {
+        if (out.begin(this, op)) {
+            out.writeInt(a);
+            out.writeInt(b);
+            out.writeInt(c);
+            out.writeInt(d);
+            out.writeInt(e);
+            out.writeInt(f);
+        }
+    }
+
+    private void record3DRect(final int op, final int x, final int y, final int width,
+                              final int height, final boolean raised) {
+        if (out.begin(this, op)) {
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeBoolean(raised);
+        }
+    }
+
+    private void recordPoly(final int op, final int[] xPoints, final int[] yPoints, final int nPoints) {
+        if (nPoints > 0 && out.begin(this, op)) {
+            out.writeInt(nPoints);
+            for (int i = 0; i < nPoints; i++) {
+                out.writeInt(xPoints[i]);
+                out.writeInt(yPoints[i]);
+            }
+        }
+    }
+
+    private void recordString(final String str, final float x, final float y) {
+        if (str != null && out.begin(this, TraceFormat.DRAW_STRING)) {
+            out.writeString(str);
+            out.writeFloat(x);
+            out.writeFloat(y);
+        }
+    }
+
+    private static String getText(final AttributedCharacterIterator iterator) {
+        final StringBuilder sb = new StringBuilder(iterator.getEndIndex() - iterator.getBeginIndex());
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next()) {
+            sb.append(c);
+        }
+        iterator.first();
+        return sb.toString();
+    }
+
+    /**
+     * @return image id (defined on first use) or -1 if tracing failed
+     */
+    private int recordImage(final Object img, final int width, final int height,
+                            final int transparency) {
+        Integer ref = out.images.get(img);
+        if (ref == null) {
+            ref = Integer.valueOf(out.nextRef());
+            if (!out.begin(this, TraceFormat.IMAGE_DEF)) {
+                return -1;
+            }
+            out.images.put(img, ref);
+            out.writeInt(ref.intValue());
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeByte(transparency);
+        }
+        return ref.intValue();
+    }
+
+    private int recordImage(final Image img) {
+        if (img == null) {
+            return -1;
+        }
+        final int transparency = (img instanceof BufferedImage)
+                ? ((BufferedImage) img).getTransparency() : Transparency.TRANSLUCENT;
+        return recordImage(img, Math.max(1, img.getWidth(null)), Math.max(1, img.getHeight(null)),
+                transparency);
+    }
+
+    private void recordBgcolor(final Color bgcolor) {
+        out.writeBoolean(bgcolor != null);
+        if (bgcolor != null) {
+            out.writeInt(bgcolor.getRGB());
+        }
+    }
+
+    private void recordImage(final Image img, final int x, final int y, final Color bgcolor) {
+        final int ref = recordImage(img);
+        if (ref != -1 && out.begin(this, TraceFormat.DRAW_IMAGE)) {
+            out.writeInt(ref);
+            out.writeInt(x);
+            out.writeInt(y);
+            recordBgcolor(bgcolor);
+        }
+    }
+
+    private void recordImage(final Image img, final int x, final int y, final int width,
+                             final int height, final Color bgcolor) {
+        final int ref = recordImage(img);
+        if (ref != -1 && out.begin(this, TraceFormat.DRAW_IMAGE_SCALED)) {
+            out.writeInt(ref);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(width);
+            out.writeInt(height);
+            recordBgcolor(bgcolor);
+        }
+    }
+
+    private void recordImage(final Image img, final int dx1, final int dy1, final int dx2,
+                             final int dy2, final int sx1, final int sy1, final int sx2,
+                             final int sy2, final Color bgcolor) {
+        final int ref = recordImage(img);
+        if (ref != -1 && out.begin(this, TraceFormat.DRAW_IMAGE_SUB)) {
+            out.writeInt(ref);
+            out.writeInt(dx1);
+            out.writeInt(dy1);
+            out.writeInt(dx2);
+            out.writeInt(dy2);
+            out.writeInt(sx1);
+            out.writeInt(sy1);
+            out.writeInt(sx2);
+            out.writeInt(sy2);
+            recordBgcolor(bgcolor);
+        }
+    }
+
+    private void recordImage(final int ref, final AffineTransform xform) {
+        if (ref != -1 && out.begin(this, TraceFormat.DRAW_IMAGE_XFORM)) {
+            out.writeInt(ref);
+            out.writeTransform((xform != null) ? xform : new AffineTransform());
+        }
+    }
+
+    // --- Graphics2D implementation ---
+
+    @Override
+    public String toString() {
+        return "TraceGraphics2D[" + id + "]{" + delegate + '}';
+    }
+
+    @Override
+    public Graphics create() {
+        final int child = out.nextId++;
+        if (out.begin(this, TraceFormat.CREATE)) {
+            out.writeInt(id);
+            out.writeInt(child);
+        }
+        return new TraceGraphics2D((Graphics2D) delegate.create(), out, child);
+    }
+
+    @Override
+    public Graphics create(int x, int y, int width, int height) {
+        final int child = out.nextId++;
+        if (out.begin(this, TraceFormat.CREATE_RECT)) {
+            out.writeInt(id);
+            out.writeInt(child);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(width);
+            out.writeInt(height);
+        }
+        return new TraceGraphics2D((Graphics2D) delegate.create(x, y, width, height), out, child);
+    }
+
+    @Override
+    public void dispose() {
+        out.begin(this, TraceFormat.DISPOSE);
+        delegate.dispose();
+        if (id == 0) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void draw(Shape s) {
+        recordShape(TraceFormat.DRAW, s);
+        delegate.draw(s);
+    }
+
+    @Override
+    public void fill(Shape s) {
+        recordShape(TraceFormat.FILL, s);
+        delegate.fill(s);
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        recordInts(TraceFormat.DRAW_LINE, x1, y1, x2, y2);
+        delegate.drawLine(x1, y1, x2, y2);
+    }
+
+    @Override
+    public void drawRect(int x, int y, int width, int height) {
+        recordInts(TraceFormat.DRAW_RECT, x, y, width, height);
+        delegate.drawRect(x, y, width, height);
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        recordInts(TraceFormat.FILL_RECT, x, y, width, height);
+        delegate.fillRect(x, y, width, height);
+    }
+
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+        recordInts(TraceFormat.CLEAR_RECT, x, y, width, height);
+        delegate.clearRect(x, y, width, height);
+    }
+
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        recordInts(TraceFormat.DRAW_OVAL, x, y, width, height);
+        delegate.drawOval(x, y, width, height);
+    }
+
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        recordInts(TraceFormat.FILL_OVAL, x, y, width, height);
+        delegate.fillOval(x, y, width, height);
+    }
+
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        recordInts(TraceFormat.DRAW_ARC, x, y, width, height, startAngle, arcAngle);
+        delegate.drawArc(x, y, width, height, startAngle, arcAngle);
+    }
+
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        recordInts(TraceFormat.FILL_ARC, x, y, width, height, startAngle, arcAngle);
+        delegate.fillArc(x, y, width, height, startAngle, arcAngle);
+    }
+
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        recordInts(TraceFormat.DRAW_ROUND_RECT, x, y, width, height, arcWidth, arcHeight);
+        delegate.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+    }
+
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        recordInts(TraceFormat.FILL_ROUND_RECT, x, y, width, height, arcWidth, arcHeight);
+        delegate.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+    }
+
+    @Override
+    public void draw3DRect(int x, int y, int width, int height, boolean raised) {
+        record3DRect(TraceFormat.DRAW_3D_RECT, x, y, width, height, raised);
+        delegate.draw3DRect(x, y, width, height, raised);
+    }
+
+    @Override
+    public void fill3DRect(int x, int y, int width, int height, boolean raised) {
+        record3DRect(TraceFormat.FILL_3D_RECT, x, y, width, height, raised);
+        delegate.fill3DRect(x, y, width, height, raised);
+    }
+
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        recordPoly(TraceFormat.DRAW_POLYLINE, xPoints, yPoints, nPoints);
+        delegate.drawPolyline(xPoints, yPoints, nPoints);
+    }
+
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        recordPoly(TraceFormat.DRAW_POLYGON, xPoints, yPoints, nPoints);
+        delegate.drawPolygon(xPoints, yPoints, nPoints);
+    }
+
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        recordPoly(TraceFormat.FILL_POLYGON, xPoints, yPoints, nPoints);
+        delegate.fillPolygon(xPoints, yPoints, nPoints);
+    }
+
+    @Override
+    public void drawPolygon(Polygon p) {
+        recordPoly(TraceFormat.DRAW_POLYGON, p.xpoints, p.ypoints, p.npoints);
+        delegate.drawPolygon(p);
+    }
+
+    @Override
+    public void fillPolygon(Polygon p) {
+        recordPoly(TraceFormat.FILL_POLYGON, p.xpoints, p.ypoints, p.npoints);
+        delegate.fillPolygon(p);
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        recordInts(TraceFormat.COPY_AREA, x, y, width, height, dx, dy);
+        delegate.copyArea(x, y, width, height, dx, dy);
+    }
+
+    @Override
+    public void drawString(String str, int x, int y) {
+        recordString(str, x, y);
+        delegate.drawString(str, x, y);
+    }
+
+    @Override
+    public void drawString(String str, float x, float y) {
+        recordString(str, x, y);
+        delegate.drawString(str, x, y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        // attributes are lost (plain text in the current font):
+        recordString(getText(iterator), x, y);
+        delegate.drawString(iterator, x, y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        recordString(getText(iterator), x, y);
+        delegate.drawString(iterator, x, y);
+    }
+
+    @Override
+    public void drawChars(char[] data, int offset, int length, int x, int y) {
+        recordString(new String(data, offset, length), x, y);
+        delegate.drawChars(data, offset, length, x, y);
+    }
+
+    @Override
+    public void drawBytes(byte[] data, int offset, int length, int x, int y) {
+        // ISO-8859-1 (like Graphics.drawBytes):
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (data[offset + i] & 0xFF);
+        }
+        recordString(new String(chars), x, y);
+        delegate.drawBytes(data, offset, length, x, y);
+    }
+
+    @Override
+    public void drawGlyphVector(GlyphVector g, float x, float y) {
+        // glyph outlines are replayed as a filled shape:
+        recordShape(TraceFormat.DRAW_GLYPHS, g.getOutline(x, y));
+        delegate.drawGlyphVector(g, x, y);
+    }
+
+    @Override
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        recordImage(recordImage(img), xform);
+        return delegate.drawImage(img, xform, obs);
+    }
+
+    @Override
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        // the image operation is not recorded (drawn as is):
+        recordImage(img, x, y, null);
+        delegate.drawImage(img, op, x, y);
+    }
+
+    @Override
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        if (img != null) {
+            recordImage(recordImage(img, img.getWidth(), img.getHeight(),
+                    img.getColorModel().getTransparency()), xform);
+        }
+        delegate.drawRenderedImage(img, xform);
+    }
+
+    @Override
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        if (img != null) {
+            recordImage(recordImage(img, Math.max(1, (int) Math.ceil(img.getWidth())),
+                    Math.max(1, (int) Math.ceil(img.getHeight())), Transparency.TRANSLUCENT),
+                    xform);
+        }
+        delegate.drawRenderableImage(img, xform);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        recordImage(img, x, y, null);
+        return delegate.drawImage(img, x, y, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        recordImage(img, x, y, bgcolor);
+        return delegate.drawImage(img, x, y, bgcolor, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        recordImage(img, x, y, width, height, null);
+        return delegate.drawImage(img, x, y, width, height, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor,
+                             ImageObserver observer) {
+        recordImage(img, x, y, width, height, bgcolor);
+        return delegate.drawImage(img, x, y, width, height, bgcolor, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1,
+                             int sx2, int sy2, ImageObserver observer) {
+        recordImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+        return delegate.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1,
+                             int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        recordImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor);
+        return delegate.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, observer);
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        return delegate.hit(rect, s, onStroke);
+    }
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return delegate.getDeviceConfiguration();
+    }
+
+    @Override
+    public Color getColor() {
+        return delegate.getColor();
+    }
+
+    @Override
+    public void setColor(Color c) {
+        recordColor(TraceFormat.SET_COLOR, c);
+        delegate.setColor(c);
+    }
+
+    @Override
+    public Paint getPaint() {
+        return delegate.getPaint();
+    }
+
+    @Override
+    public void setPaint(Paint paint) {
+        recordPaint(paint);
+        delegate.setPaint(paint);
+    }
+
+    @Override
+    public void setPaintMode() {
+        out.begin(this, TraceFormat.SET_PAINT_MODE);
+        delegate.setPaintMode();
+    }
+
+    @Override
+    public void setXORMode(Color c1) {
+        recordColor(TraceFormat.SET_XOR_MODE, c1);
+        delegate.setXORMode(c1);
+    }
+
+    @Override
+    public Color getBackground() {
+        return delegate.getBackground();
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        recordColor(TraceFormat.SET_BACKGROUND, color);
+        delegate.setBackground(color);
+    }
+
+    @Override
+    public Composite getComposite() {
+        return delegate.getComposite();
+    }
+
+    @Override
+    public void setComposite(Composite comp) {
+        recordComposite(comp);
+        delegate.setComposite(comp);
+    }
+
+    @Override
+    public Stroke getStroke() {
+        return delegate.getStroke();
+    }
+
+    @Override
+    public void setStroke(Stroke s) {
+        recordStroke(s);
+        delegate.setStroke(s);
+    }
+
+    @Override
+    public Font getFont() {
+        return delegate.getFont();
+    }
+
+    @Override
+    public void setFont(Font font) {
+        recordFont(font);
+        delegate.setFont(font);
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font f) {
+        return delegate.getFontMetrics(f);
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        return delegate.getFontRenderContext();
+    }
+
+    @Override
+    public Object getRenderingHint(Key hintKey) {
+        return delegate.getRenderingHint(hintKey);
+    }
+
+    @Override
+    public void setRenderingHint(Key hintKey, Object hintValue) {
+        recordHint(hintKey, hintValue);
+        delegate.setRenderingHint(hintKey, hintValue);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return delegate.getRenderingHints();
+    }
+
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        recordHints(hints);
+        delegate.setRenderingHints(hints);
+    }
+
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        for (Map.Entry<?, ?> e : hints.entrySet()) {
+            recordHint(e.getKey(), e.getValue());
+        }
+        delegate.addRenderingHints(hints);
+    }
+
+    @Override
+    public AffineTransform getTransform() {
+        return delegate.getTransform();
+    }
+
+    @Override
+    public void setTransform(AffineTransform Tx) {
+        delegate.setTransform(Tx);
+        recordTransform();
+    }
+
+    @Override
+    public void transform(AffineTransform Tx) {
+        delegate.transform(Tx);
+        recordTransform();
+    }
+
+    @Override
+    public void translate(int x, int y) {
+        delegate.translate(x, y);
+        recordTransform();
+    }
+
+    @Override
+    public void translate(double tx, double ty) {
+        delegate.translate(tx, ty);
+        recordTransform();
+    }
+
+    @Override
+    public void rotate(double theta) {
+        delegate.rotate(theta);
+        recordTransform();
+    }
+
+    @Override
+    public void rotate(double theta, double x, double y) {
+        delegate.rotate(theta, x, y);
+        recordTransform();
+    }
+
+    @Override
+    public void scale(double sx, double sy) {
+        delegate.scale(sx, sy);
+        recordTransform();
+    }
+
+    @Override
+    public void shear(double shx, double shy) {
+        delegate.shear(shx, shy);
+        recordTransform();
+    }
+
+    @Override
+    public Shape getClip() {
+        return delegate.getClip();
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+        return delegate.getClipBounds();
+    }
+
+    @Override
+    public void clip(Shape s) {
+        if (s == null) {
+            setClip(null);
+            return;
+        }
+        recordShape(TraceFormat.CLIP, s);
+        delegate.clip(s);
+    }
+
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        recordInts(TraceFormat.CLIP_RECT, x, y, width, height);
+        delegate.clipRect(x, y, width, height);
+    }
+
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        recordInts(TraceFormat.SET_CLIP_RECT, x, y, width, height);
+        delegate.setClip(x, y, width, height);
+    }
+
+    @Override
+    public void setClip(Shape clip) {
+        if (out.begin(this, TraceFormat.SET_CLIP)) {
+            out.writeBoolean(clip != null);
+            if (clip != null) {
+                out.writeShape(clip);
+            }
+        }
+        delegate.setClip(clip);
+    }
+
+    /**
+     * Trace writer shared by the root graphics and its children: records are
+     * buffered in a direct ByteBuffer written into the channel when full
+     */
+    static final class Writer {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+        /* next graphics id */
+        int nextId = 1;
+        /* graphics id of the last record */
+        private int current = 0;
+        /* next reference id (images, paints) */
+        private int nextRef = 0;
+        /* defined image references (weak keys) */
+        final Map<Object, Integer> images = new WeakHashMap<Object, Integer>();
+        /* first I/O failure (tracing disabled) */
+        IOException failure = null;
+        /* path coordinates */
+        private final float[] coords = new float[6];
+
+        Writer(final WritableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        int nextRef() {
+            return nextRef++;
+        }
+
+        void writeHeader(final int width, final int height) {
+            writeInt(TraceFormat.MAGIC);
+            writeInt(TraceFormat.VERSION);
+            writeInt(width);
+            writeInt(height);
+        }
+
+        /**
+         * Start a record of the given graphics
+         * @return false if tracing is disabled (I/O failure)
+         */
+        boolean begin(final TraceGraphics2D g, final int op) {
+            if (failure != null) {
+                return false;
+            }
+            if (g.id != current) {
+                current = g.id;
+                writeByte(TraceFormat.SELECT);
+                writeInt(current);
+            }
+            writeByte(op);
+            return true;
+        }
+
+        private void ensure(final int n) {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        void writeByte(final int v) {
+            ensure(1);
+            buffer.put((byte) v);
+        }
+
+        void writeBoolean(final boolean v) {
+            writeByte(v ? 1 : 0);
+        }
+
+        void writeInt(final int v) {
+            ensure(4);
+            buffer.putInt(v);
+        }
+
+        void writeFloat(final float v) {
+            ensure(4);
+            buffer.putFloat(v);
+        }
+
+        void writeTransform(final AffineTransform at) {
+            ensure(48);
+            buffer.putDouble(at.getScaleX());
+            buffer.putDouble(at.getShearY());
+            buffer.putDouble(at.getShearX());
+            buffer.putDouble(at.getScaleY());
+            buffer.putDouble(at.getTranslateX());
+            buffer.putDouble(at.getTranslateY());
+        }
+
+        void writeString(final String s) {
+            final int len = s.length();
+            writeInt(len);
+            for (int i = 0; i < len; i++) {
+                ensure(2);
+                buffer.putChar(s.charAt(i));
+            }
+        }
+
+        void writeShape(final Shape s) {
+            final float[] c = coords;
+            final PathIterator pi = s.getPathIterator(null);
+            writeByte(pi.getWindingRule());
+
+            for (; !pi.isDone(); pi.next()) {
+                final int type = pi.currentSegment(c);
+                final int n;
+                switch (type) {
+                    case PathIterator.SEG_MOVETO:
+                    case PathIterator.SEG_LINETO:
+                        n = 2;
+                        break;
+                    case PathIterator.SEG_QUADTO:
+                        n = 4;
+                        break;
+                    case PathIterator.SEG_CUBICTO:
+                        n = 6;
+                        break;
+                    default:
+                        n = 0;
+                }
+                ensure(1 + (n << 2));
+                buffer.put((byte) type);
+                for (int i = 0; i < n; i++) {
+                    buffer.putFloat(c[i]);
+                }
+            }
+            writeByte(TraceFormat.SEG_END);
+        }
+
+        void flush() {
+            if (failure == null) {
+                // Buffer methods (JDK 9+ ByteBuffer overrides missing on Java 7/8):
+                ((Buffer) buffer).flip();
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException ioe) {
+                    failure = ioe;
+                    MarlinGraphics2D.log("TraceGraphics2D: trace disabled: " + ioe);
+                }
+            }
+            ((Buffer) buffer).clear();
+        }
+    }
+}
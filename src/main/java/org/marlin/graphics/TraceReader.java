@@ -0,0 +1,636 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class replays a trace recorded by TraceGraphics2D onto any Graphics2D
+ * (MarlinGraphics2D): next() decodes the next record (payload, shapes,
+ * placeholder images) and execute() applies it to the current graphics, so
+ * callers can time the rendering calls alone (see test.TraceReplay).
+ *
+ * Images are replayed with placeholder images of the same size and
+ * transparency (checkerboard), unsupported paints with a gray color.
+ */
+public final class TraceReader {
+
+    /* default buffer capacity */
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final static Color REF_PAINT = Color.GRAY;
+
+    // members:
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final int width;
+    private final int height;
+    /* graphics instances (id) */
+    private final ArrayList<Graphics2D> graphics = new ArrayList<Graphics2D>();
+    private Graphics2D g2d = null;
+    /* placeholder images (id) */
+    private final Map<Integer, BufferedImage> images = new HashMap<Integer, BufferedImage>();
+    // decoded record:
+    private int op = -1;
+    private final int[] args = new int[9];
+    private final float[] fargs = new float[2];
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private final Path2D.Float path = new Path2D.Float();
+    private Object obj = null;
+    private final AffineTransform xform = new AffineTransform();
+    private Color bgcolor = null;
+    private boolean flag = false;
+
+    /**
+     * Open a trace and read its header
+     * @param channel channel providing the trace
+     * @throws IOException if an I/O error occurs or the trace is invalid
+     */
+    public TraceReader(final ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        // Buffer methods (JDK 9+ ByteBuffer overrides missing on Java 7/8):
+        ((Buffer) buffer).flip();
+
+        if (readInt() != TraceFormat.MAGIC) {
+            throw new IOException("Invalid trace (magic)");
+        }
+        final int version = readInt();
+        if (version != TraceFormat.VERSION) {
+            throw new IOException("Unsupported trace version: " + version);
+        }
+        this.width = readInt();
+        this.height = readInt();
+    }
+
+    /**
+     * @return device width of the recorded graphics
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return device height of the recorded graphics
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Set the graphics replaying the recorded root graphics (not disposed by
+     * execute())
+     * @param root graphics to render into
+     */
+    public void setGraphics(final Graphics2D root) {
+        graphics.clear();
+        graphics.add(root);
+        g2d = root;
+    }
+
+    /**
+     * @param op opcode
+     * @return name of the recorded call
+     */
+    public static String getOpName(final int op) {
+        return TraceFormat.getOpName(op);
+    }
+
+    /**
+     * @return number of opcodes (opcodes are in [0, getOpCount()[)
+     */
+    public static int getOpCount() {
+        return TraceFormat.LAST_OP + 1;
+    }
+
+    /**
+     * @param op opcode
+     * @return true if the opcode is a rendering call (not a state change)
+     */
+    public static boolean isRenderingOp(final int op) {
+        return op >= TraceFormat.DRAW;
+    }
+
+    /**
+     * Decode the next record
+     * @return its opcode or -1 at the end of the trace
+     * @throws IOException if an I/O error occurs or the trace is invalid
+     */
+    public int next() throws IOException {
+        if (!fill(1)) {
+            op = -1;
+            return op;
+        }
+        op = buffer.get() & 0xFF;
+        obj = null;
+
+        switch (op) {
+            case TraceFormat.SELECT:
+            case TraceFormat.SET_COLOR:
+            case TraceFormat.SET_BACKGROUND:
+            case TraceFormat.SET_XOR_MODE:
+                args[0] = readInt();
+                break;
+            case TraceFormat.CREATE:
+                readInts(2);
+                break;
+            case TraceFormat.CREATE_RECT:
+                readInts(6);
+                break;
+            case TraceFormat.DISPOSE:
+            case TraceFormat.SET_PAINT_MODE:
+                break;
+            case TraceFormat.SET_GRADIENT:
+                final float x1 = readFloat();
+                final float y1 = readFloat();
+                final float x2 = readFloat();
+                final float y2 = readFloat();
+                final Color c1 = new Color(readInt(), true);
+                final Color c2 = new Color(readInt(), true);
+                obj = new GradientPaint(x1, y1, c1, x2, y2, c2, readBoolean());
+                break;
+            case TraceFormat.SET_PAINT_REF:
+                readInt();
+                obj = REF_PAINT;
+                break;
+            case TraceFormat.SET_COMPOSITE:
+                final int rule = readByte();
+                final float alpha = readFloat();
+                obj = (rule == 0) ? AlphaComposite.SrcOver : AlphaComposite.getInstance(rule, alpha);
+                break;
+            case TraceFormat.SET_STROKE:
+                final float lineWidth = readFloat();
+                final float miterLimit = readFloat();
+                final int cap = readByte();
+                final int join = readByte();
+                final int nDashes = readInt();
+                float[] dashes = null;
+                if (nDashes != 0) {
+                    dashes = new float[nDashes];
+                    for (int i = 0; i < nDashes; i++) {
+                        dashes[i] = readFloat();
+                    }
+                }
+                obj = new BasicStroke(lineWidth, cap, join, miterLimit, dashes, readFloat());
+                break;
+            case TraceFormat.SET_TRANSFORM:
+                obj = readTransform();
+                break;
+            case TraceFormat.CLIP:
+            case TraceFormat.DRAW:
+            case TraceFormat.FILL:
+            case TraceFormat.DRAW_GLYPHS:
+                readShape();
+                break;
+            case TraceFormat.SET_CLIP:
+                flag = readBoolean();
+                if (flag) {
+                    readShape();
+                }
+                break;
+            case TraceFormat.CLIP_RECT:
+            case TraceFormat.SET_CLIP_RECT:
+            case TraceFormat.DRAW_LINE:
+            case TraceFormat.DRAW_RECT:
+            case TraceFormat.FILL_RECT:
+            case TraceFormat.CLEAR_RECT:
+            case TraceFormat.DRAW_OVAL:
+            case TraceFormat.FILL_OVAL:
+                readInts(4);
+                break;
+            case TraceFormat.SET_HINT:
+                obj = readHint(null);
+                break;
+            case TraceFormat.SET_HINTS:
+                final RenderingHints hints = new RenderingHints(null);
+                for (int i = readInt(); i > 0; i--) {
+                    readHint(hints);
+                }
+                obj = hints;
+                break;
+            case TraceFormat.SET_FONT:
+                final String name = readString();
+                final int style = readInt();
+                obj = new Font(name, style, 1).deriveFont(readFloat());
+                break;
+            case TraceFormat.IMAGE_DEF:
+                readInts(3);
+                images.put(Integer.valueOf(args[0]),
+                        createImage(args[1], args[2], readByte()));
+                break;
+            case TraceFormat.DRAW_ARC:
+            case TraceFormat.FILL_ARC:
+            case TraceFormat.DRAW_ROUND_RECT:
+            case TraceFormat.FILL_ROUND_RECT:
+            case TraceFormat.COPY_AREA:
+                readInts(6);
+                break;
+            case TraceFormat.DRAW_3D_RECT:
+            case TraceFormat.FILL_3D_RECT:
+                readInts(4);
+                flag = readBoolean();
+                break;
+            case TraceFormat.DRAW_POLYLINE:
+            case TraceFormat.DRAW_POLYGON:
+            case TraceFormat.FILL_POLYGON:
+                readPoints();
+                break;
+            case TraceFormat.DRAW_STRING:
+                obj = readString();
+                fargs[0] = readFloat();
+                fargs[1] = readFloat();
+                break;
+            case TraceFormat.DRAW_IMAGE:
+                obj = readImage(2);
+                break;
+            case TraceFormat.DRAW_IMAGE_SCALED:
+                obj = readImage(4);
+                break;
+            case TraceFormat.DRAW_IMAGE_SUB:
+                obj = readImage(8);
+                break;
+            case TraceFormat.DRAW_IMAGE_XFORM:
+                obj = getImage(readInt());
+                xform.setTransform(readTransform());
+                break;
+            default:
+                throw new IOException("Invalid trace opcode: " + op);
+        }
+        return op;
+    }
+
+    /**
+     * Apply the last decoded record to the current graphics
+     */
+    public void execute() {
+        final Graphics2D g = g2d;
+        final int[] a = args;
+
+        switch (op) {
+            case TraceFormat.SELECT:
+                g2d = graphics.get(a[0]);
+                break;
+            case TraceFormat.CREATE:
+                setGraphics(a[1], (Graphics2D) graphics.get(a[0]).create());
+                break;
+            case TraceFormat.CREATE_RECT:
+                setGraphics(a[1], (Graphics2D) graphics.get(a[0]).create(a[2], a[3], a[4], a[5]));
+                break;
+            case TraceFormat.DISPOSE:
+                // the root graphics belongs to the caller:
+                if (g != graphics.get(0)) {
+                    g.dispose();
+                }
+                break;
+            case TraceFormat.SET_COLOR:
+                g.setColor(new Color(a[0], true));
+                break;
+            case TraceFormat.SET_BACKGROUND:
+                g.setBackground(new Color(a[0], true));
+                break;
+            case TraceFormat.SET_XOR_MODE:
+                g.setXORMode(new Color(a[0], true));
+                break;
+            case TraceFormat.SET_PAINT_MODE:
+                g.setPaintMode();
+                break;
+            case TraceFormat.SET_GRADIENT:
+            case TraceFormat.SET_PAINT_REF:
+                g.setPaint((Paint) obj);
+                break;
+            case TraceFormat.SET_COMPOSITE:
+                g.setComposite((AlphaComposite) obj);
+                break;
+            case TraceFormat.SET_STROKE:
+                g.setStroke((BasicStroke) obj);
+                break;
+            case TraceFormat.SET_TRANSFORM:
+                g.setTransform((AffineTransform) obj);
+                break;
+            case TraceFormat.CLIP:
+                g.clip(path);
+                break;
+            case TraceFormat.CLIP_RECT:
+                g.clipRect(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.SET_CLIP:
+                g.setClip((flag) ? path : null);
+                break;
+            case TraceFormat.SET_CLIP_RECT:
+                g.setClip(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.SET_HINT:
+                if (obj != null) {
+                    final Object[] hint = (Object[]) obj;
+                    g.setRenderingHint((RenderingHints.Key) hint[0], hint[1]);
+                }
+                break;
+            case TraceFormat.SET_HINTS:
+                g.setRenderingHints((RenderingHints) obj);
+                break;
+            case TraceFormat.SET_FONT:
+                g.setFont((Font) obj);
+                break;
+            case TraceFormat.IMAGE_DEF:
+                break;
+            case TraceFormat.DRAW:
+                g.draw(path);
+                break;
+            case TraceFormat.FILL:
+            case TraceFormat.DRAW_GLYPHS:
+                g.fill(path);
+                break;
+            case TraceFormat.DRAW_LINE:
+                g.drawLine(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.DRAW_RECT:
+                g.drawRect(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.FILL_RECT:
+                g.fillRect(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.CLEAR_RECT:
+                g.clearRect(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.DRAW_OVAL:
+                g.drawOval(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.FILL_OVAL:
+                g.fillOval(a[0], a[1], a[2], a[3]);
+                break;
+            case TraceFormat.DRAW_ARC:
+                g.drawArc(a[0], a[1], a[2], a[3], a[4], a[5]);
+                break;
+            case TraceFormat.FILL_ARC:
+                g.fillArc(a[0], a[1], a[2], a[3], a[4], a[5]);
+                break;
+            case TraceFormat.DRAW_ROUND_RECT:
+                g.drawRoundRect(a[0], a[1], a[2], a[3], a[4], a[5]);
+                break;
+            case TraceFormat.FILL_ROUND_RECT:
+                g.fillRoundRect(a[0], a[1], a[2], a[3], a[4], a[5]);
+                break;
+            case TraceFormat.COPY_AREA:
+                g.copyArea(a[0], a[1], a[2], a[3], a[4], a[5]);
+                break;
+            case TraceFormat.DRAW_3D_RECT:
+                g.draw3DRect(a[0], a[1], a[2], a[3], flag);
+                break;
+            case TraceFormat.FILL_3D_RECT:
+                g.fill3DRect(a[0], a[1], a[2], a[3], flag);
+                break;
+            case TraceFormat.DRAW_POLYLINE:
+                g.drawPolyline(xs, ys, a[0]);
+                break;
+            case TraceFormat.DRAW_POLYGON:
+                g.drawPolygon(xs, ys, a[0]);
+                break;
+            case TraceFormat.FILL_POLYGON:
+                g.fillPolygon(xs, ys, a[0]);
+                break;
+            case TraceFormat.DRAW_STRING:
+                g.drawString((String) obj, fargs[0], fargs[1]);
+                break;
+            case TraceFormat.DRAW_IMAGE:
+                g.drawImage((Image) obj, a[0], a[1], bgcolor, null);
+                break;
+            case TraceFormat.DRAW_IMAGE_SCALED:
+                g.drawImage((Image) obj, a[0], a[1], a[2], a[3], bgcolor, null);
+                break;
+            case TraceFormat.DRAW_IMAGE_SUB:
+                g.drawImage((Image) obj, a[0], a[1], a[2], a[3], a[4], a[5], a[6], a[7],
+                        bgcolor, null);
+                break;
+            case TraceFormat.DRAW_IMAGE_XFORM:
+                g.drawImage((Image) obj, xform, null);
+                break;
+            default:
+                throw new IllegalStateException("No record");
+        }
+    }
+
+    private void setGraphics(final int id, final Graphics2D g) {
+        while (graphics.size() <= id) {
+            graphics.add(null);
+        }
+        graphics.set(id, g);
+    }
+
+    private BufferedImage getImage(final int ref) throws IOException {
+        final BufferedImage img = images.get(Integer.valueOf(ref));
+        if (img == null) {
+            throw new IOException("Undefined trace image: " + ref);
+        }
+        return img;
+    }
+
+    private BufferedImage readImage(final int n) throws IOException {
+        final BufferedImage img = getImage(readInt());
+        readInts(n);
+        bgcolor = (readBoolean()) ? new Color(readInt(), true) : null;
+        return img;
+    }
+
+    private static BufferedImage createImage(final int width, final int height,
+                                             final int transparency) {
+        final boolean opaque = (transparency == Transparency.OPAQUE);
+        final BufferedImage img = new BufferedImage(width, height,
+                (opaque) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+
+        // 8x8 checkerboard (translucent if the image was not opaque):
+        final int alpha = (opaque) ? 0xFF000000 : 0xC0000000;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, alpha | ((((x ^ y) & 8) != 0) ? 0xE0E0E0 : 0x404040));
+            }
+        }
+        return img;
+    }
+
+    private Object[] readHint(final RenderingHints hints) throws IOException {
+        final int key = readByte();
+        final int value = readByte();
+        if (key >= TraceFormat.HINTS.length || value == 0 || value >= TraceFormat.HINTS[key].length) {
+            throw new IOException("Invalid trace hint: " + key + ", " + value);
+        }
+        final Object[] hint = TraceFormat.HINTS[key];
+        if (hints != null) {
+            hints.put(hint[0], hint[value]);
+        }
+        return new Object[]{hint[0], hint[value]};
+    }
+
+    private void readInts(final int n) throws IOException {
+        ensure(n << 2);
+        for (int i = 0; i < n; i++) {
+            args[i] = buffer.getInt();
+        }
+    }
+
+    private void readPoints() throws IOException {
+        final int n = readInt();
+        if (n < 0) {
+            throw new IOException("Invalid trace point count: " + n);
+        }
+        args[0] = n;
+        if (xs.length < n) {
+            xs = new int[n];
+            ys = new int[n];
+        }
+        for (int i = 0; i < n; i++) {
+            xs[i] = readInt();
+            ys[i] = readInt();
+        }
+    }
+
+    private void readShape() throws IOException {
+        final Path2D.Float p = path;
+        p.reset();
+        p.setWindingRule(readByte());
+
+        for (;;) {
+            final int type = readByte();
+            switch (type) {
+                case PathIterator.SEG_MOVETO:
+                    ensure(8);
+                    p.moveTo(buffer.getFloat(), buffer.getFloat());
+                    break;
+                case PathIterator.SEG_LINETO:
+                    ensure(8);
+                    p.lineTo(buffer.getFloat(), buffer.getFloat());
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    ensure(16);
+                    p.quadTo(buffer.getFloat(), buffer.getFloat(),
+                            buffer.getFloat(), buffer.getFloat());
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    ensure(24);
+                    p.curveTo(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+                            buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    p.closePath();
+                    break;
+                case TraceFormat.SEG_END:
+                    return;
+                default:
+                    throw new IOException("Invalid trace path segment: " + type);
+            }
+        }
+    }
+
+    private AffineTransform readTransform() throws IOException {
+        ensure(48);
+        return new AffineTransform(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
+
+    private String readString() throws IOException {
+        final int len = readInt();
+        if (len < 0) {
+            throw new IOException("Invalid trace string length: " + len);
+        }
+        final StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            ensure(2);
+            sb.append(buffer.getChar());
+        }
+        return sb.toString();
+    }
+
+    private int readByte() throws IOException {
+        ensure(1);
+        return buffer.get() & 0xFF;
+    }
+
+    private boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    private int readInt() throws IOException {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    private float readFloat() throws IOException {
+        ensure(4);
+        return buffer.getFloat();
+    }
+
+    private void ensure(final int n) throws IOException {
+        if (!fill(n)) {
+            throw new EOFException("Truncated trace");
+        }
+    }
+
+    /**
+     * Ensure n bytes are available in the buffer
+     * @return false if the trace ends before any byte (end of trace)
+     * @throws EOFException if the trace ends within the n bytes
+     */
+    private boolean fill(final int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < n) {
+                if (channel.read(buffer) < 0) {
+                    if (buffer.position() == 0) {
+                        return false;
+                    }
+                    throw new EOFException("Truncated trace");
+                }
+            }
+        } finally {
+            ((Buffer) buffer).flip();
+        }
+        return true;
+    }
+}
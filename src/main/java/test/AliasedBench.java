@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.MarlinGraphicsConfig;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of non-antialiased rendering (picking buffer: one opaque color
+ * per object, no blending) using the default java2d loops, the Marlin
+ * aliased mode (MarlinGraphics.aliased) and antialiased rendering, and
+ * count of the pixels differing between both aliased renderings
+ */
+public final class AliasedBench {
+
+    private final static int WIDTH = 1024;
+    private final static int HEIGHT = 1024;
+    private final static int WARMUP = 20;
+
+    /**
+     * Usage: AliasedBench [number of frames]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+
+        final MarlinGraphicsConfig config = MarlinGraphicsConfig.getDefault();
+
+        final BufferedImage java2d = run(config.withAliased(false), false, n, "java2d (aliased)");
+        final BufferedImage marlin = run(config.withAliased(true), false, n, "marlin (aliased)");
+        run(config, true, n, "marlin (antialiased)");
+
+        System.out.println("pixels differing (java2d / marlin aliased): "
+                + countDiffs(java2d, marlin) + " / " + (WIDTH * HEIGHT));
+    }
+
+    private static BufferedImage run(final MarlinGraphicsConfig config, final boolean antialiasing,
+                                     final int n, final String label) {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image, config);
+
+        System.out.println("AliasedBench: " + label);
+
+        for (int pass = 0; pass < 2; pass++) {
+            final StatLong stats = new StatLong("frame");
+            final int frames = (pass == 0) ? WARMUP : n;
+
+            for (int i = 0; i < frames; i++) {
+                final long start = System.nanoTime();
+                g2d.reset(image);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                        (antialiasing) ? RenderingHints.VALUE_ANTIALIAS_ON
+                                : RenderingHints.VALUE_ANTIALIAS_OFF);
+                paintFrame(g2d, 1L);
+                stats.add((System.nanoTime() - start) / 1000L);
+            }
+            System.out.println(((pass == 0) ? "warmup" : "test") + ": stats (µs): " + stats.toString());
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    private static long countDiffs(final BufferedImage image, final BufferedImage ref) {
+        long diffs = 0L;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (image.getRGB(x, y) != ref.getRGB(x, y)) {
+                    diffs++;
+                }
+            }
+        }
+        return diffs;
+    }
+
+    private static void paintFrame(final MarlinGraphics2D g2d, final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Float path = new Path2D.Float();
+
+        g2d.setBackground(Color.BLACK);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+
+        // object ids as opaque colors (blue channel):
+        int id = 1;
+
+        // filled polygons:
+        for (int j = 0; j < 400; j++) {
+            g2d.setColor(new Color(id++ & 0xFF));
+            path.reset();
+            final float cx = r.nextFloat() * WIDTH;
+            final float cy = r.nextFloat() * HEIGHT;
+            path.moveTo(cx, cy);
+            for (int k = 0; k < 8; k++) {
+                path.lineTo(cx + 80f * (r.nextFloat() - 0.5f), cy + 80f * (r.nextFloat() - 0.5f));
+            }
+            path.closePath();
+            g2d.fill(path);
+        }
+
+        // wide strokes:
+        g2d.setStroke(new BasicStroke(4f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (int j = 0; j < 300; j++) {
+            g2d.setColor(new Color(id++ & 0xFF));
+            path.reset();
+            float x = r.nextFloat() * WIDTH;
+            float y = r.nextFloat() * HEIGHT;
+            path.moveTo(x, y);
+            for (int k = 0; k < 10; k++) {
+                x += 60f * (r.nextFloat() - 0.5f);
+                y += 60f * (r.nextFloat() - 0.5f);
+                path.lineTo(x, y);
+            }
+            g2d.draw(path);
+        }
+
+        // circles:
+        for (int j = 0; j < 500; j++) {
+            g2d.setColor(new Color(id++ & 0xFF));
+            g2d.fill(new Ellipse2D.Float(r.nextFloat() * WIDTH, r.nextFloat() * HEIGHT, 7f, 7f));
+        }
+    }
+}
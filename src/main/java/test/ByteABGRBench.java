@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.MarlinGraphicsConfig;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of the gamma-corrected blending into 4BYTE_ABGR images (fill-rate
+ * bound: large translucent shapes): compare runs with the multi-release jar on
+ * Java 11+ (VarHandle word access) and the base classes (Java 8 or
+ * target/classes on the classpath)
+ */
+public final class ByteABGRBench {
+
+    private final static int WIDTH = 1024;
+    private final static int HEIGHT = 1024;
+    private final static int WARMUP = 20;
+
+    /**
+     * Usage: ByteABGRBench [number of frames]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        final MarlinGraphicsConfig config = MarlinGraphicsConfig.getDefault().withGammaCorrection(true);
+
+        System.out.println("ByteABGRBench: " + config + " - java: "
+                + System.getProperty("java.specification.version"));
+
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image, config);
+
+        run(g2d, image, WARMUP, "warmup");
+        run(g2d, image, n, "test");
+
+        g2d.dispose();
+    }
+
+    private static void run(final MarlinGraphics2D g2d, final BufferedImage image,
+                            final int n, final String label) {
+        final StatLong stats = new StatLong("frame");
+
+        for (int i = 0; i < n; i++) {
+            final long start = System.nanoTime();
+            g2d.reset(image);
+            paintFrame(g2d, 1L);
+            stats.add((System.nanoTime() - start) / 1000L);
+        }
+        System.out.println(label + ": stats (µs): " + stats.toString());
+    }
+
+    private static void paintFrame(final MarlinGraphics2D g2d, final long seed) {
+        final Random r = new Random(seed);
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        // opaque background:
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, WIDTH, HEIGHT);
+
+        // large translucent layers:
+        for (int j = 0; j < 40; j++) {
+            g2d.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256), 64 + r.nextInt(128)));
+            final float w = 200f + r.nextFloat() * 600f;
+            final float h = 200f + r.nextFloat() * 600f;
+            g2d.fill(new Ellipse2D.Float(r.nextFloat() * (WIDTH - w), r.nextFloat() * (HEIGHT - h), w, h));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of long dashed polylines (boundaries, railways) rendered into a
+ * small viewport at increasing scale factors: compare runs with
+ * -DMarlinGraphics.clipDash=true|false (clip-aware dashing), with
+ * -Dsun.java2d.renderer.clip=false to disable the rendering engine's clipping
+ */
+public final class ClipDashBench {
+
+    private final static int WIDTH = 512;
+    private final static int HEIGHT = 512;
+    private final static int WARMUP = 10;
+
+    private final static double[] SCALES = new double[]{1.0, 10.0, 100.0, 1000.0};
+
+    /**
+     * Usage: ClipDashBench [number of frames]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+
+        System.out.println("ClipDashBench: clipDash: "
+                + System.getProperty("MarlinGraphics.clipDash", "auto")
+                + " - renderer clip: " + System.getProperty("sun.java2d.renderer.clip", "true"));
+
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image);
+
+        final Path2D.Double[] paths = createPaths(1L);
+        final BasicStroke[] strokes = new BasicStroke[]{
+            new BasicStroke(2f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 10f,
+                            new float[]{6f, 3f, 1f, 3f}, 0f),
+            new BasicStroke(3f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f,
+                            new float[]{10f, 10f}, 0f)
+        };
+
+        for (double scale : SCALES) {
+            run(g2d, image, paths, strokes, scale, WARMUP, "warmup");
+            run(g2d, image, paths, strokes, scale, n, "test");
+        }
+        g2d.dispose();
+    }
+
+    private static void run(final MarlinGraphics2D g2d, final BufferedImage image,
+                            final Path2D.Double[] paths, final BasicStroke[] strokes,
+                            final double scale, final int n, final String label) {
+        final StatLong stats = new StatLong("frame");
+
+        for (int i = 0; i < n; i++) {
+            final long start = System.nanoTime();
+            g2d.reset(image);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setBackground(Color.WHITE);
+            g2d.clearRect(0, 0, WIDTH, HEIGHT);
+            g2d.setColor(Color.DARK_GRAY);
+            // zoom on the viewport center (dash lengths scale with the map):
+            g2d.translate(WIDTH / 2, HEIGHT / 2);
+            g2d.scale(scale, scale);
+            g2d.translate(-WIDTH / 2, -HEIGHT / 2);
+
+            for (int j = 0; j < paths.length; j++) {
+                g2d.setStroke(strokes[j % strokes.length]);
+                g2d.draw(paths[j]);
+            }
+            stats.add((System.nanoTime() - start) / 1000L);
+        }
+        System.out.println(label + "[scale = " + scale + "]: stats (µs): " + stats.toString());
+    }
+
+    /**
+     * Random walk boundaries around the viewport center: detailed ones (many
+     * short segments) and simplified ones (few long segments)
+     */
+    private static Path2D.Double[] createPaths(final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Double[] paths = new Path2D.Double[8];
+
+        for (int i = 0; i < paths.length; i++) {
+            final boolean detailed = (i % 2 == 0);
+            final int nPoints = (detailed) ? 2000 : 40;
+            final double step = (detailed) ? 4.0 : 100.0;
+
+            final Path2D.Double path = new Path2D.Double();
+            double x = r.nextDouble() * WIDTH;
+            double y = r.nextDouble() * HEIGHT;
+            path.moveTo(x, y);
+            for (int k = 0; k < nPoints; k++) {
+                x += step * (r.nextDouble() - 0.5);
+                y += step * (r.nextDouble() - 0.5);
+                path.lineTo(x, y);
+            }
+            paths[i] = path;
+        }
+        return paths;
+    }
+}
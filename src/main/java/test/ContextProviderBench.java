@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.MarlinGraphicsConfig;
+
+/**
+ * Benchmark of rendering context providers (ThreadLocal vs ConcurrentLinkedQueue)
+ * with a thread per request: platform thread pool vs virtual threads (JDK 21+)
+ */
+public final class ContextProviderBench {
+
+    private final static int TILE_SIZE = 128;
+    private final static int PASSES = 5;
+
+    /**
+     * Usage: ContextProviderBench [number of requests]
+     */
+    public static void main(String[] args) throws Exception {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        final MarlinGraphicsConfig config = MarlinGraphicsConfig.getDefault().withGammaCorrection(true);
+
+        if (newVirtualThreadPerTaskExecutor() == null) {
+            System.out.println("Virtual threads are not available (JDK 21+ required): platform threads only");
+        }
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            System.out.println("pass " + pass + ":");
+            for (int i = 0; i < 2; i++) {
+                final MarlinGraphicsConfig cfg = config.withUseThreadLocal(i == 0);
+                run("platform", Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), cfg, n);
+
+                final ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    run("virtual ", virtual, cfg, n);
+                }
+            }
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            // JDK 21+:
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void run(final String label, final ExecutorService executor,
+                            final MarlinGraphicsConfig config, final int n) throws InterruptedException {
+        final long gcCount0 = getGcCount();
+        final long gcTime0 = getGcTime();
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+            final long seed = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    paintTile(config, seed);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+
+        final long elapsed = System.nanoTime() - start;
+
+        System.out.println(label + " useThreadLocal=" + config.isUseThreadLocal()
+                + ": " + n + " requests in " + (1e-6 * elapsed) + " ms ("
+                + (1e-3 * elapsed / n) + " µs per request)"
+                + " - gc: " + (getGcCount() - gcCount0) + " collections, "
+                + (getGcTime() - gcTime0) + " ms");
+    }
+
+    private static void paintTile(final MarlinGraphicsConfig config, final long seed) {
+        final Random r = new Random(seed);
+        final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image, config);
+        try {
+            final Path2D.Float path = new Path2D.Float();
+            path.moveTo(r.nextFloat() * TILE_SIZE, r.nextFloat() * TILE_SIZE);
+            for (int k = 0; k < 20; k++) {
+                path.lineTo(r.nextFloat() * TILE_SIZE, r.nextFloat() * TILE_SIZE);
+            }
+            g2d.setColor(new Color(0, 0, 255, 160));
+            g2d.draw(path);
+
+            g2d.setStroke(new BasicStroke(3f));
+            g2d.setColor(new Color(255, 0, 0, 160));
+            g2d.draw(path);
+
+            g2d.setColor(Color.GREEN);
+            for (int j = 0; j < 10; j++) {
+                g2d.fill(new Ellipse2D.Float(r.nextFloat() * TILE_SIZE, r.nextFloat() * TILE_SIZE, 8f, 8f));
+            }
+        } finally {
+            g2d.dispose();
+        }
+    }
+
+    private static long getGcCount() {
+        long count = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0L, gc.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+import org.marlin.graphics.CoverageRenderer;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.MarlinGraphicsConfig;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of the coverage mask rendering (label collision-like shapes):
+ * CoverageRenderer into a byte[] mask vs MarlinGraphics2D white on black
+ * into an ARGB image (with or without gamma correction) + channel extraction
+ */
+public final class CoverageRendererBench {
+
+    private final static int WIDTH = 1024;
+    private final static int HEIGHT = 1024;
+    private final static int WARMUP = 10;
+
+    /**
+     * Usage: CoverageRendererBench [number of shapes] [number of passes]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        final int passes = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        final Shape[] shapes = createShapes(n);
+
+        final byte[] mask = new byte[WIDTH * HEIGHT];
+        final CoverageRenderer renderer = new CoverageRenderer(mask, WIDTH, HEIGHT);
+
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image);
+        final MarlinGraphics2D g2dGamma = new MarlinGraphics2D(image,
+                MarlinGraphicsConfig.getDefault().withGammaCorrection(true));
+
+        for (int i = 0; i < WARMUP; i++) {
+            renderMask(renderer, shapes);
+            renderImage(g2d, image, shapes, mask);
+            renderImage(g2dGamma, image, shapes, mask);
+        }
+
+        final StatLong statMask = new StatLong("coverage");
+        final StatLong statImage = new StatLong("argb");
+        final StatLong statGamma = new StatLong("argb-gamma");
+
+        for (int i = 0; i < passes; i++) {
+            long start = System.nanoTime();
+            renderMask(renderer, shapes);
+            statMask.add((System.nanoTime() - start) / 1000L);
+
+            start = System.nanoTime();
+            renderImage(g2d, image, shapes, mask);
+            statImage.add((System.nanoTime() - start) / 1000L);
+
+            start = System.nanoTime();
+            renderImage(g2dGamma, image, shapes, mask);
+            statGamma.add((System.nanoTime() - start) / 1000L);
+        }
+        g2d.dispose();
+        g2dGamma.dispose();
+
+        System.out.println("CoverageRendererBench: " + n + " shapes");
+        System.out.println("stats (µs): " + statMask.toString());
+        System.out.println("stats (µs): " + statImage.toString());
+        System.out.println("stats (µs): " + statGamma.toString());
+    }
+
+    private static void renderMask(final CoverageRenderer renderer, final Shape[] shapes) {
+        renderer.clear();
+        for (Shape s : shapes) {
+            renderer.fill(s);
+        }
+    }
+
+    private static void renderImage(final MarlinGraphics2D g2d, final BufferedImage image,
+                                    final Shape[] shapes, final byte[] mask) {
+        g2d.reset(image);
+        g2d.setColor(Color.BLACK);
+        g2d.fillRect(0, 0, WIDTH, HEIGHT);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(Color.WHITE);
+        for (Shape s : shapes) {
+            g2d.fill(s);
+        }
+        // extract the blue channel:
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            mask[i] = (byte) pixels[i];
+        }
+    }
+
+    private static Shape[] createShapes(final int n) {
+        final Random r = new Random(n);
+        final Shape[] shapes = new Shape[n];
+
+        for (int i = 0; i < n; i++) {
+            final float x = r.nextFloat() * WIDTH;
+            final float y = r.nextFloat() * HEIGHT;
+
+            if ((i & 1) == 0) {
+                // markers:
+                shapes[i] = new Ellipse2D.Float(x, y, 3f + 9f * r.nextFloat(), 3f + 9f * r.nextFloat());
+            } else {
+                // label boxes (slightly rotated):
+                final float w = 20f + 40f * r.nextFloat();
+                final float h = 8f + 4f * r.nextFloat();
+                final float dx = 4f * (r.nextFloat() - 0.5f);
+                final Path2D.Float p = new Path2D.Float();
+                p.moveTo(x, y);
+                p.lineTo(x + w, y + dx);
+                p.lineTo(x + w - dx, y + dx + h);
+                p.lineTo(x - dx, y + h);
+                p.closePath();
+                shapes[i] = p;
+            }
+        }
+        return shapes;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.MarlinGraphicsConfig;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of thin lines (random GPS-like track, 1 pixel wide BasicStroke)
+ * drawn by the hairline renderer (MarlinGraphics.hairline, pure stroke
+ * control) and by the Marlin stroker (normalized stroke control disables the
+ * hairline renderer), and maximum difference of pixel components between
+ * both renderings
+ */
+public final class HairlineBench {
+
+    private final static int WIDTH = 512;
+    private final static int HEIGHT = 512;
+    private final static int WARMUP = 10;
+    private final static int SEGMENTS = 200 * 1000;
+
+    /**
+     * Usage: HairlineBench [number of frames]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+
+        final Path2D.Float track = createTrack(1L);
+
+        final BufferedImage hairline = run(track, RenderingHints.VALUE_STROKE_PURE, n,
+                "hairline renderer");
+        final BufferedImage marlin = run(track, RenderingHints.VALUE_STROKE_NORMALIZE, n,
+                "marlin stroker");
+
+        System.out.println("max component difference (hairline / marlin): "
+                + maxDiff(hairline, marlin));
+    }
+
+    private static BufferedImage run(final Path2D.Float track, final Object strokeControl,
+                                     final int n, final String label) {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image,
+                MarlinGraphicsConfig.getDefault().withHairline(true));
+
+        System.out.println("HairlineBench: " + label);
+
+        for (int pass = 0; pass < 2; pass++) {
+            final StatLong stats = new StatLong("frame");
+            final int frames = (pass == 0) ? WARMUP : n;
+
+            for (int i = 0; i < frames; i++) {
+                final long start = System.nanoTime();
+                g2d.reset(image);
+                g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+                paintFrame(g2d, track);
+                stats.add((System.nanoTime() - start) / 1000L);
+            }
+            System.out.println(((pass == 0) ? "warmup" : "test") + ": stats (µs): " + stats.toString());
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    private static int maxDiff(final BufferedImage image, final BufferedImage ref) {
+        int max = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int p = image.getRGB(x, y);
+                final int q = ref.getRGB(x, y);
+                for (int s = 0; s < 32; s += 8) {
+                    max = Math.max(max, Math.abs(((p >> s) & 0xFF) - ((q >> s) & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+
+    private static Path2D.Float createTrack(final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Float path = new Path2D.Float();
+
+        float x = WIDTH / 2f;
+        float y = HEIGHT / 2f;
+        double heading = 0.0;
+        path.moveTo(x, y);
+        for (int i = 0; i < SEGMENTS; i++) {
+            heading += 0.5 * (r.nextDouble() - 0.5);
+            x += 3f * (float) Math.cos(heading);
+            y += 3f * (float) Math.sin(heading);
+            // bounce on the image borders:
+            if (x < 0f || x > WIDTH || y < 0f || y > HEIGHT) {
+                heading += Math.PI;
+                x = Math.max(0f, Math.min(WIDTH, x));
+                y = Math.max(0f, Math.min(HEIGHT, y));
+            }
+            path.lineTo(x, y);
+        }
+        return path;
+    }
+
+    private static void paintFrame(final MarlinGraphics2D g2d, final Path2D.Float track) {
+        g2d.setBackground(Color.WHITE);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+
+        g2d.setStroke(new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER));
+        g2d.setColor(new Color(0, 0, 160, 128));
+        g2d.draw(track);
+    }
+}
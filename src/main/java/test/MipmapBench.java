@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.MarlinGraphicsConfig;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of downscaled images (icons drawn from a large source image):
+ * default bilinear interpolation (delegate) versus mip chains averaged in
+ * linear light (gamma correction enabled)
+ */
+public final class MipmapBench {
+
+    private final static int WIDTH = 1024;
+    private final static int HEIGHT = 1024;
+    private final static int WARMUP = 20;
+
+    private final static int ICON_SIZE = 32;
+
+    /**
+     * Usage: MipmapBench [number of frames]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+
+        final BufferedImage source = createSource(512);
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean mipmap = (pass == 1);
+            final MarlinGraphics2D g2d = new MarlinGraphics2D(image,
+                    MarlinGraphicsConfig.getDefault().withGammaCorrection(mipmap).withMipmap(mipmap));
+
+            System.out.println("MipmapBench: " + ((mipmap) ? "mipmap (gamma)" : "delegate (bilinear)"));
+
+            run(g2d, image, source, WARMUP, "warmup");
+            run(g2d, image, source, n, "test");
+            g2d.dispose();
+        }
+    }
+
+    private static void run(final MarlinGraphics2D g2d, final BufferedImage image,
+                            final BufferedImage source, final int n, final String label) {
+        final StatLong stats = new StatLong("frame");
+
+        for (int i = 0; i < n; i++) {
+            final long start = System.nanoTime();
+            g2d.reset(image);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            paintFrame(g2d, source);
+            stats.add((System.nanoTime() - start) / 1000L);
+        }
+        System.out.println(label + ": stats (µs): " + stats.toString());
+    }
+
+    private static void paintFrame(final MarlinGraphics2D g2d, final BufferedImage source) {
+        g2d.setBackground(Color.WHITE);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+
+        // icons (downscaled 16 times):
+        for (int y = 0; y < HEIGHT; y += 2 * ICON_SIZE) {
+            for (int x = 0; x < WIDTH; x += 2 * ICON_SIZE) {
+                g2d.drawImage(source, x, y, ICON_SIZE, ICON_SIZE, null);
+            }
+        }
+    }
+
+    private static BufferedImage createSource(final int size) {
+        final BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0f, 0f, Color.ORANGE, size, size, Color.BLUE));
+        g.fill(new Ellipse2D.Float(0f, 0f, size, size));
+        // fine details (aliasing):
+        final Random r = new Random(1L);
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < 2000; i++) {
+            g.fillRect(r.nextInt(size), r.nextInt(size), 1, 1);
+        }
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.PngEncoder;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of the PNG output of a rendered image (TYPE_INT_ARGB_PRE):
+ * ImageIO.write() versus PngEncoder (single thread and parallel deflate)
+ */
+public final class PngEncoderBench {
+
+    private final static int WIDTH = 2048;
+    private final static int HEIGHT = 2048;
+    private final static int WARMUP = 10;
+
+    /**
+     * Usage: PngEncoderBench [number of iterations]
+     */
+    public static void main(String[] args) throws IOException {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image);
+        paintFrame(g2d, 1L);
+        g2d.dispose();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(WIDTH * HEIGHT);
+
+        System.out.println("PngEncoderBench: ImageIO");
+        run(null, image, out, WARMUP, "warmup");
+        run(null, image, out, n, "test");
+
+        final PngEncoder single = new PngEncoder(1, PngEncoder.DEFAULT_COMPRESSION_LEVEL);
+        System.out.println("PngEncoderBench: PngEncoder (1 thread)");
+        run(single, image, out, WARMUP, "warmup");
+        run(single, image, out, n, "test");
+        single.dispose();
+
+        final PngEncoder parallel = new PngEncoder();
+        System.out.println("PngEncoderBench: PngEncoder (parallel)");
+        run(parallel, image, out, WARMUP, "warmup");
+        run(parallel, image, out, n, "test");
+        parallel.dispose();
+    }
+
+    private static void run(final PngEncoder encoder, final BufferedImage image,
+                            final ByteArrayOutputStream out, final int n, final String label)
+        throws IOException
+    {
+        final StatLong stats = new StatLong("encode");
+
+        for (int i = 0; i < n; i++) {
+            out.reset();
+            final long start = System.nanoTime();
+            if (encoder == null) {
+                ImageIO.write(image, "PNG", out);
+            } else {
+                encoder.encode(image, out);
+            }
+            stats.add((System.nanoTime() - start) / 1000L);
+        }
+        System.out.println(label + ": stats (µs): " + stats.toString() + " size: " + out.size() + " bytes");
+    }
+
+    private static void paintFrame(final MarlinGraphics2D g2d, final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Float path = new Path2D.Float();
+
+        // filled polygons:
+        for (int j = 0; j < 1000; j++) {
+            g2d.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256), 160));
+            path.reset();
+            final float cx = r.nextFloat() * WIDTH;
+            final float cy = r.nextFloat() * HEIGHT;
+            path.moveTo(cx, cy);
+            for (int k = 0; k < 8; k++) {
+                path.lineTo(cx + 120f * (r.nextFloat() - 0.5f), cy + 120f * (r.nextFloat() - 0.5f));
+            }
+            path.closePath();
+            g2d.fill(path);
+        }
+
+        // wide strokes:
+        g2d.setStroke(new BasicStroke(4f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.setColor(Color.DARK_GRAY);
+        for (int j = 0; j < 600; j++) {
+            path.reset();
+            float x = r.nextFloat() * WIDTH;
+            float y = r.nextFloat() * HEIGHT;
+            path.moveTo(x, y);
+            for (int k = 0; k < 10; k++) {
+                x += 60f * (r.nextFloat() - 0.5f);
+                y += 60f * (r.nextFloat() - 0.5f);
+                path.lineTo(x, y);
+            }
+            g2d.draw(path);
+        }
+
+        // circles:
+        g2d.setColor(new Color(200, 40, 40, 220));
+        for (int j = 0; j < 1000; j++) {
+            g2d.fill(new Ellipse2D.Float(r.nextFloat() * WIDTH, r.nextFloat() * HEIGHT, 7f, 7f));
+        }
+    }
+}
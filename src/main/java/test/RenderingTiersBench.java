@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Benchmark of the rendering quality tiers (KEY_RENDERING = SPEED, DEFAULT,
+ * QUALITY) on the same frame: engines are selected with the
+ * MarlinGraphics.engine.[default|speed|quality] system properties (class
+ * names), the float Marlin engine is used for SPEED if available
+ */
+public final class RenderingTiersBench {
+
+    private final static int WIDTH = 1024;
+    private final static int HEIGHT = 1024;
+    private final static int WARMUP = 20;
+
+    private final static Object[] TIERS = new Object[]{
+        RenderingHints.VALUE_RENDER_SPEED,
+        RenderingHints.VALUE_RENDER_DEFAULT,
+        RenderingHints.VALUE_RENDER_QUALITY
+    };
+
+    /**
+     * Usage: RenderingTiersBench [number of frames]
+     */
+    public static void main(String[] args) {
+        final int n = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        final MarlinGraphics2D g2d = new MarlinGraphics2D(image);
+
+        for (Object tier : TIERS) {
+            System.out.println("RenderingTiersBench: " + tier + ": "
+                    + MarlinGraphics2D.getRenderingEngineName(tier));
+
+            run(g2d, image, tier, WARMUP, "warmup");
+            run(g2d, image, tier, n, "test");
+        }
+        g2d.dispose();
+    }
+
+    private static void run(final MarlinGraphics2D g2d, final BufferedImage image,
+                            final Object tier, final int n, final String label) {
+        final StatLong stats = new StatLong("frame");
+
+        for (int i = 0; i < n; i++) {
+            final long start = System.nanoTime();
+            g2d.reset(image);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, tier);
+            paintFrame(g2d, 1L);
+            stats.add((System.nanoTime() - start) / 1000L);
+        }
+        System.out.println(label + ": stats (µs): " + stats.toString());
+    }
+
+    private static void paintFrame(final MarlinGraphics2D g2d, final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Float path = new Path2D.Float();
+
+        g2d.setBackground(Color.WHITE);
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+
+        // filled polygons:
+        for (int j = 0; j < 400; j++) {
+            g2d.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256), 160));
+            path.reset();
+            final float cx = r.nextFloat() * WIDTH;
+            final float cy = r.nextFloat() * HEIGHT;
+            path.moveTo(cx, cy);
+            for (int k = 0; k < 8; k++) {
+                path.lineTo(cx + 80f * (r.nextFloat() - 0.5f), cy + 80f * (r.nextFloat() - 0.5f));
+            }
+            path.closePath();
+            g2d.fill(path);
+        }
+
+        // wide strokes:
+        g2d.setStroke(new BasicStroke(4f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.setColor(Color.DARK_GRAY);
+        for (int j = 0; j < 300; j++) {
+            path.reset();
+            float x = r.nextFloat() * WIDTH;
+            float y = r.nextFloat() * HEIGHT;
+            path.moveTo(x, y);
+            for (int k = 0; k < 10; k++) {
+                x += 60f * (r.nextFloat() - 0.5f);
+                y += 60f * (r.nextFloat() - 0.5f);
+                path.lineTo(x, y);
+            }
+            g2d.draw(path);
+        }
+
+        // circles:
+        g2d.setColor(new Color(200, 40, 40, 220));
+        for (int j = 0; j < 500; j++) {
+            g2d.fill(new Ellipse2D.Float(r.nextFloat() * WIDTH, r.nextFloat() * HEIGHT, 7f, 7f));
+        }
+    }
+}
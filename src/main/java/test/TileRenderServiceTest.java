@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.marlin.graphics.MarlinGraphicsConfig;
+import org.marlin.graphics.TileRenderService;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Load test of the TileRenderService: a local request generator submits map-like
+ * tiles (polylines + markers) as fast as the bounded queue accepts them and
+ * measures the latency (submit to pixels, including the queue wait)
+ */
+public final class TileRenderServiceTest {
+
+    private final static int TILE_SIZE = 256;
+    private final static int QUEUE_CAPACITY = 64;
+    private final static int WARMUP = 500;
+
+    /**
+     * Usage: TileRenderServiceTest [parallelism] [number of tiles]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int parallelism = (args.length > 0) ? Integer.parseInt(args[0])
+                                : MarlinGraphicsConfig.getDefault().getParallelism();
+        final int n = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+        final MarlinGraphicsConfig config = MarlinGraphicsConfig.getDefault().withParallelism(parallelism);
+
+        System.out.println("TileRenderServiceTest: " + config);
+
+        final TileRenderService service = new TileRenderService(config, TILE_SIZE, TILE_SIZE, QUEUE_CAPACITY);
+
+        run(service, WARMUP, "warmup");
+        run(service, n, "test");
+
+        if (!service.shutdown(10, TimeUnit.SECONDS)) {
+            System.out.println("shutdown: timeout");
+        }
+    }
+
+    private static void run(final TileRenderService service, final int n, final String label) throws InterruptedException {
+        final long[] latencies = new long[n];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(n);
+        final Random random = new Random(n);
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            final long seed = random.nextLong();
+            final long submitted = System.nanoTime();
+
+            // blocks when the queue is full (backpressure):
+            service.submit(new TileRenderService.RenderJob() {
+                @Override
+                public void render(final Graphics2D g2d) {
+                    paintTile(g2d, seed);
+                }
+            }, new TileRenderService.PixelSink() {
+                @Override
+                public void pixels(final int[] pixels, final int offset, final int scanline,
+                                   final int width, final int height) {
+                    // stand-in for encoding: touch the pixels
+                    int sum = 0;
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0, off = offset + y * scanline; x < width; x++) {
+                            sum += pixels[off + x];
+                        }
+                    }
+                    latencies[index] = (System.nanoTime() - submitted) + (sum & 0);
+                    done.countDown();
+                }
+
+                @Override
+                public void failed(final Throwable th) {
+                    errors.incrementAndGet();
+                    th.printStackTrace(System.out);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+
+        final long elapsed = System.nanoTime() - start;
+
+        final StatLong stats = new StatLong("latency");
+        for (int i = 0; i < n; i++) {
+            stats.add(latencies[i] / 1000L);
+        }
+        Arrays.sort(latencies);
+
+        System.out.println(label + ": " + n + " tiles in " + (1e-6 * elapsed) + " ms ("
+                + (1e9 * n / elapsed) + " tiles/s) - errors: " + errors.get());
+        System.out.println(label + ": stats (µs): " + stats.toString());
+        System.out.println(label + ": p50= " + (1e-3 * percentile(latencies, 0.50))
+                + " µs - p99= " + (1e-3 * percentile(latencies, 0.99)) + " µs");
+    }
+
+    private static long percentile(final long[] sorted, final double p) {
+        final int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private static void paintTile(final Graphics2D g2d, final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Float path = new Path2D.Float();
+
+        g2d.setStroke(new BasicStroke(1.5f + 3f * r.nextFloat(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+
+        for (int j = 0; j < 8; j++) {
+            g2d.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256), 192));
+            path.reset();
+            path.moveTo(r.nextFloat() * TILE_SIZE, r.nextFloat() * TILE_SIZE);
+            for (int k = 0; k < 30; k++) {
+                path.lineTo(r.nextFloat() * TILE_SIZE, r.nextFloat() * TILE_SIZE);
+            }
+            g2d.draw(path);
+        }
+        g2d.setColor(Color.RED);
+        for (int j = 0; j < 20; j++) {
+            g2d.fill(new Ellipse2D.Float(r.nextFloat() * TILE_SIZE, r.nextFloat() * TILE_SIZE, 6f, 6f));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import org.marlin.graphics.MarlinGraphics2D;
+import org.marlin.graphics.TraceGraphics2D;
+import org.marlin.graphics.TraceReader;
+import sun.java2d.marlin.stats.StatLong;
+
+/**
+ * Replays a trace recorded with TraceGraphics2D onto a MarlinGraphics2D
+ * (settings from the MarlinGraphics.* system properties) and reports the
+ * time per call type; the record mode writes a sample trace (synthetic map
+ * tile scene)
+ */
+public final class TraceReplay {
+
+    private final static int WIDTH = 1024;
+    private final static int HEIGHT = 1024;
+    private final static int WARMUP = 10;
+
+    /**
+     * Usage: TraceReplay [-record] trace_file [number of replays]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: TraceReplay [-record] trace_file [number of replays]");
+            return;
+        }
+        if ("-record".equals(args[0])) {
+            if (args.length < 2) {
+                System.out.println("Missing trace file");
+                return;
+            }
+            record(new File(args[1]));
+            return;
+        }
+        final File file = new File(args[0]);
+        final int n = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        run(file, n);
+    }
+
+    private static void record(final File file) throws IOException {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0L);
+            final FileChannel channel = raf.getChannel();
+
+            final TraceGraphics2D g2d = new TraceGraphics2D(new MarlinGraphics2D(image),
+                    WIDTH, HEIGHT, channel);
+            paintFrame(g2d, 1L);
+            g2d.dispose();
+            g2d.flush();
+
+            System.out.println("TraceReplay: recorded " + file + " (" + channel.size() + " bytes)");
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void run(final File file, final int n) throws IOException {
+        final StatLong[] opStats = new StatLong[TraceReader.getOpCount()];
+        for (int op = 0; op < opStats.length; op++) {
+            opStats[op] = new StatLong(TraceReader.getOpName(op));
+        }
+
+        BufferedImage image = null;
+        MarlinGraphics2D g2d = null;
+
+        System.out.println("TraceReplay: " + file);
+
+        for (int pass = 0; pass < 2; pass++) {
+            final StatLong stats = new StatLong("replay");
+            final int replays = (pass == 0) ? WARMUP : n;
+
+            for (int i = 0; i < replays; i++) {
+                final FileInputStream in = new FileInputStream(file);
+                try {
+                    final TraceReader reader = new TraceReader(in.getChannel());
+                    if (image == null) {
+                        image = new BufferedImage(reader.getWidth(), reader.getHeight(),
+                                BufferedImage.TYPE_INT_ARGB_PRE);
+                        g2d = new MarlinGraphics2D(image);
+                    }
+                    g2d.reset(image);
+                    reader.setGraphics(g2d);
+
+                    long total = 0L;
+                    for (int op; (op = reader.next()) != -1;) {
+                        final long start = System.nanoTime();
+                        reader.execute();
+                        final long elapsed = System.nanoTime() - start;
+                        total += elapsed;
+                        if (pass != 0) {
+                            opStats[op].add(elapsed);
+                        }
+                    }
+                    stats.add(total / 1000L);
+                } finally {
+                    in.close();
+                }
+            }
+            System.out.println(((pass == 0) ? "warmup" : "test") + ": stats (µs): " + stats.toString());
+        }
+        if (g2d != null) {
+            g2d.dispose();
+        }
+
+        // time per call type (test replays):
+        long sum = 0L;
+        for (StatLong s : opStats) {
+            sum += s.sum;
+        }
+        System.out.println("calls: stats (ns):");
+        for (int op = 0; op < opStats.length; op++) {
+            final StatLong s = opStats[op];
+            if (s.count != 0L) {
+                System.out.println(String.format("%6.2f %% ", (100.0 * s.sum) / Math.max(1L, sum))
+                        + s.toString());
+            }
+        }
+    }
+
+    private static void paintFrame(final Graphics2D g2d, final long seed) {
+        final Random r = new Random(seed);
+        final Path2D.Float path = new Path2D.Float();
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setBackground(new Color(0xF2EFE9));
+        g2d.clearRect(0, 0, WIDTH, HEIGHT);
+
+        // areas (gradient):
+        g2d.setPaint(new GradientPaint(0f, 0f, new Color(0xAAD3DF), WIDTH, HEIGHT, new Color(0xC8FACC)));
+        for (int j = 0; j < 200; j++) {
+            path.reset();
+            final float cx = r.nextFloat() * WIDTH;
+            final float cy = r.nextFloat() * HEIGHT;
+            path.moveTo(cx, cy);
+            for (int k = 0; k < 12; k++) {
+                path.lineTo(cx + 120f * (r.nextFloat() - 0.5f), cy + 120f * (r.nextFloat() - 0.5f));
+            }
+            path.closePath();
+            g2d.fill(path);
+        }
+
+        // roads (casing + inner line) in a zoomed child graphics:
+        final Graphics2D g = (Graphics2D) g2d.create();
+        g.clipRect(64, 64, WIDTH - 128, HEIGHT - 128);
+        g.scale(1.5, 1.5);
+        final BasicStroke casing = new BasicStroke(6f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        final BasicStroke inner = new BasicStroke(4f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        for (int j = 0; j < 300; j++) {
+            path.reset();
+            float x = r.nextFloat() * WIDTH;
+            float y = r.nextFloat() * HEIGHT;
+            path.moveTo(x, y);
+            for (int k = 0; k < 10; k++) {
+                x += 60f * (r.nextFloat() - 0.5f);
+                y += 60f * (r.nextFloat() - 0.5f);
+                path.lineTo(x, y);
+            }
+            g.setStroke(casing);
+            g.setColor(Color.GRAY);
+            g.draw(path);
+            g.setStroke(inner);
+            g.setColor(Color.WHITE);
+            g.draw(path);
+        }
+        g.dispose();
+
+        // translucent points of interest:
+        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.6f));
+        g2d.setColor(Color.RED);
+        for (int j = 0; j < 500; j++) {
+            g2d.fill(new Ellipse2D.Float(r.nextFloat() * WIDTH, r.nextFloat() * HEIGHT, 9f, 9f));
+        }
+        g2d.setComposite(AlphaComposite.SrcOver);
+
+        // icons and labels:
+        final BufferedImage icon = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        g2d.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 12));
+        g2d.setColor(Color.BLACK);
+        for (int j = 0; j < 100; j++) {
+            final int x = r.nextInt(WIDTH - 64);
+            final int y = r.nextInt(HEIGHT - 16);
+            g2d.drawImage(icon, x, y, null);
+            g2d.drawString("label " + j, x + 18, y + 12);
+        }
+    }
+}
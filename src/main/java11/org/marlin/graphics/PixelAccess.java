@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Word access to byte arrays (4 bytes as one big-endian int) used by the
+ * byte-interleaved blending loops.
+ *
+ * Java 11+ implementation (multi-release jar): the VarHandle array view is
+ * intrinsified as a single (unaligned) int load / store.
+ */
+final class PixelAccess {
+
+    private static final VarHandle INT_BE
+        = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private PixelAccess() {
+        // utility class
+    }
+
+    /**
+     * @return implementation name (benchmarks)
+     */
+    static String getImplementation() {
+        return "VarHandle";
+    }
+
+    /**
+     * Read 4 bytes as a big-endian int
+     * @param a byte array
+     * @param off byte offset
+     * @return int value
+     */
+    static int getIntBE(final byte[] a, final int off) {
+        return (int) INT_BE.get(a, off);
+    }
+
+    /**
+     * Write the given int as 4 bytes (big-endian)
+     * @param a byte array
+     * @param off byte offset
+     * @param v int value
+     */
+    static void putIntBE(final byte[] a, final int off, final int v) {
+        INT_BE.set(a, off, v);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Rendering events (shape operations, tile loops) for profiling tools:
+ * callers get an event from begin*() before the operation and give it back
+ * to commit*() with its details only if it is not null.
+ *
+ * Java 11+ implementation (multi-release jar): Java Flight Recorder events
+ * (org.marlin.graphics.Shape, org.marlin.graphics.Tiles) only recorded if
+ * the operation lasted longer than their threshold (1 ms by default, see the
+ * threshold setting of the recording); when disabled, begin*() only reads the
+ * event state and returns null.
+ */
+final class RenderEvents {
+
+    @Name("org.marlin.graphics.Shape")
+    @Label("Marlin Shape")
+    @Category({"Java Application", "Marlin Graphics"})
+    @Description("Slow MarlinGraphics2D draw or fill operation")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class ShapeEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Shape Class")
+        String shapeClass;
+
+        @Label("Path Segments")
+        int segments;
+
+        @Label("Bounding Box Area")
+        @Description("Area of the device bounding box (pixels)")
+        long bboxArea;
+
+        @Label("Pipe")
+        String pipe;
+
+        @Label("Gamma Correction")
+        boolean gamma;
+
+        @Label("Fallback Reason")
+        String fallback;
+    }
+
+    @Name("org.marlin.graphics.Tiles")
+    @Label("Marlin Tiles")
+    @Category({"Java Application", "Marlin Graphics"})
+    @Description("Slow AAShapePipe tile loop (coverage tiles given to the composite pipe)")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class TilesEvent extends Event {
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Tiles")
+        int tiles;
+
+        @Label("Empty Tiles")
+        @Description("Tiles skipped (no coverage or not needed)")
+        int emptyTiles;
+
+        @Label("Full Tiles")
+        @Description("Tiles rendered with full coverage (no alpha mask)")
+        int fullTiles;
+
+        @Label("Aliased")
+        boolean aliased;
+    }
+
+    private static final EventType SHAPE_TYPE = EventType.getEventType(ShapeEvent.class);
+    private static final EventType TILES_TYPE = EventType.getEventType(TilesEvent.class);
+
+    private RenderEvents() {
+        // utility class
+    }
+
+    /**
+     * Start a shape event (draw / fill)
+     * @return event or null if disabled
+     */
+    static Object beginShape() {
+        if (!SHAPE_TYPE.isEnabled()) {
+            return null;
+        }
+        final ShapeEvent event = new ShapeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit the given shape event if the operation was slow enough
+     * @param event event given by beginShape()
+     * @param operation draw or fill
+     * @param s shape (user space)
+     * @param g2d graphics giving the transform and the pipe details
+     * @param pipe pipe given to MarlinGraphics2D.commitShapeEvent()
+     */
+    static void commitShape(final Object event, final String operation,
+                            final Shape s, final MarlinGraphics2D g2d,
+                            final String pipe) {
+        final ShapeEvent e = (ShapeEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.operation = operation;
+            e.shapeClass = s.getClass().getName();
+            e.segments = countSegments(s);
+            final Rectangle2D bbox = g2d.getTransform().createTransformedShape(s.getBounds2D()).getBounds2D();
+            e.bboxArea = (long) Math.ceil(bbox.getWidth()) * (long) Math.ceil(bbox.getHeight());
+            e.pipe = g2d.getEventPipe(pipe);
+            e.fallback = g2d.getEventFallback(pipe);
+            e.gamma = g2d.isEventGamma(e.fallback);
+            e.commit();
+        }
+    }
+
+    private static int countSegments(final Shape s) {
+        int n = 0;
+        for (final PathIterator pi = s.getPathIterator(null); !pi.isDone(); pi.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Start a tile event (AAShapePipe.renderTiles)
+     * @return event or null if disabled
+     */
+    static Object beginTiles() {
+        if (!TILES_TYPE.isEnabled()) {
+            return null;
+        }
+        final TilesEvent event = new TilesEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit the given tile event if the tile loop was slow enough
+     * @param event event given by beginTiles()
+     * @param width width of the device bounding box
+     * @param height height of the device bounding box
+     * @param tiles number of tiles
+     * @param emptyTiles number of skipped tiles (no coverage or not needed)
+     * @param fullTiles number of tiles rendered with full coverage
+     * @param aliased true if coverage was thresholded (aliased mode)
+     */
+    static void commitTiles(final Object event, final int width, final int height,
+                            final int tiles, final int emptyTiles, final int fullTiles,
+                            final boolean aliased) {
+        final TilesEvent e = (TilesEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.width = width;
+            e.height = height;
+            e.tiles = tiles;
+            e.emptyTiles = emptyTiles;
+            e.fullTiles = fullTiles;
+            e.aliased = aliased;
+            e.commit();
+        }
+    }
+}
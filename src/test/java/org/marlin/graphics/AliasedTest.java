@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Aliased rendering (MarlinGraphicsConfig.withAliased) compared pixel by
+ * pixel against java2d non-antialiased rendering (normalized strokes, or pure
+ * strokes with integer coordinates)
+ * for axis-aligned lines and rectangles on several image types.
+ */
+public class AliasedTest {
+
+    private final static int SIZE = 48;
+
+    private final static int[] TYPES = new int[]{
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB_PRE,
+        BufferedImage.TYPE_4BYTE_ABGR
+    };
+
+    /* java2d default (MarlinGraphics2D uses STROKE_PURE by default) */
+    private final static Object NORMALIZE = RenderingHints.VALUE_STROKE_NORMALIZE;
+    /* java2d pure strokes only match for integer lines and rectangles */
+    private final static Object PURE = RenderingHints.VALUE_STROKE_PURE;
+
+    private interface Painter {
+
+        void paint(Graphics2D g2d);
+    }
+
+    @Test
+    public void testDrawLine() {
+        check(NORMALIZE, "drawLine", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.drawLine(2, 10, 38, 10);
+                g2d.drawLine(10, 14, 10, 40);
+            }
+        });
+    }
+
+    @Test
+    public void testDrawLinePure() {
+        check(PURE, "drawLine (pure)", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.drawLine(2, 10, 38, 10);
+                g2d.drawLine(10, 14, 10, 40);
+                g2d.drawRect(16, 16, 24, 20);
+                g2d.fillRect(20, 20, 10, 8);
+            }
+        });
+    }
+
+    @Test
+    public void testDrawLine2D() {
+        check(NORMALIZE, "draw(Line2D)", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.draw(new Line2D.Double(2.0, 10.0, 38.0, 10.0));
+                g2d.draw(new Line2D.Double(10.0, 14.0, 10.0, 40.0));
+                g2d.draw(new Line2D.Double(2.5, 44.5, 38.5, 44.5));
+            }
+        });
+    }
+
+    @Test
+    public void testZeroWidthLine() {
+        check(NORMALIZE, "BasicStroke(0)", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.setStroke(new BasicStroke(0f));
+                g2d.drawLine(2, 10, 38, 10);
+                g2d.drawLine(10, 14, 10, 40);
+            }
+        });
+    }
+
+    @Test
+    public void testDrawRect() {
+        check(NORMALIZE, "drawRect", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.drawRect(2, 3, 30, 20);
+                g2d.draw(new Rectangle2D.Double(6.0, 26.0, 30.0, 16.0));
+            }
+        });
+    }
+
+    @Test
+    public void testFillRect() {
+        check(NORMALIZE, "fillRect", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.fillRect(2, 3, 30, 20);
+                g2d.fill(new Rectangle2D.Double(6.0, 26.0, 30.0, 16.0));
+            }
+        });
+    }
+
+    @Test
+    public void testWideLine() {
+        check(NORMALIZE, "wide lines", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.setStroke(new BasicStroke(3f));
+                g2d.drawLine(2, 10, 38, 10);
+                g2d.drawLine(10, 16, 10, 40);
+                g2d.setStroke(new BasicStroke(2f));
+                g2d.drawLine(16, 20, 40, 20);
+            }
+        });
+    }
+
+    @Test
+    public void testWideRect() {
+        check(NORMALIZE, "wide rect", new Painter() {
+            @Override
+            public void paint(final Graphics2D g2d) {
+                g2d.setStroke(new BasicStroke(3f));
+                g2d.drawRect(3, 4, 30, 20);
+            }
+        });
+    }
+
+    private static void check(final Object strokeHint, final String name,
+                              final Painter painter) {
+        for (int type : TYPES) {
+            final BufferedImage expected = new BufferedImage(SIZE, SIZE, type);
+            final Graphics2D g2d = expected.createGraphics();
+            try {
+                paint(g2d, strokeHint, painter);
+            } finally {
+                g2d.dispose();
+            }
+
+            final BufferedImage actual = new BufferedImage(SIZE, SIZE, type);
+            final MarlinGraphics2D mg2d = new MarlinGraphics2D(actual,
+                    MarlinGraphicsConfig.getDefault().withAliased(true));
+            try {
+                paint(mg2d, strokeHint, painter);
+            } finally {
+                mg2d.dispose();
+            }
+
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    final int e = expected.getRGB(x, y);
+                    final int a = actual.getRGB(x, y);
+                    if (e != a) {
+                        assertEquals(name + " (type " + type + ") pixel(" + x + ", " + y + ")",
+                                Integer.toHexString(e), Integer.toHexString(a));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void paint(final Graphics2D g2d, final Object strokeHint,
+                              final Painter painter) {
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, SIZE, SIZE);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeHint);
+        g2d.setColor(Color.BLACK);
+        painter.paint(g2d);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import static org.marlin.graphics.BlendComposite.NORM_ALPHA;
+import static org.marlin.graphics.BlendComposite.NORM_BYTE;
+import static org.marlin.graphics.BlendComposite.NORM_GAMMA;
+
+/**
+ * Exhaustive tests of the division-free arithmetic (BlendMath):
+ * approximations (x * M) >> S are monotonic so checking both ends of every
+ * quotient interval [q x d; q x d + d - 1] proves exact results on the whole
+ * input range.
+ */
+public class BlendMathTest {
+
+    @Test
+    public void testDiv255() {
+        // fade operator: sa x am x extraAlpha or sa x (am x extraAlpha)
+        for (int x = 0, max = NORM_BYTE * NORM_ALPHA; x <= max; x++) {
+            if (BlendMath.div255(x) != x / NORM_BYTE) {
+                assertEquals("div255(" + x + ")", x / NORM_BYTE, BlendMath.div255(x));
+            }
+        }
+    }
+
+    @Test
+    public void testDiv127() {
+        for (int x = 0; x <= NORM_ALPHA; x++) {
+            if (BlendMath.div127(x) != x / 127) {
+                assertEquals("div127(" + x + ")", x / 127, BlendMath.div127(x));
+            }
+        }
+    }
+
+    @Test
+    public void testDivNormAlpha() {
+        // fd = Da x (1 - Sa) and opaque kernels: [0; 32767 x 32385]
+        final int max = NORM_GAMMA * NORM_ALPHA;
+        for (int q = 0; q <= max / NORM_ALPHA; q++) {
+            checkDivNormAlpha(q * NORM_ALPHA, max);
+            checkDivNormAlpha(q * NORM_ALPHA + NORM_ALPHA - 1, max);
+        }
+    }
+
+    private static void checkDivNormAlpha(final int x, final int max) {
+        if ((x <= max) && (BlendMath.divNormAlpha(x) != x / NORM_ALPHA)) {
+            assertEquals("divNormAlpha(" + x + ")", x / NORM_ALPHA, BlendMath.divNormAlpha(x));
+        }
+    }
+
+    @Test
+    public void testDivAlpha() {
+        // color components: (S x fs + D x fd) / alpha with S, D <= 32767
+        // and fs + fd = alpha ie x in [0; 32767 x alpha]
+        for (int d = 1; d <= NORM_ALPHA; d++) {
+            final long recip = BlendMath.RECIP_ALPHA[d];
+
+            for (int q = 0; q <= NORM_GAMMA; q++) {
+                final int lo = q * d;
+                final int hi = lo + d - 1;
+
+                if ((BlendMath.divAlpha(lo, recip) != q) || (BlendMath.divAlpha(hi, recip) != q)) {
+                    assertEquals("divAlpha(" + lo + ", " + d + ")", q, BlendMath.divAlpha(lo, recip));
+                    assertEquals("divAlpha(" + hi + ", " + d + ")", q, BlendMath.divAlpha(hi, recip));
+                }
+            }
+        }
+    }
+}
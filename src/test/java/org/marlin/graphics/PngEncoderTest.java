@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package org.marlin.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import org.junit.Test;
+
+/**
+ * Round-trip tests of the PngEncoder: images spanning several row groups
+ * (deflated in parallel then concatenated) are decoded by ImageIO and
+ * compared pixel by pixel.
+ */
+public class PngEncoderTest {
+
+    /* 2049 bytes per row: about 128 rows per group (5 groups) */
+    private final static int WIDTH = 512;
+    private final static int HEIGHT = 600;
+
+    @Test
+    public void testParallelARGB() throws IOException {
+        checkRoundTrip(BufferedImage.TYPE_INT_ARGB, 4);
+    }
+
+    @Test
+    public void testSerialARGB() throws IOException {
+        checkRoundTrip(BufferedImage.TYPE_INT_ARGB, 1);
+    }
+
+    @Test
+    public void testParallelRGB() throws IOException {
+        checkRoundTrip(BufferedImage.TYPE_INT_RGB, 4);
+    }
+
+    private static void checkRoundTrip(final int type, final int parallelism) throws IOException {
+        final BufferedImage image = createImage(type);
+
+        final PngEncoder encoder = new PngEncoder(parallelism, PngEncoder.DEFAULT_COMPRESSION_LEVEL);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encoder.encode(image, out);
+        } finally {
+            encoder.dispose();
+        }
+
+        final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull("decoded image", decoded);
+        assertEquals("width", WIDTH, decoded.getWidth());
+        assertEquals("height", HEIGHT, decoded.getHeight());
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int expected = image.getRGB(x, y);
+                final int actual = decoded.getRGB(x, y);
+                if (expected != actual) {
+                    assertEquals("pixel(" + x + ", " + y + ")",
+                            Integer.toHexString(expected), Integer.toHexString(actual));
+                }
+            }
+        }
+    }
+
+    /**
+     * Flat runs (deflate matches across groups) mixed with random pixels
+     * and alpha values
+     */
+    private static BufferedImage createImage(final int type) {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        final Random r = new Random(1L);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int argb;
+                if (((x >> 5) + (y >> 5)) % 3 == 0) {
+                    argb = r.nextInt();
+                } else {
+                    argb = 0x80336699 + ((y >> 4) << 8);
+                }
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+}